@@ -0,0 +1,139 @@
+package org.humbird.soa.benchmarks;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.humbird.soa.common.utils.LRUCache;
+import org.humbird.soa.common.utils.LRUSoftCache;
+import org.humbird.soa.common.utils.LRUWeakCache;
+import org.humbird.soa.core.cache.*;
+import org.humbird.soa.core.util.KeyUtil;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The caches under benchmark behind one get and put, created by the name of a
+ * {@code local.cache} setting or of a commons LRU map.
+ * <p/>
+ * Every local cache holds at most the given capacity of entries. memcached runs against a
+ * {@link FakeMemcachedServer} on the port of {@code /cache/benchmark-memcached.properties}.
+ *
+ * Created by david on 15/5/3.
+ */
+public abstract class BenchmarkCache {
+
+    public static final String JVM = KeyUtil.LOCAL_CACHE_JVM;
+
+    public static final String OFFHEAP = KeyUtil.LOCAL_CACHE_OFFHEAP;
+
+    public static final String EHCACHE = KeyUtil.LOCAL_CACHE_EHCACHE;
+
+    public static final String LRU = "lru";
+
+    public static final String LRU_SOFT = "lrusoft";
+
+    public static final String LRU_WEAK = "lruweak";
+
+    public static final String MEMCACHED = KeyUtil.METADATA_CACHE_MEMCACHED;
+
+    private static final String NAME = "benchmark";
+
+    private static final String MEMCACHED_PATH = "/cache/benchmark-memcached.properties";
+
+    public abstract Object get(String key) throws Exception;
+
+    public abstract void put(String key, Object value) throws Exception;
+
+    public void close() throws Exception {
+        //
+    }
+
+    public static BenchmarkCache create(String type, int capacity) throws Exception {
+        if (JVM.equals(type)) {
+            JAVACacheWrapper<String, Object> cache = new JAVACacheWrapper<String, Object>(NAME, "/cache/benchmark-jvm.properties");
+            CacheContext<String> context = new CacheContext<String>(0);
+            context.setEvictionPolicy(KeyUtil.POLICY_TINYLFU, capacity, 1);
+            cache.addCache(NAME, context);
+            cache.switchCache(NAME);
+            return of(cache);
+        } else if (OFFHEAP.equals(type)) {
+            return of(new OffHeapCacheWrapper<String, Object>(NAME, "/cache/benchmark-offheap.properties"));
+        } else if (EHCACHE.equals(type)) {
+            final CacheManager manager = new CacheManager(new Configuration().name("humbird-benchmark"));
+            manager.addCache(new net.sf.ehcache.Cache(new CacheConfiguration(NAME, capacity).eternal(true)));
+            return new Wrapper(new EHCacheWrapper<String, Object>(NAME, manager)) {
+                @Override
+                public void close() {
+                    manager.shutdown();
+                }
+            };
+        } else if (LRU.equals(type)) {
+            return of(new LRUCache<String, Object>(capacity, capacity, false));
+        } else if (LRU_SOFT.equals(type)) {
+            return of(new LRUSoftCache<String, Object>(capacity, capacity, false));
+        } else if (LRU_WEAK.equals(type)) {
+            return of(new LRUWeakCache<String, Object>(capacity, capacity));
+        } else if (MEMCACHED.equals(type)) {
+            final FakeMemcachedServer server = new FakeMemcachedServer(memcachedPort());
+            server.start();
+            return new Wrapper(new MEMCacheWrapper<String, Object>(MEMCACHED_PATH)) {
+                @Override
+                public void close() {
+                    server.stop();
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown cache " + type);
+    }
+
+    private static int memcachedPort() throws Exception {
+        Properties properties = new Properties();
+        InputStream in = BenchmarkCache.class.getResourceAsStream(MEMCACHED_PATH);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        String server = properties.getProperty("org.humbird.soa.cache.memcached.server");
+        return Integer.parseInt(server.substring(server.lastIndexOf(':') + 1).trim());
+    }
+
+    private static BenchmarkCache of(Cache<String, Object> cache) {
+        return new Wrapper(cache);
+    }
+
+    private static BenchmarkCache of(final Map<String, Object> map) {
+        return new BenchmarkCache() {
+            @Override
+            public Object get(String key) {
+                return map.get(key);
+            }
+
+            @Override
+            public void put(String key, Object value) {
+                map.put(key, value);
+            }
+        };
+    }
+
+    private static class Wrapper extends BenchmarkCache {
+
+        private final Cache<String, Object> cache;
+
+        Wrapper(Cache<String, Object> cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public Object get(String key) throws Exception {
+            return cache.get(key);
+        }
+
+        @Override
+        public void put(String key, Object value) throws Exception {
+            cache.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.humbird.soa.benchmarks;
+
+import org.humbird.soa.core.cache.CacheContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each cache under a mix of reads and writes over Zipfian distributed keys, at
+ * 1, 4 and 16 threads. Values are a {@link CacheContext} holding one payload of the value
+ * size, the shape of the metadata entries, so the serializing caches pay their real cost.
+ * <p/>
+ * Build with {@code mvn package} and run for instance
+ * {@code java -jar target/benchmarks.jar CacheBenchmark -p cache=jvm,offheap -p readPercent=90}.
+ *
+ * Created by david on 15/5/3.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-XX:MaxDirectMemorySize=1g"})
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+
+    // a power of two, threads walk it with a mask
+    private static final int SEQUENCE = 1 << 16;
+
+    @Param({BenchmarkCache.JVM, BenchmarkCache.OFFHEAP, BenchmarkCache.EHCACHE, BenchmarkCache.LRU,
+            BenchmarkCache.LRU_SOFT, BenchmarkCache.LRU_WEAK, BenchmarkCache.MEMCACHED})
+    public String cache;
+
+    @Param({"100", "90", "50"})
+    public int readPercent;
+
+    @Param({"64", "1024", "16384"})
+    public int valueSize;
+
+    @Param({"10000"})
+    public int keys;
+
+    // capacity of the local caches in percent of the keys, below 100 the policy has to evict
+    @Param({"50"})
+    public int capacityPercent;
+
+    @Param({"0.99"})
+    public double skew;
+
+    private BenchmarkCache target;
+
+    private String[] names;
+
+    private int[] sequence;
+
+    private CacheContext<String> value;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        target = BenchmarkCache.create(cache, Math.max(1, keys * capacityPercent / 100));
+        names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = "benchmark#" + i;
+        }
+        value = new CacheContext<String>(0);
+        value.putSession("payload", value.newSession("payload", new byte[valueSize]));
+        for (String name : names) {
+            target.put(name, value);
+        }
+        sequence = new ZipfianGenerator(keys, skew).sequence(SEQUENCE, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        target.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int position;
+
+        private int seed;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            seed = (int) System.nanoTime() | 1;
+            position = seed & (SEQUENCE - 1);
+        }
+
+        int nextKey() {
+            return position++ & (SEQUENCE - 1);
+        }
+
+        // xorshift, cheap enough to not show in the measurement
+        int nextPercent() {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            return (seed & Integer.MAX_VALUE) % 100;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void oneThread(Cursor cursor, Blackhole blackhole) throws Exception {
+        operate(cursor, blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void fourThreads(Cursor cursor, Blackhole blackhole) throws Exception {
+        operate(cursor, blackhole);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void sixteenThreads(Cursor cursor, Blackhole blackhole) throws Exception {
+        operate(cursor, blackhole);
+    }
+
+    private void operate(Cursor cursor, Blackhole blackhole) throws Exception {
+        String name = names[sequence[cursor.nextKey()]];
+        if (cursor.nextPercent() < readPercent) {
+            blackhole.consume(target.get(name));
+        } else {
+            target.put(name, value);
+        }
+    }
+}
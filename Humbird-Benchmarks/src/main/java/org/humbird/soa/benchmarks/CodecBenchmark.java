@@ -0,0 +1,107 @@
+package org.humbird.soa.benchmarks;
+
+import org.humbird.soa.common.model.common.PropsModel;
+import org.humbird.soa.core.HumbirdSession;
+import org.humbird.soa.core.cache.CacheContext;
+import org.humbird.soa.core.cache.JavaValueCodec;
+import org.humbird.soa.core.cache.RecordValueCodec;
+import org.humbird.soa.core.cache.ValueCodec;
+import org.humbird.soa.core.model.IndexModel;
+import org.humbird.soa.core.model.PropertyModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode time of a metadata {@link CacheContext} with the record codec and with
+ * java serialization, the custom folders of the shape given by the parameters and an index
+ * of fifty properties. The payload size of each codec is printed once per trial, before the
+ * first iteration.
+ * <p/>
+ * Build with {@code mvn package} and run for instance
+ * {@code java -jar target/benchmarks.jar CodecBenchmark -p folders=50}.
+ *
+ * Created by david on 15/5/3.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g"})
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    public static final String JAVA = "java";
+
+    public static final String RECORD = "record";
+
+    @Param({JAVA, RECORD})
+    public String codec;
+
+    @Param({"10"})
+    public int folders;
+
+    @Param({"5"})
+    public int files;
+
+    @Param({"40"})
+    public int props;
+
+    private ValueCodec target;
+
+    private CacheContext<String> value;
+
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        target = JAVA.equals(codec) ? new JavaValueCodec() : new RecordValueCodec();
+        value = metadata(folders, files, props);
+        bytes = target.encode(value);
+        System.out.println(String.format("%s codec, %d folders x %d files x %d properties, payload %d bytes",
+                codec, folders, files, props, bytes.length));
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        return target.encode(value);
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return target.decode(bytes);
+    }
+
+    private static CacheContext<String> metadata(int folders, int files, int props) {
+        Map<String, Map<String, PropertyModel>> custom = new HashMap<String, Map<String, PropertyModel>>();
+        for (int f = 0; f < folders; f++) {
+            String folder = "folder" + f;
+            Map<String, PropertyModel> models = new HashMap<String, PropertyModel>();
+            for (int i = 0; i < files; i++) {
+                String file = "file" + i + ".properties";
+                PropsModel propsModel = new PropsModel();
+                for (int p = 0; p < props; p++) {
+                    if (p % 10 == 0) {
+                        propsModel.add("# section " + p + " of " + file);
+                    }
+                    propsModel.add("org.humbird.soa." + folder + ".key" + p + " = value-" + p);
+                }
+                models.put(folder + "/" + file, new PropertyModel(folder, file, "k" + f, propsModel, 0));
+            }
+            custom.put(folder, models);
+        }
+
+        Properties properties = new Properties();
+        for (int p = 0; p < 50; p++) {
+            properties.put("org.humbird.soa.default.key" + p, "value" + p);
+        }
+
+        CacheContext<String> context = new CacheContext<String>(0);
+        context.getMap().put("custom", new HumbirdSession("1.0", custom));
+        context.getMap().put("index", new HumbirdSession("1.0", new IndexModel(null, properties, new HashMap(properties))));
+        return context;
+    }
+}
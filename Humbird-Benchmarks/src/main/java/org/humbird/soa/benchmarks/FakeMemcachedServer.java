@@ -0,0 +1,324 @@
+package org.humbird.soa.benchmarks;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In process stand in for a memcached server speaking the binary protocol, enough of it for
+ * xmemcached as {@link org.humbird.soa.core.cache.MEMCacheWrapper} uses it: get, set, add,
+ * replace and delete with their quiet and keyed variants, noop, version, flush and quit.
+ * <p/>
+ * Items live in a concurrent map, one thread serves each connection. Replies are flushed once
+ * the pending requests are read, so pipelined multi gets go out in one write. It measures the
+ * client, codec and loopback cost, not a real server.
+ *
+ * Created by david on 15/5/3.
+ */
+public class FakeMemcachedServer {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(FakeMemcachedServer.class);
+
+    private static final int REQUEST = 0x80;
+
+    private static final int RESPONSE = 0x81;
+
+    private static final int GET = 0x00, SET = 0x01, ADD = 0x02, REPLACE = 0x03, DELETE = 0x04;
+
+    private static final int QUIT = 0x07, FLUSH = 0x08, GETQ = 0x09, NOOP = 0x0a, VERSION = 0x0b;
+
+    private static final int GETK = 0x0c, GETKQ = 0x0d, STAT = 0x10, SETQ = 0x11, ADDQ = 0x12;
+
+    private static final int REPLACEQ = 0x13, DELETEQ = 0x14, QUITQ = 0x17, FLUSHQ = 0x18;
+
+    private static final int OK = 0x0000, NOT_FOUND = 0x0001, EXISTS = 0x0002, NOT_STORED = 0x0005;
+
+    private static final int UNKNOWN = 0x0081;
+
+    // memcached reads larger expirations as unix times
+    private static final int RELATIVE_EXPIRATION_MAX = 60 * 60 * 24 * 30;
+
+    private final ConcurrentMap<String, Item> items = new ConcurrentHashMap<String, Item>();
+
+    private final AtomicLong cas = new AtomicLong();
+
+    private final int port;
+
+    private volatile ServerSocket serverSocket;
+
+    public FakeMemcachedServer(int port) {
+        this.port = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+        Thread acceptor = new Thread("humbird-fake-memcached-" + port) {
+            @Override
+            public void run() {
+                accept();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOGGER.info("fake memcached listening on 127.0.0.1:{}", port);
+    }
+
+    public synchronized void stop() {
+        ServerSocket socket = serverSocket;
+        serverSocket = null;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing
+            }
+        }
+        items.clear();
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    private void accept() {
+        ServerSocket socket;
+        while ((socket = serverSocket) != null) {
+            try {
+                final Socket connection = socket.accept();
+                connection.setTcpNoDelay(true);
+                Thread worker = new Thread("humbird-fake-memcached-connection") {
+                    @Override
+                    public void run() {
+                        serve(connection);
+                    }
+                };
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                if (serverSocket != null) {
+                    LOGGER.warn("fake memcached accept failed, " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 65536));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(), 65536));
+            byte[] header = new byte[24];
+            while (true) {
+                in.readFully(header);
+                if ((header[0] & 0xff) != REQUEST) {
+                    throw new IOException("bad magic " + (header[0] & 0xff));
+                }
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(header));
+                fields.skipBytes(1);
+                int opcode = fields.readUnsignedByte();
+                int keyLength = fields.readUnsignedShort();
+                int extrasLength = fields.readUnsignedByte();
+                fields.skipBytes(3);
+                int bodyLength = fields.readInt();
+                int opaque = fields.readInt();
+                long requestCas = fields.readLong();
+
+                byte[] extras = new byte[extrasLength];
+                in.readFully(extras);
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                byte[] value = new byte[bodyLength - keyLength - extrasLength];
+                in.readFully(value);
+
+                if (!handle(opcode, opaque, requestCas, extras, key, value, out)) {
+                    out.flush();
+                    break;
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (EOFException e) {
+            // client closed
+        } catch (SocketException e) {
+            // client closed
+        } catch (IOException e) {
+            LOGGER.warn("fake memcached connection failed, " + e.getMessage());
+        } finally {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // closing
+            }
+        }
+    }
+
+    /**
+     * @return false once the connection is to be closed
+     */
+    private boolean handle(int opcode, int opaque, long requestCas, byte[] extras, byte[] key, byte[] value,
+                           DataOutputStream out) throws IOException {
+        String name = new String(key, "UTF-8");
+        switch (opcode) {
+            case GET:
+            case GETQ:
+            case GETK:
+            case GETKQ: {
+                Item item = live(name);
+                boolean quiet = opcode == GETQ || opcode == GETKQ;
+                boolean withKey = opcode == GETK || opcode == GETKQ;
+                if (item != null) {
+                    byte[] flags = new byte[4];
+                    writeInt(flags, item.flags);
+                    respond(out, opcode, opaque, OK, item.cas, flags, withKey ? key : new byte[0], item.value);
+                } else if (!quiet) {
+                    respond(out, opcode, opaque, NOT_FOUND, 0, new byte[0], withKey ? key : new byte[0], new byte[0]);
+                }
+                return true;
+            }
+            case SET:
+            case SETQ:
+            case ADD:
+            case ADDQ:
+            case REPLACE:
+            case REPLACEQ: {
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(extras));
+                int flags = fields.readInt();
+                int expiration = fields.readInt();
+                boolean quiet = opcode == SETQ || opcode == ADDQ || opcode == REPLACEQ;
+                Item item = new Item(flags, value, cas.incrementAndGet(), expires(expiration));
+                int status = store(opcode, name, item, requestCas);
+                if (!quiet || status != OK) {
+                    respond(out, opcode, opaque, status, status == OK ? item.cas : 0, new byte[0], new byte[0], new byte[0]);
+                }
+                return true;
+            }
+            case DELETE:
+            case DELETEQ: {
+                boolean removed = items.remove(name) != null;
+                if (opcode == DELETE) {
+                    respond(out, opcode, opaque, removed ? OK : NOT_FOUND, 0, new byte[0], new byte[0], new byte[0]);
+                }
+                return true;
+            }
+            case FLUSH:
+            case FLUSHQ:
+                items.clear();
+                if (opcode == FLUSH) {
+                    respond(out, opcode, opaque, OK, 0, new byte[0], new byte[0], new byte[0]);
+                }
+                return true;
+            case NOOP:
+                respond(out, opcode, opaque, OK, 0, new byte[0], new byte[0], new byte[0]);
+                return true;
+            case VERSION:
+                respond(out, opcode, opaque, OK, 0, new byte[0], new byte[0], "1.4.0-fake".getBytes("UTF-8"));
+                return true;
+            case STAT:
+                respond(out, opcode, opaque, OK, 0, new byte[0], "curr_items".getBytes("UTF-8"),
+                        String.valueOf(items.size()).getBytes("UTF-8"));
+                respond(out, opcode, opaque, OK, 0, new byte[0], new byte[0], new byte[0]);
+                return true;
+            case QUIT:
+            case QUITQ:
+                if (opcode == QUIT) {
+                    respond(out, opcode, opaque, OK, 0, new byte[0], new byte[0], new byte[0]);
+                }
+                return false;
+            default:
+                respond(out, opcode, opaque, UNKNOWN, 0, new byte[0], new byte[0], new byte[0]);
+                return true;
+        }
+    }
+
+    private int store(int opcode, String name, Item item, long requestCas) {
+        if (opcode == ADD || opcode == ADDQ) {
+            // live drops an expired item first, so it does not block the add
+            if (live(name) != null) {
+                return NOT_STORED;
+            }
+            return items.putIfAbsent(name, item) == null ? OK : NOT_STORED;
+        }
+        Item old = live(name);
+        if ((opcode == REPLACE || opcode == REPLACEQ) && old == null) {
+            return NOT_FOUND;
+        }
+        if (requestCas != 0 && (old == null || old.cas != requestCas)) {
+            return old == null ? NOT_FOUND : EXISTS;
+        }
+        items.put(name, item);
+        return OK;
+    }
+
+    private Item live(String name) {
+        Item item = items.get(name);
+        if (item != null && item.expires > 0 && item.expires < System.currentTimeMillis()) {
+            items.remove(name, item);
+            return null;
+        }
+        return item;
+    }
+
+    private static long expires(int expiration) {
+        if (expiration == 0) {
+            return 0;
+        }
+        return expiration > RELATIVE_EXPIRATION_MAX
+                ? expiration * 1000L
+                : System.currentTimeMillis() + expiration * 1000L;
+    }
+
+    private static void respond(DataOutputStream out, int opcode, int opaque, int status, long cas,
+                                byte[] extras, byte[] key, byte[] value) throws IOException {
+        out.writeByte(RESPONSE);
+        out.writeByte(opcode);
+        out.writeShort(key.length);
+        out.writeByte(extras.length);
+        out.writeByte(0);
+        out.writeShort(status);
+        out.writeInt(extras.length + key.length + value.length);
+        out.writeInt(opaque);
+        out.writeLong(cas);
+        out.write(extras);
+        out.write(key);
+        out.write(value);
+    }
+
+    private static void writeInt(byte[] bytes, int value) {
+        bytes[0] = (byte) (value >>> 24);
+        bytes[1] = (byte) (value >>> 16);
+        bytes[2] = (byte) (value >>> 8);
+        bytes[3] = (byte) value;
+    }
+
+    private static final class Item {
+
+        final int flags;
+
+        final byte[] value;
+
+        final long cas;
+
+        final long expires;
+
+        Item(int flags, byte[] value, long cas, long expires) {
+            this.flags = flags;
+            this.value = value;
+            this.cas = cas;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.humbird.soa.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Zipfian distributed integers in [0, items), item 0 being the most popular, after Gray et
+ * al. "Quickly generating billion-record synthetic databases" as used by YCSB. A skew of
+ * 0.99 sends about half of the reads to the hottest 1% of a few thousand keys.
+ * <p/>
+ * Keys are drawn ahead into an array, so taking the next one costs no more than an array read
+ * inside the measured loop.
+ *
+ * Created by david on 15/5/3.
+ */
+public class ZipfianGenerator {
+
+    private final int items;
+
+    private final double theta;
+
+    private final double zeta2;
+
+    private final double alpha;
+
+    private final double zetan;
+
+    private final double eta;
+
+    public ZipfianGenerator(int items, double theta) {
+        this.items = items;
+        this.theta = theta;
+        this.zeta2 = zeta(2, theta);
+        this.zetan = zeta(items, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+    }
+
+    public int next(Random random) {
+        double u = random.nextDouble();
+        double uz = u * zetan;
+        if (uz < 1.0) {
+            return 0;
+        }
+        if (uz < 1.0 + Math.pow(0.5, theta)) {
+            return 1;
+        }
+        return Math.min(items - 1, (int) (items * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    /**
+     * @param count a power of two, so callers can wrap around with a mask
+     */
+    public int[] sequence(int count, long seed) {
+        Random random = new Random(seed);
+        int[] sequence = new int[count];
+        for (int i = 0; i < count; i++) {
+            sequence[i] = next(random);
+        }
+        return sequence;
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, theta);
+        }
+        return sum;
+    }
+}
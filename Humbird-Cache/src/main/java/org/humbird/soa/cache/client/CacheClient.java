@@ -0,0 +1,177 @@
+package org.humbird.soa.cache.client;
+
+import org.humbird.soa.cache.data.HumbirdSession;
+import org.humbird.soa.cache.data.SessionCodec;
+import org.humbird.soa.cache.proto.ClientReply;
+import org.humbird.soa.cache.proto.ClientRequest;
+import org.humbird.soa.cache.server.persistence.Util;
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.common.io.BinaryInputArchive;
+import org.humbird.soa.common.io.BinaryOutputArchive;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * A connection to one server of a cache, standalone or replicated, on its {@code clientPort}.
+ * <p/>
+ * Reads are answered by the server connected to from its own entries, writes return once
+ * the leader committed them. When the connection breaks the request is sent again to the
+ * next server, every server is tried once. The requests are idempotent, a write that was
+ * applied before the connection broke is simply applied again. A failure reported by the
+ * server is thrown as is.
+ * <p/>
+ * Requests of several threads are sent one after the other over the connection.
+ *
+ * Created by david on 15/6/12.
+ */
+public class CacheClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CacheClient.class);
+
+    private static final long SPIN_DELAY = 1000;
+
+    private final HostProvider hostProvider;
+
+    private final int timeout;
+
+    private Socket sock;
+
+    private InputArchive in;
+
+    private OutputArchive out;
+
+    private BufferedOutputStream bufferedOutput;
+
+    private int xid = 0;
+
+    /**
+     * @param servers {@code host:port} of the client ports, comma separated
+     * @param timeout milliseconds to connect and to wait for an answer
+     */
+    public CacheClient(String servers, int timeout) {
+        this(StaticHostProvider.parse(servers), timeout);
+    }
+
+    public CacheClient(HostProvider hostProvider, int timeout) {
+        this.hostProvider = hostProvider;
+        this.timeout = timeout;
+    }
+
+    public HumbirdSession get(String key) throws IOException {
+        byte[] value = getValue(key);
+        return value == null ? null : (HumbirdSession) SessionCodec.deserialize(value);
+    }
+
+    public byte[] getValue(String key) throws IOException {
+        return submit(ClientRequest.GET, key, null).getValue();
+    }
+
+    public void put(String key, HumbirdSession session) throws IOException {
+        putValue(key, SessionCodec.serialize(session));
+    }
+
+    public void putValue(String key, byte[] value) throws IOException {
+        // the server would drop the connection on a value it can not read
+        Util.checkTxnSize(Util.txnEntrySize(new CacheTxn(key, value)));
+        submit(ClientRequest.PUT, key, value);
+    }
+
+    public void remove(String key) throws IOException {
+        submit(ClientRequest.REMOVE, key, null);
+    }
+
+    public void clear() throws IOException {
+        submit(ClientRequest.CLEAR, null, null);
+    }
+
+    public List<String> getKeys() throws IOException {
+        return submit(ClientRequest.KEYS, null, null).getKeys();
+    }
+
+    public int size() throws IOException {
+        return submit(ClientRequest.SIZE, null, null).getCount();
+    }
+
+    /**
+     * @return the server connected to, null when there is no connection
+     */
+    public synchronized InetSocketAddress getServer() {
+        return sock == null ? null : (InetSocketAddress) sock.getRemoteSocketAddress();
+    }
+
+    public synchronized void close() {
+        disconnect();
+    }
+
+    private synchronized ClientReply submit(int type, String key, byte[] value) throws IOException {
+        IOException failure = null;
+        for (int tries = 0; tries < hostProvider.size(); tries++) {
+            ClientRequest request = new ClientRequest(++xid, type, key, value);
+            ClientReply reply = new ClientReply();
+            try {
+                if (sock == null) {
+                    connect();
+                }
+                out.writeRecord(request, "request");
+                bufferedOutput.flush();
+                in.readRecord(reply, "reply");
+                if (reply.getXid() != request.getXid()) {
+                    throw new IOException("Got the reply " + reply.getXid() + " to the request " + request.getXid());
+                }
+            } catch (IOException e) {
+                LOG.warn("Lost the connection to " + getServer() + ", " + e.getMessage());
+                failure = e;
+                disconnect();
+                continue;
+            }
+            if (reply.getErr() != ClientReply.OK) {
+                throw new IOException(reply.getMessage());
+            }
+            return reply;
+        }
+        throw new IOException("No server of " + hostProvider.size() + " answered", failure);
+    }
+
+    private void connect() throws IOException {
+        InetSocketAddress addr = hostProvider.next(SPIN_DELAY);
+        Socket s = new Socket();
+        try {
+            s.setSoTimeout(timeout);
+            s.setTcpNoDelay(true);
+            s.connect(addr, timeout);
+            in = BinaryInputArchive.getArchive(new BufferedInputStream(s.getInputStream()));
+            bufferedOutput = new BufferedOutputStream(s.getOutputStream());
+            out = BinaryOutputArchive.getArchive(bufferedOutput);
+        } catch (IOException e) {
+            s.close();
+            throw new IOException("Unable to connect to " + addr + ", " + e.getMessage(), e);
+        }
+        sock = s;
+        hostProvider.onConnected();
+        LOG.info("Connected to " + addr);
+    }
+
+    private void disconnect() {
+        if (sock == null) {
+            return;
+        }
+        try {
+            sock.close();
+        } catch (IOException e) {
+            LOG.debug("Ignoring exception during close", e);
+        }
+        sock = null;
+        in = null;
+        out = null;
+        bufferedOutput = null;
+    }
+}
@@ -0,0 +1,82 @@
+package org.humbird.soa.cache.client;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The servers of a fixed list, in a random order so the clients spread over them. Once all of
+ * them were tried without a connection, the next one waits the spin delay.
+ *
+ * Created by david on 15/6/12.
+ */
+public class StaticHostProvider implements HostProvider {
+
+    private final List<InetSocketAddress> serverAddresses;
+
+    private int lastIndex = -1;
+
+    private int currentIndex = -1;
+
+    public StaticHostProvider(Collection<InetSocketAddress> serverAddresses) {
+        if (serverAddresses.isEmpty()) {
+            throw new IllegalArgumentException("A HostProvider may not be empty!");
+        }
+        this.serverAddresses = new ArrayList<InetSocketAddress>(serverAddresses);
+        Collections.shuffle(this.serverAddresses);
+    }
+
+    /**
+     * @param servers {@code host:port} of the servers, comma separated
+     */
+    public static StaticHostProvider parse(String servers) {
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+        for (String server : servers.split(",")) {
+            server = server.trim();
+            if (server.length() == 0) {
+                continue;
+            }
+            int colon = server.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException(server + " is not host:port");
+            }
+            addresses.add(new InetSocketAddress(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1))));
+        }
+        return new StaticHostProvider(addresses);
+    }
+
+    @Override
+    public synchronized int size() {
+        return serverAddresses.size();
+    }
+
+    @Override
+    public InetSocketAddress next(long spinDelay) {
+        boolean wait;
+        InetSocketAddress next;
+        synchronized (this) {
+            currentIndex = (currentIndex + 1) % serverAddresses.size();
+            wait = currentIndex == lastIndex && spinDelay > 0;
+            if (lastIndex == -1) {
+                // first round
+                lastIndex = 0;
+            }
+            next = serverAddresses.get(currentIndex);
+        }
+        if (wait) {
+            try {
+                Thread.sleep(spinDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public synchronized void onConnected() {
+        lastIndex = currentIndex;
+    }
+}
@@ -23,6 +23,8 @@ public interface Cache<K, V> {
 
     public List getKeys() throws Exception;
 
+    public List getKeys(String prefix) throws Exception;
+
     public boolean remove(String paramK) throws Exception;
 
     public boolean clear() throws Exception;
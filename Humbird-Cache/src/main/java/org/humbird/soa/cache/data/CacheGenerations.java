@@ -0,0 +1,182 @@
+package org.humbird.soa.cache.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Double buffered values, the current generation readers see and the next one of a reload.
+ * <p/>
+ * A reload builds the next generation off to the side with {@link #prepare}, readers keep the
+ * current one the whole time. {@link #switchTo} makes it current with a single reference flip,
+ * a reader sees either all of the old generation or all of the new one, never a half loaded
+ * cache. The old generation is cleared once the readers still holding it released it.
+ * <p/>
+ * Across a cluster every member prepares the version first and switches when the master tells
+ * it every member has it, the UPDATE, WAIT_SWITCH and SWITCH replies of the cache feedback. A
+ * round the master gave up on is dropped with {@link #abort}.
+ *
+ * Created by david on 15/6/16.
+ */
+public class CacheGenerations<V> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheGenerations.class);
+
+    private final AtomicReference<Generation<V>> current = new AtomicReference<Generation<V>>(
+            new Generation<V>(-1, new HashMap<String, V>()));
+
+    private Generation<V> prepared;
+
+    /**
+     * Builds the generation of the version from a copy of the values, a prepared generation
+     * of another version is dropped.
+     */
+    public synchronized void prepare(int version, Map<String, V> values) {
+        if (prepared != null && prepared.version != version) {
+            LOGGER.info("Dropping prepared generation " + prepared.version + " for " + version);
+        }
+        prepared = new Generation<V>(version, new HashMap<String, V>(values));
+    }
+
+    /**
+     * Drops the prepared generation of the version, readers stay on the current one.
+     *
+     * @return false if the version was not prepared
+     */
+    public synchronized boolean abort(int version) {
+        if (prepared == null || prepared.version != version) {
+            return false;
+        }
+        prepared = null;
+        LOGGER.info("Dropped generation " + version + ", staying on " + current.get().version);
+        return true;
+    }
+
+    /**
+     * @return the version prepared and not switched to yet, -1 if none
+     */
+    public synchronized int getPreparedVersion() {
+        return prepared == null ? -1 : prepared.version;
+    }
+
+    /**
+     * Makes the prepared generation of the version the current one.
+     *
+     * @return the generation readers leave, it clears itself once they released it, null if
+     * the version was not prepared
+     */
+    public synchronized Generation<V> switchTo(int version) {
+        if (prepared == null || prepared.version != version) {
+            LOGGER.warn("Generation " + version + " is not prepared, staying on " + current.get().version);
+            return null;
+        }
+        Generation<V> old = current.getAndSet(prepared);
+        prepared = null;
+        old.retire();
+        LOGGER.info("Switched from generation " + old.version + " to " + version);
+        return old;
+    }
+
+    /**
+     * Takes the current generation for a number of reads, it stays whole until
+     * {@link Generation#release()}.
+     */
+    public Generation<V> acquire() {
+        while (true) {
+            Generation<V> g = current.get();
+            g.readers.incrementAndGet();
+            // a switch in between may already have retired it
+            if (current.get() == g) {
+                return g;
+            }
+            g.release();
+        }
+    }
+
+    public V get(String key) {
+        Generation<V> g = acquire();
+        try {
+            return g.get(key);
+        } finally {
+            g.release();
+        }
+    }
+
+    public int getVersion() {
+        return current.get().version;
+    }
+
+    /**
+     * One generation of values, never changed after it was prepared.
+     */
+    public static final class Generation<V> {
+
+        private final int version;
+
+        private final Map<String, V> values;
+
+        // one for being current, readers add theirs, zero only once retired and drained
+        private final AtomicInteger readers = new AtomicInteger(1);
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Generation(int version, Map<String, V> values) {
+            this.version = version;
+            this.values = values;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public V get(String key) {
+            return values.get(key);
+        }
+
+        public Set<String> keys() {
+            return Collections.unmodifiableSet(values.keySet());
+        }
+
+        public int size() {
+            return values.size();
+        }
+
+        public void release() {
+            if (readers.decrementAndGet() == 0) {
+                free();
+            }
+        }
+
+        void retire() {
+            release();
+        }
+
+        private void free() {
+            if (released.compareAndSet(false, true)) {
+                values.clear();
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Waits until the readers of a retired generation released it.
+         *
+         * @return false if some still hold it after the timeout
+         */
+        public synchronized boolean awaitReleased(long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            long cur = System.currentTimeMillis();
+            while (!released.get() && cur < end) {
+                wait(end - cur);
+                cur = System.currentTimeMillis();
+            }
+            return released.get();
+        }
+    }
+}
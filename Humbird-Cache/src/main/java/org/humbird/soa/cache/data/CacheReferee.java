@@ -14,8 +14,8 @@ public class CacheReferee {
     public void createCacheWrapper(CacheType cacheType, File cachePropFile) throws Exception {
         switch (cacheType) {
             case MEMCACHED: cache = new MEMCacheWrapper(); break;
-            case REDIS:
-                break;
+            case REDIS: cache = new RedisCacheWrapper(); break;
+            case QUORUM: cache = new QuorumCacheWrapper(); break;
             default:throw new Exception("not choose any cache type. error.");
         }
         cache.init(cachePropFile);
@@ -1,8 +1,6 @@
 package org.humbird.soa.cache.data;
 
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Created by david on 15/6/4.
@@ -16,12 +14,6 @@ public class HumbirdSession<K, V> implements Serializable {
 
     private SessionStick sessionStick = new SessionStick();
 
-    public static Map<Boolean, Map<String, HumbirdSession>> doubleCache = new HashMap<Boolean, Map<String, HumbirdSession>>();
-
-    private static Map<String, HumbirdSession> session1 = new HashMap<String, HumbirdSession>();
-
-    private static Map<String, HumbirdSession> session2 = new HashMap<String, HumbirdSession>();
-
     public HumbirdSession(K key, V value) {
         this.key = key;
         this.value = value;
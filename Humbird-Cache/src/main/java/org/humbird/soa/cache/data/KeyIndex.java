@@ -0,0 +1,185 @@
+package org.humbird.soa.cache.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The keys of a cache that cannot list its own, split over shards by hash so writers of
+ * different keys rarely meet. Each shard keeps its keys sorted for prefix lookups and counts
+ * them, the size adds up the counts without walking any key.
+ * <p/>
+ * A key is indexed with the expiration it was written with, as memcached takes it. Expired
+ * keys are never listed and are swept out at most once per sweep interval, on the next call
+ * after it, so the size may still count keys that expired since the last sweep.
+ *
+ * Created by david on 15/6/17.
+ */
+class KeyIndex {
+
+    private static final int DEFAULT_SHARDS = 16;
+
+    private static final long DEFAULT_SWEEP_INTERVAL = 1000;
+
+    // memcached takes a larger expiration for a unix time
+    private static final int MAX_RELATIVE_EXPIRE = 60 * 60 * 24 * 30;
+
+    // key to the ms it expires at, 0 for never
+    private final ConcurrentSkipListMap<String, Long>[] shards;
+
+    private final AtomicInteger[] counts;
+
+    private final long sweepInterval;
+
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    KeyIndex() {
+        this(DEFAULT_SHARDS, DEFAULT_SWEEP_INTERVAL);
+    }
+
+    @SuppressWarnings("unchecked")
+    KeyIndex(int shards, long sweepInterval) {
+        int n = 1;
+        while (n < shards) {
+            n <<= 1;
+        }
+        this.shards = new ConcurrentSkipListMap[n];
+        this.counts = new AtomicInteger[n];
+        for (int i = 0; i < n; i++) {
+            this.shards[i] = new ConcurrentSkipListMap<String, Long>();
+            this.counts[i] = new AtomicInteger();
+        }
+        this.sweepInterval = sweepInterval;
+    }
+
+    private int shard(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (shards.length - 1);
+    }
+
+    /**
+     * Indexes the key until it expires, a key added again takes the new expiration.
+     *
+     * @param expire seconds, a unix time above 30 days, 0 never expires
+     * @return false if the key was indexed already
+     */
+    boolean add(String key, int expire) {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        int i = shard(key);
+        if (shards[i].put(key, expiresAt(expire, now)) == null) {
+            counts[i].incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    boolean remove(String key) {
+        int i = shard(key);
+        if (shards[i].remove(key) != null) {
+            counts[i].decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    boolean contains(String key) {
+        Long expiresAt = shards[shard(key)].get(key);
+        return expiresAt != null && !expired(expiresAt, System.currentTimeMillis());
+    }
+
+    /**
+     * Keys are removed one by one, so the counts stay right while others add.
+     */
+    void clear() {
+        for (int i = 0; i < shards.length; i++) {
+            while (shards[i].pollFirstEntry() != null) {
+                counts[i].decrementAndGet();
+            }
+        }
+    }
+
+    int size() {
+        sweepIfDue(System.currentTimeMillis());
+        int size = 0;
+        for (AtomicInteger count : counts) {
+            size += count.get();
+        }
+        // a remove may be counted before the add it follows
+        return Math.max(size, 0);
+    }
+
+    List<String> keys() {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        List<String> keys = new ArrayList<String>(size());
+        for (ConcurrentSkipListMap<String, Long> shard : shards) {
+            for (Map.Entry<String, Long> entry : shard.entrySet()) {
+                if (!expired(entry.getValue(), now)) {
+                    keys.add(entry.getKey());
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the keys starting with the prefix, sorted
+     */
+    List<String> keys(String prefix) {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        List<String> keys = new ArrayList<String>();
+        for (ConcurrentSkipListMap<String, Long> shard : shards) {
+            for (Map.Entry<String, Long> entry : shard.tailMap(prefix).entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+                if (!expired(entry.getValue(), now)) {
+                    keys.add(entry.getKey());
+                }
+            }
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    // one caller sweeps, the others go on
+    private void sweepIfDue(long now) {
+        long next = nextSweep.get();
+        if (now < next || !nextSweep.compareAndSet(next, now + sweepInterval)) {
+            return;
+        }
+        for (int i = 0; i < shards.length; i++) {
+            Iterator<Map.Entry<String, Long>> iterator = shards[i].entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                // a key added again in between keeps its new expiration
+                if (expired(entry.getValue(), now) && shards[i].remove(entry.getKey(), entry.getValue())) {
+                    counts[i].decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static long expiresAt(int expire, long now) {
+        if (expire == 0) {
+            return 0;
+        }
+        // memcached drops a value with a negative expiration at once
+        if (expire < 0) {
+            return now;
+        }
+        return expire > MAX_RELATIVE_EXPIRE ? expire * 1000L : now + expire * 1000L;
+    }
+
+    private static boolean expired(long expiresAt, long now) {
+        return expiresAt != 0 && expiresAt <= now;
+    }
+}
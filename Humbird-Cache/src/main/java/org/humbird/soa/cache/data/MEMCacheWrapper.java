@@ -9,6 +9,10 @@ import java.io.File;
 import java.util.*;
 
 /**
+ * Memcached cannot list its keys, the wrapper indexes the keys it writes. Keys, prefix
+ * lookups and size come from that index. A key leaves it when removed or when the expiry of
+ * its session passed, an entry memcached evicted early for memory stays listed until then.
+ *
  * Created by david on 15/6/4.
  */
 class MEMCacheWrapper<K, V> implements Cache<K, V> {
@@ -19,7 +23,7 @@ class MEMCacheWrapper<K, V> implements Cache<K, V> {
 
     private static boolean flag = true;
 
-    private Set<String> keySet = new HashSet<String>();
+    private final KeyIndex keyIndex = new KeyIndex();
 
     @Override
     public void init(File file) throws Exception {
@@ -33,17 +37,20 @@ class MEMCacheWrapper<K, V> implements Cache<K, V> {
 
     @Override
     public void put(String paramK, HumbirdSession paramV) throws Exception {
-        cacheClient.setWithNoReply(paramK, paramV.getSessionStick().getExpire(), paramV);
-        keySet.add(paramK);
+        int expire = paramV.getSessionStick().getExpire();
+        cacheClient.setWithNoReply(paramK, expire, paramV);
+        keyIndex.add(paramK, expire);
     }
 
+    /**
+     * One set per entry, without waiting for the replies. It is not a batch, every set is a
+     * command of its own. A failed set is only seen in the xmemcached log.
+     */
     @Override
     public void put(Map<String, HumbirdSession> params) throws Exception {
         Iterator<Map.Entry<String, HumbirdSession>> iterator = params.entrySet().iterator();
-        Map.Entry<String, HumbirdSession> entry;
-        for (;iterator.hasNext();) {
-            entry = iterator.next();
-            HumbirdSession humbirdSession = entry.getValue();
+        while (iterator.hasNext()) {
+            Map.Entry<String, HumbirdSession> entry = iterator.next();
             put(entry.getKey(), entry.getValue());
         }
     }
@@ -55,31 +62,31 @@ class MEMCacheWrapper<K, V> implements Cache<K, V> {
 
     @Override
     public List getKeys() throws Exception {
-        List<String> keys = new ArrayList<String>();
-        Iterator<String> iterator = keySet.iterator();
-        while (iterator.hasNext()) {
-            keys.add(iterator.next());
-        }
-        return keys;
+        return keyIndex.keys();
+    }
+
+    @Override
+    public List getKeys(String prefix) throws Exception {
+        return keyIndex.keys(prefix);
     }
 
     @Override
     public boolean remove(String paramK) throws Exception{
         cacheClient.deleteWithNoReply(paramK);
-        keySet.remove(paramK);
+        keyIndex.remove(paramK);
         return true;
     }
 
     @Override
     public boolean clear() throws Exception{
         cacheClient.flushAll();
-        keySet.clear();
+        keyIndex.clear();
         return true;
     }
 
     @Override
     public int size() {
-        return keySet.size();
+        return keyIndex.size();
     }
 
     @Override
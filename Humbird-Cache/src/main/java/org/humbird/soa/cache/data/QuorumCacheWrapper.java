@@ -0,0 +1,116 @@
+package org.humbird.soa.cache.data;
+
+import org.humbird.soa.cache.client.CacheClient;
+import org.humbird.soa.common.utils.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The cache kept by the humbird cache servers, written through their leader and read from the
+ * server connected to. Listing an observer first in the servers keeps the reads of a client
+ * off the voting servers.
+ * <p/>
+ * The cache properties file takes the client ports of the servers and the timeout under the
+ * {@code org.humbird.soa.cache.quorum} keys. Closing the cache only closes the connection,
+ * the entries are shared by every client.
+ *
+ * Created by david on 15/6/12.
+ */
+class QuorumCacheWrapper<K, V> implements Cache<K, V> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(QuorumCacheWrapper.class);
+
+    private static final String SERVERS = "org.humbird.soa.cache.quorum.servers";
+
+    private static final String TIMEOUT = "org.humbird.soa.cache.quorum.timeout";
+
+    private CacheClient cacheClient = null;
+
+    @Override
+    public void init(File file) throws Exception {
+        Properties properties = new Properties();
+        if (file != null && file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                IOHelper.close(in);
+            }
+        }
+        cacheClient = new CacheClient(properties.getProperty(SERVERS, "127.0.0.1:3181"),
+                Integer.parseInt(properties.getProperty(TIMEOUT, "10000")));
+    }
+
+    @Override
+    public void put(String paramK, HumbirdSession paramV) throws Exception {
+        cacheClient.put(paramK, paramV);
+    }
+
+    @Override
+    public void put(Map<String, HumbirdSession> params) throws Exception {
+        for (Map.Entry<String, HumbirdSession> entry : params.entrySet()) {
+            cacheClient.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public HumbirdSession get(String paramK) throws Exception {
+        return cacheClient.get(paramK);
+    }
+
+    @Override
+    public List getKeys() throws Exception {
+        return cacheClient.getKeys();
+    }
+
+    @Override
+    public List getKeys(String prefix) throws Exception {
+        List<String> keys = new ArrayList<String>();
+        for (String key : cacheClient.getKeys()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public boolean remove(String paramK) throws Exception {
+        cacheClient.remove(paramK);
+        return true;
+    }
+
+    @Override
+    public boolean clear() throws Exception {
+        cacheClient.clear();
+        return true;
+    }
+
+    @Override
+    public int size() {
+        try {
+            return cacheClient.size();
+        } catch (IOException e) {
+            LOGGER.warn("quorum size failed, " + e.getMessage());
+            return 0;
+        }
+    }
+
+    @Override
+    public boolean close() throws Exception {
+        if (cacheClient != null) {
+            cacheClient.close();
+            cacheClient = null;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,144 @@
+package org.humbird.soa.cache.data;
+
+import org.humbird.soa.common.net.redis.RespClient;
+import org.humbird.soa.common.utils.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Sessions are java serialized into binary safe redis values, the keys are listed by the server
+ * through SCAN. Putting a map pipelines its SETs in one round trip.
+ * <p/>
+ * The cache properties file takes the server, pool size, timeouts, password and database under
+ * the {@code org.humbird.soa.cache.redis} keys.
+ *
+ * Created by david on 15/6/5.
+ */
+class RedisCacheWrapper<K, V> implements Cache<K, V> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(RedisCacheWrapper.class);
+
+    private static final String SERVER = "org.humbird.soa.cache.redis.server";
+
+    private static final String POOL_SIZE = "org.humbird.soa.cache.redis.poolsize";
+
+    private static final String OPERATION_TIMEOUT = "org.humbird.soa.cache.redis.operation.timeout";
+
+    private static final String CONNECT_TIMEOUT = "org.humbird.soa.cache.redis.connect.timeout";
+
+    private static final String PASSWORD = "org.humbird.soa.cache.redis.password";
+
+    private static final String DATABASE = "org.humbird.soa.cache.redis.database";
+
+    private static final int SCAN_COUNT = 256;
+
+    private RespClient cacheClient = null;
+
+    @Override
+    public void init(File file) throws Exception {
+        Properties properties = new Properties();
+        if (file != null && file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                IOHelper.close(in);
+            }
+        }
+        cacheClient = RespClient.of(properties.getProperty(SERVER, "127.0.0.1:6379"),
+                Integer.parseInt(properties.getProperty(POOL_SIZE, "8")),
+                Integer.parseInt(properties.getProperty(CONNECT_TIMEOUT, "2000")),
+                Integer.parseInt(properties.getProperty(OPERATION_TIMEOUT, "6000")),
+                properties.getProperty(PASSWORD),
+                Integer.parseInt(properties.getProperty(DATABASE, "0")));
+    }
+
+    @Override
+    public void put(String paramK, HumbirdSession paramV) throws Exception {
+        cacheClient.execute(set(paramK, paramV));
+    }
+
+    @Override
+    public void put(Map<String, HumbirdSession> params) throws Exception {
+        List<Object[]> commands = new ArrayList<Object[]>(params.size());
+        Iterator<Map.Entry<String, HumbirdSession>> iterator = params.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, HumbirdSession> entry = iterator.next();
+            commands.add(set(entry.getKey(), entry.getValue()));
+        }
+        cacheClient.pipeline(commands);
+    }
+
+    @Override
+    public HumbirdSession get(String paramK) throws Exception {
+        Object value = cacheClient.execute("GET", paramK);
+        return value instanceof byte[] ? (HumbirdSession) SessionCodec.deserialize((byte[]) value) : null;
+    }
+
+    @Override
+    public List getKeys() throws Exception {
+        return scan("*");
+    }
+
+    @Override
+    public List getKeys(String prefix) throws Exception {
+        // glob characters of the prefix match themselves
+        return scan(prefix.replaceAll("([*?\\[\\]\\\\])", "\\\\$1") + "*");
+    }
+
+    private List<String> scan(String pattern) throws IOException {
+        List<String> keys = new ArrayList<String>();
+        String cursor = "0";
+        do {
+            List<Object> reply = (List<Object>) cacheClient.execute("SCAN", cursor, "MATCH", pattern, "COUNT", SCAN_COUNT);
+            cursor = new String((byte[]) reply.get(0), "UTF-8");
+            for (Object key : (List<Object>) reply.get(1)) {
+                keys.add(new String((byte[]) key, "UTF-8"));
+            }
+        } while (!"0".equals(cursor));
+        return keys;
+    }
+
+    @Override
+    public boolean remove(String paramK) throws Exception {
+        Object removed = cacheClient.execute("DEL", paramK);
+        return removed instanceof Long && (Long) removed > 0;
+    }
+
+    @Override
+    public boolean clear() throws Exception {
+        cacheClient.execute("FLUSHDB");
+        return true;
+    }
+
+    @Override
+    public int size() {
+        try {
+            return ((Long) cacheClient.execute("DBSIZE")).intValue();
+        } catch (IOException e) {
+            LOGGER.warn("redis dbsize failed, " + e.getMessage());
+            return 0;
+        }
+    }
+
+    @Override
+    public boolean close() throws Exception {
+        if (cacheClient != null) {
+            clear();
+            cacheClient.close();
+            cacheClient = null;
+        }
+        return true;
+    }
+
+    private static Object[] set(String key, HumbirdSession session) throws IOException {
+        int expire = session.getSessionStick().getExpire();
+        if (expire > 0) {
+            return new Object[]{"SET", key, SessionCodec.serialize(session), "EX", expire};
+        }
+        return new Object[]{"SET", key, SessionCodec.serialize(session)};
+    }
+}
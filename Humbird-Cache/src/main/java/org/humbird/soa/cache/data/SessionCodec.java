@@ -0,0 +1,35 @@
+package org.humbird.soa.cache.data;
+
+import org.humbird.soa.common.utils.IOHelper;
+
+import java.io.*;
+
+/**
+ * Java serialization of the sessions, for the caches that keep bytes and for the txn log.
+ *
+ * Created by david on 15/6/8.
+ */
+public class SessionCodec {
+
+    public static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(value);
+        } finally {
+            IOHelper.close(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Object deserialize(byte[] bytes) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in cached value, " + e.getMessage());
+        } finally {
+            IOHelper.close(in);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.humbird.soa.cache.proto;
+
+import org.humbird.soa.common.io.Index;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The answer to a {@link ClientRequest}. A failed request carries the reason in the message,
+ * a get the value, keys the keys and size the count, everything else is left empty.
+ *
+ * Created by david on 15/6/12.
+ */
+public class ClientReply implements Record {
+
+    public static final int OK = 0;
+
+    public static final int ERROR = 1;
+
+    private int xid;
+
+    private int err;
+
+    private String message;
+
+    private byte[] value;
+
+    private List<String> keys;
+
+    private int count;
+
+    public ClientReply() {
+    }
+
+    public ClientReply(int xid, int err, String message) {
+        this.xid = xid;
+        this.err = err;
+        this.message = message;
+    }
+
+    public static ClientReply ok(int xid) {
+        return new ClientReply(xid, OK, null);
+    }
+
+    public int getXid() {
+        return xid;
+    }
+
+    public int getErr() {
+        return err;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    public ClientReply setValue(byte[] value) {
+        this.value = value;
+        return this;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    public ClientReply setKeys(List<String> keys) {
+        this.keys = keys;
+        return this;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public ClientReply setCount(int count) {
+        this.count = count;
+        return this;
+    }
+
+    @Override
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(this, tag);
+        archive.writeInt(xid, "xid");
+        archive.writeInt(err, "err");
+        archive.writeString(message, "message");
+        archive.writeBuffer(value, "value");
+        archive.startVector(keys, "keys");
+        if (keys != null) {
+            for (String key : keys) {
+                archive.writeString(key, "key");
+            }
+        }
+        archive.endVector(keys, "keys");
+        archive.writeInt(count, "count");
+        archive.endRecord(this, tag);
+    }
+
+    @Override
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        xid = archive.readInt("xid");
+        err = archive.readInt("err");
+        message = archive.readString("message");
+        value = archive.readBuffer("value");
+        Index index = archive.startVector("keys");
+        keys = null;
+        if (index != null) {
+            keys = new ArrayList<String>();
+            for (; !index.done(); index.incr()) {
+                keys.add(archive.readString("key"));
+            }
+        }
+        archive.endVector("keys");
+        count = archive.readInt("count");
+        archive.endRecord(tag);
+    }
+}
@@ -0,0 +1,88 @@
+package org.humbird.soa.cache.proto;
+
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
+
+import java.io.IOException;
+
+/**
+ * A request of a client to the server it is connected to, answered by a {@link ClientReply}
+ * of the same xid. The key is left out by the requests that take none, the value is only
+ * sent with a put.
+ *
+ * Created by david on 15/6/12.
+ */
+public class ClientRequest implements Record {
+
+    public static final int GET = 1;
+
+    public static final int PUT = 2;
+
+    public static final int REMOVE = 3;
+
+    public static final int CLEAR = 4;
+
+    public static final int KEYS = 5;
+
+    public static final int SIZE = 6;
+
+    private int xid;
+
+    private int type;
+
+    private String key;
+
+    private byte[] value;
+
+    public ClientRequest() {
+    }
+
+    public ClientRequest(int xid, int type, String key, byte[] value) {
+        this.xid = xid;
+        this.type = type;
+        this.key = key;
+        this.value = value;
+    }
+
+    public int getXid() {
+        return xid;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    @Override
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(this, tag);
+        archive.writeInt(xid, "xid");
+        archive.writeInt(type, "type");
+        archive.writeString(key, "key");
+        archive.writeBuffer(value, "value");
+        archive.endRecord(this, tag);
+    }
+
+    @Override
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        xid = archive.readInt("xid");
+        type = archive.readInt("type");
+        key = archive.readString("key");
+        value = archive.readBuffer("value");
+        archive.endRecord(tag);
+    }
+
+    @Override
+    public String toString() {
+        return "ClientRequest{xid=" + xid + ", type=" + type + ", key=" + key + "}";
+    }
+}
@@ -0,0 +1,138 @@
+package org.humbird.soa.cache.server;
+
+import org.humbird.soa.cache.data.HumbirdSession;
+import org.humbird.soa.cache.data.SessionCodec;
+import org.humbird.soa.cache.server.persistence.FileTxnSnapLog;
+import org.humbird.soa.cache.server.persistence.Util;
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.cache.server.txn.TxnHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The durable side of a cache server. Every change is written to the txn log before it is
+ * applied, and the entries come back from the latest snapshot and the log after it when the
+ * server starts again.
+ * <p/>
+ * Writes return once their transaction is synced, reads are served from memory.
+ *
+ * Created by david on 15/6/8.
+ */
+public class CacheServer implements CacheStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CacheServer.class);
+
+    private final FileTxnSnapLog txnLogFactory;
+
+    private final DataStore dataStore = new DataStore();
+
+    private final AtomicLong hzxid = new AtomicLong(0);
+
+    private SyncRequestProcessor syncProcessor;
+
+    public CacheServer(FileTxnSnapLog txnLogFactory) {
+        this.txnLogFactory = txnLogFactory;
+    }
+
+    /**
+     * Restores the entries from disk, snapshots them so the next restart starts from here
+     * and starts logging.
+     */
+    public synchronized void startup() throws IOException {
+        long zxid = txnLogFactory.restore(dataStore);
+        setZxid(Math.max(zxid, 0));
+        dataStore.setLastProcessedZxid(getZxid());
+        txnLogFactory.save(dataStore);
+        syncProcessor = new SyncRequestProcessor(txnLogFactory, dataStore, new FinalRequestProcessor(dataStore));
+        syncProcessor.start();
+    }
+
+    public void put(String key, HumbirdSession session) throws IOException {
+        putValue(key, SessionCodec.serialize(session));
+    }
+
+    @Override
+    public void putValue(String key, byte[] value) throws IOException {
+        submit(TxnHeader.PUT, new CacheTxn(key, value));
+    }
+
+    @Override
+    public void remove(String key) throws IOException {
+        submit(TxnHeader.REMOVE, new CacheTxn(key, null));
+    }
+
+    @Override
+    public void clear() throws IOException {
+        submit(TxnHeader.CLEAR, null);
+    }
+
+    public HumbirdSession get(String key) throws IOException {
+        return dataStore.getSession(key);
+    }
+
+    @Override
+    public byte[] getValue(String key) {
+        return dataStore.get(key);
+    }
+
+    /**
+     * @return all the entries, for filling a cache after a restart
+     */
+    public Map<String, HumbirdSession> getSessions() throws IOException {
+        return dataStore.getSessions();
+    }
+
+    @Override
+    public List<String> getKeys() {
+        return dataStore.keys();
+    }
+
+    @Override
+    public int size() {
+        return dataStore.size();
+    }
+
+    public DataStore getDataStore() {
+        return dataStore;
+    }
+
+    public long getZxid() {
+        return hzxid.get();
+    }
+
+    public void setZxid(long zxid) {
+        hzxid.set(zxid);
+    }
+
+    public synchronized void shutdown() {
+        try {
+            if (syncProcessor != null) {
+                syncProcessor.shutdown();
+            }
+            txnLogFactory.close();
+        } catch (IOException e) {
+            LOG.warn("Ignoring unexpected exception during close", e);
+        }
+    }
+
+    private void submit(int type, CacheTxn txn) throws IOException {
+        Util.checkTxnSize(Util.txnEntrySize(txn));
+        Request request;
+        // zxids have to reach the log in order
+        synchronized (hzxid) {
+            request = new Request(new TxnHeader(hzxid.incrementAndGet(), System.currentTimeMillis(), type), txn);
+            syncProcessor.processRequest(request);
+        }
+        try {
+            request.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for zxid 0x" + Long.toHexString(request.getHeader().getZxid()));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.humbird.soa.cache.server;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The entries a server serves to its clients, kept by a standalone {@link CacheServer} or
+ * replicated by a {@link org.humbird.soa.cache.server.quorum.QuorumPeer}.
+ * <p/>
+ * Values are the serialized sessions, the server never deserializes what a client sent.
+ * Writes return once they are durable, reads are served from the local entries.
+ *
+ * Created by david on 15/6/12.
+ */
+public interface CacheStore {
+
+    public void putValue(String key, byte[] value) throws IOException;
+
+    public void remove(String key) throws IOException;
+
+    public void clear() throws IOException;
+
+    public byte[] getValue(String key);
+
+    public List<String> getKeys();
+
+    public int size();
+}
@@ -0,0 +1,120 @@
+package org.humbird.soa.cache.server;
+
+import org.humbird.soa.cache.data.HumbirdSession;
+import org.humbird.soa.cache.data.SessionCodec;
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.cache.server.txn.TxnHeader;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The cache entries of a server as the txn log has them, serialized sessions by key.
+ * <p/>
+ * Transactions are applied by one thread, readers and the snapshot thread read alongside it.
+ *
+ * Created by david on 15/6/8.
+ */
+public class DataStore {
+
+    private final ConcurrentHashMap<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+
+    private volatile long lastProcessedZxid = 0;
+
+    public void processTxn(TxnHeader header, CacheTxn txn) {
+        switch (header.getType()) {
+            case TxnHeader.PUT:
+                entries.put(txn.getKey(), txn.getValue());
+                break;
+            case TxnHeader.REMOVE:
+                entries.remove(txn.getKey());
+                break;
+            case TxnHeader.CLEAR:
+                entries.clear();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown txn type " + header.getType());
+        }
+        if (header.getZxid() > lastProcessedZxid) {
+            lastProcessedZxid = header.getZxid();
+        }
+    }
+
+    public byte[] get(String key) {
+        return entries.get(key);
+    }
+
+    public HumbirdSession getSession(String key) throws IOException {
+        byte[] value = entries.get(key);
+        return value == null ? null : (HumbirdSession) SessionCodec.deserialize(value);
+    }
+
+    /**
+     * @return all the entries, for filling a cache after a restart
+     */
+    public Map<String, HumbirdSession> getSessions() throws IOException {
+        Map<String, HumbirdSession> sessions = new HashMap<String, HumbirdSession>(entries.size() * 4 / 3 + 1);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            sessions.put(entry.getKey(), (HumbirdSession) SessionCodec.deserialize(entry.getValue()));
+        }
+        return sessions;
+    }
+
+    public List<String> keys() {
+        return new ArrayList<String>(entries.keySet());
+    }
+
+    /**
+     * @return a live view of the entries
+     */
+    public Map<String, byte[]> entries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+        lastProcessedZxid = 0;
+    }
+
+    public long getLastProcessedZxid() {
+        return lastProcessedZxid;
+    }
+
+    public void setLastProcessedZxid(long lastProcessedZxid) {
+        this.lastProcessedZxid = lastProcessedZxid;
+    }
+
+    /**
+     * Writes the entries while they change, each entry is either in or out whole. The count
+     * is not known up front, every entry is preceded by true and the last by false.
+     */
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(null, tag);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            archive.writeBool(true, "more");
+            archive.writeString(entry.getKey(), "key");
+            archive.writeBuffer(entry.getValue(), "value");
+        }
+        archive.writeBool(false, "more");
+        archive.endRecord(null, tag);
+    }
+
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        while (archive.readBool("more")) {
+            String key = archive.readString("key");
+            entries.put(key, archive.readBuffer("value"));
+        }
+        archive.endRecord(tag);
+    }
+}
@@ -0,0 +1,25 @@
+package org.humbird.soa.cache.server;
+
+/**
+ * Last stage of the write path, applies the transaction to the store and releases its caller.
+ *
+ * Created by david on 15/6/10.
+ */
+public class FinalRequestProcessor implements RequestProcessor {
+
+    private final DataStore dataStore;
+
+    public FinalRequestProcessor(DataStore dataStore) {
+        this.dataStore = dataStore;
+    }
+
+    @Override
+    public void processRequest(Request request) {
+        dataStore.processTxn(request.getHeader(), request.getTxn());
+        request.complete();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
@@ -18,11 +18,16 @@
 
 package org.humbird.soa.cache.server;
 
+import org.humbird.soa.cache.server.persistence.FileTxnSnapLog;
+import org.humbird.soa.cache.server.persistence.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
+import java.text.DateFormat;
+import java.util.*;
 
 /**
  * this class is used to clean up the 
@@ -54,53 +59,53 @@ public class PurgeTxnLog {
      * @throws java.io.IOException
      */
     public static void purge(File dataDir, File snapDir, int num) throws IOException {
-//        if (num < 3) {
-//            throw new IllegalArgumentException("count should be greater than 3");
-//        }
-//
-//        FileTxnSnapLog txnLog = new FileTxnSnapLog(dataDir, snapDir);
-//
-//        // found any valid recent snapshots?
-//
-//        // files to exclude from deletion
-//        Set<File> exc=new HashSet<File>();
-//        List<File> snaps = txnLog.findNRecentSnapshots(num);
-//        if (snaps.size() == 0)
-//            return;
-//        File snapShot = snaps.get(snaps.size() -1);
-//        for (File f: snaps) {
-//            exc.add(f);
-//        }
-//        long zxid = Util.getZxidFromName(snapShot.getName(),"snapshot");
-//        exc.addAll(Arrays.asList(txnLog.getSnapshotLogs(zxid)));
-//
-//        final Set<File> exclude=exc;
-//        class MyFileFilter implements FileFilter{
-//            private final String prefix;
-//            MyFileFilter(String prefix){
-//                this.prefix=prefix;
-//            }
-//            public boolean accept(File f){
-//                if(!f.getName().startsWith(prefix) || exclude.contains(f))
-//                    return false;
-//                return true;
-//            }
-//        }
-//        // add all non-excluded log files
-//        List<File> files=new ArrayList<File>(
-//                Arrays.asList(txnLog.getDataDir().listFiles(new MyFileFilter("log."))));
-//        // add all non-excluded snapshot files to the deletion list
-//        files.addAll(Arrays.asList(txnLog.getSnapDir().listFiles(new MyFileFilter("snapshot."))));
-//        // remove the old files
-//        for(File f: files)
-//        {
-//            System.out.println("Removing file: "+
-//                DateFormat.getDateTimeInstance().format(f.lastModified())+
-//                "\t"+f.getPath());
-//            if(!f.delete()){
-//                System.err.println("Failed to remove "+f.getPath());
-//            }
-//        }
+        if (num < 3) {
+            throw new IllegalArgumentException("count should be greater than 3");
+        }
+
+        FileTxnSnapLog txnLog = new FileTxnSnapLog(dataDir, snapDir);
+
+        // found any valid recent snapshots?
+
+        // files to exclude from deletion
+        Set<File> exc=new HashSet<File>();
+        List<File> snaps = txnLog.findNRecentSnapshots(num);
+        if (snaps.size() == 0)
+            return;
+        File snapShot = snaps.get(snaps.size() -1);
+        for (File f: snaps) {
+            exc.add(f);
+        }
+        long zxid = Util.getZxidFromName(snapShot.getName(), Util.SNAPSHOT_PREFIX);
+        exc.addAll(Arrays.asList(txnLog.getSnapshotLogs(zxid)));
+
+        final Set<File> exclude=exc;
+        class MyFileFilter implements FileFilter{
+            private final String prefix;
+            MyFileFilter(String prefix){
+                this.prefix=prefix;
+            }
+            public boolean accept(File f){
+                if(!f.getName().startsWith(prefix) || exclude.contains(f))
+                    return false;
+                return true;
+            }
+        }
+        // add all non-excluded log files
+        List<File> files=new ArrayList<File>(
+                Arrays.asList(txnLog.getDataDir().listFiles(new MyFileFilter(Util.LOG_PREFIX + "."))));
+        // add all non-excluded snapshot files to the deletion list
+        files.addAll(Arrays.asList(txnLog.getSnapDir().listFiles(new MyFileFilter(Util.SNAPSHOT_PREFIX + "."))));
+        // remove the old files
+        for(File f: files)
+        {
+            LOG.info("Removing file: "+
+                DateFormat.getDateTimeInstance().format(f.lastModified())+
+                "\t"+f.getPath());
+            if(!f.delete()){
+                LOG.warn("Failed to remove "+f.getPath());
+            }
+        }
 
     }
     
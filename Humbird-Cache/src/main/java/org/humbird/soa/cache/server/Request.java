@@ -0,0 +1,99 @@
+package org.humbird.soa.cache.server;
+
+import org.humbird.soa.cache.server.persistence.Util;
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.cache.server.txn.TxnHeader;
+import org.humbird.soa.common.io.BinaryInputArchive;
+import org.humbird.soa.common.io.InputArchive;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A transaction on its way to the log, the caller waits until it is synced and applied.
+ *
+ * Created by david on 15/6/8.
+ */
+public class Request {
+
+    public final static Request requestOfDeath = new Request(null, null);
+
+    private final TxnHeader header;
+
+    private final CacheTxn txn;
+
+    // the server the write came from and its number there, -1 for the local ones
+    private final long sid;
+
+    private final long cxid;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private volatile IOException error;
+
+    public Request(TxnHeader header, CacheTxn txn) {
+        this(header, txn, -1, -1);
+    }
+
+    public Request(TxnHeader header, CacheTxn txn, long sid, long cxid) {
+        this.header = header;
+        this.txn = txn;
+        this.sid = sid;
+        this.cxid = cxid;
+    }
+
+    /**
+     * Reads a request back from the bytes of {@link #marshall()}.
+     */
+    public static Request unmarshall(byte[] bytes) throws IOException {
+        InputArchive archive = BinaryInputArchive.getArchive(new ByteArrayInputStream(bytes));
+        TxnHeader header = new TxnHeader();
+        header.deserialize(archive, "hdr");
+        CacheTxn txn = null;
+        if (header.getType() != TxnHeader.CLEAR) {
+            txn = new CacheTxn();
+            txn.deserialize(archive, "txn");
+        }
+        return new Request(header, txn);
+    }
+
+    public byte[] marshall() throws IOException {
+        return Util.marshallTxnEntry(header, txn);
+    }
+
+    public TxnHeader getHeader() {
+        return header;
+    }
+
+    public CacheTxn getTxn() {
+        return txn;
+    }
+
+    public long getSid() {
+        return sid;
+    }
+
+    public long getCxid() {
+        return cxid;
+    }
+
+    public void complete() {
+        done.countDown();
+    }
+
+    public void fail(IOException error) {
+        this.error = error;
+        done.countDown();
+    }
+
+    /**
+     * @throws IOException if the transaction could not be logged
+     */
+    public void waitFor() throws IOException, InterruptedException {
+        done.await();
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.humbird.soa.cache.server;
+
+import java.io.IOException;
+
+/**
+ * A stage of the write path. Requests pass down a chain of processors, each hands them to
+ * the next one when it is done with them.
+ *
+ * Created by david on 15/6/10.
+ */
+public interface RequestProcessor {
+
+    void processRequest(Request request) throws IOException;
+
+    void shutdown();
+}
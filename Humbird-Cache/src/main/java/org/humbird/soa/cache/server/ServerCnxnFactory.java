@@ -0,0 +1,210 @@
+package org.humbird.soa.cache.server;
+
+import org.humbird.soa.cache.proto.ClientReply;
+import org.humbird.soa.cache.proto.ClientRequest;
+import org.humbird.soa.common.io.BinaryInputArchive;
+import org.humbird.soa.common.io.BinaryOutputArchive;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serves the clients on the {@code clientPort} of a server, a thread per connection.
+ * <p/>
+ * Every {@link ClientRequest} is answered in order with a {@link ClientReply}. Reads are
+ * served from the entries of this server, writes go through its {@link CacheStore} and are
+ * answered once they are durable, so a follower or an observer answers a write after the
+ * leader committed it. {@code maxClientCnxns} limits the connections of one address, 0 for
+ * none.
+ *
+ * Created by david on 15/6/12.
+ */
+public class ServerCnxnFactory extends Thread {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServerCnxnFactory.class);
+
+    private final CacheStore store;
+
+    private final ServerSocket ss;
+
+    private final int maxClientCnxns;
+
+    private final Map<InetAddress, Integer> cnxnsByAddress = new HashMap<InetAddress, Integer>();
+
+    private final Set<ServerCnxn> cnxns = new HashSet<ServerCnxn>();
+
+    private volatile boolean stop = false;
+
+    public ServerCnxnFactory(InetSocketAddress addr, int maxClientCnxns, CacheStore store) throws IOException {
+        super("humbird-client-acceptor");
+        setDaemon(true);
+        this.store = store;
+        this.maxClientCnxns = maxClientCnxns;
+        ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        ss.bind(addr);
+        LOG.info("binding to port " + addr);
+    }
+
+    public int getLocalPort() {
+        return ss.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        while (!stop) {
+            try {
+                Socket s = ss.accept();
+                s.setTcpNoDelay(true);
+                ServerCnxn cnxn = new ServerCnxn(s);
+                if (!register(cnxn)) {
+                    LOG.warn("Too many connections from " + s.getInetAddress() + " - max is " + maxClientCnxns);
+                    s.close();
+                    continue;
+                }
+                cnxn.start();
+            } catch (SocketException e) {
+                if (!stop) {
+                    LOG.warn("Exception while accepting client", e);
+                }
+                stop = true;
+            } catch (IOException e) {
+                LOG.warn("Exception while accepting client", e);
+            }
+        }
+    }
+
+    public void shutdown() {
+        stop = true;
+        try {
+            ss.close();
+        } catch (IOException e) {
+            LOG.warn("Ignoring unexpected exception during close", e);
+        }
+        ServerCnxn[] open;
+        synchronized (this) {
+            open = cnxns.toArray(new ServerCnxn[cnxns.size()]);
+        }
+        for (ServerCnxn cnxn : open) {
+            cnxn.close();
+        }
+    }
+
+    private synchronized boolean register(ServerCnxn cnxn) {
+        InetAddress address = cnxn.sock.getInetAddress();
+        Integer count = cnxnsByAddress.get(address);
+        int n = count == null ? 0 : count;
+        if (maxClientCnxns > 0 && n >= maxClientCnxns) {
+            return false;
+        }
+        cnxnsByAddress.put(address, n + 1);
+        cnxns.add(cnxn);
+        return true;
+    }
+
+    private synchronized void unregister(ServerCnxn cnxn) {
+        if (!cnxns.remove(cnxn)) {
+            return;
+        }
+        InetAddress address = cnxn.sock.getInetAddress();
+        int n = cnxnsByAddress.get(address) - 1;
+        if (n == 0) {
+            cnxnsByAddress.remove(address);
+        } else {
+            cnxnsByAddress.put(address, n);
+        }
+    }
+
+    /**
+     * Answers a request, failures of the store go back to the client.
+     */
+    ClientReply process(ClientRequest request) {
+        int xid = request.getXid();
+        int type = request.getType();
+        if ((type == ClientRequest.GET || type == ClientRequest.PUT || type == ClientRequest.REMOVE)
+                && request.getKey() == null || type == ClientRequest.PUT && request.getValue() == null) {
+            return new ClientReply(xid, ClientReply.ERROR, "Missing key or value in " + request);
+        }
+        try {
+            switch (type) {
+                case ClientRequest.GET:
+                    return ClientReply.ok(xid).setValue(store.getValue(request.getKey()));
+                case ClientRequest.PUT:
+                    store.putValue(request.getKey(), request.getValue());
+                    return ClientReply.ok(xid);
+                case ClientRequest.REMOVE:
+                    store.remove(request.getKey());
+                    return ClientReply.ok(xid);
+                case ClientRequest.CLEAR:
+                    store.clear();
+                    return ClientReply.ok(xid);
+                case ClientRequest.KEYS:
+                    return ClientReply.ok(xid).setKeys(store.getKeys());
+                case ClientRequest.SIZE:
+                    return ClientReply.ok(xid).setCount(store.size());
+                default:
+                    return new ClientReply(xid, ClientReply.ERROR, "Unknown request type " + type);
+            }
+        } catch (IOException e) {
+            return new ClientReply(xid, ClientReply.ERROR, e.getMessage());
+        }
+    }
+
+    class ServerCnxn extends Thread {
+
+        private final Socket sock;
+
+        ServerCnxn(Socket sock) {
+            super("humbird-client-cnxn-" + sock.getRemoteSocketAddress());
+            setDaemon(true);
+            this.sock = sock;
+        }
+
+        @Override
+        public void run() {
+            try {
+                InputArchive ia = BinaryInputArchive.getArchive(new BufferedInputStream(sock.getInputStream()));
+                BufferedOutputStream out = new BufferedOutputStream(sock.getOutputStream());
+                OutputArchive oa = BinaryOutputArchive.getArchive(out);
+                while (!stop) {
+                    ClientRequest request = new ClientRequest();
+                    ia.readRecord(request, "request");
+                    oa.writeRecord(process(request), "reply");
+                    out.flush();
+                }
+            } catch (EOFException e) {
+                LOG.debug("Client " + sock.getRemoteSocketAddress() + " closed the connection");
+            } catch (IOException e) {
+                if (!stop) {
+                    LOG.warn("Closing the connection of " + sock.getRemoteSocketAddress() + ", " + e.getMessage());
+                }
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            unregister(this);
+            try {
+                sock.close();
+            } catch (IOException e) {
+                LOG.debug("Ignoring exception during close", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.humbird.soa.cache.server;
+
+import org.humbird.soa.cache.server.persistence.FileTxnSnapLog;
+import org.humbird.soa.cache.server.persistence.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Logs the requests and passes them on once they are on disk.
+ * <p/>
+ * Requests are appended as they come and synced together, one sync covers everything queued
+ * while the previous one ran, up to 1000 requests. Only then do they go to the next
+ * processor, which applies them on a standalone server and acknowledges them in a quorum.
+ * <p/>
+ * Every {@code zookeeper.snapCount} transactions or so the log is rolled and a snapshot is
+ * written by a background thread while writes go on. The point is randomized so the servers
+ * of an ensemble do not all snapshot at once.
+ *
+ * Created by david on 15/6/8.
+ */
+public class SyncRequestProcessor extends Thread implements RequestProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyncRequestProcessor.class);
+
+    private static int snapCount = Integer.getInteger("zookeeper.snapCount", 100000);
+
+    private static final int MAX_BATCH = 1000;
+
+    private static final Random r = new Random(System.nanoTime());
+
+    private final LinkedBlockingQueue<Request> queuedRequests = new LinkedBlockingQueue<Request>();
+
+    private final List<Request> toFlush = new ArrayList<Request>();
+
+    private final FileTxnSnapLog txnLogFactory;
+
+    private final DataStore dataStore;
+
+    private final RequestProcessor nextProcessor;
+
+    private volatile Thread snapInProcess = null;
+
+    private volatile boolean running = true;
+
+    // no request is queued once the processor stopped taking them
+    private final Object queueLock = new Object();
+
+    public SyncRequestProcessor(FileTxnSnapLog txnLogFactory, DataStore dataStore, RequestProcessor nextProcessor) {
+        super("humbird-sync");
+        setDaemon(true);
+        this.txnLogFactory = txnLogFactory;
+        this.dataStore = dataStore;
+        this.nextProcessor = nextProcessor;
+    }
+
+    public static void setSnapCount(int count) {
+        snapCount = count;
+    }
+
+    public static int getSnapCount() {
+        return snapCount;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int logCount = 0;
+            int randRoll = r.nextInt(snapCount / 2);
+            while (true) {
+                Request si;
+                if (toFlush.isEmpty()) {
+                    si = queuedRequests.take();
+                } else {
+                    si = queuedRequests.poll();
+                    if (si == null) {
+                        flush();
+                        continue;
+                    }
+                }
+                if (si == Request.requestOfDeath) {
+                    break;
+                }
+                txnLogFactory.append(si.getHeader(), si.getTxn());
+                toFlush.add(si);
+                logCount++;
+                if (logCount > (snapCount / 2 + randRoll)) {
+                    randRoll = r.nextInt(snapCount / 2);
+                    txnLogFactory.rollLog();
+                    // the entries lag the log, pass the logged ones on before the snapshot starts
+                    flush();
+                    snapshot();
+                    logCount = 0;
+                }
+                if (toFlush.size() >= MAX_BATCH) {
+                    flush();
+                }
+            }
+            flush();
+        } catch (IOException e) {
+            LOG.error("Severe unrecoverable error, the txn log can not be written", e);
+            failAll(e);
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted, exiting");
+            failAll(new IOException("Sync processor interrupted"));
+        } finally {
+            running = false;
+        }
+        LOG.info("SyncRequestProcessor exited!");
+    }
+
+    private void snapshot() {
+        if (snapInProcess != null && snapInProcess.isAlive()) {
+            LOG.warn("Too busy to snap, skipping");
+            return;
+        }
+        snapInProcess = new Thread("humbird-snapshot") {
+            public void run() {
+                try {
+                    txnLogFactory.save(dataStore);
+                } catch (Exception e) {
+                    LOG.warn("Unexpected exception", e);
+                }
+            }
+        };
+        snapInProcess.setDaemon(true);
+        snapInProcess.start();
+    }
+
+    private void flush() throws IOException {
+        if (toFlush.isEmpty()) {
+            return;
+        }
+        txnLogFactory.commit();
+        for (Request request : toFlush) {
+            nextProcessor.processRequest(request);
+        }
+        toFlush.clear();
+    }
+
+    private void failAll(IOException e) {
+        for (Request request : toFlush) {
+            request.fail(e);
+        }
+        toFlush.clear();
+        synchronized (queueLock) {
+            running = false;
+            Request request;
+            while ((request = queuedRequests.poll()) != null) {
+                request.fail(e);
+            }
+        }
+    }
+
+    @Override
+    public void processRequest(Request request) throws IOException {
+        // refused here, once in the log it would stop the processor and every write after it
+        if (request.getHeader() != null) {
+            Util.checkTxnSize(Util.txnEntrySize(request.getTxn()));
+        }
+        synchronized (queueLock) {
+            if (!running) {
+                throw new IOException("The txn log is closed");
+            }
+            queuedRequests.add(request);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        LOG.info("Shutting down");
+        synchronized (queueLock) {
+            if (running) {
+                running = false;
+                queuedRequests.add(Request.requestOfDeath);
+            }
+        }
+        try {
+            join();
+            Thread snap = snapInProcess;
+            if (snap != null) {
+                snap.join();
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting for the txn log to be flushed");
+        }
+        nextProcessor.shutdown();
+    }
+}
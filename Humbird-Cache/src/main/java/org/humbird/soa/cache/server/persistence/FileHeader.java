@@ -0,0 +1,60 @@
+package org.humbird.soa.cache.server.persistence;
+
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
+
+import java.io.IOException;
+
+/**
+ * Header of the log and snapshot files.
+ *
+ * Created by david on 15/6/8.
+ */
+public class FileHeader implements Record {
+
+    private int magic;
+
+    private int version;
+
+    private long dbid;
+
+    public FileHeader() {
+    }
+
+    public FileHeader(int magic, int version, long dbid) {
+        this.magic = magic;
+        this.version = version;
+        this.dbid = dbid;
+    }
+
+    public int getMagic() {
+        return magic;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getDbid() {
+        return dbid;
+    }
+
+    @Override
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(this, tag);
+        archive.writeInt(magic, "magic");
+        archive.writeInt(version, "version");
+        archive.writeLong(dbid, "dbid");
+        archive.endRecord(this, tag);
+    }
+
+    @Override
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        magic = archive.readInt("magic");
+        version = archive.readInt("version");
+        dbid = archive.readLong("dbid");
+        archive.endRecord(tag);
+    }
+}
@@ -0,0 +1,159 @@
+package org.humbird.soa.cache.server.persistence;
+
+import org.humbird.soa.cache.server.DataStore;
+import org.humbird.soa.common.io.BinaryInputArchive;
+import org.humbird.soa.common.io.BinaryOutputArchive;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Snapshots kept as files of the snapshot directory, each named after the last zxid applied
+ * when it was started.
+ * <p/>
+ * A snapshot is fuzzy, the entries keep changing while they are written, so it holds every
+ * transaction up to its zxid and maybe some after. Transactions set or remove whole entries,
+ * replaying the log from the zxid over it ends in the same entries either way.
+ * <p/>
+ * A file is the {@link FileHeader}, the entries, the adler32 of both and the end marker. Files
+ * without the marker were cut off and are skipped, as are files whose checksum does not match.
+ *
+ * Created by david on 15/6/8.
+ */
+public class FileSnap implements SnapShot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileSnap.class);
+
+    public final static int SNAP_MAGIC = ByteBuffer.wrap("HCSN".getBytes()).getInt();
+
+    public final static int VERSION = 1;
+
+    public final static long dbId = -1;
+
+    // snapshots tried before giving up
+    private static final int RECENT_SNAPSHOTS = 100;
+
+    private final File snapDir;
+
+    public FileSnap(File snapDir) {
+        this.snapDir = snapDir;
+    }
+
+    @Override
+    public long deserialize(DataStore dataStore) throws IOException {
+        List<File> snapList = findNValidSnapshots(RECENT_SNAPSHOTS);
+        for (File snap : snapList) {
+            LOG.info("Reading snapshot " + snap);
+            InputStream snapIS = null;
+            CheckedInputStream crcIn = null;
+            try {
+                snapIS = new BufferedInputStream(new FileInputStream(snap));
+                crcIn = new CheckedInputStream(snapIS, new Adler32());
+                InputArchive ia = BinaryInputArchive.getArchive(crcIn);
+                dataStore.clear();
+                deserialize(dataStore, ia);
+                long checkSum = crcIn.getChecksum().getValue();
+                long val = ia.readLong("val");
+                if (val != checkSum) {
+                    throw new IOException("CRC corruption in snapshot :  " + snap);
+                }
+                long zxid = Util.getZxidFromName(snap.getName(), Util.SNAPSHOT_PREFIX);
+                dataStore.setLastProcessedZxid(zxid);
+                return zxid;
+            } catch (IOException e) {
+                LOG.warn("problem reading snap file " + snap, e);
+            } finally {
+                if (snapIS != null) {
+                    snapIS.close();
+                }
+                if (crcIn != null) {
+                    crcIn.close();
+                }
+            }
+        }
+        dataStore.clear();
+        return -1;
+    }
+
+    private void deserialize(DataStore dataStore, InputArchive ia) throws IOException {
+        FileHeader header = new FileHeader();
+        header.deserialize(ia, "fileheader");
+        if (header.getMagic() != SNAP_MAGIC) {
+            throw new IOException("mismatching magic headers " + header.getMagic() + " !=  " + SNAP_MAGIC);
+        }
+        dataStore.deserialize(ia, "tree");
+    }
+
+    @Override
+    public synchronized void serialize(DataStore dataStore, File snapShot) throws IOException {
+        FileOutputStream fos = new FileOutputStream(snapShot);
+        try {
+            CheckedOutputStream crcOut = new CheckedOutputStream(new BufferedOutputStream(fos), new Adler32());
+            OutputArchive oa = BinaryOutputArchive.getArchive(crcOut);
+            new FileHeader(SNAP_MAGIC, VERSION, dbId).serialize(oa, "fileheader");
+            dataStore.serialize(oa, "tree");
+            long val = crcOut.getChecksum().getValue();
+            oa.writeLong(val, "val");
+            Util.writeSnapshotEnd(oa);
+            crcOut.flush();
+            fos.getChannel().force(false);
+        } finally {
+            fos.close();
+        }
+    }
+
+    @Override
+    public File findMostRecentSnapshot() throws IOException {
+        List<File> files = findNValidSnapshots(1);
+        return files.size() == 0 ? null : files.get(0);
+    }
+
+    /**
+     * @return the n most recent complete snapshots, newest first
+     */
+    private List<File> findNValidSnapshots(int n) throws IOException {
+        List<File> files = Util.sortDataDir(snapDir.listFiles(), Util.SNAPSHOT_PREFIX, false);
+        List<File> list = new ArrayList<File>();
+        for (File f : files) {
+            try {
+                if (Util.isValidSnapshot(f)) {
+                    list.add(f);
+                    if (list.size() == n) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                LOG.info("invalid snapshot " + f, e);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return the n most recent snapshots, complete or not, newest first
+     */
+    public List<File> findNRecentSnapshots(int n) throws IOException {
+        List<File> files = Util.sortDataDir(snapDir.listFiles(), Util.SNAPSHOT_PREFIX, false);
+        List<File> list = new ArrayList<File>();
+        for (File f : files) {
+            if (list.size() == n) {
+                break;
+            }
+            list.add(f);
+        }
+        return list;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+}
@@ -0,0 +1,371 @@
+package org.humbird.soa.cache.server.persistence;
+
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.cache.server.txn.TxnHeader;
+import org.humbird.soa.common.io.BinaryInputArchive;
+import org.humbird.soa.common.io.BinaryOutputArchive;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.Checksum;
+
+/**
+ * Transaction log kept in files of the log directory, each named after the zxid of its first
+ * transaction.
+ * <p/>
+ * A file starts with a {@link FileHeader} and holds entries of
+ * <pre>
+ *     checksum  long, adler32 of the entry
+ *     length    int
+ *     entry     TxnHeader followed by the CacheTxn
+ *     EOR       byte 'B'
+ * </pre>
+ * Files are preallocated in blocks of {@code zookeeper.preAllocSize} KB, 64M by default, so
+ * a sync rarely has to update the file length. The rest of a block is zeros, which read back
+ * as the end of the log.
+ * <p/>
+ * Appends are only buffered, {@link #commit()} writes and syncs everything appended since
+ * the last commit at once, so callers group as many transactions as they can per commit.
+ * Setting {@code zookeeper.forceSync=no} skips the sync.
+ *
+ * Created by david on 15/6/8.
+ */
+public class FileTxnLog implements TxnLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileTxnLog.class);
+
+    public final static int TXNLOG_MAGIC = ByteBuffer.wrap("HCLG".getBytes()).getInt();
+
+    public final static int VERSION = 1;
+
+    private static long preAllocSize = 65536 * 1024;
+
+    private final static boolean forceSync = !System.getProperty("zookeeper.forceSync", "yes").equals("no");
+
+    static {
+        String size = System.getProperty("zookeeper.preAllocSize");
+        if (size != null) {
+            try {
+                preAllocSize = Long.parseLong(size) * 1024;
+            } catch (NumberFormatException e) {
+                LOG.warn(size + " is not a valid value for preAllocSize");
+            }
+        }
+    }
+
+    private final File logDir;
+
+    private long lastZxidSeen;
+
+    private long dbId;
+
+    private long currentSize;
+
+    private volatile BufferedOutputStream logStream = null;
+
+    private volatile OutputArchive oa;
+
+    private volatile FileOutputStream fos = null;
+
+    // streams written since the last commit, all but the current one are done with
+    private final LinkedList<FileOutputStream> streamsToFlush = new LinkedList<FileOutputStream>();
+
+    public FileTxnLog(File logDir) {
+        this.logDir = logDir;
+    }
+
+    public static void setPreallocSize(long size) {
+        preAllocSize = size;
+    }
+
+    @Override
+    public synchronized void rollLog() throws IOException {
+        if (logStream != null) {
+            logStream.flush();
+            logStream = null;
+            oa = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean append(TxnHeader header, CacheTxn txn) throws IOException {
+        if (header == null) {
+            return false;
+        }
+        byte[] buf = Util.marshallTxnEntry(header, txn);
+        if (buf == null || buf.length == 0) {
+            throw new IOException("Faulty serialization for header and txn");
+        }
+        Util.checkTxnSize(buf.length);
+        if (header.getZxid() <= lastZxidSeen) {
+            LOG.warn("Current zxid " + header.getZxid() + " is <= " + lastZxidSeen + " for " + header.getType());
+        } else {
+            lastZxidSeen = header.getZxid();
+        }
+        if (logStream == null) {
+            File logFile = new File(logDir, Util.makeLogName(header.getZxid()));
+            if (LOG.isInfoEnabled()) {
+                LOG.info("Creating new log file: " + logFile.getName());
+            }
+            fos = new FileOutputStream(logFile);
+            logStream = new BufferedOutputStream(fos);
+            oa = BinaryOutputArchive.getArchive(logStream);
+            new FileHeader(TXNLOG_MAGIC, VERSION, dbId).serialize(oa, "fileheader");
+            // the header has to be on disk before the file is padded
+            logStream.flush();
+            currentSize = fos.getChannel().position();
+            streamsToFlush.add(fos);
+        }
+        currentSize = Util.padLogFile(fos, currentSize, preAllocSize);
+        Checksum crc = new Adler32();
+        crc.update(buf, 0, buf.length);
+        oa.writeLong(crc.getValue(), "txnEntryCRC");
+        oa.writeBuffer(buf, "txnEntry");
+        oa.writeByte((byte) 'B', "EOR");
+        return true;
+    }
+
+    @Override
+    public synchronized void commit() throws IOException {
+        if (logStream != null) {
+            logStream.flush();
+        }
+        for (FileOutputStream log : streamsToFlush) {
+            log.flush();
+            if (forceSync) {
+                long start = System.currentTimeMillis();
+                log.getChannel().force(false);
+                long elapsed = System.currentTimeMillis() - start;
+                if (elapsed > 1000) {
+                    LOG.warn("fsync of the txn log took " + elapsed + "ms, the disk is too slow for the load");
+                }
+            }
+        }
+        while (streamsToFlush.size() > 1) {
+            streamsToFlush.removeFirst().close();
+        }
+    }
+
+    @Override
+    public TxnIterator read(long zxid) throws IOException {
+        return new FileTxnIterator(logDir, zxid);
+    }
+
+    @Override
+    public long getLastLoggedZxid() throws IOException {
+        List<File> files = getLogFiles(logDir.listFiles(), 0);
+        long maxLog = files.size() > 0 ? Util.getZxidFromName(files.get(files.size() - 1).getName(), Util.LOG_PREFIX) : -1;
+        // the last file may be empty or torn, read from its start to find the last complete txn
+        long zxid = maxLog;
+        TxnIterator iterator = null;
+        try {
+            iterator = new FileTxnIterator(logDir, maxLog);
+            while (iterator.getHeader() != null) {
+                zxid = iterator.getHeader().getZxid();
+                if (!iterator.next()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Unexpected exception", e);
+        } finally {
+            if (iterator != null) {
+                iterator.close();
+            }
+        }
+        return zxid;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (logStream != null) {
+            logStream.close();
+        }
+        for (FileOutputStream log : streamsToFlush) {
+            log.close();
+        }
+        streamsToFlush.clear();
+        logStream = null;
+        oa = null;
+    }
+
+    /**
+     * The log files holding the transactions after the snapshot, those started after it and
+     * the last one started before it.
+     */
+    public static List<File> getLogFiles(File[] logDirList, long snapshotZxid) {
+        List<File> files = Util.sortDataDir(logDirList, Util.LOG_PREFIX, true);
+        long logZxid = 0;
+        for (File file : files) {
+            long fzxid = Util.getZxidFromName(file.getName(), Util.LOG_PREFIX);
+            if (fzxid > snapshotZxid) {
+                continue;
+            }
+            if (fzxid > logZxid) {
+                logZxid = fzxid;
+            }
+        }
+        List<File> logs = new ArrayList<File>(5);
+        for (File file : files) {
+            long fzxid = Util.getZxidFromName(file.getName(), Util.LOG_PREFIX);
+            if (fzxid < logZxid) {
+                continue;
+            }
+            logs.add(file);
+        }
+        return logs;
+    }
+
+    /**
+     * Reads the transactions from a zxid on over all the log files. The newest file may end
+     * in a write that was cut off by a crash, the log simply ends before it. A broken entry in
+     * any older file is an error.
+     */
+    public static class FileTxnIterator implements TxnIterator {
+
+        private final File logDir;
+
+        private final long zxid;
+
+        private final LinkedList<File> storedFiles = new LinkedList<File>();
+
+        private TxnHeader header;
+
+        private CacheTxn txn;
+
+        private InputStream inputStream;
+
+        private InputArchive ia;
+
+        private File current;
+
+        public FileTxnIterator(File logDir, long zxid) throws IOException {
+            this.logDir = logDir;
+            this.zxid = zxid;
+            init();
+        }
+
+        private void init() throws IOException {
+            List<File> files = getLogFiles(logDir.listFiles(), zxid);
+            Collections.reverse(files);
+            storedFiles.addAll(files);
+            // skip to the transaction asked for
+            if (!next()) {
+                return;
+            }
+            while (header.getZxid() < zxid) {
+                if (!next()) {
+                    return;
+                }
+            }
+        }
+
+        private boolean goToNextLog() throws IOException {
+            if (inputStream != null) {
+                inputStream.close();
+                inputStream = null;
+            }
+            if (storedFiles.size() > 0) {
+                current = storedFiles.removeLast();
+                inputStream = new BufferedInputStream(new FileInputStream(current));
+                ia = BinaryInputArchive.getArchive(inputStream);
+                FileHeader fileHeader = new FileHeader();
+                try {
+                    fileHeader.deserialize(ia, "fileheader");
+                } catch (EOFException e) {
+                    // created just before a crash
+                    if (storedFiles.size() > 0) {
+                        throw e;
+                    }
+                    LOG.warn("Transaction log " + current + " has no header, ignoring it");
+                    return false;
+                }
+                if (fileHeader.getMagic() != TXNLOG_MAGIC) {
+                    throw new IOException("Transaction log: " + current + " has invalid magic number "
+                            + fileHeader.getMagic() + " != " + TXNLOG_MAGIC);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (ia == null && !goToNextLog()) {
+                return false;
+            }
+            while (true) {
+                try {
+                    long crcValue = ia.readLong("crcvalue");
+                    byte[] bytes = Util.readTxnBytes(ia);
+                    if (bytes == null) {
+                        // end of this file, on to the next one
+                        if (!goToNextLog()) {
+                            return end();
+                        }
+                        continue;
+                    }
+                    Checksum crc = new Adler32();
+                    crc.update(bytes, 0, bytes.length);
+                    if (crcValue != crc.getValue()) {
+                        throw new IOException("CRC check failed in " + current);
+                    }
+                    InputArchive entry = BinaryInputArchive.getArchive(new ByteArrayInputStream(bytes));
+                    header = new TxnHeader();
+                    header.deserialize(entry, "hdr");
+                    txn = null;
+                    if (header.getType() != TxnHeader.CLEAR) {
+                        txn = new CacheTxn();
+                        txn.deserialize(entry, "txn");
+                    }
+                    return true;
+                } catch (EOFException e) {
+                    if (!goToNextLog()) {
+                        return end();
+                    }
+                } catch (IOException e) {
+                    if (storedFiles.size() > 0) {
+                        throw e;
+                    }
+                    LOG.warn("Ignoring the rest of " + current + ", " + e.getMessage());
+                    return end();
+                }
+            }
+        }
+
+        private boolean end() throws IOException {
+            close();
+            ia = null;
+            header = null;
+            txn = null;
+            return false;
+        }
+
+        @Override
+        public TxnHeader getHeader() {
+            return header;
+        }
+
+        @Override
+        public CacheTxn getTxn() {
+            return txn;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (inputStream != null) {
+                inputStream.close();
+                inputStream = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.humbird.soa.cache.server.persistence;
+
+import org.humbird.soa.cache.server.DataStore;
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.cache.server.txn.TxnHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The txn log and the snapshots of a server together, kept under {@code version-1} of the
+ * log and snapshot directories.
+ *
+ * Created by david on 15/6/8.
+ */
+public class FileTxnSnapLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileTxnSnapLog.class);
+
+    public final static int VERSION = 1;
+
+    public final static String version = "version-";
+
+    private final File dataDir;
+
+    private final File snapDir;
+
+    private final TxnLog txnLog;
+
+    private final SnapShot snapLog;
+
+    /**
+     * @param dataDir the directory of the txn logs
+     * @param snapDir the directory of the snapshots
+     */
+    public FileTxnSnapLog(File dataDir, File snapDir) throws IOException {
+        this.dataDir = new File(dataDir, version + VERSION);
+        this.snapDir = new File(snapDir, version + VERSION);
+        if (!this.dataDir.exists() && !this.dataDir.mkdirs()) {
+            throw new IOException("Unable to create data directory " + this.dataDir);
+        }
+        if (!this.snapDir.exists() && !this.snapDir.mkdirs()) {
+            throw new IOException("Unable to create snap directory " + this.snapDir);
+        }
+        txnLog = new FileTxnLog(this.dataDir);
+        snapLog = new FileSnap(this.snapDir);
+    }
+
+    public File getDataDir() {
+        return dataDir;
+    }
+
+    public File getSnapDir() {
+        return snapDir;
+    }
+
+    /**
+     * Loads the latest snapshot and replays the log after it.
+     *
+     * @return the last zxid restored, -1 when there was nothing on disk
+     */
+    public long restore(DataStore dataStore) throws IOException {
+        long snapZxid = snapLog.deserialize(dataStore);
+        long zxid = snapZxid;
+        TxnLog.TxnIterator iterator = txnLog.read(snapZxid + 1);
+        try {
+            while (iterator.getHeader() != null) {
+                TxnHeader header = iterator.getHeader();
+                if (header.getZxid() <= zxid) {
+                    LOG.warn("Replaying " + header + " after zxid 0x" + Long.toHexString(zxid));
+                } else {
+                    zxid = header.getZxid();
+                }
+                dataStore.processTxn(header, iterator.getTxn());
+                if (!iterator.next()) {
+                    break;
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+        LOG.info("Restored " + dataStore.size() + " entries up to zxid 0x" + Long.toHexString(zxid)
+                + ", snapshot at 0x" + Long.toHexString(snapZxid));
+        return zxid;
+    }
+
+    public long getLastLoggedZxid() throws IOException {
+        return txnLog.getLastLoggedZxid();
+    }
+
+    /**
+     * Writes a snapshot named after the last zxid applied to the store.
+     */
+    public void save(DataStore dataStore) throws IOException {
+        long lastZxid = dataStore.getLastProcessedZxid();
+        File snapshotFile = new File(snapDir, Util.makeSnapshotName(lastZxid));
+        LOG.info("Snapshotting: 0x" + Long.toHexString(lastZxid) + " to " + snapshotFile);
+        snapLog.serialize(dataStore, snapshotFile);
+    }
+
+    public boolean append(TxnHeader header, CacheTxn txn) throws IOException {
+        return txnLog.append(header, txn);
+    }
+
+    public void commit() throws IOException {
+        txnLog.commit();
+    }
+
+    public void rollLog() throws IOException {
+        txnLog.rollLog();
+    }
+
+    /**
+     * @return the n most recent snapshots, newest first
+     */
+    public List<File> findNRecentSnapshots(int n) throws IOException {
+        return new FileSnap(snapDir).findNRecentSnapshots(n);
+    }
+
+    /**
+     * @return the log files needed to replay from the snapshot of the zxid on
+     */
+    public File[] getSnapshotLogs(long zxid) {
+        List<File> files = FileTxnLog.getLogFiles(dataDir.listFiles(), zxid);
+        return files.toArray(new File[files.size()]);
+    }
+
+    public void close() throws IOException {
+        txnLog.close();
+        snapLog.close();
+    }
+}
@@ -0,0 +1,30 @@
+package org.humbird.soa.cache.server.persistence;
+
+import org.humbird.soa.cache.server.DataStore;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Snapshots of the cache entries.
+ *
+ * Created by david on 15/6/8.
+ */
+public interface SnapShot {
+
+    /**
+     * Loads the most recent valid snapshot into the store.
+     *
+     * @return the zxid of the snapshot, -1 if there is none
+     */
+    long deserialize(DataStore dataStore) throws IOException;
+
+    void serialize(DataStore dataStore, File name) throws IOException;
+
+    /**
+     * @return the most recent valid snapshot, null if there is none
+     */
+    File findMostRecentSnapshot() throws IOException;
+
+    void close() throws IOException;
+}
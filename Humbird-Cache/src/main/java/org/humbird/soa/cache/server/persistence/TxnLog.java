@@ -0,0 +1,57 @@
+package org.humbird.soa.cache.server.persistence;
+
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.cache.server.txn.TxnHeader;
+
+import java.io.IOException;
+
+/**
+ * Append only log of the cache transactions.
+ *
+ * Created by david on 15/6/8.
+ */
+public interface TxnLog {
+
+    /**
+     * Starts a new log file with the next append.
+     */
+    void rollLog() throws IOException;
+
+    /**
+     * Buffers a transaction, it is durable only after {@link #commit()}.
+     *
+     * @return false if the transaction is older than the last one appended
+     */
+    boolean append(TxnHeader header, CacheTxn txn) throws IOException;
+
+    /**
+     * @return the transactions from the given zxid on, positioned on the first of them
+     */
+    TxnIterator read(long zxid) throws IOException;
+
+    long getLastLoggedZxid() throws IOException;
+
+    /**
+     * Writes out and syncs every transaction appended so far.
+     */
+    void commit() throws IOException;
+
+    void close() throws IOException;
+
+    interface TxnIterator {
+
+        /**
+         * @return the header of the current transaction, null past the end
+         */
+        TxnHeader getHeader();
+
+        CacheTxn getTxn();
+
+        /**
+         * @return false at the end of the log
+         */
+        boolean next() throws IOException;
+
+        void close() throws IOException;
+    }
+}
@@ -0,0 +1,182 @@
+package org.humbird.soa.cache.server.persistence;
+
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.cache.server.txn.TxnHeader;
+import org.humbird.soa.common.io.BinaryInputArchive;
+import org.humbird.soa.common.io.BinaryOutputArchive;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Names of the log and snapshot files and the bits of their formats shared by the log and
+ * the snapshots.
+ * <p/>
+ * Files are named by the hex zxid of their first transaction for logs and of the last
+ * transaction seen when they were started for snapshots, {@code log.1a} and
+ * {@code snapshot.1a}.
+ *
+ * Created by david on 15/6/8.
+ */
+public class Util {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Util.class);
+
+    public static final String LOG_PREFIX = "log";
+
+    public static final String SNAPSHOT_PREFIX = "snapshot";
+
+    // zxid, time and type
+    private static final int TXN_HEADER_SIZE = 20;
+
+    // a complete snapshot ends with the length 1 and this byte
+    private static final byte SNAPSHOT_END = '/';
+
+    public static String makeLogName(long zxid) {
+        return LOG_PREFIX + "." + Long.toHexString(zxid);
+    }
+
+    public static String makeSnapshotName(long zxid) {
+        return SNAPSHOT_PREFIX + "." + Long.toHexString(zxid);
+    }
+
+    /**
+     * @return the zxid of a file name of the prefix, -1 if the name is not one
+     */
+    public static long getZxidFromName(String name, String prefix) {
+        String[] parts = name.split("\\.");
+        if (parts.length == 2 && parts[0].equals(prefix)) {
+            try {
+                return Long.parseLong(parts[1], 16);
+            } catch (NumberFormatException e) {
+                // not ours
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Files of the prefix sorted by zxid, others left out.
+     */
+    public static List<File> sortDataDir(File[] files, final String prefix, boolean ascending) {
+        List<File> sorted = new ArrayList<File>();
+        if (files == null) {
+            return sorted;
+        }
+        for (File file : files) {
+            if (getZxidFromName(file.getName(), prefix) >= 0) {
+                sorted.add(file);
+            }
+        }
+        final int order = ascending ? 1 : -1;
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long z1 = getZxidFromName(o1.getName(), prefix);
+                long z2 = getZxidFromName(o2.getName(), prefix);
+                return order * (z1 < z2 ? -1 : (z1 == z2 ? 0 : 1));
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * A snapshot is valid once it was written to the end, the end marker is written last.
+     */
+    public static boolean isValidSnapshot(File file) throws IOException {
+        if (file == null || getZxidFromName(file.getName(), SNAPSHOT_PREFIX) < 0) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < 10) {
+                return false;
+            }
+            raf.seek(raf.length() - 5);
+            return raf.readInt() == 1 && raf.readByte() == SNAPSHOT_END;
+        } finally {
+            raf.close();
+        }
+    }
+
+    public static void writeSnapshotEnd(OutputArchive archive) throws IOException {
+        archive.writeInt(1, "len");
+        archive.writeByte(SNAPSHOT_END, "end");
+    }
+
+    /**
+     * Grows the file by the preallocation size once the position comes within 4k of its end,
+     * so appends rarely change the file length and a sync only has to write the data.
+     *
+     * @return the new file size
+     */
+    public static long padLogFile(FileOutputStream out, long currentSize, long preAllocSize) throws IOException {
+        FileChannel channel = out.getChannel();
+        long position = channel.position();
+        if (position + 4096 >= currentSize) {
+            currentSize = position + preAllocSize;
+            channel.write(ByteBuffer.wrap(new byte[1]), currentSize - 1);
+        }
+        return currentSize;
+    }
+
+    /**
+     * @return the length of the log entry of a transaction, without marshalling it
+     */
+    public static long txnEntrySize(CacheTxn txn) throws IOException {
+        long size = TXN_HEADER_SIZE;
+        if (txn != null) {
+            size += 4 + (txn.getKey() == null ? 0 : txn.getKey().getBytes("UTF-8").length);
+            size += 4 + (txn.getValue() == null ? 0 : txn.getValue().length);
+        }
+        return size;
+    }
+
+    /**
+     * Entries are read back through {@link BinaryInputArchive}, anything above its
+     * {@code jute.maxbuffer} would be logged but make the log unreadable on restart.
+     */
+    public static void checkTxnSize(long size) throws IOException {
+        if (size > BinaryInputArchive.maxBuffer) {
+            throw new IOException("Transaction of " + size + " bytes is above jute.maxbuffer " + BinaryInputArchive.maxBuffer);
+        }
+    }
+
+    public static byte[] marshallTxnEntry(TxnHeader header, CacheTxn txn) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        OutputArchive archive = BinaryOutputArchive.getArchive(bytes);
+        header.serialize(archive, "hdr");
+        if (txn != null) {
+            txn.serialize(archive, "txn");
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the bytes of one log entry, a zero length marks the preallocated rest of a log.
+     *
+     * @return null at the end of the log
+     */
+    public static byte[] readTxnBytes(InputArchive archive) throws IOException {
+        try {
+            byte[] bytes = archive.readBuffer("txnEntry");
+            if (bytes == null || bytes.length == 0) {
+                return null;
+            }
+            // entries end with 'B', anything else is a torn write
+            if (archive.readByte("EOR") != 'B') {
+                LOG.error("Last transaction was partial.");
+                return null;
+            }
+            return bytes;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+}
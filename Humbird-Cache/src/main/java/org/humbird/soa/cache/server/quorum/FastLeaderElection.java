@@ -0,0 +1,364 @@
+package org.humbird.soa.cache.server.quorum;
+
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.LearnerType;
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.ServerState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fast leader election. Every looking server votes for itself and tells all the others,
+ * then switches its vote to any better one it hears about, and tells everyone again. A vote
+ * is better with a higher epoch, then a higher zxid, then a higher server id. Once the
+ * votes of a quorum agree with its own, and nothing better comes in for a moment, the
+ * election is over.
+ * <p/>
+ * A server that joins or comes back while the others work learns who leads from their
+ * answers, they answer every looking server with the vote that ended their election.
+ * <p/>
+ * Election rounds are counted by the logical clock, votes of older rounds are not counted.
+ *
+ * Created by david on 15/6/10.
+ */
+public class FastLeaderElection {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FastLeaderElection.class);
+
+    /**
+     * Time to wait for a better vote once a quorum agrees.
+     */
+    final static int finalizeWait = 200;
+
+    /**
+     * Upper bound of the time between two rounds of notifications.
+     */
+    final static int maxNotificationInterval = 60000;
+
+    private final QuorumCnxManager manager;
+
+    private final QuorumPeer self;
+
+    private final LinkedBlockingQueue<Notification> recvqueue = new LinkedBlockingQueue<Notification>();
+
+    private final Messenger messenger;
+
+    private volatile long logicalclock;
+
+    private long proposedLeader;
+
+    private long proposedZxid;
+
+    private long proposedEpoch;
+
+    private volatile boolean stop = false;
+
+    /**
+     * A vote as it came in, from the server sid.
+     */
+    static public class Notification {
+
+        long leader;
+
+        long zxid;
+
+        long electionEpoch;
+
+        ServerState state;
+
+        long sid;
+
+        long peerEpoch;
+
+        @Override
+        public String toString() {
+            return "Notification{leader=" + leader + ", zxid=0x" + Long.toHexString(zxid) + ", round=0x"
+                    + Long.toHexString(electionEpoch) + ", state=" + state + ", sid=" + sid + ", peerEpoch=0x"
+                    + Long.toHexString(peerEpoch) + "}";
+        }
+    }
+
+    static ByteBuffer buildMsg(int state, long leader, long zxid, long electionEpoch, long epoch) {
+        byte requestBytes[] = new byte[36];
+        ByteBuffer requestBuffer = ByteBuffer.wrap(requestBytes);
+        requestBuffer.clear();
+        requestBuffer.putInt(state);
+        requestBuffer.putLong(leader);
+        requestBuffer.putLong(zxid);
+        requestBuffer.putLong(electionEpoch);
+        requestBuffer.putLong(epoch);
+        requestBuffer.flip();
+        return requestBuffer;
+    }
+
+    public FastLeaderElection(QuorumPeer self, QuorumCnxManager manager) {
+        this.self = self;
+        this.manager = manager;
+        this.messenger = new Messenger();
+        proposedLeader = -1;
+        proposedZxid = -1;
+    }
+
+    public void start() {
+        messenger.start();
+    }
+
+    public long getLogicalClock() {
+        return logicalclock;
+    }
+
+    public void shutdown() {
+        stop = true;
+        LOG.debug("Shutting down connection manager");
+        manager.halt();
+        messenger.interrupt();
+    }
+
+    /**
+     * Hands the notifications to the election while we look for a leader and answers the
+     * looking servers with our vote otherwise.
+     */
+    class Messenger extends Thread {
+
+        Messenger() {
+            super("humbird-election-messenger");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!stop) {
+                QuorumCnxManager.Message response;
+                try {
+                    response = manager.pollRecvQueue(3000, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (response == null) {
+                    continue;
+                }
+                if (response.buffer.remaining() < 36) {
+                    LOG.error("Got a short response: " + response.buffer.remaining());
+                    continue;
+                }
+                Notification n = new Notification();
+                int state = response.buffer.getInt();
+                if (state < 0 || state >= ServerState.values().length) {
+                    LOG.warn("Ignoring a notification with state " + state);
+                    continue;
+                }
+                n.state = ServerState.values()[state];
+                n.leader = response.buffer.getLong();
+                n.zxid = response.buffer.getLong();
+                n.electionEpoch = response.buffer.getLong();
+                n.peerEpoch = response.buffer.getLong();
+                n.sid = response.sid;
+
+                if (self.getPeerState() == ServerState.LOOKING) {
+                    recvqueue.offer(n);
+                    // a server behind by a round gets our vote so it catches up
+                    if (n.state == ServerState.LOOKING && n.electionEpoch < logicalclock) {
+                        Vote v = getVote();
+                        manager.toSend(n.sid, buildMsg(ServerState.LOOKING.ordinal(), v.getId(), v.getZxid(),
+                                logicalclock, v.getPeerEpoch()));
+                    }
+                } else if (n.state == ServerState.LOOKING) {
+                    // we are done, tell it who won
+                    Vote current = self.getCurrentVote();
+                    manager.toSend(n.sid, buildMsg(self.getPeerState().ordinal(), current.getId(), current.getZxid(),
+                            current.getElectionEpoch(), current.getPeerEpoch()));
+                }
+            }
+            LOG.info("Messenger is down");
+        }
+    }
+
+    private void sendNotifications() {
+        ByteBuffer msg = buildMsg(ServerState.LOOKING.ordinal(), proposedLeader, proposedZxid, logicalclock, proposedEpoch);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Sending notification: " + proposedLeader + " (n.leader), 0x" + Long.toHexString(proposedZxid)
+                    + " (n.zxid), 0x" + Long.toHexString(logicalclock) + " (n.round)");
+        }
+        manager.toSendAll(msg);
+    }
+
+    /**
+     * @return true if the new vote is better than the current one
+     */
+    protected boolean totalOrderPredicate(long newId, long newZxid, long newEpoch, long curId, long curZxid, long curEpoch) {
+        if (!self.isVoter(newId)) {
+            return false;
+        }
+        return ((newEpoch > curEpoch) ||
+                ((newEpoch == curEpoch) &&
+                        ((newZxid > curZxid) || ((newZxid == curZxid) && (newId > curId)))));
+    }
+
+    /**
+     * @return true if the votes of a quorum are the same as the given one
+     */
+    protected boolean termPredicate(HashMap<Long, Vote> votes, Vote vote) {
+        HashSet<Long> set = new HashSet<Long>();
+        for (Map.Entry<Long, Vote> entry : votes.entrySet()) {
+            if (self.isVoter(entry.getKey()) && vote.equals(entry.getValue())) {
+                set.add(entry.getKey());
+            }
+        }
+        return self.getQuorumVerifier().containsQuorum(set);
+    }
+
+    /**
+     * A server can only be followed if it says it leads, or it is us and we think so.
+     */
+    protected boolean checkLeader(HashMap<Long, Vote> votes, long leader, long electionEpoch) {
+        boolean predicate = true;
+        if (leader != self.getId()) {
+            if (votes.get(leader) == null) {
+                predicate = false;
+            } else if (votes.get(leader).getState() != ServerState.LEADING) {
+                predicate = false;
+            }
+        } else if (logicalclock != electionEpoch) {
+            predicate = false;
+        }
+        return predicate;
+    }
+
+    synchronized void updateProposal(long leader, long zxid, long epoch) {
+        proposedLeader = leader;
+        proposedZxid = zxid;
+        proposedEpoch = epoch;
+    }
+
+    synchronized Vote getVote() {
+        return new Vote(proposedLeader, proposedZxid, proposedEpoch);
+    }
+
+    private ServerState learningState() {
+        return self.getLearnerType() == LearnerType.PARTICIPANT ? ServerState.FOLLOWING : ServerState.OBSERVING;
+    }
+
+    private long getInitId() {
+        return self.getLearnerType() == LearnerType.PARTICIPANT ? self.getId() : Long.MIN_VALUE;
+    }
+
+    private long getInitLastLoggedZxid() {
+        return self.getLearnerType() == LearnerType.PARTICIPANT ? self.getLastLoggedZxid() : Long.MIN_VALUE;
+    }
+
+    private long getPeerEpoch() {
+        return self.getLearnerType() == LearnerType.PARTICIPANT ? self.getCurrentEpoch() : Long.MIN_VALUE;
+    }
+
+    /**
+     * Runs an election round and sets the state of the peer by its outcome.
+     *
+     * @return the vote that won, null if the election was stopped
+     */
+    public Vote lookForLeader() throws InterruptedException {
+        HashMap<Long, Vote> recvset = new HashMap<Long, Vote>();
+        HashMap<Long, Vote> outofelection = new HashMap<Long, Vote>();
+        int notTimeout = finalizeWait;
+
+        synchronized (this) {
+            logicalclock++;
+            updateProposal(getInitId(), getInitLastLoggedZxid(), getPeerEpoch());
+        }
+        LOG.info("New election. My id =  " + self.getId() + ", proposed zxid=0x" + Long.toHexString(proposedZxid));
+        sendNotifications();
+
+        while (self.getPeerState() == ServerState.LOOKING && !stop) {
+            Notification n = recvqueue.poll(notTimeout, TimeUnit.MILLISECONDS);
+            if (n == null) {
+                // nobody answered, try everyone again and back off
+                sendNotifications();
+                notTimeout = Math.min(notTimeout * 2, maxNotificationInterval);
+                LOG.info("Notification time out: " + notTimeout);
+                continue;
+            }
+            if (!self.getView().containsKey(n.sid)) {
+                LOG.warn("Ignoring notification from unknown server " + n.sid);
+                continue;
+            }
+            switch (n.state) {
+                case LOOKING:
+                    if (n.electionEpoch > logicalclock) {
+                        logicalclock = n.electionEpoch;
+                        recvset.clear();
+                        if (totalOrderPredicate(n.leader, n.zxid, n.peerEpoch,
+                                getInitId(), getInitLastLoggedZxid(), getPeerEpoch())) {
+                            updateProposal(n.leader, n.zxid, n.peerEpoch);
+                        } else {
+                            updateProposal(getInitId(), getInitLastLoggedZxid(), getPeerEpoch());
+                        }
+                        sendNotifications();
+                    } else if (n.electionEpoch < logicalclock) {
+                        break;
+                    } else if (totalOrderPredicate(n.leader, n.zxid, n.peerEpoch,
+                            proposedLeader, proposedZxid, proposedEpoch)) {
+                        updateProposal(n.leader, n.zxid, n.peerEpoch);
+                        sendNotifications();
+                    }
+
+                    recvset.put(n.sid, new Vote(n.leader, n.zxid, n.electionEpoch, n.peerEpoch));
+
+                    if (termPredicate(recvset, new Vote(proposedLeader, proposedZxid, logicalclock, proposedEpoch))) {
+                        // wait a moment for anything better
+                        while ((n = recvqueue.poll(finalizeWait, TimeUnit.MILLISECONDS)) != null) {
+                            if (totalOrderPredicate(n.leader, n.zxid, n.peerEpoch,
+                                    proposedLeader, proposedZxid, proposedEpoch)) {
+                                recvqueue.put(n);
+                                break;
+                            }
+                        }
+                        if (n == null) {
+                            return leaveInstance(new Vote(proposedLeader, proposedZxid, logicalclock, proposedEpoch));
+                        }
+                    }
+                    break;
+                case OBSERVING:
+                    LOG.debug("Notification from observer: " + n.sid);
+                    break;
+                case FOLLOWING:
+                case LEADING:
+                    // the others are done, see whether a quorum follows the same leader
+                    if (n.electionEpoch == logicalclock) {
+                        recvset.put(n.sid, new Vote(n.leader, n.zxid, n.electionEpoch, n.peerEpoch));
+                        if (termPredicate(recvset, new Vote(n.leader, n.zxid, n.electionEpoch, n.peerEpoch, n.state))
+                                && checkLeader(outofelection, n.leader, n.electionEpoch)) {
+                            return leaveInstance(new Vote(n.leader, n.zxid, n.electionEpoch, n.peerEpoch));
+                        }
+                    }
+                    outofelection.put(n.sid, new Vote(n.leader, n.zxid, n.electionEpoch, n.peerEpoch, n.state));
+                    if (termPredicate(outofelection, new Vote(n.leader, n.zxid, n.electionEpoch, n.peerEpoch, n.state))
+                            && checkLeader(outofelection, n.leader, n.electionEpoch)) {
+                        logicalclock = n.electionEpoch;
+                        return leaveInstance(new Vote(n.leader, n.zxid, n.electionEpoch, n.peerEpoch));
+                    }
+                    break;
+                default:
+                    LOG.warn("Notification state unrecognized: " + n.state + " (n.state), " + n.sid + " (n.sid)");
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ends the election on the vote, the vote is in place before the state changes so the
+     * messenger never answers with a stale one.
+     */
+    private Vote leaveInstance(Vote v) {
+        self.setCurrentVote(v);
+        self.setPeerState(v.getId() == self.getId() ? ServerState.LEADING : learningState());
+        LOG.info("About to leave FLE instance: leader=" + v.getId() + ", zxid=0x" + Long.toHexString(v.getZxid())
+                + ", my id=" + self.getId() + ", my state=" + self.getPeerState());
+        recvqueue.clear();
+        return v;
+    }
+}
@@ -0,0 +1,67 @@
+package org.humbird.soa.cache.server.quorum;
+
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.QuorumServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * A voting learner, it logs and acks the proposals of the leader.
+ *
+ * Created by david on 15/6/10.
+ */
+public class Follower extends Learner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Follower.class);
+
+    Follower(QuorumPeer self) {
+        super(self);
+    }
+
+    /**
+     * Follows the leader until the connection to it breaks.
+     */
+    void followLeader() throws InterruptedException {
+        self.end_fle = System.currentTimeMillis();
+        LOG.info("FOLLOWING - LEADER ELECTION TOOK - " + (self.end_fle - self.start_fle));
+        self.start_fle = 0;
+        self.end_fle = 0;
+        QuorumServer leaderServer = findLeader();
+        if (leaderServer == null) {
+            return;
+        }
+        try {
+            connectToLeader(leaderServer.addr);
+            long newEpochZxid = registerWithLeader(Leader.FOLLOWERINFO);
+            syncWithLeader(newEpochZxid);
+            QuorumPacket qp = new QuorumPacket();
+            while (self.isRunning()) {
+                readPacket(qp);
+                processPacket(qp);
+            }
+        } catch (IOException e) {
+            LOG.warn("Exception when following the leader", e);
+        }
+    }
+
+    protected void processPacket(QuorumPacket qp) throws IOException {
+        switch (qp.getType()) {
+            case Leader.PING:
+                ping(qp);
+                break;
+            case Leader.PROPOSAL:
+                logRequest(qp);
+                break;
+            case Leader.COMMIT:
+                commit(qp.getZxid());
+                break;
+            case Leader.UPTODATE:
+                LOG.info("Up to date with the leader at 0x" + Long.toHexString(getDataStore().getLastProcessedZxid()));
+                self.setServing(true);
+                break;
+            default:
+                LOG.error("Invalid packet type: " + qp.getType() + " received by Follower");
+        }
+    }
+}
@@ -2,18 +2,28 @@ package org.humbird.soa.cache.server.quorum;
 
 import org.humbird.soa.cache.data.Cache;
 import org.humbird.soa.cache.data.CacheReferee;
+import org.humbird.soa.cache.data.HumbirdSession;
+import org.humbird.soa.cache.server.CacheServer;
 import org.humbird.soa.cache.server.DatadirCleanupManager;
+import org.humbird.soa.cache.server.ServerCnxnFactory;
+import org.humbird.soa.cache.server.persistence.FileTxnSnapLog;
 import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.ConfigException;
 import org.humbird.soa.common.utils.SpringUtils;
 import org.humbird.soa.db.HumbirdDbManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 /**
+ * Starts a cache server from its config file, a member of the quorum when servers are
+ * configured and a standalone server otherwise. Clients read and write the entries on
+ * {@code clientPort} through a {@link org.humbird.soa.cache.client.CacheClient}, the cache of
+ * {@code cacheType} gets a copy of them at startup.
+ *
  * Created by david on 15/6/4.
  */
 public class HumbirCMain {
@@ -22,7 +32,11 @@ public class HumbirCMain {
 
     private static final String USAGE = "Usage: HumbirCMain configfile";
 
-//    protected QuorumPeer quorumPeer;
+    protected QuorumPeer quorumPeer;
+
+    protected CacheServer cacheServer;
+
+    protected ServerCnxnFactory cnxnFactory;
 
     public static void main(String[] args) {
         HumbirCMain humbirCMain = new HumbirCMain();
@@ -44,12 +58,11 @@ public class HumbirCMain {
     }
 
     protected void initializeAndRun(String[] args) throws ConfigException, IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Expected the config file, got " + args.length + " arguments");
+        }
         QuorumPeerConfig config = new QuorumPeerConfig();
-//        if (args.length == 1) {
-//            config.parse(args[0]);
-//        }
-        // TODO replace
-        config.parse("/install_apps/test_bak/Humbird/Humbird-Cache/src/main/resources/humbirdC.cfg");
+        config.parse(args[0]);
         SpringUtils.init(config.getSpringFile());
         // Start and schedule the the purge task
         DatadirCleanupManager purgeMgr = new DatadirCleanupManager(config
@@ -57,14 +70,11 @@ public class HumbirCMain {
                 .getSnapRetainCount(), config.getPurgeInterval());
         purgeMgr.start();
 
-        if (args.length == 1 && config.servers.size() > 0) {
+        if (config.servers.size() > 0) {
             runFromConfig(config);
         } else {
-            LOG.error("Either no config or no quorum defined in config, running "
-                    + " in standalone mode");
-            // there is only server in the quorum -- run as standalone
-//            HumbirCMain.main(args);
-            System.exit(1);
+            LOG.info("No quorum defined in config, running in standalone mode");
+            runStandalone(config);
         }
     }
 
@@ -76,17 +86,78 @@ public class HumbirCMain {
 //        }
 
         LOG.info("Starting quorum peer");
+        quorumPeer = new QuorumPeer();
+        quorumPeer.setTxnFactory(new FileTxnSnapLog(new File(config.getDataLogDir()), new File(config.getDataDir())));
+        quorumPeer.setQuorumPeers(config.getServers());
+        quorumPeer.setMyid(config.getServerId());
+        quorumPeer.setQuorumVerifier(config.getQuorumVerifier());
+        quorumPeer.setTickTime(config.getTickTime());
+        quorumPeer.setInitLimit(config.getInitLimit());
+        quorumPeer.setSyncLimit(config.getSyncLimit());
+        quorumPeer.setLearnerType(config.getPeerType());
+        // entries come back from the local snapshot and txn log, then from the leader
+        quorumPeer.start();
+        try {
+            if (!quorumPeer.waitForServing(config.getInitLimit() * config.getTickTime())) {
+                LOG.warn("Not in sync with a leader yet, filling the cache from the local entries");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        cnxnFactory = new ServerCnxnFactory(config.getClientPortAddress(), config.getMaxClientCnxns(), quorumPeer);
+        cnxnFactory.start();
+        fillCache(config, quorumPeer.getSessions());
+    }
+
+    /**
+     * A single server, the entries come back from its own snapshot and txn log. Runs until
+     * the process is stopped.
+     */
+    public void runStandalone(QuorumPeerConfig config) throws IOException {
+        LOG.info("Starting standalone cache server");
+        final CountDownLatch stopped = new CountDownLatch(1);
+        cacheServer = new CacheServer(new FileTxnSnapLog(new File(config.getDataLogDir()), new File(config.getDataDir())));
+        cacheServer.startup();
+        cnxnFactory = new ServerCnxnFactory(config.getClientPortAddress(), config.getMaxClientCnxns(), cacheServer);
+        cnxnFactory.start();
+        Runtime.getRuntime().addShutdownHook(new Thread("humbird-cache-shutdown") {
+            @Override
+            public void run() {
+                cnxnFactory.shutdown();
+                cacheServer.shutdown();
+                stopped.countDown();
+            }
+        });
+        fillCache(config, cacheServer.getSessions());
+        try {
+            // the sync thread is a daemon, this one keeps the process up
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fillCache(QuorumPeerConfig config, Map<String, HumbirdSession> sessions) throws IOException {
         CacheReferee cacheReferee = new CacheReferee();
         try {
             cacheReferee.createCacheWrapper(config.getCacheType(), config.getCacheFile());
         } catch (Exception e) {
-            e.printStackTrace();
+            throw new IOException("Unable to create the " + config.getCacheType() + " cache", e);
         }
         Cache cache = cacheReferee.getCache();
 
+        if (sessions.size() > 0) {
+            try {
+                cache.put(sessions);
+                LOG.info("Recovered " + sessions.size() + " entries from the txn log");
+                return;
+            } catch (Exception e) {
+                LOG.warn("Unable to fill the cache from the local entries, reading the database", e);
+            }
+        }
+
         HumbirdDbManager humbirdDbManager = (HumbirdDbManager) SpringUtils.get().getBean("humbirdDbManager");
-        List<Map<String, Object>> list = humbirdDbManager.getJdbcTemplate().queryForList("select 1 from dual");
-        System.out.println("--- " + list.size());
-        System.out.println("--- " + list.get(0).get("1"));
+        humbirdDbManager.getJdbcTemplate().queryForList("select 1 from dual");
+        LOG.info("No entries on disk, the cache starts empty, database reachable");
     }
 }
@@ -0,0 +1,553 @@
+package org.humbird.soa.cache.server.quorum;
+
+import org.humbird.soa.cache.server.DataStore;
+import org.humbird.soa.cache.server.Request;
+import org.humbird.soa.cache.server.RequestProcessor;
+import org.humbird.soa.cache.server.SyncRequestProcessor;
+import org.humbird.soa.cache.server.persistence.Util;
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.LearnerType;
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.cache.server.txn.TxnHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.*;
+
+/**
+ * The leader of an epoch. It orders every write of the ensemble.
+ * <p/>
+ * Taking over happens in three steps, each one waiting for a quorum of followers:
+ * <ol>
+ * <li>the followers report the last epoch they accepted and the leader proposes the next one</li>
+ * <li>they acknowledge the new epoch, from then on they take no other leader of an older one</li>
+ * <li>they load the leader's entries and acknowledge them, the leader starts taking writes</li>
+ * </ol>
+ * A write is proposed to the followers and logged by the leader, it commits once a quorum
+ * has it on disk. Commits go out in zxid order. Observers only get the committed writes and
+ * are never waited for, adding them does not slow the commits down.
+ *
+ * Created by david on 15/6/10.
+ */
+public class Leader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Leader.class);
+
+    /**
+     * A write forwarded by a learner.
+     */
+    final static int REQUEST = 1;
+
+    final static int PROPOSAL = 2;
+
+    final static int ACK = 3;
+
+    final static int COMMIT = 4;
+
+    final static int PING = 5;
+
+    /**
+     * A committed write sent to the observers, they never see the proposal.
+     */
+    final static int INFORM = 8;
+
+    final static int NEWLEADER = 10;
+
+    final static int FOLLOWERINFO = 11;
+
+    final static int UPTODATE = 12;
+
+    /**
+     * First packet of an observer, it takes no part in the quorums.
+     */
+    final static int OBSERVERINFO = 16;
+
+    /**
+     * Followed by the entries of the leader, the learner replaces its own with them.
+     */
+    final static int SNAP = 15;
+
+    final static int LEADERINFO = 17;
+
+    final static int ACKEPOCH = 18;
+
+    static class Proposal {
+
+        QuorumPacket packet;
+
+        Request request;
+
+        HashSet<Long> ackSet = new HashSet<Long>();
+
+        @Override
+        public String toString() {
+            return packet.getType() + ", 0x" + Long.toHexString(packet.getZxid());
+        }
+    }
+
+    final QuorumPeer self;
+
+    private final ServerSocket ss;
+
+    private final List<LearnerHandler> learners = new ArrayList<LearnerHandler>();
+
+    private final List<LearnerHandler> forwardingFollowers = new ArrayList<LearnerHandler>();
+
+    private final List<LearnerHandler> observingLearners = new ArrayList<LearnerHandler>();
+
+    private final TreeMap<Long, Proposal> outstandingProposals = new TreeMap<Long, Proposal>();
+
+    private final HashSet<Long> connectingFollowers = new HashSet<Long>();
+
+    private final HashSet<Long> electingFollowers = new HashSet<Long>();
+
+    private final HashSet<Long> newLeaderAckSet = new HashSet<Long>();
+
+    private boolean waitingForNewEpoch = true;
+
+    private boolean electionFinished = false;
+
+    private boolean newLeaderAcked = false;
+
+    private long epoch = -1;
+
+    private long zxid;
+
+    private volatile long lastCommitted = -1;
+
+    private boolean ready = false;
+
+    private volatile boolean isShutdown;
+
+    private volatile boolean rolledOver;
+
+    private SyncRequestProcessor syncProcessor;
+
+    private LearnerCnxAcceptor cnxAcceptor;
+
+    public Leader(QuorumPeer self) throws IOException {
+        this.self = self;
+        try {
+            ss = new ServerSocket();
+            ss.setReuseAddress(true);
+            ss.bind(new InetSocketAddress(self.getQuorumAddress().getPort()));
+        } catch (BindException e) {
+            LOG.error("Couldn't bind to port " + self.getQuorumAddress().getPort(), e);
+            throw e;
+        }
+    }
+
+    DataStore getDataStore() {
+        return self.getDataStore();
+    }
+
+    long getLastCommitted() {
+        return lastCommitted;
+    }
+
+    List<LearnerHandler> getLearners() {
+        synchronized (learners) {
+            return new ArrayList<LearnerHandler>(learners);
+        }
+    }
+
+    void addLearnerHandler(LearnerHandler learner) {
+        synchronized (learners) {
+            learners.add(learner);
+        }
+    }
+
+    void removeLearnerHandler(LearnerHandler peer) {
+        synchronized (this) {
+            forwardingFollowers.remove(peer);
+            observingLearners.remove(peer);
+        }
+        synchronized (learners) {
+            learners.remove(peer);
+        }
+    }
+
+    /**
+     * Accepts the connections of the learners.
+     */
+    class LearnerCnxAcceptor extends Thread {
+
+        private volatile boolean stop = false;
+
+        LearnerCnxAcceptor() {
+            super("humbird-learner-acceptor");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!stop) {
+                try {
+                    Socket s = ss.accept();
+                    // the learner reads with its own timeouts, this one only covers the handshake
+                    s.setSoTimeout(self.getTickTime() * self.getInitLimit());
+                    s.setTcpNoDelay(true);
+                    LearnerHandler fh = new LearnerHandler(s, Leader.this);
+                    fh.start();
+                } catch (SocketException e) {
+                    if (stop) {
+                        LOG.info("exception while shutting down acceptor: " + e);
+                    } else {
+                        LOG.warn("Exception while accepting follower", e);
+                    }
+                    stop = true;
+                } catch (IOException e) {
+                    LOG.warn("Exception while accepting follower", e);
+                }
+            }
+        }
+
+        void halt() {
+            stop = true;
+        }
+    }
+
+    /**
+     * Takes over the ensemble and watches that a quorum keeps following.
+     */
+    void lead() throws IOException, InterruptedException {
+        self.end_fle = System.currentTimeMillis();
+        LOG.info("LEADING - LEADER ELECTION TOOK - " + (self.end_fle - self.start_fle));
+        self.start_fle = 0;
+        self.end_fle = 0;
+        try {
+            // logged proposals of the last epoch are ours to commit
+            if (self.getLastLoggedZxid() > getDataStore().getLastProcessedZxid()) {
+                self.loadDataBase();
+            }
+
+            cnxAcceptor = new LearnerCnxAcceptor();
+            cnxAcceptor.start();
+
+            long newEpoch = getEpochToPropose(self.getId(), self.getAcceptedEpoch());
+            synchronized (this) {
+                zxid = newEpoch << 32;
+                lastCommitted = zxid;
+            }
+            waitForEpochAck(self.getId());
+            self.setCurrentEpoch(newEpoch);
+
+            // nothing of an older epoch is replayed over this snapshot
+            getDataStore().setLastProcessedZxid(lastCommitted);
+            self.getTxnFactory().save(getDataStore());
+            syncProcessor = new SyncRequestProcessor(self.getTxnFactory(), getDataStore(), new AckRequestProcessor());
+            syncProcessor.start();
+
+            waitForNewLeaderAck(self.getId());
+            synchronized (this) {
+                ready = true;
+                notifyAll();
+            }
+            self.setServing(true);
+            LOG.info("Leading epoch 0x" + Long.toHexString(newEpoch) + " with " + getLearners().size() + " learners");
+
+            while (true) {
+                Thread.sleep(self.getTickTime() / 2);
+                HashSet<Long> syncedSet = new HashSet<Long>();
+                syncedSet.add(self.getId());
+                for (LearnerHandler f : getLearners()) {
+                    if (f.synced() && self.isVoter(f.getSid())) {
+                        syncedSet.add(f.getSid());
+                    }
+                    f.ping();
+                }
+                if (!self.getQuorumVerifier().containsQuorum(syncedSet)) {
+                    shutdown("Not sufficient followers synced, only synced with sids: " + syncedSet);
+                    return;
+                }
+                if (rolledOver) {
+                    shutdown("zxid lower 32 bits have rolled over, forcing re-election");
+                    return;
+                }
+                if (isShutdown) {
+                    return;
+                }
+            }
+        } finally {
+            if (!isShutdown) {
+                shutdown("lead() left");
+            }
+        }
+    }
+
+    /**
+     * Stops leading, writes that did not commit fail.
+     */
+    void shutdown(String reason) {
+        if (isShutdown) {
+            return;
+        }
+        LOG.info("Shutting down, " + reason);
+        isShutdown = true;
+        self.setServing(false);
+        if (cnxAcceptor != null) {
+            cnxAcceptor.halt();
+        }
+        try {
+            ss.close();
+        } catch (IOException e) {
+            LOG.warn("Ignoring unexpected exception during close", e);
+        }
+        for (LearnerHandler f : getLearners()) {
+            f.shutdown();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+        // the sync processor acks into this leader, it must not wait for our lock
+        if (syncProcessor != null) {
+            syncProcessor.shutdown();
+        }
+        synchronized (this) {
+            IOException e = new IOException("Leader shut down, " + reason);
+            for (Proposal p : outstandingProposals.values()) {
+                p.request.fail(e);
+            }
+            outstandingProposals.clear();
+        }
+    }
+
+    /**
+     * Orders a write and sends it to the followers.
+     *
+     * @param sid  the server the write came from
+     * @param cxid the number of the write on that server
+     */
+    synchronized Request propose(int type, CacheTxn txn, long sid, long cxid) throws IOException {
+        if (!ready || isShutdown) {
+            throw new IOException("The leader is not serving");
+        }
+        // before it takes a zxid, the followers could not read it back
+        Util.checkTxnSize(Util.txnEntrySize(txn));
+        if ((zxid & 0xffffffffL) == 0xffffffffL) {
+            // the counter would run into the epoch, a new leader starts a new one
+            rolledOver = true;
+            throw new IOException("zxid lower 32 bits have rolled over, forcing re-election");
+        }
+        zxid++;
+        Request request = new Request(new TxnHeader(zxid, System.currentTimeMillis(), type), txn, sid, cxid);
+        Proposal p = new Proposal();
+        p.request = request;
+        p.packet = new QuorumPacket(PROPOSAL, zxid, sid, cxid, request.marshall());
+        outstandingProposals.put(zxid, p);
+        sendPacket(p.packet);
+        syncProcessor.processRequest(request);
+        return request;
+    }
+
+    /**
+     * Counts the ack of a follower, or of the leader itself, and commits what a quorum has.
+     */
+    synchronized void processAck(long sid, long zxid) {
+        if (isShutdown || !self.isVoter(sid)) {
+            return;
+        }
+        Proposal p = outstandingProposals.get(zxid);
+        if (p == null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Ack for 0x" + Long.toHexString(zxid) + " from " + sid + " came in after the commit");
+            }
+            return;
+        }
+        p.ackSet.add(sid);
+        // commit in order, a later proposal waits for the ones before it
+        while (!outstandingProposals.isEmpty()) {
+            Map.Entry<Long, Proposal> first = outstandingProposals.firstEntry();
+            if (!self.getQuorumVerifier().containsQuorum(first.getValue().ackSet)) {
+                break;
+            }
+            outstandingProposals.remove(first.getKey());
+            commit(first.getValue());
+        }
+    }
+
+    private void commit(Proposal p) {
+        long committed = p.packet.getZxid();
+        lastCommitted = committed;
+        sendPacket(new QuorumPacket(COMMIT, committed, null));
+        inform(p.packet);
+        getDataStore().processTxn(p.request.getHeader(), p.request.getTxn());
+        p.request.complete();
+    }
+
+    private void sendPacket(QuorumPacket qp) {
+        for (LearnerHandler f : forwardingFollowers) {
+            f.queuePacket(qp);
+        }
+    }
+
+    /**
+     * Sends a committed proposal to the observers, the data goes along.
+     */
+    private void inform(QuorumPacket proposal) {
+        QuorumPacket qp = new QuorumPacket(INFORM, proposal.getZxid(), proposal.getSid(), proposal.getCxid(),
+                proposal.getData());
+        for (LearnerHandler o : observingLearners) {
+            o.queuePacket(qp);
+        }
+    }
+
+    /**
+     * Queues the entries for a learner that finished the handshake, then everything not yet
+     * committed, and forwards all later packets to it.
+     * <p/>
+     * The entries are written out while writes go on. Every write after the zxid of the
+     * snapshot reaches the learner again, as a proposal for a follower and once committed for
+     * an observer, so it ends up with the same entries.
+     */
+    synchronized void startForwarding(LearnerHandler handler) {
+        handler.queuePacket(new QuorumPacket(SNAP, lastCommitted, null));
+        handler.queuePacket(new QuorumPacket(NEWLEADER, epoch << 32, null));
+        if (handler.getLearnerType() == LearnerType.OBSERVER) {
+            observingLearners.add(handler);
+            return;
+        }
+        for (Proposal p : outstandingProposals.values()) {
+            handler.queuePacket(p.packet);
+        }
+        forwardingFollowers.add(handler);
+    }
+
+    /**
+     * Joins the epoch negotiation, the new epoch is above every epoch a quorum accepted.
+     */
+    long getEpochToPropose(long sid, long lastAcceptedEpoch) throws InterruptedException, IOException {
+        synchronized (connectingFollowers) {
+            if (!waitingForNewEpoch) {
+                return epoch;
+            }
+            if (lastAcceptedEpoch >= epoch) {
+                epoch = lastAcceptedEpoch + 1;
+            }
+            if (self.isVoter(sid)) {
+                connectingFollowers.add(sid);
+            }
+            if (connectingFollowers.contains(self.getId()) && self.getQuorumVerifier().containsQuorum(connectingFollowers)) {
+                waitingForNewEpoch = false;
+                self.setAcceptedEpoch(epoch);
+                connectingFollowers.notifyAll();
+            } else {
+                long start = System.currentTimeMillis();
+                long cur = start;
+                long end = start + self.getInitLimit() * self.getTickTime();
+                while (waitingForNewEpoch && cur < end && !isShutdown) {
+                    connectingFollowers.wait(end - cur);
+                    cur = System.currentTimeMillis();
+                }
+                if (waitingForNewEpoch) {
+                    throw new InterruptedException("Timeout while waiting for epoch from quorum");
+                }
+            }
+            return epoch;
+        }
+    }
+
+    void waitForEpochAck(long id) throws IOException, InterruptedException {
+        synchronized (electingFollowers) {
+            if (electionFinished) {
+                return;
+            }
+            if (self.isVoter(id)) {
+                electingFollowers.add(id);
+            }
+            if (electingFollowers.contains(self.getId()) && self.getQuorumVerifier().containsQuorum(electingFollowers)) {
+                electionFinished = true;
+                electingFollowers.notifyAll();
+            } else {
+                long start = System.currentTimeMillis();
+                long cur = start;
+                long end = start + self.getInitLimit() * self.getTickTime();
+                while (!electionFinished && cur < end && !isShutdown) {
+                    electingFollowers.wait(end - cur);
+                    cur = System.currentTimeMillis();
+                }
+                if (!electionFinished) {
+                    throw new InterruptedException("Timeout while waiting for epoch to be acked by quorum");
+                }
+            }
+        }
+    }
+
+    void waitForNewLeaderAck(long sid) throws InterruptedException {
+        synchronized (newLeaderAckSet) {
+            if (newLeaderAcked) {
+                return;
+            }
+            if (self.isVoter(sid)) {
+                newLeaderAckSet.add(sid);
+            }
+            if (newLeaderAckSet.contains(self.getId()) && self.getQuorumVerifier().containsQuorum(newLeaderAckSet)) {
+                newLeaderAcked = true;
+                newLeaderAckSet.notifyAll();
+            } else {
+                long start = System.currentTimeMillis();
+                long cur = start;
+                long end = start + self.getInitLimit() * self.getTickTime();
+                while (!newLeaderAcked && cur < end && !isShutdown) {
+                    newLeaderAckSet.wait(end - cur);
+                    cur = System.currentTimeMillis();
+                }
+                if (!newLeaderAcked) {
+                    throw new InterruptedException("Timeout while waiting for NEWLEADER to be acked by quorum");
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the leader takes writes, learners are up to date only then.
+     */
+    synchronized void waitForStartup() throws InterruptedException {
+        long end = System.currentTimeMillis() + self.getInitLimit() * self.getTickTime();
+        long cur = System.currentTimeMillis();
+        while (!ready && !isShutdown && cur < end) {
+            wait(end - cur);
+            cur = System.currentTimeMillis();
+        }
+        if (!ready) {
+            throw new InterruptedException("Timeout while waiting for the leader to start");
+        }
+    }
+
+    boolean isShutdown() {
+        return isShutdown;
+    }
+
+    /**
+     * Writes of the leader itself, waits for the commit.
+     */
+    void submit(int type, CacheTxn txn) throws IOException {
+        Request request = propose(type, txn, self.getId(), -1);
+        try {
+            request.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for zxid 0x" + Long.toHexString(request.getHeader().getZxid()));
+        }
+    }
+
+    /**
+     * Acks the proposals of the leader once they are logged.
+     */
+    class AckRequestProcessor implements RequestProcessor {
+
+        @Override
+        public void processRequest(Request request) {
+            processAck(self.getId(), request.getHeader().getZxid());
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
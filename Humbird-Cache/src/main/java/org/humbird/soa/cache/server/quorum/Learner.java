@@ -0,0 +1,295 @@
+package org.humbird.soa.cache.server.quorum;
+
+import org.humbird.soa.cache.server.DataStore;
+import org.humbird.soa.cache.server.Request;
+import org.humbird.soa.cache.server.RequestProcessor;
+import org.humbird.soa.cache.server.SyncRequestProcessor;
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.QuorumServer;
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.cache.server.txn.TxnHeader;
+import org.humbird.soa.common.io.BinaryInputArchive;
+import org.humbird.soa.common.io.BinaryOutputArchive;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A server following the leader. It connects to it, agrees on the epoch, replaces its entries
+ * with the leader's and then applies the writes the leader commits.
+ * <p/>
+ * Writes made on a learner are forwarded to the leader and return when their commit comes
+ * back. Reads never leave the server.
+ *
+ * Created by david on 15/6/10.
+ */
+public class Learner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Learner.class);
+
+    protected final QuorumPeer self;
+
+    protected Socket sock;
+
+    protected InputArchive leaderIs;
+
+    protected OutputArchive leaderOs;
+
+    protected BufferedOutputStream bufferedOutput;
+
+    /**
+     * Proposals logged and not yet committed, in zxid order.
+     */
+    protected final LinkedBlockingQueue<Request> pendingTxns = new LinkedBlockingQueue<Request>();
+
+    /**
+     * Writes of this server waiting for their commit, by cxid.
+     */
+    protected final ConcurrentHashMap<Long, Request> pendingRequests = new ConcurrentHashMap<Long, Request>();
+
+    private final AtomicLong cxid = new AtomicLong();
+
+    protected SyncRequestProcessor syncProcessor;
+
+    protected Learner(QuorumPeer self) {
+        this.self = self;
+    }
+
+    protected DataStore getDataStore() {
+        return self.getDataStore();
+    }
+
+    void writePacket(QuorumPacket pp, boolean flush) throws IOException {
+        synchronized (leaderOs) {
+            if (pp != null) {
+                leaderOs.writeRecord(pp, "packet");
+            }
+            if (flush) {
+                bufferedOutput.flush();
+            }
+        }
+    }
+
+    void readPacket(QuorumPacket pp) throws IOException {
+        synchronized (leaderIs) {
+            leaderIs.readRecord(pp, "packet");
+        }
+    }
+
+    protected QuorumServer findLeader() {
+        Vote current = self.getCurrentVote();
+        QuorumServer leader = self.getView().get(current.getId());
+        if (leader == null) {
+            LOG.warn("Couldn't find the leader with id = " + current.getId());
+        }
+        return leader;
+    }
+
+    protected void connectToLeader(InetSocketAddress addr) throws IOException, InterruptedException {
+        sock = new Socket();
+        sock.setSoTimeout(self.getTickTime() * self.getInitLimit());
+        for (int tries = 0; tries < 5; tries++) {
+            try {
+                sock.connect(addr, self.getTickTime() * self.getSyncLimit());
+                sock.setTcpNoDelay(true);
+                break;
+            } catch (IOException e) {
+                if (tries == 4) {
+                    LOG.error("Unexpected exception", e);
+                    throw e;
+                }
+                LOG.warn("Unexpected exception, tries=" + tries + ", connecting to " + addr, e);
+                sock = new Socket();
+                sock.setSoTimeout(self.getTickTime() * self.getInitLimit());
+            }
+            Thread.sleep(1000);
+        }
+        leaderIs = BinaryInputArchive.getArchive(new BufferedInputStream(sock.getInputStream()));
+        bufferedOutput = new BufferedOutputStream(sock.getOutputStream());
+        leaderOs = BinaryOutputArchive.getArchive(bufferedOutput);
+    }
+
+    /**
+     * Tells the leader about us and takes on its epoch.
+     *
+     * @return the first zxid of the new epoch
+     */
+    protected long registerWithLeader(int pktType) throws IOException {
+        writePacket(new QuorumPacket(pktType, self.getLastLoggedZxid(), self.getId(), self.getAcceptedEpoch(), null), true);
+        QuorumPacket qp = new QuorumPacket();
+        readPacket(qp);
+        if (qp.getType() != Leader.LEADERINFO) {
+            LOG.error("First packet should have been LEADERINFO");
+            throw new IOException("First packet should have been LEADERINFO");
+        }
+        long newEpoch = qp.getZxid() >>> 32;
+        if (newEpoch > self.getAcceptedEpoch()) {
+            self.setAcceptedEpoch(newEpoch);
+        } else if (newEpoch < self.getAcceptedEpoch()) {
+            LOG.error("Proposed leader epoch " + newEpoch + " is less than our accepted epoch " + self.getAcceptedEpoch());
+            throw new IOException("Error: Epoch of leader is lower");
+        }
+        writePacket(new QuorumPacket(Leader.ACKEPOCH, self.getLastLoggedZxid(), self.getId(), self.getCurrentEpoch(), null), true);
+        return qp.getZxid();
+    }
+
+    /**
+     * Loads the entries of the leader and acks them. Proposals of the leader may follow
+     * before it says we are up to date, they are handled like any later one.
+     */
+    protected void syncWithLeader(long newLeaderZxid) throws IOException {
+        QuorumPacket qp = new QuorumPacket();
+        readPacket(qp);
+        if (qp.getType() != Leader.SNAP) {
+            throw new IOException("Expected SNAP, got " + qp);
+        }
+        LOG.info("Getting a snapshot from leader 0x" + Long.toHexString(qp.getZxid()));
+        DataStore dataStore = getDataStore();
+        synchronized (leaderIs) {
+            dataStore.clear();
+            dataStore.deserialize(leaderIs, "tree");
+            long signature = leaderIs.readLong("signature");
+            if (signature != qp.getZxid()) {
+                throw new IOException("Missing signature, got 0x" + Long.toHexString(signature));
+            }
+        }
+        dataStore.setLastProcessedZxid(qp.getZxid());
+
+        readPacket(qp);
+        if (qp.getType() != Leader.NEWLEADER) {
+            throw new IOException("Expected NEWLEADER, got " + qp);
+        }
+        // what we logged of older epochs is not replayed over this snapshot
+        dataStore.setLastProcessedZxid(Math.max(dataStore.getLastProcessedZxid(), newLeaderZxid));
+        self.getTxnFactory().save(dataStore);
+        self.setCurrentEpoch(newLeaderZxid >>> 32);
+
+        syncProcessor = new SyncRequestProcessor(self.getTxnFactory(), dataStore, newAckProcessor());
+        syncProcessor.start();
+        writePacket(new QuorumPacket(Leader.ACK, newLeaderZxid, null), true);
+        sock.setSoTimeout(self.getTickTime() * self.getSyncLimit());
+    }
+
+    /**
+     * @return what follows the logging of a proposal
+     */
+    protected RequestProcessor newAckProcessor() {
+        return new SendAckRequestProcessor();
+    }
+
+    protected void logRequest(QuorumPacket qp) throws IOException {
+        Request request = Request.unmarshall(qp.getData());
+        request = new Request(request.getHeader(), request.getTxn(), qp.getSid(), qp.getCxid());
+        pendingTxns.add(request);
+        syncProcessor.processRequest(request);
+    }
+
+    /**
+     * Applies the oldest pending proposal, the leader commits them in order.
+     */
+    protected void commit(long zxid) throws IOException {
+        Request request = pendingTxns.peek();
+        if (request == null) {
+            LOG.warn("Committing 0x" + Long.toHexString(zxid) + " without seeing txn");
+            return;
+        }
+        long firstElementZxid = request.getHeader().getZxid();
+        if (firstElementZxid != zxid) {
+            throw new IOException("Committing zxid 0x" + Long.toHexString(zxid) + " but next pending txn 0x"
+                    + Long.toHexString(firstElementZxid));
+        }
+        pendingTxns.remove();
+        apply(request);
+    }
+
+    protected void apply(Request request) {
+        getDataStore().processTxn(request.getHeader(), request.getTxn());
+        if (request.getSid() == self.getId()) {
+            Request waiting = pendingRequests.remove(request.getCxid());
+            if (waiting != null) {
+                waiting.complete();
+            }
+        }
+    }
+
+    /**
+     * Forwards a write to the leader and waits for its commit.
+     */
+    void submit(int type, CacheTxn txn) throws IOException {
+        if (!self.isServing()) {
+            throw new IOException("Not in sync with the leader yet");
+        }
+        long id = cxid.incrementAndGet();
+        Request request = new Request(new TxnHeader(0, System.currentTimeMillis(), type), txn, self.getId(), id);
+        pendingRequests.put(id, request);
+        try {
+            writePacket(new QuorumPacket(Leader.REQUEST, -1, self.getId(), id, request.marshall()), true);
+            request.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the commit");
+        } finally {
+            pendingRequests.remove(id);
+        }
+    }
+
+    protected void ping(QuorumPacket qp) throws IOException {
+        writePacket(new QuorumPacket(Leader.PING, getDataStore().getLastProcessedZxid(), null), true);
+    }
+
+    /**
+     * Closes the connection to the leader, writes waiting for it fail.
+     */
+    public void shutdown() {
+        self.setServing(false);
+        try {
+            if (sock != null) {
+                sock.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Ignoring error closing connection to leader", e);
+        }
+        if (syncProcessor != null) {
+            syncProcessor.shutdown();
+        }
+        IOException e = new IOException("Lost the leader");
+        for (Request request : pendingRequests.values()) {
+            request.fail(e);
+        }
+        pendingRequests.clear();
+        pendingTxns.clear();
+    }
+
+    /**
+     * Acks the proposals to the leader once they are logged.
+     */
+    class SendAckRequestProcessor implements RequestProcessor {
+
+        @Override
+        public void processRequest(Request request) {
+            try {
+                writePacket(new QuorumPacket(Leader.ACK, request.getHeader().getZxid(), null), true);
+            } catch (IOException e) {
+                LOG.warn("Closing connection to leader, exception during packet send", e);
+                try {
+                    sock.close();
+                } catch (IOException e1) {
+                    // closing
+                }
+            }
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
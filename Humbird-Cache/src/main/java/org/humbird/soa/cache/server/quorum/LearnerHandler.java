@@ -0,0 +1,224 @@
+package org.humbird.soa.cache.server.quorum;
+
+import org.humbird.soa.cache.server.Request;
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.LearnerType;
+import org.humbird.soa.common.io.BinaryInputArchive;
+import org.humbird.soa.common.io.BinaryOutputArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The leader's end of the connection to one learner. It takes the learner through the
+ * handshake and then reads its acks and forwarded writes, while a second thread sends it
+ * what the leader queues.
+ *
+ * Created by david on 15/6/10.
+ */
+public class LearnerHandler extends Thread {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LearnerHandler.class);
+
+    private final Socket sock;
+
+    private final Leader leader;
+
+    private final LinkedBlockingQueue<QuorumPacket> queuedPackets = new LinkedBlockingQueue<QuorumPacket>();
+
+    private final QuorumPacket proposalOfDeath = new QuorumPacket();
+
+    private long sid = 0;
+
+    private LearnerType learnerType = LearnerType.PARTICIPANT;
+
+    private BinaryInputArchive ia;
+
+    private BinaryOutputArchive oa;
+
+    private BufferedOutputStream bufferedOutput;
+
+    private volatile long lastHeard = System.currentTimeMillis();
+
+    private volatile boolean upToDate = false;
+
+    LearnerHandler(Socket sock, Leader leader) throws IOException {
+        super("humbird-learner-handler-" + sock.getRemoteSocketAddress());
+        setDaemon(true);
+        this.sock = sock;
+        this.leader = leader;
+        leader.addLearnerHandler(this);
+    }
+
+    public long getSid() {
+        return sid;
+    }
+
+    public LearnerType getLearnerType() {
+        return learnerType;
+    }
+
+    /**
+     * @return true if the learner is up to date and was heard from within the sync limit
+     */
+    boolean synced() {
+        return isAlive() && upToDate
+                && System.currentTimeMillis() - lastHeard < leader.self.getTickTime() * leader.self.getSyncLimit();
+    }
+
+    void queuePacket(QuorumPacket p) {
+        queuedPackets.add(p);
+    }
+
+    void ping() {
+        queuePacket(new QuorumPacket(Leader.PING, leader.getLastCommitted(), null));
+    }
+
+    private void sendPackets() throws InterruptedException {
+        while (true) {
+            try {
+                QuorumPacket p = queuedPackets.poll();
+                if (p == null) {
+                    bufferedOutput.flush();
+                    p = queuedPackets.take();
+                }
+                if (p == proposalOfDeath) {
+                    break;
+                }
+                oa.writeRecord(p, "packet");
+                if (p.getType() == Leader.SNAP) {
+                    // the entries follow the packet, the zxid again marks their end
+                    leader.getDataStore().serialize(oa, "tree");
+                    oa.writeLong(p.getZxid(), "signature");
+                }
+            } catch (IOException e) {
+                if (!sock.isClosed()) {
+                    LOG.warn("Unexpected exception at " + this, e);
+                    closeSocket();
+                }
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            ia = BinaryInputArchive.getArchive(new BufferedInputStream(sock.getInputStream()));
+            bufferedOutput = new BufferedOutputStream(sock.getOutputStream());
+            oa = BinaryOutputArchive.getArchive(bufferedOutput);
+
+            QuorumPacket qp = new QuorumPacket();
+            ia.readRecord(qp, "packet");
+            if (qp.getType() != Leader.FOLLOWERINFO && qp.getType() != Leader.OBSERVERINFO) {
+                LOG.error("First packet " + qp + " is not FOLLOWERINFO or OBSERVERINFO!");
+                return;
+            }
+            sid = qp.getSid();
+            if (qp.getType() == Leader.OBSERVERINFO) {
+                learnerType = LearnerType.OBSERVER;
+            }
+            setName("humbird-learner-handler-" + sid);
+
+            long newEpoch = leader.getEpochToPropose(sid, qp.getCxid());
+            oa.writeRecord(new QuorumPacket(Leader.LEADERINFO, newEpoch << 32, null), "packet");
+            bufferedOutput.flush();
+
+            ia.readRecord(qp, "packet");
+            if (qp.getType() != Leader.ACKEPOCH) {
+                LOG.error(qp + " is not ACKEPOCH");
+                return;
+            }
+            leader.waitForEpochAck(sid);
+
+            new Thread("humbird-sender-" + sid) {
+                public void run() {
+                    Thread.currentThread().setName("humbird-sender-" + sock.getRemoteSocketAddress());
+                    try {
+                        sendPackets();
+                    } catch (InterruptedException e) {
+                        LOG.warn("Unexpected interruption", e);
+                    }
+                }
+            }.start();
+
+            leader.startForwarding(this);
+
+            // the learner acks NEWLEADER once it has the entries
+            ia.readRecord(qp, "packet");
+            if (qp.getType() != Leader.ACK) {
+                LOG.error("Next packet was supposed to be an ACK");
+                return;
+            }
+            leader.waitForNewLeaderAck(sid);
+
+            sock.setSoTimeout(leader.self.getTickTime() * leader.self.getSyncLimit());
+            leader.waitForStartup();
+            queuedPackets.add(new QuorumPacket(Leader.UPTODATE, -1, null));
+            upToDate = true;
+            lastHeard = System.currentTimeMillis();
+
+            while (true) {
+                qp = new QuorumPacket();
+                ia.readRecord(qp, "packet");
+                lastHeard = System.currentTimeMillis();
+                switch (qp.getType()) {
+                    case Leader.ACK:
+                        if (learnerType == LearnerType.OBSERVER) {
+                            LOG.debug("Received ACK from Observer " + sid);
+                        }
+                        leader.processAck(sid, qp.getZxid());
+                        break;
+                    case Leader.PING:
+                        break;
+                    case Leader.REQUEST:
+                        Request request = Request.unmarshall(qp.getData());
+                        try {
+                            leader.propose(request.getHeader().getType(), request.getTxn(), sid, qp.getCxid());
+                        } catch (IOException e) {
+                            // the learner fails the write when it loses the leader
+                            LOG.warn("Dropping request " + qp.getCxid() + " of " + sid + ", " + e.getMessage());
+                        }
+                        break;
+                    default:
+                        LOG.warn("unexpected quorum packet, type: " + qp.getType());
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            if (sock != null && !sock.isClosed()) {
+                LOG.error("Unexpected exception causing shutdown while sock still open", e);
+            }
+        } catch (InterruptedException e) {
+            LOG.error("Unexpected exception causing shutdown", e);
+        } finally {
+            LOG.warn("******* GOODBYE " + (sock != null ? sock.getRemoteSocketAddress() : "<null>") + " ********");
+            shutdown();
+        }
+    }
+
+    void shutdown() {
+        queuedPackets.clear();
+        queuedPackets.add(proposalOfDeath);
+        closeSocket();
+        interrupt();
+        leader.removeLearnerHandler(this);
+    }
+
+    private void closeSocket() {
+        try {
+            sock.close();
+        } catch (IOException e) {
+            LOG.warn("Ignoring unexpected exception during socket close", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LearnerHandler " + sock + " sid:" + sid + " type:" + learnerType;
+    }
+}
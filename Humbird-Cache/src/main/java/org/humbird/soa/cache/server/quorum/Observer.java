@@ -0,0 +1,92 @@
+package org.humbird.soa.cache.server.quorum;
+
+import org.humbird.soa.cache.server.Request;
+import org.humbird.soa.cache.server.RequestProcessor;
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.QuorumServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * A learner that does not vote. It gets the writes of the leader only once they committed,
+ * logs and applies them, and serves reads like any other server.
+ * <p/>
+ * Observers take no part in elections or write quorums, they add read capacity without
+ * slowing the commits down. A write made on an observer is forwarded to the leader and
+ * returns when its commit comes back.
+ *
+ * Created by david on 15/6/12.
+ */
+public class Observer extends Learner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Observer.class);
+
+    Observer(QuorumPeer self) {
+        super(self);
+    }
+
+    /**
+     * Observes the leader until the connection to it breaks.
+     */
+    void observeLeader() throws InterruptedException {
+        LOG.info("Observing " + self.getCurrentVote().getId());
+        QuorumServer leaderServer = findLeader();
+        if (leaderServer == null) {
+            return;
+        }
+        try {
+            connectToLeader(leaderServer.addr);
+            long newEpochZxid = registerWithLeader(Leader.OBSERVERINFO);
+            syncWithLeader(newEpochZxid);
+            QuorumPacket qp = new QuorumPacket();
+            while (self.isRunning()) {
+                readPacket(qp);
+                processPacket(qp);
+            }
+        } catch (IOException e) {
+            LOG.warn("Exception when observing the leader", e);
+        }
+    }
+
+    protected void processPacket(QuorumPacket qp) throws IOException {
+        switch (qp.getType()) {
+            case Leader.PING:
+                ping(qp);
+                break;
+            case Leader.PROPOSAL:
+                LOG.warn("Ignoring proposal");
+                break;
+            case Leader.COMMIT:
+                LOG.warn("Ignoring commit");
+                break;
+            case Leader.UPTODATE:
+                LOG.info("Up to date with the leader at 0x" + Long.toHexString(getDataStore().getLastProcessedZxid()));
+                self.setServing(true);
+                break;
+            case Leader.INFORM:
+                Request request = Request.unmarshall(qp.getData());
+                syncProcessor.processRequest(new Request(request.getHeader(), request.getTxn(), qp.getSid(), qp.getCxid()));
+                break;
+            default:
+                LOG.error("Invalid packet type: " + qp.getType() + " received by Observer");
+        }
+    }
+
+    /**
+     * Nothing is acked, a write is applied once it is logged.
+     */
+    @Override
+    protected RequestProcessor newAckProcessor() {
+        return new RequestProcessor() {
+            @Override
+            public void processRequest(Request request) {
+                apply(request);
+            }
+
+            @Override
+            public void shutdown() {
+            }
+        };
+    }
+}
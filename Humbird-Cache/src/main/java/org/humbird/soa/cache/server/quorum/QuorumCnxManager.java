@@ -0,0 +1,329 @@
+package org.humbird.soa.cache.server.quorum;
+
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.QuorumServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Carries the election messages between the servers over their election ports.
+ * <p/>
+ * Every server sends on connections it opens itself and receives on the ones it accepts, a
+ * connection starts with the id of the server that opened it. Messages are sent by one
+ * thread per server so an unreachable server holds up no one else. A message that can not be
+ * delivered is dropped, the election sends its notifications again when it hears nothing.
+ *
+ * Created by david on 15/6/10.
+ */
+public class QuorumCnxManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QuorumCnxManager.class);
+
+    static final int RECV_CAPACITY = 100;
+
+    static final int SEND_CAPACITY = 1;
+
+    static final int PACKETMAXSIZE = 1024 * 512;
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private final QuorumPeer self;
+
+    private final ArrayBlockingQueue<Message> recvQueue = new ArrayBlockingQueue<Message>(RECV_CAPACITY);
+
+    private final ConcurrentHashMap<Long, SendWorker> senderWorkerMap = new ConcurrentHashMap<Long, SendWorker>();
+
+    private final Listener listener;
+
+    private final Set<Socket> recvSockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+    private volatile boolean shutdown = false;
+
+    public static class Message {
+
+        Message(ByteBuffer buffer, long sid) {
+            this.buffer = buffer;
+            this.sid = sid;
+        }
+
+        ByteBuffer buffer;
+
+        long sid;
+    }
+
+    public QuorumCnxManager(QuorumPeer self) {
+        this.self = self;
+        this.listener = new Listener();
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    /**
+     * Queues a message for a server, messages to ourselves go straight to the receive queue.
+     */
+    public void toSend(Long sid, ByteBuffer b) {
+        if (self.getId() == sid) {
+            addToRecvQueue(new Message(b.duplicate(), sid));
+            return;
+        }
+        SendWorker worker = senderWorkerMap.get(sid);
+        if (worker == null) {
+            QuorumServer server = self.getView().get(sid);
+            if (server == null || server.electionAddr == null) {
+                LOG.warn("Unknown server " + sid + ", dropping the message");
+                return;
+            }
+            SendWorker created = new SendWorker(sid, server.electionAddr);
+            worker = senderWorkerMap.putIfAbsent(sid, created);
+            if (worker == null) {
+                worker = created;
+                worker.start();
+            }
+        }
+        worker.send(b);
+    }
+
+    /**
+     * Queues a message for every server of the view.
+     */
+    public void toSendAll(ByteBuffer b) {
+        for (Long sid : self.getView().keySet()) {
+            toSend(sid, b);
+        }
+    }
+
+    public Message pollRecvQueue(long timeout, TimeUnit unit) throws InterruptedException {
+        return recvQueue.poll(timeout, unit);
+    }
+
+    private void addToRecvQueue(Message msg) {
+        // the oldest message is the one least worth keeping
+        while (!recvQueue.offer(msg)) {
+            recvQueue.poll();
+        }
+    }
+
+    public void halt() {
+        shutdown = true;
+        listener.halt();
+        for (Socket sock : recvSockets) {
+            closeQuietly(sock);
+        }
+        for (SendWorker worker : senderWorkerMap.values()) {
+            worker.finish();
+        }
+        senderWorkerMap.clear();
+    }
+
+    /**
+     * Accepts the connections of the other servers and reads their messages.
+     */
+    public class Listener extends Thread {
+
+        private volatile ServerSocket ss = null;
+
+        public Listener() {
+            super("humbird-election-listener");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int numRetries = 0;
+            InetSocketAddress addr = self.getElectionAddress();
+            while (!shutdown && numRetries < 3) {
+                try {
+                    ss = new ServerSocket();
+                    ss.setReuseAddress(true);
+                    ss.bind(new InetSocketAddress(addr.getPort()));
+                    LOG.info("My election bind port: " + addr.getPort());
+                    while (!shutdown) {
+                        Socket client = ss.accept();
+                        client.setTcpNoDelay(true);
+                        new RecvWorker(client).start();
+                        numRetries = 0;
+                    }
+                } catch (IOException e) {
+                    if (shutdown) {
+                        break;
+                    }
+                    LOG.error("Exception while listening", e);
+                    numRetries++;
+                    closeQuietly(ss);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
+                }
+            }
+            if (!shutdown) {
+                LOG.error("Leaving listener, the election port " + addr.getPort() + " can not be bound");
+            }
+        }
+
+        void halt() {
+            closeQuietly(ss);
+        }
+    }
+
+    /**
+     * Reads the messages of one accepted connection.
+     */
+    class RecvWorker extends Thread {
+
+        private final Socket sock;
+
+        RecvWorker(Socket sock) {
+            super("humbird-election-recv-" + sock.getRemoteSocketAddress());
+            setDaemon(true);
+            this.sock = sock;
+        }
+
+        @Override
+        public void run() {
+            long sid = -1;
+            recvSockets.add(sock);
+            try {
+                DataInputStream din = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+                sid = din.readLong();
+                while (!shutdown) {
+                    int length = din.readInt();
+                    if (length <= 0 || length > PACKETMAXSIZE) {
+                        throw new IOException("Received packet with invalid packet: " + length);
+                    }
+                    byte[] msgArray = new byte[length];
+                    din.readFully(msgArray, 0, length);
+                    addToRecvQueue(new Message(ByteBuffer.wrap(msgArray), sid));
+                }
+            } catch (EOFException e) {
+                LOG.debug("Connection of server " + sid + " closed");
+            } catch (IOException e) {
+                if (!shutdown) {
+                    LOG.warn("Connection broken for id " + sid + ", " + e.getMessage());
+                }
+            } finally {
+                recvSockets.remove(sock);
+                closeQuietly(sock);
+            }
+        }
+    }
+
+    /**
+     * Sends the messages for one server over a connection it opens when needed.
+     */
+    class SendWorker extends Thread {
+
+        private final long sid;
+
+        private final InetSocketAddress addr;
+
+        private final ArrayBlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<ByteBuffer>(SEND_CAPACITY);
+
+        private volatile Socket sock;
+
+        private DataOutputStream dout;
+
+        private volatile boolean running = true;
+
+        SendWorker(long sid, InetSocketAddress addr) {
+            super("humbird-election-send-" + sid);
+            setDaemon(true);
+            this.sid = sid;
+            this.addr = addr;
+        }
+
+        void send(ByteBuffer b) {
+            // only the latest notification matters
+            while (!queue.offer(b.duplicate())) {
+                queue.poll();
+            }
+        }
+
+        void finish() {
+            running = false;
+            interrupt();
+            // the worker closes the rest when it sees the socket fail
+            closeQuietly(sock);
+        }
+
+        @Override
+        public void run() {
+            while (running && !shutdown) {
+                ByteBuffer b;
+                try {
+                    b = queue.poll(1000, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (b == null) {
+                    continue;
+                }
+                try {
+                    if (dout == null) {
+                        connect();
+                    }
+                    dout.writeInt(b.remaining());
+                    dout.write(b.array(), b.position(), b.remaining());
+                    dout.flush();
+                } catch (IOException e) {
+                    LOG.debug("Cannot send to server " + sid + " at " + addr + ", " + e.getMessage());
+                    close();
+                }
+            }
+            close();
+        }
+
+        private void connect() throws IOException {
+            Socket s = new Socket();
+            try {
+                s.setTcpNoDelay(true);
+                s.connect(addr, CONNECT_TIMEOUT);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                out.writeLong(self.getId());
+                out.flush();
+                sock = s;
+                dout = out;
+            } catch (IOException e) {
+                closeQuietly(s);
+                throw e;
+            }
+        }
+
+        private void close() {
+            closeQuietly(sock);
+            sock = null;
+            dout = null;
+        }
+    }
+
+    static void closeQuietly(Socket sock) {
+        if (sock != null) {
+            try {
+                sock.close();
+            } catch (IOException e) {
+                // closing
+            }
+        }
+    }
+
+    static void closeQuietly(ServerSocket ss) {
+        if (ss != null) {
+            try {
+                ss.close();
+            } catch (IOException e) {
+                // closing
+            }
+        }
+    }
+}
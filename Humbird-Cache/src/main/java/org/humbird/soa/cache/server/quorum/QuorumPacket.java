@@ -0,0 +1,91 @@
+package org.humbird.soa.cache.server.quorum;
+
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
+
+import java.io.IOException;
+
+/**
+ * A message between the leader and its learners, the types are the constants of
+ * {@link Leader}.
+ * <p/>
+ * The sid and cxid name the server a write came from and its own number for it, so the
+ * server can release the caller when the write commits.
+ *
+ * Created by david on 15/6/10.
+ */
+public class QuorumPacket implements Record {
+
+    private int type;
+
+    private long zxid;
+
+    private long sid;
+
+    private long cxid;
+
+    private byte[] data;
+
+    public QuorumPacket() {
+    }
+
+    public QuorumPacket(int type, long zxid, byte[] data) {
+        this(type, zxid, -1, -1, data);
+    }
+
+    public QuorumPacket(int type, long zxid, long sid, long cxid, byte[] data) {
+        this.type = type;
+        this.zxid = zxid;
+        this.sid = sid;
+        this.cxid = cxid;
+        this.data = data;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public long getZxid() {
+        return zxid;
+    }
+
+    public long getSid() {
+        return sid;
+    }
+
+    public long getCxid() {
+        return cxid;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(this, tag);
+        archive.writeInt(type, "type");
+        archive.writeLong(zxid, "zxid");
+        archive.writeLong(sid, "sid");
+        archive.writeLong(cxid, "cxid");
+        archive.writeBuffer(data, "data");
+        archive.endRecord(this, tag);
+    }
+
+    @Override
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        type = archive.readInt("type");
+        zxid = archive.readLong("zxid");
+        sid = archive.readLong("sid");
+        cxid = archive.readLong("cxid");
+        data = archive.readBuffer("data");
+        archive.endRecord(tag);
+    }
+
+    @Override
+    public String toString() {
+        return "QuorumPacket{type=" + type + ", zxid=0x" + Long.toHexString(zxid) + ", sid=" + sid + "}";
+    }
+}
@@ -0,0 +1,544 @@
+package org.humbird.soa.cache.server.quorum;
+
+import org.humbird.soa.cache.data.HumbirdSession;
+import org.humbird.soa.cache.data.SessionCodec;
+import org.humbird.soa.cache.server.CacheStore;
+import org.humbird.soa.cache.server.DataStore;
+import org.humbird.soa.cache.server.persistence.FileTxnSnapLog;
+import org.humbird.soa.cache.server.persistence.Util;
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.LearnerType;
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.QuorumServer;
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.ServerState;
+import org.humbird.soa.cache.server.quorum.flexible.QuorumVerifier;
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.cache.server.txn.TxnHeader;
+import org.humbird.soa.common.utils.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.*;
+
+/**
+ * A server of a replicated cache. It elects a leader with the others and then leads or
+ * follows, and starts over with an election whenever that ends.
+ * <p/>
+ * Every server keeps all the entries, reads are served locally by whatever server gets them.
+ * Writes go through the leader and return once a quorum has logged them, so a write that
+ * returned survives the loss of any minority of the servers. Servers configured as observers,
+ * {@code server.N=host:port:port:observer}, only receive the committed writes and never vote.
+ * Clients reach a server through the {@link org.humbird.soa.cache.server.ServerCnxnFactory}
+ * on its client port.
+ * <p/>
+ * The epochs a server accepted and last followed are kept in the files {@code acceptedEpoch}
+ * and {@code currentEpoch} of the snapshot directory, a server never goes back to an older
+ * leader after a restart.
+ *
+ * Created by david on 15/6/10.
+ */
+public class QuorumPeer extends Thread implements CacheStore, QuorumStats.Provider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QuorumPeer.class);
+
+    static final String CURRENT_EPOCH_FILENAME = "currentEpoch";
+
+    static final String ACCEPTED_EPOCH_FILENAME = "acceptedEpoch";
+
+    private Map<Long, QuorumServer> quorumPeers = new HashMap<Long, QuorumServer>();
+
+    private QuorumVerifier quorumConfig;
+
+    private long myid;
+
+    private int tickTime;
+
+    private int initLimit;
+
+    private int syncLimit;
+
+    private LearnerType learnerType = LearnerType.PARTICIPANT;
+
+    private FileTxnSnapLog logFactory = null;
+
+    private final DataStore dataStore = new DataStore();
+
+    private final QuorumStats quorumStats;
+
+    private volatile Vote currentVote;
+
+    private volatile ServerState state = ServerState.LOOKING;
+
+    private volatile boolean running = true;
+
+    private volatile boolean serving = false;
+
+    private long acceptedEpoch = -1;
+
+    private long currentEpoch = -1;
+
+    private FastLeaderElection electionAlg;
+
+    private QuorumCnxManager cnxManager;
+
+    volatile Leader leader;
+
+    volatile Follower follower;
+
+    volatile Observer observer;
+
+    /*
+     * Record leader election time
+     */
+    public long start_fle, end_fle;
+
+    public QuorumPeer() {
+        super("humbird-quorum-peer");
+        quorumStats = new QuorumStats(this);
+    }
+
+    @Override
+    public synchronized void start() {
+        try {
+            loadDataBase();
+        } catch (IOException e) {
+            LOG.error("Unable to load database on disk", e);
+            throw new RuntimeException("Unable to run quorum server ", e);
+        }
+        currentVote = new Vote(myid, getLastLoggedZxid(), getCurrentEpoch());
+        cnxManager = new QuorumCnxManager(this);
+        cnxManager.getListener().start();
+        electionAlg = new FastLeaderElection(this, cnxManager);
+        electionAlg.start();
+        super.start();
+    }
+
+    /**
+     * Replaces the entries with the ones on disk.
+     */
+    synchronized void loadDataBase() throws IOException {
+        dataStore.clear();
+        long zxid = logFactory.restore(dataStore);
+        dataStore.setLastProcessedZxid(Math.max(zxid, 0));
+        long epochOfZxid = dataStore.getLastProcessedZxid() >>> 32;
+        currentEpoch = readLongFromFile(CURRENT_EPOCH_FILENAME, epochOfZxid);
+        if (epochOfZxid > currentEpoch) {
+            throw new IOException("The current epoch, " + currentEpoch + ", is older than the last zxid, 0x"
+                    + Long.toHexString(dataStore.getLastProcessedZxid()));
+        }
+        acceptedEpoch = readLongFromFile(ACCEPTED_EPOCH_FILENAME, epochOfZxid);
+        if (acceptedEpoch < currentEpoch) {
+            throw new IOException("The current epoch, " + currentEpoch + " is after the accepted epoch, " + acceptedEpoch);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                switch (getPeerState()) {
+                    case LOOKING:
+                        LOG.info("LOOKING");
+                        setServing(false);
+                        try {
+                            start_fle = System.currentTimeMillis();
+                            if (electionAlg.lookForLeader() == null && running) {
+                                setPeerState(ServerState.LOOKING);
+                            }
+                        } catch (InterruptedException e) {
+                            LOG.warn("Unexpected exception", e);
+                            setPeerState(ServerState.LOOKING);
+                        }
+                        break;
+                    case OBSERVING:
+                        try {
+                            LOG.info("OBSERVING");
+                            observer = new Observer(this);
+                            observer.observeLeader();
+                        } catch (Exception e) {
+                            LOG.warn("Unexpected exception", e);
+                        } finally {
+                            if (observer != null) {
+                                observer.shutdown();
+                                observer = null;
+                            }
+                            setPeerState(ServerState.LOOKING);
+                        }
+                        break;
+                    case FOLLOWING:
+                        try {
+                            LOG.info("FOLLOWING");
+                            follower = new Follower(this);
+                            follower.followLeader();
+                        } catch (Exception e) {
+                            LOG.warn("Unexpected exception", e);
+                        } finally {
+                            if (follower != null) {
+                                follower.shutdown();
+                                follower = null;
+                            }
+                            setPeerState(ServerState.LOOKING);
+                        }
+                        break;
+                    case LEADING:
+                        LOG.info("LEADING");
+                        try {
+                            leader = new Leader(this);
+                            leader.lead();
+                        } catch (Exception e) {
+                            LOG.warn("Unexpected exception", e);
+                        } finally {
+                            if (leader != null) {
+                                leader.shutdown("Forcing shutdown");
+                                leader = null;
+                            }
+                            setPeerState(ServerState.LOOKING);
+                        }
+                        break;
+                }
+            }
+        } finally {
+            LOG.warn("QuorumPeer main thread exited");
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        Leader l = leader;
+        if (l != null) {
+            l.shutdown("quorum Peer shutdown");
+        }
+        Follower f = follower;
+        if (f != null) {
+            f.shutdown();
+        }
+        Observer o = observer;
+        if (o != null) {
+            o.shutdown();
+        }
+        if (electionAlg != null) {
+            electionAlg.shutdown();
+        }
+        interrupt();
+        try {
+            join(getTickTime() * getInitLimit());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            logFactory.close();
+        } catch (IOException e) {
+            LOG.warn("Ignoring unexpected exception during close", e);
+        }
+    }
+
+    // writes, through the leader
+
+    public void put(String key, HumbirdSession session) throws IOException {
+        putValue(key, SessionCodec.serialize(session));
+    }
+
+    @Override
+    public void putValue(String key, byte[] value) throws IOException {
+        submit(TxnHeader.PUT, new CacheTxn(key, value));
+    }
+
+    @Override
+    public void remove(String key) throws IOException {
+        submit(TxnHeader.REMOVE, new CacheTxn(key, null));
+    }
+
+    @Override
+    public void clear() throws IOException {
+        submit(TxnHeader.CLEAR, null);
+    }
+
+    private void submit(int type, CacheTxn txn) throws IOException {
+        Util.checkTxnSize(Util.txnEntrySize(txn));
+        Leader l = leader;
+        if (l != null && getPeerState() == ServerState.LEADING) {
+            l.submit(type, txn);
+            return;
+        }
+        Follower f = follower;
+        if (f != null && getPeerState() == ServerState.FOLLOWING) {
+            f.submit(type, txn);
+            return;
+        }
+        Observer o = observer;
+        if (o != null && getPeerState() == ServerState.OBSERVING) {
+            o.submit(type, txn);
+            return;
+        }
+        throw new IOException("No leader to write through, the server is " + getServerState());
+    }
+
+    // reads, local
+
+    public HumbirdSession get(String key) throws IOException {
+        return dataStore.getSession(key);
+    }
+
+    @Override
+    public byte[] getValue(String key) {
+        return dataStore.get(key);
+    }
+
+    public Map<String, HumbirdSession> getSessions() throws IOException {
+        return dataStore.getSessions();
+    }
+
+    @Override
+    public List<String> getKeys() {
+        return dataStore.keys();
+    }
+
+    @Override
+    public int size() {
+        return dataStore.size();
+    }
+
+    /**
+     * Waits until the server follows, observes or leads with entries in sync with the leader.
+     *
+     * @return false if it did not within the time
+     */
+    public boolean waitForServing(long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        synchronized (dataStore) {
+            while (!serving && System.currentTimeMillis() < end) {
+                dataStore.wait(Math.max(1, end - System.currentTimeMillis()));
+            }
+        }
+        return serving;
+    }
+
+    public boolean isServing() {
+        return serving;
+    }
+
+    void setServing(boolean serving) {
+        synchronized (dataStore) {
+            this.serving = serving;
+            dataStore.notifyAll();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the zxid of the last transaction on disk, logged or applied
+     */
+    public long getLastLoggedZxid() {
+        long zxid = dataStore.getLastProcessedZxid();
+        try {
+            zxid = Math.max(zxid, logFactory.getLastLoggedZxid());
+        } catch (IOException e) {
+            LOG.warn("Unable to read the last logged zxid", e);
+        }
+        return zxid;
+    }
+
+    public DataStore getDataStore() {
+        return dataStore;
+    }
+
+    public FileTxnSnapLog getTxnFactory() {
+        return logFactory;
+    }
+
+    public void setTxnFactory(FileTxnSnapLog factory) {
+        this.logFactory = factory;
+    }
+
+    public long getId() {
+        return myid;
+    }
+
+    public void setMyid(long myid) {
+        this.myid = myid;
+    }
+
+    public Map<Long, QuorumServer> getView() {
+        return Collections.unmodifiableMap(quorumPeers);
+    }
+
+    /**
+     * @return the servers that vote, the observers left out
+     */
+    public Map<Long, QuorumServer> getVotingView() {
+        Map<Long, QuorumServer> ret = new HashMap<Long, QuorumServer>();
+        for (QuorumServer server : quorumPeers.values()) {
+            if (server.type == LearnerType.PARTICIPANT) {
+                ret.put(server.id, server);
+            }
+        }
+        return ret;
+    }
+
+    boolean isVoter(long sid) {
+        QuorumServer server = quorumPeers.get(sid);
+        return server != null && server.type == LearnerType.PARTICIPANT;
+    }
+
+    public void setQuorumPeers(Map<Long, QuorumServer> quorumPeers) {
+        this.quorumPeers = quorumPeers;
+    }
+
+    public QuorumVerifier getQuorumVerifier() {
+        return quorumConfig;
+    }
+
+    public void setQuorumVerifier(QuorumVerifier quorumConfig) {
+        this.quorumConfig = quorumConfig;
+    }
+
+    public InetSocketAddress getQuorumAddress() {
+        return quorumPeers.get(myid).addr;
+    }
+
+    public InetSocketAddress getElectionAddress() {
+        return quorumPeers.get(myid).electionAddr;
+    }
+
+    public LearnerType getLearnerType() {
+        return learnerType;
+    }
+
+    public void setLearnerType(LearnerType learnerType) {
+        this.learnerType = learnerType;
+    }
+
+    public int getTickTime() {
+        return tickTime;
+    }
+
+    public void setTickTime(int tickTime) {
+        this.tickTime = tickTime;
+    }
+
+    public int getInitLimit() {
+        return initLimit;
+    }
+
+    public void setInitLimit(int initLimit) {
+        this.initLimit = initLimit;
+    }
+
+    public int getSyncLimit() {
+        return syncLimit;
+    }
+
+    public void setSyncLimit(int syncLimit) {
+        this.syncLimit = syncLimit;
+    }
+
+    public Vote getCurrentVote() {
+        return currentVote;
+    }
+
+    public void setCurrentVote(Vote v) {
+        currentVote = v;
+    }
+
+    public ServerState getPeerState() {
+        return state;
+    }
+
+    public void setPeerState(ServerState newState) {
+        state = newState;
+    }
+
+    public QuorumStats getQuorumStats() {
+        return quorumStats;
+    }
+
+    public synchronized long getCurrentEpoch() {
+        return currentEpoch;
+    }
+
+    public synchronized long getAcceptedEpoch() {
+        return acceptedEpoch;
+    }
+
+    public synchronized void setCurrentEpoch(long e) throws IOException {
+        currentEpoch = e;
+        writeLongToFile(CURRENT_EPOCH_FILENAME, e);
+    }
+
+    public synchronized void setAcceptedEpoch(long e) throws IOException {
+        acceptedEpoch = e;
+        writeLongToFile(ACCEPTED_EPOCH_FILENAME, e);
+    }
+
+    private long readLongFromFile(String name, long defaultValue) throws IOException {
+        File file = new File(logFactory.getSnapDir(), name);
+        if (!file.exists()) {
+            return defaultValue;
+        }
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            String line = br.readLine();
+            try {
+                return Long.parseLong(line);
+            } catch (NumberFormatException e) {
+                throw new IOException("Found " + line + " in " + file);
+            }
+        } finally {
+            IOHelper.close(br);
+        }
+    }
+
+    /**
+     * Writes a new file and renames it over the old one, a crash leaves either of them.
+     */
+    private void writeLongToFile(String name, long value) throws IOException {
+        File file = new File(logFactory.getSnapDir(), name);
+        File tmp = new File(logFactory.getSnapDir(), name + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write((Long.toString(value) + "\n").getBytes("UTF-8"));
+            out.flush();
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // renaming over an existing file fails on some platforms
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Failed to write " + file);
+            }
+        }
+    }
+
+    @Override
+    public String[] getQuorumPeers() {
+        List<String> l = new ArrayList<String>();
+        Leader current = leader;
+        if (current != null) {
+            for (LearnerHandler fh : current.getLearners()) {
+                l.add(Long.toString(fh.getSid()));
+            }
+        } else if ((follower != null || observer != null) && currentVote != null) {
+            l.add(Long.toString(currentVote.getId()));
+        }
+        return l.toArray(new String[l.size()]);
+    }
+
+    @Override
+    public String getServerState() {
+        switch (getPeerState()) {
+            case LOOKING:
+                return QuorumStats.Provider.LOOKING_STATE;
+            case LEADING:
+                return QuorumStats.Provider.LEADING_STATE;
+            case FOLLOWING:
+                return QuorumStats.Provider.FOLLOWING_STATE;
+            case OBSERVING:
+                return QuorumStats.Provider.OBSERVING_STATE;
+        }
+        return QuorumStats.Provider.UNKNOWN_STATE;
+    }
+}
@@ -491,7 +491,11 @@ public class QuorumPeerConfig {
     static final long OBSERVER_ID = Long.MAX_VALUE;
 
     public enum CacheType {
-        REDIS, MEMCACHED
+        REDIS, MEMCACHED,
+        /**
+         * the cache of the humbird cache servers, for their clients
+         */
+        QUORUM
     }
 
     /*
@@ -0,0 +1,52 @@
+package org.humbird.soa.cache.server.txn;
+
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
+
+import java.io.IOException;
+
+/**
+ * Body of a transaction, the key and the serialized session of a put, the key of a remove
+ * and nothing for a clear.
+ *
+ * Created by david on 15/6/8.
+ */
+public class CacheTxn implements Record {
+
+    private String key;
+
+    private byte[] value;
+
+    public CacheTxn() {
+    }
+
+    public CacheTxn(String key, byte[] value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    @Override
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(this, tag);
+        archive.writeString(key, "key");
+        archive.writeBuffer(value, "value");
+        archive.endRecord(this, tag);
+    }
+
+    @Override
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        key = archive.readString("key");
+        value = archive.readBuffer("value");
+        archive.endRecord(tag);
+    }
+}
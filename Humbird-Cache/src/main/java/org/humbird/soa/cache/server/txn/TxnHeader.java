@@ -0,0 +1,72 @@
+package org.humbird.soa.cache.server.txn;
+
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
+
+import java.io.IOException;
+
+/**
+ * Header of every logged transaction. The zxid holds the epoch of the leader that made it
+ * in the high 32 bits and a counter in the low 32 bits, so zxids only ever grow.
+ *
+ * Created by david on 15/6/8.
+ */
+public class TxnHeader implements Record {
+
+    public static final int PUT = 1;
+
+    public static final int REMOVE = 2;
+
+    public static final int CLEAR = 3;
+
+    private long zxid;
+
+    private long time;
+
+    private int type;
+
+    public TxnHeader() {
+    }
+
+    public TxnHeader(long zxid, long time, int type) {
+        this.zxid = zxid;
+        this.time = time;
+        this.type = type;
+    }
+
+    public long getZxid() {
+        return zxid;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    @Override
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(this, tag);
+        archive.writeLong(zxid, "zxid");
+        archive.writeLong(time, "time");
+        archive.writeInt(type, "type");
+        archive.endRecord(this, tag);
+    }
+
+    @Override
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        zxid = archive.readLong("zxid");
+        time = archive.readLong("time");
+        type = archive.readInt("type");
+        archive.endRecord(tag);
+    }
+
+    @Override
+    public String toString() {
+        return "TxnHeader{zxid=0x" + Long.toHexString(zxid) + ", type=" + type + "}";
+    }
+}
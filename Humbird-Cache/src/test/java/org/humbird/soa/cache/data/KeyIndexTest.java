@@ -0,0 +1,109 @@
+package org.humbird.soa.cache.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by david on 15/6/17.
+ */
+public class KeyIndexTest {
+
+    @Test
+    public void testAddRemoveCounts() {
+        KeyIndex index = new KeyIndex();
+        assertTrue(index.add("a", 0));
+        assertFalse(index.add("a", 0));
+        assertTrue(index.add("b", 0));
+        assertEquals(2, index.size());
+
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertFalse(index.remove("missing"));
+        assertEquals(1, index.size());
+        assertFalse(index.contains("a"));
+        assertTrue(index.contains("b"));
+    }
+
+    @Test
+    public void testKeysByPrefix() {
+        KeyIndex index = new KeyIndex(4, 1000);
+        for (String key : Arrays.asList("user#3", "user#1", "user#2", "user", "users#1", "session#1", "usea")) {
+            index.add(key, 0);
+        }
+        // sorted across the shards
+        assertEquals(Arrays.asList("user#1", "user#2", "user#3"), index.keys("user#"));
+        assertEquals(Arrays.asList("user", "user#1", "user#2", "user#3", "users#1"), index.keys("user"));
+        assertEquals(Collections.<String>emptyList(), index.keys("zzz"));
+        assertEquals(7, index.keys("").size());
+        assertEquals(7, index.keys().size());
+    }
+
+    @Test
+    public void testClearWhileAdding() throws Exception {
+        final KeyIndex index = new KeyIndex(4, 1000);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch started = new CountDownLatch(4);
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int w = 0; w < 4; w++) {
+            final int writer = w;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int i = 0; running.get(); i++) {
+                        index.add("w" + writer + "#" + (i % 500), 0);
+                        if (i % 3 == 0) {
+                            index.remove("w" + writer + "#" + ((i + 250) % 500));
+                        }
+                    }
+                }
+            });
+            thread.start();
+            writers.add(thread);
+        }
+        started.await();
+        for (int i = 0; i < 200; i++) {
+            index.clear();
+        }
+        running.set(false);
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        assertEquals(index.keys().size(), index.size());
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.keys().isEmpty());
+    }
+
+    @Test
+    public void testExpiredKeysLeave() throws Exception {
+        KeyIndex index = new KeyIndex(16, 0);
+        index.add("a", 1);
+        index.add("b", 0);
+        // a unix time long past
+        index.add("c", 60 * 60 * 24 * 31);
+        index.add("d", -1);
+        assertFalse(index.contains("c"));
+        assertFalse(index.contains("d"));
+        assertEquals(Arrays.asList("a", "b"), index.keys(""));
+
+        Thread.sleep(1100);
+        assertEquals(Arrays.asList("b"), index.keys());
+        assertEquals(1, index.size());
+        assertFalse(index.contains("a"));
+
+        // added again, the key takes the new expiration
+        index.add("a", 0);
+        Thread.sleep(10);
+        assertEquals(2, index.size());
+        assertTrue(index.contains("a"));
+    }
+}
@@ -0,0 +1,239 @@
+package org.humbird.soa.cache.server.persistence;
+
+import org.humbird.soa.cache.server.DataStore;
+import org.humbird.soa.cache.server.PurgeTxnLog;
+import org.humbird.soa.cache.server.txn.CacheTxn;
+import org.humbird.soa.cache.server.txn.TxnHeader;
+import org.humbird.soa.common.io.BinaryInputArchive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The txn log and snapshots of a server in a temporary directory, with small preallocation
+ * blocks.
+ *
+ * Created by david on 15/6/12.
+ */
+public class FileTxnSnapLogTest {
+
+    // magic, version and dbid
+    private static final int FILE_HEADER = 16;
+
+    private File dir;
+
+    private FileTxnSnapLog txnLog;
+
+    @Before
+    public void setUp() throws Exception {
+        FileTxnLog.setPreallocSize(64 * 1024);
+        dir = File.createTempFile("humbird-txnlog", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        txnLog = new FileTxnSnapLog(dir, dir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        txnLog.close();
+        delete(dir);
+    }
+
+    @Test
+    public void testRestoreReplaysLogAfterSnapshot() throws Exception {
+        DataStore dataStore = new DataStore();
+        for (long zxid = 1; zxid <= 3; zxid++) {
+            TxnHeader header = put(zxid);
+            CacheTxn txn = txn(zxid);
+            txnLog.append(header, txn);
+            dataStore.processTxn(header, txn);
+        }
+        txnLog.commit();
+        dataStore.setLastProcessedZxid(3);
+        txnLog.save(dataStore);
+        for (long zxid = 4; zxid <= 5; zxid++) {
+            txnLog.append(put(zxid), txn(zxid));
+        }
+        txnLog.append(new TxnHeader(6, System.currentTimeMillis(), TxnHeader.REMOVE), new CacheTxn("k1", null));
+        txnLog.commit();
+
+        DataStore restored = new DataStore();
+        assertEquals(6L, reopen().restore(restored));
+        assertEquals(Arrays.asList("k2", "k3", "k4", "k5"), sorted(restored.keys()));
+        assertEquals("v5", new String(restored.get("k5"), "UTF-8"));
+    }
+
+    @Test
+    public void testTornTailEndsTheLog() throws Exception {
+        for (long zxid = 1; zxid <= 3; zxid++) {
+            txnLog.append(put(zxid), txn(zxid));
+        }
+        txnLog.commit();
+        // the last entry only got half way to disk, the rest is preallocated zeros
+        RandomAccessFile raf = new RandomAccessFile(logFile(1), "rw");
+        try {
+            raf.seek(FILE_HEADER + 2 * entryLength(1) + entryLength(3) / 2);
+            raf.write(new byte[entryLength(3)]);
+        } finally {
+            raf.close();
+        }
+
+        DataStore restored = new DataStore();
+        assertEquals(2L, reopen().restore(restored));
+        assertEquals(Arrays.asList("k1", "k2"), sorted(restored.keys()));
+    }
+
+    @Test
+    public void testCrcMismatch() throws Exception {
+        txnLog.append(put(1), txn(1));
+        txnLog.append(put(2), txn(2));
+        txnLog.rollLog();
+        txnLog.append(put(3), txn(3));
+        txnLog.append(put(4), txn(4));
+        txnLog.commit();
+        // the value of the second entry of the newest file, the log ends before it
+        flipLastValueByte(logFile(3), FILE_HEADER + entryLength(1));
+        DataStore restored = new DataStore();
+        assertEquals(3L, reopen().restore(restored));
+        assertEquals(Arrays.asList("k1", "k2", "k3"), sorted(restored.keys()));
+
+        // anywhere before the newest file it is an error
+        flipLastValueByte(logFile(1), FILE_HEADER);
+        try {
+            reopen().restore(new DataStore());
+            fail("restored a log failing its CRC check");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("CRC check failed"));
+        }
+    }
+
+    @Test
+    public void testRollLog() throws Exception {
+        txnLog.append(put(1), txn(1));
+        txnLog.append(put(2), txn(2));
+        txnLog.rollLog();
+        txnLog.append(put(3), txn(3));
+        txnLog.commit();
+        assertTrue(logFile(1).exists());
+        assertTrue(logFile(3).exists());
+        assertEquals(2, txnLog.getSnapshotLogs(2).length);
+        assertEquals(Arrays.asList(logFile(3)), Arrays.asList(txnLog.getSnapshotLogs(3)));
+        assertEquals(3L, txnLog.getLastLoggedZxid());
+
+        TxnLog.TxnIterator iterator = new FileTxnLog(txnLog.getDataDir()).read(2);
+        try {
+            assertEquals(2L, iterator.getHeader().getZxid());
+            assertTrue(iterator.next());
+            assertEquals(3L, iterator.getHeader().getZxid());
+            assertEquals("k3", iterator.getTxn().getKey());
+            assertFalse(iterator.next());
+        } finally {
+            iterator.close();
+        }
+    }
+
+    @Test
+    public void testOversizedTxnIsRejected() throws Exception {
+        txnLog.append(put(1), txn(1));
+        try {
+            txnLog.append(put(2), new CacheTxn("k2", new byte[BinaryInputArchive.maxBuffer]));
+            fail("logged a txn above jute.maxbuffer");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("jute.maxbuffer"));
+        }
+        txnLog.append(put(3), txn(3));
+        txnLog.commit();
+
+        DataStore restored = new DataStore();
+        assertEquals(3L, reopen().restore(restored));
+        assertEquals(Arrays.asList("k1", "k3"), sorted(restored.keys()));
+    }
+
+    @Test
+    public void testPurgeKeepsRecentSnapshotsAndTheirLogs() throws Exception {
+        DataStore dataStore = new DataStore();
+        for (long zxid = 1; zxid <= 5; zxid++) {
+            TxnHeader header = put(zxid);
+            txnLog.append(header, txn(zxid));
+            txnLog.commit();
+            dataStore.processTxn(header, txn(zxid));
+            dataStore.setLastProcessedZxid(zxid);
+            txnLog.save(dataStore);
+            txnLog.rollLog();
+        }
+        txnLog.close();
+
+        PurgeTxnLog.purge(dir, dir, 3);
+
+        List<File> snapshots = txnLog.findNRecentSnapshots(10);
+        assertEquals(3, snapshots.size());
+        assertEquals(Util.makeSnapshotName(3), snapshots.get(2).getName());
+        assertFalse(logFile(2).exists());
+        // the log holding the transactions after the oldest kept snapshot
+        assertTrue(logFile(3).exists());
+        assertTrue(logFile(5).exists());
+
+        DataStore restored = new DataStore();
+        assertEquals(5L, reopen().restore(restored));
+        assertEquals(5, restored.size());
+    }
+
+    private FileTxnSnapLog reopen() throws IOException {
+        txnLog.close();
+        txnLog = new FileTxnSnapLog(dir, dir);
+        return txnLog;
+    }
+
+    private File logFile(long zxid) {
+        return new File(txnLog.getDataDir(), Util.makeLogName(zxid));
+    }
+
+    private void flipLastValueByte(File file, long entryOffset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // the byte before the EOR
+            raf.seek(entryOffset + entryLength(1) - 2);
+            byte b = raf.readByte();
+            raf.seek(raf.getFilePointer() - 1);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+    }
+
+    // crc, length, the entry and the EOR
+    private static int entryLength(long zxid) throws IOException {
+        return 8 + 4 + Util.marshallTxnEntry(put(zxid), txn(zxid)).length + 1;
+    }
+
+    private static TxnHeader put(long zxid) {
+        return new TxnHeader(zxid, System.currentTimeMillis(), TxnHeader.PUT);
+    }
+
+    private static CacheTxn txn(long zxid) throws IOException {
+        return new CacheTxn("k" + zxid, ("v" + zxid).getBytes("UTF-8"));
+    }
+
+    private static List<String> sorted(List<String> keys) {
+        String[] array = keys.toArray(new String[keys.size()]);
+        Arrays.sort(array);
+        return Arrays.asList(array);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
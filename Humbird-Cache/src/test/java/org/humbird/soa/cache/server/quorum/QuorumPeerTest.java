@@ -0,0 +1,253 @@
+package org.humbird.soa.cache.server.quorum;
+
+import org.humbird.soa.cache.client.CacheClient;
+import org.humbird.soa.cache.data.HumbirdSession;
+import org.humbird.soa.cache.server.ServerCnxnFactory;
+import org.humbird.soa.cache.server.persistence.FileTxnSnapLog;
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.LearnerType;
+import org.humbird.soa.cache.server.quorum.QuorumPeerConfig.QuorumServer;
+import org.humbird.soa.cache.server.quorum.flexible.QuorumMaj;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Three voting servers on the loopback, each with its own directory, and an observer when a
+ * test adds one.
+ *
+ * Created by david on 15/6/12.
+ */
+public class QuorumPeerTest {
+
+    private static final int VOTERS = 3;
+
+    private static final long TIMEOUT = 20000;
+
+    private File dir;
+
+    private final Map<Long, QuorumServer> servers = new HashMap<Long, QuorumServer>();
+
+    private final Map<Long, QuorumPeer> peers = new HashMap<Long, QuorumPeer>();
+
+    private final List<ServerCnxnFactory> cnxnFactories = new ArrayList<ServerCnxnFactory>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("humbird-quorum", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        for (long id = 1; id <= VOTERS + 1; id++) {
+            LearnerType type = id > VOTERS ? LearnerType.OBSERVER : LearnerType.PARTICIPANT;
+            servers.put(id, new QuorumServer(id, loopback(), loopback(), type));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (ServerCnxnFactory cnxnFactory : cnxnFactories) {
+            cnxnFactory.shutdown();
+        }
+        for (QuorumPeer peer : peers.values()) {
+            peer.shutdown();
+        }
+        delete(dir);
+    }
+
+    @Test
+    public void testElectsOneLeader() throws Exception {
+        startVoters();
+        int leading = 0;
+        for (QuorumPeer peer : peers.values()) {
+            if (peer.getPeerState() == QuorumPeerConfig.ServerState.LEADING) {
+                leading++;
+            } else {
+                assertEquals(QuorumPeerConfig.ServerState.FOLLOWING, peer.getPeerState());
+            }
+            assertEquals(leader().getId(), peer.getCurrentVote().getId());
+        }
+        assertEquals(1, leading);
+    }
+
+    @Test
+    public void testWritesCommitOnEveryServer() throws Exception {
+        startVoters();
+        QuorumPeer follower = follower();
+        for (int i = 0; i < 20; i++) {
+            follower.put("k" + i, session("k" + i));
+        }
+        follower.remove("k0");
+        leader().put("leader", session("leader"));
+
+        // a write returns once it is applied where it was made
+        assertNull(follower.get("k0"));
+        assertEquals("v-k19", follower.get("k19").getValue());
+        assertEquals("v-leader", leader().get("leader").getValue());
+        for (QuorumPeer peer : peers.values()) {
+            awaitSize(peer, 20);
+            assertEquals("v-k5", peer.get("k5").getValue());
+        }
+        long zxid = leader().getDataStore().getLastProcessedZxid();
+        assertEquals(leader().getCurrentEpoch(), zxid >>> 32);
+        assertEquals(22L, zxid & 0xffffffffL);
+    }
+
+    @Test
+    public void testRestartedServerGetsTheSnapshot() throws Exception {
+        startVoters();
+        QuorumPeer stopped = follower();
+        long id = stopped.getId();
+        stopped.shutdown();
+        peers.remove(id);
+        // two of three still make a quorum
+        for (int i = 0; i < 50; i++) {
+            leader().put("k" + i, session("k" + i));
+        }
+        leader().clear();
+        leader().put("after-clear", session("after-clear"));
+
+        QuorumPeer restarted = start(id);
+        assertTrue(restarted.waitForServing(TIMEOUT));
+        assertEquals(1, restarted.size());
+        assertEquals("v-after-clear", restarted.get("after-clear").getValue());
+        assertEquals(leader().getDataStore().getLastProcessedZxid(), restarted.getDataStore().getLastProcessedZxid());
+    }
+
+    @Test
+    public void testClientsWriteThroughAnyServer() throws Exception {
+        startVoters();
+        CacheClient onFollower = new CacheClient(clientPort(follower()), 10000);
+        CacheClient onLeader = new CacheClient(clientPort(leader()), 10000);
+        try {
+            onFollower.put("a", session("a"));
+            assertEquals("v-a", onFollower.get("a").getValue());
+            assertEquals("v-a", leader().get("a").getValue());
+            onLeader.remove("a");
+            onLeader.put("b", session("b"));
+            awaitSize(follower(), 1);
+            assertNull(onFollower.get("a"));
+            assertEquals(1, onFollower.size());
+            assertEquals("b", onFollower.getKeys().get(0));
+        } finally {
+            onFollower.close();
+            onLeader.close();
+        }
+    }
+
+    @Test
+    public void testObserverServesCommittedWrites() throws Exception {
+        startVoters();
+        QuorumPeer observer = start(VOTERS + 1);
+        assertTrue(observer.waitForServing(TIMEOUT));
+        assertEquals(QuorumPeerConfig.ServerState.OBSERVING, observer.getPeerState());
+        // the quorum and the leader do not count the observer
+        leader().put("a", session("a"));
+        leader().put("b", session("b"));
+        leader().remove("b");
+        awaitSize(observer, 1);
+
+        CacheClient onObserver = new CacheClient(clientPort(observer), 10000);
+        try {
+            assertEquals("v-a", onObserver.get("a").getValue());
+            assertNull(onObserver.get("b"));
+            // a write through the observer goes to the leader and comes back in an INFORM
+            onObserver.put("c", session("c"));
+            assertEquals("v-c", onObserver.get("c").getValue());
+            assertEquals("v-c", leader().get("c").getValue());
+            awaitSize(follower(), 2);
+        } finally {
+            onObserver.close();
+        }
+        assertEquals(leader().getDataStore().getLastProcessedZxid(), observer.getDataStore().getLastProcessedZxid());
+    }
+
+    private void startVoters() throws Exception {
+        for (long id = 1; id <= VOTERS; id++) {
+            start(id);
+        }
+        for (QuorumPeer peer : peers.values()) {
+            assertTrue(peer.waitForServing(TIMEOUT));
+        }
+    }
+
+    private QuorumPeer start(long id) throws IOException {
+        File peerDir = new File(dir, "p" + id);
+        QuorumPeer peer = new QuorumPeer();
+        peer.setTxnFactory(new FileTxnSnapLog(peerDir, peerDir));
+        peer.setQuorumPeers(servers);
+        peer.setMyid(id);
+        peer.setQuorumVerifier(new QuorumMaj(VOTERS));
+        peer.setLearnerType(servers.get(id).type);
+        peer.setTickTime(200);
+        peer.setInitLimit(10);
+        peer.setSyncLimit(5);
+        peer.start();
+        peers.put(id, peer);
+        return peer;
+    }
+
+    private QuorumPeer leader() {
+        for (QuorumPeer peer : peers.values()) {
+            if (peer.getPeerState() == QuorumPeerConfig.ServerState.LEADING) {
+                return peer;
+            }
+        }
+        throw new AssertionError("no leader");
+    }
+
+    private QuorumPeer follower() {
+        for (QuorumPeer peer : peers.values()) {
+            if (peer.getPeerState() == QuorumPeerConfig.ServerState.FOLLOWING) {
+                return peer;
+            }
+        }
+        throw new AssertionError("no follower");
+    }
+
+    private String clientPort(QuorumPeer peer) throws IOException {
+        ServerCnxnFactory cnxnFactory = new ServerCnxnFactory(new InetSocketAddress("127.0.0.1", 0), 0, peer);
+        cnxnFactory.start();
+        cnxnFactories.add(cnxnFactory);
+        return "127.0.0.1:" + cnxnFactory.getLocalPort();
+    }
+
+    private static void awaitSize(QuorumPeer peer, int size) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (peer.size() != size && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        assertEquals(size, peer.size());
+    }
+
+    private static HumbirdSession<String, String> session(String key) {
+        return new HumbirdSession<String, String>(key, "v-" + key);
+    }
+
+    private static InetSocketAddress loopback() throws IOException {
+        ServerSocket ss = new ServerSocket(0);
+        try {
+            return new InetSocketAddress("127.0.0.1", ss.getLocalPort());
+        } finally {
+            ss.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -1,7 +1,12 @@
 package org.humbird.soa.common.model.common;
 
 import org.humbird.soa.common.codec.Codec;
+import org.humbird.soa.common.io.Index;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -9,7 +14,10 @@ import java.util.List;
 /**
  * Created by david on 15/3/21.
  */
-public class PropsModel implements Serializable {
+public class PropsModel implements Serializable, Record {
+
+    // the UID from before it implemented Record, older nodes read it nested in cached contexts
+    private static final long serialVersionUID = 6003816318184089496L;
 
     private final static String SYMBLE = "=";
 
@@ -176,6 +184,82 @@ public class PropsModel implements Serializable {
         }
     }
 
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(this, tag);
+        archive.writeInt(pidx, "pidx");
+        archive.writeInt(cidx, "cidx");
+        archive.writeInt(nidx, "nidx");
+        archive.writeBool(flag, "flag");
+        // blank lines are kept as null entries
+        archive.startVector(props, "props");
+        for (Prop prop : props) {
+            archive.writeBool(prop != null, "present");
+            if (prop != null) {
+                archive.writeString(prop.getKey(), "key");
+                archive.writeString(prop.getVal(), "val");
+            }
+        }
+        archive.endVector(props, "props");
+        archive.startVector(comms, "comms");
+        for (Comments comments : comms) {
+            archive.writeBool(comments != null, "present");
+            if (comments != null) {
+                archive.writeInt(comments.getCols(), "cols");
+                archive.writeInt(comments.getRows(), "rows");
+                archive.startVector(comments.getComments(), "comments");
+                for (String comment : comments.getComments()) {
+                    archive.writeString(comment, "comment");
+                }
+                archive.endVector(comments.getComments(), "comments");
+            }
+        }
+        archive.endVector(comms, "comms");
+        archive.endRecord(this, tag);
+    }
+
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        pidx = archive.readInt("pidx");
+        cidx = archive.readInt("cidx");
+        nidx = archive.readInt("nidx");
+        flag = archive.readBool("flag");
+        props = new ArrayList();
+        Index index = archive.startVector("props");
+        if (index != null) {
+            for (; !index.done(); index.incr()) {
+                if (archive.readBool("present")) {
+                    props.add(new Prop(archive.readString("key"), archive.readString("val")));
+                } else {
+                    props.add(null);
+                }
+            }
+        }
+        archive.endVector("props");
+        comms = new ArrayList();
+        index = archive.startVector("comms");
+        if (index != null) {
+            for (; !index.done(); index.incr()) {
+                if (archive.readBool("present")) {
+                    Comments comments = new Comments();
+                    comments.setCols(archive.readInt("cols"));
+                    comments.setRows(archive.readInt("rows"));
+                    Index lines = archive.startVector("comments");
+                    if (lines != null) {
+                        for (; !lines.done(); lines.incr()) {
+                            comments.getComments().add(archive.readString("comment"));
+                        }
+                    }
+                    archive.endVector("comments");
+                    comms.add(comments);
+                } else {
+                    comms.add(null);
+                }
+            }
+        }
+        archive.endVector("comms");
+        archive.endRecord(tag);
+    }
+
     private static boolean isComment(String lines) {
         return lines.charAt(0) == CSHAP;
     }
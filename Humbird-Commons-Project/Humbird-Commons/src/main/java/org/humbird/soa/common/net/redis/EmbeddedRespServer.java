@@ -0,0 +1,406 @@
+package org.humbird.soa.common.net.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In process stand in for a redis server, enough of it for {@link RespClient} and the redis
+ * cache wrappers: ping, echo, auth, select, get, set with EX, PX, NX and XX, mget, mset, del,
+ * exists, expire, ttl, dbsize, flushdb, flushall, keys, scan and quit.
+ * <p/>
+ * There is one database and no password check. Keys are sorted, a scan cursor is the hex of
+ * the last key returned, so a key present for the whole scan is returned exactly once. Replies
+ * are written once the pending requests are read, so a pipeline goes back in one write.
+ *
+ * Created by david on 15/5/10.
+ */
+public class EmbeddedRespServer {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(EmbeddedRespServer.class);
+
+    private final ConcurrentSkipListMap<String, Item> items = new ConcurrentSkipListMap<String, Item>();
+
+    private final AtomicLong commands = new AtomicLong();
+
+    private final int port;
+
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * @param port 0 binds any free port, see {@link #getPort()}
+     */
+    public EmbeddedRespServer(int port) {
+        this.port = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+        Thread acceptor = new Thread("humbird-embedded-redis-" + getPort()) {
+            @Override
+            public void run() {
+                accept();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOGGER.info("embedded redis listening on 127.0.0.1:{}", getPort());
+    }
+
+    public synchronized void stop() {
+        ServerSocket socket = serverSocket;
+        serverSocket = null;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing
+            }
+        }
+        items.clear();
+    }
+
+    public int getPort() {
+        ServerSocket socket = serverSocket;
+        return socket == null ? port : socket.getLocalPort();
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Commands served so far, a pipeline of n commands counts n.
+     */
+    public long getCommandCount() {
+        return commands.get();
+    }
+
+    private void accept() {
+        ServerSocket socket;
+        while ((socket = serverSocket) != null) {
+            try {
+                final Socket connection = socket.accept();
+                connection.setTcpNoDelay(true);
+                Thread worker = new Thread("humbird-embedded-redis-connection") {
+                    @Override
+                    public void run() {
+                        serve(connection);
+                    }
+                };
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                if (serverSocket != null) {
+                    LOGGER.warn("embedded redis accept failed, " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try {
+            InputStream in = new BufferedInputStream(connection.getInputStream(), 65536);
+            OutputStream socketOut = connection.getOutputStream();
+            // replies pile up while requests are pending, a pipelining client is not blocked
+            ByteArrayOutputStream out = new ByteArrayOutputStream(65536);
+            while (true) {
+                Object request = RespClient.readReply(in);
+                if (!(request instanceof List) || ((List) request).isEmpty()) {
+                    error(out, "ERR Protocol error, expected an array of bulk strings");
+                } else {
+                    List<Object> arguments = (List<Object>) request;
+                    byte[][] command = new byte[arguments.size()][];
+                    for (int i = 0; i < command.length; i++) {
+                        command[i] = (byte[]) arguments.get(i);
+                    }
+                    commands.incrementAndGet();
+                    if (!handle(command, out)) {
+                        out.writeTo(socketOut);
+                        socketOut.flush();
+                        break;
+                    }
+                }
+                if (in.available() == 0) {
+                    out.writeTo(socketOut);
+                    socketOut.flush();
+                    out.reset();
+                }
+            }
+        } catch (EOFException e) {
+            // client closed
+        } catch (SocketException e) {
+            // client closed
+        } catch (IOException e) {
+            LOGGER.warn("embedded redis connection failed, " + e.getMessage());
+        } finally {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // closing
+            }
+        }
+    }
+
+    /**
+     * @return false once the connection is to be closed
+     */
+    private boolean handle(byte[][] command, OutputStream out) throws IOException {
+        String name = string(command[0]).toUpperCase(Locale.ENGLISH);
+        if ("PING".equals(name)) {
+            if (command.length > 1) {
+                RespClient.writeBulk(out, command[1]);
+            } else {
+                status(out, "PONG");
+            }
+        } else if ("ECHO".equals(name) && command.length == 2) {
+            RespClient.writeBulk(out, command[1]);
+        } else if ("AUTH".equals(name) || "SELECT".equals(name)) {
+            status(out, "OK");
+        } else if ("QUIT".equals(name)) {
+            status(out, "OK");
+            return false;
+        } else if ("GET".equals(name) && command.length == 2) {
+            bulk(out, value(live(string(command[1]))));
+        } else if ("SET".equals(name) && command.length >= 3) {
+            set(command, out);
+        } else if ("MGET".equals(name) && command.length >= 2) {
+            RespClient.writeLength(out, '*', command.length - 1);
+            for (int i = 1; i < command.length; i++) {
+                bulk(out, value(live(string(command[i]))));
+            }
+        } else if ("MSET".equals(name) && command.length >= 3 && command.length % 2 == 1) {
+            for (int i = 1; i < command.length; i += 2) {
+                items.put(string(command[i]), new Item(command[i + 1], 0));
+            }
+            status(out, "OK");
+        } else if ("DEL".equals(name) && command.length >= 2) {
+            long removed = 0;
+            for (int i = 1; i < command.length; i++) {
+                String key = string(command[i]);
+                if (live(key) != null && items.remove(key) != null) {
+                    removed++;
+                }
+            }
+            integer(out, removed);
+        } else if ("EXISTS".equals(name) && command.length >= 2) {
+            long found = 0;
+            for (int i = 1; i < command.length; i++) {
+                if (live(string(command[i])) != null) {
+                    found++;
+                }
+            }
+            integer(out, found);
+        } else if ("EXPIRE".equals(name) && command.length == 3) {
+            String key = string(command[1]);
+            Item item = live(key);
+            if (item == null) {
+                integer(out, 0);
+            } else {
+                items.put(key, new Item(item.value, System.currentTimeMillis() + Long.parseLong(string(command[2])) * 1000L));
+                integer(out, 1);
+            }
+        } else if ("TTL".equals(name) && command.length == 2) {
+            Item item = live(string(command[1]));
+            if (item == null) {
+                integer(out, -2);
+            } else if (item.expires == 0) {
+                integer(out, -1);
+            } else {
+                integer(out, (item.expires - System.currentTimeMillis() + 999) / 1000);
+            }
+        } else if ("DBSIZE".equals(name)) {
+            integer(out, items.size());
+        } else if ("FLUSHDB".equals(name) || "FLUSHALL".equals(name)) {
+            items.clear();
+            status(out, "OK");
+        } else if ("KEYS".equals(name) && command.length == 2) {
+            List<String> keys = new ArrayList<String>();
+            String pattern = string(command[1]);
+            for (String key : items.keySet()) {
+                if (GlobMatcher.matches(pattern, key) && live(key) != null) {
+                    keys.add(key);
+                }
+            }
+            RespClient.writeLength(out, '*', keys.size());
+            for (String key : keys) {
+                RespClient.writeBulk(out, RespClient.bytes(key));
+            }
+        } else if ("SCAN".equals(name) && command.length >= 2) {
+            scan(command, out);
+        } else {
+            error(out, "ERR unknown command or wrong number of arguments for '" + name.toLowerCase(Locale.ENGLISH) + "'");
+        }
+        return true;
+    }
+
+    private void set(byte[][] command, OutputStream out) throws IOException {
+        String key = string(command[1]);
+        long expires = 0;
+        boolean nx = false;
+        boolean xx = false;
+        for (int i = 3; i < command.length; i++) {
+            String option = string(command[i]).toUpperCase(Locale.ENGLISH);
+            if ("NX".equals(option)) {
+                nx = true;
+            } else if ("XX".equals(option)) {
+                xx = true;
+            } else if (("EX".equals(option) || "PX".equals(option)) && i + 1 < command.length) {
+                long time = Long.parseLong(string(command[++i]));
+                if (time <= 0) {
+                    error(out, "ERR invalid expire time in set");
+                    return;
+                }
+                expires = System.currentTimeMillis() + ("EX".equals(option) ? time * 1000L : time);
+            } else {
+                error(out, "ERR syntax error");
+                return;
+            }
+        }
+        Item item = new Item(command[2], expires);
+        boolean stored;
+        if (nx) {
+            live(key);
+            stored = items.putIfAbsent(key, item) == null;
+        } else if (xx) {
+            stored = live(key) != null && items.replace(key, item) != null;
+        } else {
+            items.put(key, item);
+            stored = true;
+        }
+        if (stored) {
+            status(out, "OK");
+        } else {
+            bulk(out, null);
+        }
+    }
+
+    /**
+     * SCAN cursor [MATCH pattern] [COUNT count]
+     */
+    private void scan(byte[][] command, OutputStream out) throws IOException {
+        String cursor = string(command[1]);
+        String pattern = null;
+        int count = 10;
+        for (int i = 2; i + 1 < command.length; i += 2) {
+            String option = string(command[i]).toUpperCase(Locale.ENGLISH);
+            if ("MATCH".equals(option)) {
+                pattern = string(command[i + 1]);
+            } else if ("COUNT".equals(option)) {
+                count = Math.max(1, Integer.parseInt(string(command[i + 1])));
+            }
+        }
+        ConcurrentNavigableMap<String, Item> rest = "0".equals(cursor)
+                ? items
+                : items.tailMap(unhex(cursor), false);
+        List<String> keys = new ArrayList<String>(count);
+        String last = null;
+        int visited = 0;
+        for (String key : rest.keySet()) {
+            if (visited++ == count) {
+                break;
+            }
+            last = key;
+            if ((pattern == null || GlobMatcher.matches(pattern, key)) && live(key) != null) {
+                keys.add(key);
+            }
+        }
+        String next = last == null || rest.higherKey(last) == null ? "0" : hex(last);
+        RespClient.writeLength(out, '*', 2);
+        RespClient.writeBulk(out, RespClient.bytes(next));
+        RespClient.writeLength(out, '*', keys.size());
+        for (String key : keys) {
+            RespClient.writeBulk(out, RespClient.bytes(key));
+        }
+    }
+
+    // drops the item once it expired
+    private Item live(String key) {
+        Item item = items.get(key);
+        if (item != null && item.expires > 0 && item.expires < System.currentTimeMillis()) {
+            items.remove(key, item);
+            return null;
+        }
+        return item;
+    }
+
+    private static byte[] value(Item item) {
+        return item == null ? null : item.value;
+    }
+
+    private static void status(OutputStream out, String status) throws IOException {
+        out.write('+');
+        out.write(status.getBytes("UTF-8"));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static void error(OutputStream out, String message) throws IOException {
+        out.write('-');
+        out.write(message.getBytes("UTF-8"));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static void integer(OutputStream out, long value) throws IOException {
+        out.write(':');
+        out.write(String.valueOf(value).getBytes("US-ASCII"));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static void bulk(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write("$-1\r\n".getBytes("US-ASCII"));
+        } else {
+            RespClient.writeBulk(out, value);
+        }
+    }
+
+    private static String string(byte[] bytes) throws UnsupportedEncodingException {
+        return new String(bytes, "UTF-8");
+    }
+
+    private static String hex(String key) throws UnsupportedEncodingException {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : key.getBytes("UTF-8")) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static String unhex(String hex) throws UnsupportedEncodingException {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return string(bytes);
+    }
+
+    private static final class Item {
+
+        final byte[] value;
+
+        final long expires;
+
+        Item(byte[] value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.humbird.soa.common.net.redis;
+
+/**
+ * Glob style patterns as redis matches them in KEYS and SCAN: {@code *}, {@code ?},
+ * {@code [abc]}, {@code [^a]}, {@code [a-z]} and {@code \} escaping the next character.
+ *
+ * Created by david on 15/5/10.
+ */
+final class GlobMatcher {
+
+    private GlobMatcher() {
+    }
+
+    static boolean matches(String pattern, String value) {
+        return matches(pattern, 0, value, 0);
+    }
+
+    private static boolean matches(String pattern, int p, String value, int v) {
+        while (p < pattern.length()) {
+            char c = pattern.charAt(p);
+            if (c == '*') {
+                while (p + 1 < pattern.length() && pattern.charAt(p + 1) == '*') {
+                    p++;
+                }
+                if (p + 1 == pattern.length()) {
+                    return true;
+                }
+                for (int i = v; i <= value.length(); i++) {
+                    if (matches(pattern, p + 1, value, i)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (v == value.length()) {
+                return false;
+            }
+            if (c == '?') {
+                p++;
+            } else if (c == '[') {
+                int end = classEnd(pattern, p);
+                if (end < 0) {
+                    // an unclosed class is taken literally
+                    if (value.charAt(v) != c) {
+                        return false;
+                    }
+                    p++;
+                } else {
+                    if (!inClass(pattern, p + 1, end, value.charAt(v))) {
+                        return false;
+                    }
+                    p = end + 1;
+                }
+            } else {
+                if (c == '\\' && p + 1 < pattern.length()) {
+                    c = pattern.charAt(++p);
+                }
+                if (value.charAt(v) != c) {
+                    return false;
+                }
+                p++;
+            }
+            v++;
+        }
+        return v == value.length();
+    }
+
+    // index of the closing bracket, -1 if there is none
+    private static int classEnd(String pattern, int open) {
+        for (int i = open + 1; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == ']' && i > open + 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean inClass(String pattern, int from, int end, char c) {
+        boolean negate = pattern.charAt(from) == '^';
+        if (negate) {
+            from++;
+        }
+        boolean found = false;
+        for (int i = from; i < end && !found; i++) {
+            char low = pattern.charAt(i);
+            if (low == '\\' && i + 1 < end) {
+                low = pattern.charAt(++i);
+            }
+            if (i + 2 < end && pattern.charAt(i + 1) == '-') {
+                char high = pattern.charAt(i + 2);
+                i += 2;
+                found = low <= high ? c >= low && c <= high : c >= high && c <= low;
+            } else {
+                found = c == low;
+            }
+        }
+        return negate != found;
+    }
+}
@@ -0,0 +1,336 @@
+package org.humbird.soa.common.net.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking client of the redis serialization protocol over a pool of connections.
+ * <p/>
+ * Arguments are byte arrays, strings (UTF-8) or numbers and go out as bulk strings, so values
+ * are binary safe. Replies come back as {@link String} for status replies, {@link Long} for
+ * integers, {@code byte[]} for bulk strings, {@link List} for arrays and null for nil. An
+ * error reply is thrown as a {@link RespException} once the rest of the replies are read, so
+ * the connection is returned to the pool in step with the server.
+ * <p/>
+ * {@link #pipeline(List)} writes every command before reading the first reply, one round trip
+ * for the whole batch. A connection that fails on I/O is closed instead of pooled.
+ *
+ * Created by david on 15/5/10.
+ */
+public class RespClient implements Closeable {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(RespClient.class);
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    // commands written before the replies are read, bounds the buffered replies of a pipeline
+    private static final int PIPELINE_CHUNK = 1024;
+
+    private final String host;
+
+    private final int port;
+
+    private final int connectTimeout;
+
+    private final int timeout;
+
+    private final String password;
+
+    private final int database;
+
+    private final Semaphore permits;
+
+    private final LinkedBlockingQueue<Connection> idle = new LinkedBlockingQueue<Connection>();
+
+    private volatile boolean closed;
+
+    public RespClient(String host, int port, int poolSize, int connectTimeout, int timeout,
+                      String password, int database) {
+        this.host = host;
+        this.port = port;
+        this.connectTimeout = connectTimeout;
+        this.timeout = timeout;
+        this.password = password == null || password.trim().length() == 0 ? null : password;
+        this.database = database;
+        this.permits = new Semaphore(Math.max(1, poolSize), true);
+    }
+
+    /**
+     * @param address host:port
+     */
+    public static RespClient of(String address, int poolSize, int connectTimeout, int timeout,
+                                String password, int database) {
+        String server = address.trim();
+        int colon = server.lastIndexOf(':');
+        if (colon < 0) {
+            return new RespClient(server, 6379, poolSize, connectTimeout, timeout, password, database);
+        }
+        return new RespClient(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1)),
+                poolSize, connectTimeout, timeout, password, database);
+    }
+
+    public Object execute(Object... command) throws IOException {
+        List<Object> replies = pipeline(Collections.singletonList(command));
+        return replies.get(0);
+    }
+
+    /**
+     * @return the replies in the order of the commands
+     */
+    public List<Object> pipeline(List<Object[]> commands) throws IOException {
+        List<Object> replies = new ArrayList<Object>(commands.size());
+        if (commands.isEmpty()) {
+            return replies;
+        }
+        Connection connection = borrow();
+        boolean broken = true;
+        RespException error = null;
+        try {
+            for (int from = 0; from < commands.size(); from += PIPELINE_CHUNK) {
+                int to = Math.min(commands.size(), from + PIPELINE_CHUNK);
+                for (int i = from; i < to; i++) {
+                    connection.write(commands.get(i));
+                }
+                connection.out.flush();
+                for (int i = from; i < to; i++) {
+                    Object reply = connection.read();
+                    if (reply instanceof RespException) {
+                        if (error == null) {
+                            error = (RespException) reply;
+                        }
+                        reply = null;
+                    }
+                    replies.add(reply);
+                }
+            }
+            broken = false;
+        } finally {
+            release(connection, broken);
+        }
+        if (error != null) {
+            throw error;
+        }
+        return replies;
+    }
+
+    /**
+     * Open connections waiting in the pool.
+     */
+    public int getIdle() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    private Connection borrow() throws IOException {
+        if (closed) {
+            throw new IOException("redis client is closed");
+        }
+        try {
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("No redis connection free in " + timeout + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a redis connection");
+        }
+        Connection connection = idle.poll();
+        if (connection != null) {
+            return connection;
+        }
+        try {
+            return connect();
+        } catch (IOException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(Connection connection, boolean broken) {
+        if (broken || closed) {
+            connection.close();
+        } else {
+            idle.offer(connection);
+        }
+        permits.release();
+    }
+
+    private Connection connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            socket.setSoTimeout(timeout);
+            Connection connection = new Connection(socket);
+            if (password != null) {
+                connection.call("AUTH", password);
+            }
+            if (database != 0) {
+                connection.call("SELECT", database);
+            }
+            LOGGER.debug("connected to redis {}:{}", host, port);
+            return connection;
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // closing
+            }
+            throw e;
+        }
+    }
+
+    static byte[] bytes(Object argument) {
+        if (argument instanceof byte[]) {
+            return (byte[]) argument;
+        }
+        try {
+            return String.valueOf(argument).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void writeLength(OutputStream out, char type, int length) throws IOException {
+        out.write(type);
+        out.write(String.valueOf(length).getBytes("US-ASCII"));
+        out.write(CRLF);
+    }
+
+    static void writeBulk(OutputStream out, byte[] value) throws IOException {
+        writeLength(out, '$', value.length);
+        out.write(value);
+        out.write(CRLF);
+    }
+
+    /**
+     * Reads one reply, an error reply is returned rather than thrown.
+     */
+    static Object readReply(InputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            throw new EOFException("redis connection closed");
+        }
+        switch (type) {
+            case '+':
+                return readLine(in);
+            case '-':
+                return new RespException(readLine(in));
+            case ':':
+                return Long.parseLong(readLine(in));
+            case '$': {
+                int length = Integer.parseInt(readLine(in));
+                if (length < 0) {
+                    return null;
+                }
+                byte[] value = new byte[length];
+                readFully(in, value);
+                if (in.read() != '\r' || in.read() != '\n') {
+                    throw new IOException("Malformed redis bulk string");
+                }
+                return value;
+            }
+            case '*': {
+                int length = Integer.parseInt(readLine(in));
+                if (length < 0) {
+                    return null;
+                }
+                List<Object> values = new ArrayList<Object>(length);
+                for (int i = 0; i < length; i++) {
+                    values.add(readReply(in));
+                }
+                return values;
+            }
+            default:
+                throw new IOException("Malformed redis reply type " + (char) type);
+        }
+    }
+
+    static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder(16);
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) {
+                throw new EOFException("redis connection closed");
+            }
+            line.append((char) c);
+        }
+        if (in.read() != '\n') {
+            throw new IOException("Malformed redis line " + line);
+        }
+        return line.toString();
+    }
+
+    static void readFully(InputStream in, byte[] value) throws IOException {
+        int offset = 0;
+        while (offset < value.length) {
+            int read = in.read(value, offset, value.length - offset);
+            if (read < 0) {
+                throw new EOFException("redis connection closed");
+            }
+            offset += read;
+        }
+    }
+
+    private static final class Connection {
+
+        final Socket socket;
+
+        final InputStream in;
+
+        final OutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), 65536);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 65536);
+        }
+
+        void write(Object[] command) throws IOException {
+            writeLength(out, '*', command.length);
+            for (Object argument : command) {
+                writeBulk(out, bytes(argument));
+            }
+        }
+
+        Object read() throws IOException {
+            return readReply(in);
+        }
+
+        Object call(Object... command) throws IOException {
+            write(command);
+            out.flush();
+            Object reply = read();
+            if (reply instanceof RespException) {
+                throw (RespException) reply;
+            }
+            return reply;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing
+            }
+        }
+    }
+}
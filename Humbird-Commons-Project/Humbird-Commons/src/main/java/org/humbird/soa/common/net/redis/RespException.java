@@ -0,0 +1,17 @@
+package org.humbird.soa.common.net.redis;
+
+import java.io.IOException;
+
+/**
+ * Error reply of a redis server, the connection stays usable.
+ *
+ * Created by david on 15/5/10.
+ */
+public class RespException extends IOException {
+
+    private static final long serialVersionUID = -3016418829527743166L;
+
+    public RespException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Redis serialization protocol (RESP) client with a connection pool, and an in process server
+ * standing in for redis in tests
+ */
+package org.humbird.soa.common.net.redis;
@@ -20,6 +20,8 @@ public class HumbirdRPCClientMain {
         HumbirdRPCClientMain humbirdRPCClientMain = new HumbirdRPCClientMain();
         try {
             humbirdRPCClientMain.initializeAndRun(args);
+            // the client only returns once it stopped
+            System.exit(0);
         } catch (IllegalArgumentException e) {
             LOG.error("Invalid arguments, exiting abnormally", e);
             LOG.info(USAGE);
@@ -0,0 +1,79 @@
+package org.humbird.soa.ipc.go;
+
+import org.humbird.soa.ipc.go.RpcConfig.ConfigException;
+import org.humbird.soa.ipc.protoc.service.HumbirdRpcClientAI;
+import org.humbird.soa.ipc.protoc.service.HumbirdRpcServerAI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The rpc side of a member running inside another process, the portal. The master serves
+ * the cache feedback and pushes CACHE_NOTIFY to the slaves, a slave connects to the master
+ * and receives it. Either runs on a daemon thread until {@link #stop()}.
+ *
+ * Created by david on 15/6/18.
+ */
+public class HumbirdRPCEndpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HumbirdRPCEndpoint.class);
+
+    private static Thread thread;
+
+    /**
+     * Parses the configuration and starts the server if this member is the master of it,
+     * the client otherwise. Started once, later calls keep the running endpoint.
+     *
+     * @param path the HumbirdRpc.cfg of this member
+     * @return true if this member is the master
+     */
+    public static synchronized boolean start(String path) throws ConfigException {
+        if (thread != null) {
+            return isMaster();
+        }
+        new RpcConfig().parse(path);
+        final boolean master = isMaster();
+        thread = new Thread(master ? "humbird-rpc-server" : "humbird-rpc-client") {
+            @Override
+            public void run() {
+                try {
+                    if (master) {
+                        new HumbirdRpcServerAI().run();
+                    } else {
+                        new HumbirdRpcClientAI().run();
+                    }
+                } catch (Throwable e) {
+                    LOG.error("Rpc endpoint stopped, ", e);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        LOG.info("Started rpc " + (master ? "server " : "client ") + RpcConfig.local.getServerName()
+                + ", master " + RpcConfig.masterMember.getIp() + ":" + RpcConfig.masterMember.getPort());
+        return master;
+    }
+
+    public static boolean isMaster() {
+        return RpcConfig.local.getServerName().equals(RpcConfig.masterMember.getServerName());
+    }
+
+    public static synchronized boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Interrupts the endpoint, it closes its channels and event loops on the way out.
+     */
+    public static synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+}
@@ -11,6 +11,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by david on 15/6/8.
@@ -25,7 +26,10 @@ public class RpcConfig {
             .setMors(ClusterMemberH.MasterOrSlaveH.MASTER);
     public static Map<String, ClusterMemberH.Builder> mems = new HashMap<String, ClusterMemberH.Builder>();
     public static Map<String, CacheStat> caches = new HashMap<String, CacheStat>();
-    public static Map<ProbeTypeH, Integer> versions = new HashMap<ProbeTypeH, Integer>();
+    // written by rpc threads on both sides
+    public static Map<ProbeTypeH, Integer> versions = new ConcurrentHashMap<ProbeTypeH, Integer>();
+    // ms the master waits for every slave to prepare a cache generation before it rolls back
+    public static volatile long switchTimeout = 30000;
 
     @SuppressWarnings("serial")
     public static class ConfigException extends Exception {
@@ -102,6 +106,8 @@ public class RpcConfig {
                 masterMember.setPort(Integer.parseInt(value));
             } else if("master.name".equals(key)) {
                 masterMember.setServerName(value);
+            } else if("cache.switch.timeout".equals(key)) {
+                switchTimeout = Long.parseLong(value);
             } else if(key.startsWith("slave")) {
                 String parts [] = key.split("\\.");
                 int num = Integer.parseInt(parts[2]);
@@ -1,9 +1,11 @@
 package org.humbird.soa.ipc.protoc.service;
 
+import com.google.protobuf.BlockingService;
 import com.googlecode.protobuf.pro.duplex.client.DuplexTcpClientPipelineFactory;
 import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeH.ProbeTypeH;
 import org.humbird.soa.ipc.service.netty.CacheService;
 import org.humbird.soa.ipc.service.netty.HumbirdRpcClient;
+import org.humbird.soa.ipc.service.netty.server.CacheServiceFactory;
 import org.humbird.soa.ipc.service.netty.wire.NettyServerVo;
 
 /**
@@ -18,6 +20,12 @@ public class HumbirdRpcClientAI extends HumbirdRpcClient {
 
     }
 
+    @Override
+    protected void service(DuplexTcpClientPipelineFactory factory) {
+        BlockingService bNotifyService = ClusterHService.BlockingNotify.newReflectiveBlockingService(new CacheServiceFactory.BlockingNotifyServer());
+        factory.getRpcServiceRegistry().registerService(true, bNotifyService);
+    }
+
     @Override
     protected void register(DuplexTcpClientPipelineFactory factory) throws Throwable {
         cacheService.execute(factory.getRpcClientRegistry(), ProbeTypeH.CACHE_FEED_BACK);
@@ -23,6 +23,8 @@ public class HumbirdRpcServerAI extends HumbirdRpcServer {
         BlockingService bFeedBackService =  ClusterHService.BlockingFeedBack.newReflectiveBlockingService(new CacheServiceFactory.BlockingFeedBackServer());
 //        BlockingService bFeedBackService =  ClusterHService.BlockingCheck.newReflectiveBlockingService(new CacheServiceFactory.BlockingCheckServer());
         factory.getRpcServiceRegistry().registerService(true, bFeedBackService);
+        // CACHE_NOTIFY is pushed from here to the slaves
+        CacheServiceFactory.setClientRegistry(factory.getRpcClientRegistry());
     }
 
     @Override
@@ -33,6 +33,16 @@ public class CacheService implements ExecutableProgram {
         }
     }
 
+    /**
+     * Pushes a CACHE_NOTIFY version to every connected slave.
+     */
+    public void publish(RpcClientRegistry registry, int version, String message) {
+        ClientExecutor exec = new ClientExecutor();
+        for( RpcClientChannel channel : registry.getAllClients() ) {
+            exec.execute(new CacheBlockingNotifyClient(version, message), channel);
+        }
+    }
+
     protected void doReverseTests(RpcClientChannel channel, ProbeTypeH type) {
         ExecutableClient c = null;
         ClientExecutor exec = new ClientExecutor();
@@ -4,12 +4,10 @@ import com.google.protobuf.ExtensionRegistry;
 import com.googlecode.protobuf.pro.duplex.*;
 import com.googlecode.protobuf.pro.duplex.client.DuplexTcpClientPipelineFactory;
 import com.googlecode.protobuf.pro.duplex.client.RpcClientConnectionWatchdog;
-import com.googlecode.protobuf.pro.duplex.execute.RpcServerCallExecutor;
 import com.googlecode.protobuf.pro.duplex.execute.ThreadPoolCallExecutor;
 import com.googlecode.protobuf.pro.duplex.listener.RpcConnectionEventListener;
 import com.googlecode.protobuf.pro.duplex.logging.CategoryPerServiceLogger;
 import com.googlecode.protobuf.pro.duplex.timeout.RpcTimeoutChecker;
-import com.googlecode.protobuf.pro.duplex.timeout.RpcTimeoutExecutor;
 import com.googlecode.protobuf.pro.duplex.timeout.TimeoutChecker;
 import com.googlecode.protobuf.pro.duplex.timeout.TimeoutExecutor;
 import io.netty.bootstrap.Bootstrap;
@@ -56,12 +54,15 @@ public abstract class HumbirdRpcClient {
         clientFactory.setExtensionRegistry(r);
 
         clientFactory.setConnectResponseTimeoutMillis(nettyServerVo.getConnectResponseTimeoutMillis());
-        RpcServerCallExecutor rpcExecutor = new ThreadPoolCallExecutor(nettyServerVo.getCorePoolSize(), nettyServerVo.getMaximumPoolSize());
+        ThreadPoolCallExecutor rpcExecutor = new ThreadPoolCallExecutor(nettyServerVo.getCorePoolSize(), nettyServerVo.getMaximumPoolSize());
         clientFactory.setRpcServerCallExecutor(rpcExecutor);
         // open compress
         clientFactory.setCompression(nettyServerVo.isCompression());
         clientFactory.setRpcLogger(logger);
 
+        // services the master calls back on this slave
+        service(clientFactory);
+
         final RpcConnectionEventListener listener = new RpcConnectionEventListener() {
 
             @Override
@@ -103,7 +104,7 @@ public abstract class HumbirdRpcClient {
         rpcEventNotifier.addEventListener(watchdog);
         watchdog.start();
 
-        RpcTimeoutExecutor timeoutExecutor = new TimeoutExecutor(1,5);
+        TimeoutExecutor timeoutExecutor = new TimeoutExecutor(1,5);
         RpcTimeoutChecker checker = new TimeoutChecker();
         checker.setTimeoutExecutor(timeoutExecutor);
         checker.startChecking(clientFactory.getRpcClientRegistry());
@@ -115,33 +116,38 @@ public abstract class HumbirdRpcClient {
         shutdownHandler.addResource(checker);
         shutdownHandler.addResource(bootstrap.group());
 
-        for(int i=0; i<100; i++) {
-            try {
-                clientFactory.peerWith(server, bootstrap);
-                break;
-            } catch (IOException e) {
-                log.error(e.getMessage());
+        try {
+            for(int i=0; i<100; i++) {
                 try {
+                    clientFactory.peerWith(server, bootstrap);
+                    break;
+                } catch (IOException e) {
+                    log.error(e.getMessage());
                     Thread.sleep(2000);
-                } catch (InterruptedException e1) {
-                    e1.printStackTrace();
                 }
             }
-        }
-        try {
-            while( true ) {
+            while( !Thread.currentThread().isInterrupted() ) {
                 register(clientFactory);
                 Thread.sleep(10000);
             }
+        } catch (InterruptedException e) {
+            // stopped by the process embedding the client
+            log.info("Stopping client " + client);
         } catch (Throwable e) {
             log.error("Throwable.", e);
         } finally {
-            System.exit(0);
+            watchdog.stop();
+            checker.shutdown();
+            timeoutExecutor.shutdown();
+            workers.shutdownGracefully();
+            rpcExecutor.shutdown();
         }
     }
 
     protected abstract void before(NettyServerVo nettyServerVo );
 
+    protected abstract void service(DuplexTcpClientPipelineFactory factory);
+
     protected abstract void register(DuplexTcpClientPipelineFactory factory) throws Throwable;
 
     protected abstract void after(NettyServerVo nettyServerVo );
@@ -5,7 +5,6 @@ import com.googlecode.protobuf.pro.duplex.CleanShutdownHandler;
 import com.googlecode.protobuf.pro.duplex.PeerInfo;
 import com.googlecode.protobuf.pro.duplex.RpcClientChannel;
 import com.googlecode.protobuf.pro.duplex.RpcConnectionEventNotifier;
-import com.googlecode.protobuf.pro.duplex.execute.RpcServerCallExecutor;
 import com.googlecode.protobuf.pro.duplex.execute.ThreadPoolCallExecutor;
 import com.googlecode.protobuf.pro.duplex.listener.RpcConnectionEventListener;
 import com.googlecode.protobuf.pro.duplex.logging.CategoryPerServiceLogger;
@@ -18,6 +17,7 @@ import io.netty.channel.socket.nio.NioServerSocketChannel;
 import org.humbird.soa.ipc.go.RpcConfig;
 import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH;
 import org.humbird.soa.ipc.service.RpcServiceFactory;
+import org.humbird.soa.ipc.service.netty.server.CacheServiceFactory;
 import org.humbird.soa.ipc.service.netty.wire.NettyServerVo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,7 +51,7 @@ public abstract class HumbirdRpcServer {
         ClusterSlaveH.registerAllExtensions(r);
         serverFactory.setExtensionRegistry(r);
 
-        RpcServerCallExecutor rpcExecutor = new ThreadPoolCallExecutor(nettyServerVo.getCorePoolSize(), nettyServerVo.getMaximumPoolSize());
+        ThreadPoolCallExecutor rpcExecutor = new ThreadPoolCallExecutor(nettyServerVo.getCorePoolSize(), nettyServerVo.getMaximumPoolSize());
         serverFactory.setRpcServerCallExecutor(rpcExecutor);
         serverFactory.setLogger(logger);
 
@@ -61,11 +61,13 @@ public abstract class HumbirdRpcServer {
             @Override
             public void connectionReestablished(RpcClientChannel clientChannel) {
                 log.info("------- connectionReestablished " + clientChannel);
+                CacheServiceFactory.subscribe(clientChannel);
             }
 
             @Override
             public void connectionOpened(RpcClientChannel clientChannel) {
                 log.info("------- connectionOpened " + clientChannel);
+                CacheServiceFactory.subscribe(clientChannel);
             }
 
             @Override
@@ -111,22 +113,25 @@ public abstract class HumbirdRpcServer {
             future = bootstrap.bind().sync();
             log.info("Serving " + bootstrap);
 
-            while (true) {
+            while (!Thread.currentThread().isInterrupted()) {
                 log.info("Sleeping 10s before retesting clients.");
                 Thread.sleep(100000);
 //                new CacheService().execute(serverFactory.getRpcClientRegistry(), null);
             }
 
+        } catch (InterruptedException e) {
+            // stopped by the process embedding the server
+            log.info("Stopping " + bootstrap);
         } catch (Throwable e) {
             log.error("Throwable.", e);
         } finally {
+            CacheServiceFactory.setClientRegistry(null);
             if(future != null) {
-                try {
-                    future.channel().closeFuture().sync();
-                } catch (InterruptedException e) {
-                    log.error("Throwable.", e);
-                }
+                future.channel().close().awaitUninterruptibly();
             }
+            boss.shutdownGracefully();
+            workers.shutdownGracefully();
+            rpcExecutor.shutdown();
         }
 
     }
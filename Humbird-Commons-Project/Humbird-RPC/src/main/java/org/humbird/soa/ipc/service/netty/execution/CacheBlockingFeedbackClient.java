@@ -9,6 +9,7 @@ import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeReplyH;
 import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeH;
 import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeH.ProbeTypeH;
 import org.humbird.soa.ipc.service.netty.ExecutableClient;
+import org.humbird.soa.ipc.service.netty.server.CacheServiceFactory;
 import org.humbird.soa.ipc.service.netty.server.ProbeReplyCallback;
 import org.humbird.soa.ipc.wire.CacheStat;
 import org.humbird.soa.ipc.wire.ReplyStat;
@@ -16,12 +17,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Slave side of a cache generation switch. It reports its state to the master, prepares the
+ * new generation on UPDATE, switches to it on SWITCH and drops it on ABORT. While the round
+ * goes on it probes again shortly, so the members switch close together.
+ *
  * Created by david on 15/6/9.
  */
 public class CacheBlockingFeedbackClient implements ExecutableClient {
 
     private static Logger log = LoggerFactory.getLogger(CacheBlockingFeedbackClient.class);
 
+    private static final int MAX_PROBES = 20;
+
+    private static final long PROBE_INTERVAL = 500;
+
     private Throwable error;
 
     @Override
@@ -31,21 +40,26 @@ public class CacheBlockingFeedbackClient implements ExecutableClient {
             long endTS = 0;
             startTS = System.currentTimeMillis();
             BlockingFeedBack.BlockingInterface feedbackService = BlockingFeedBack.newBlockingStub(channel);
-            final ClientRpcController controller = channel.newRpcController();
-            controller.setTimeoutMs(2000);
-            ProbeReplyCallback prc = new ProbeReplyCallback(controller);
-            controller.setOobResponseCallback(ProbeReplyH.getDefaultInstance(), prc);
+            for (int probes = 0; probes < MAX_PROBES; probes++) {
+                final ClientRpcController controller = channel.newRpcController();
+                controller.setTimeoutMs(2000);
+                ProbeReplyCallback prc = new ProbeReplyCallback(controller);
+                controller.setOobResponseCallback(ProbeReplyH.getDefaultInstance(), prc);
 
-            ProbeH.Builder probeHBuilider = ProbeH.newBuilder()
-                    .setId(RpcConfig.caches.get(RpcConfig.local.getServerName()).getId())
-                    .setServerName(RpcConfig.local.getServerName())
-                    .setVersion(RpcConfig.versions.get(ProbeTypeH.CACHE_FEED_BACK));
-            ProbeReplyH probeReplyH = feedbackService.feedback(controller, probeHBuilider.build());
-            if(probeReplyH.hasErrorCode()) {
-                throw new ServiceException("Error code : " + probeReplyH.getErrorCode() + ", Error Message : " + (probeReplyH.hasErrorMessage() ? probeReplyH.getErrorMessage() : ""));
-            }
+                ProbeH.Builder probeHBuilider = ProbeH.newBuilder()
+                        .setId(RpcConfig.caches.get(RpcConfig.local.getServerName()).getId())
+                        .setServerName(RpcConfig.local.getServerName())
+                        .setVersion(RpcConfig.versions.get(ProbeTypeH.CACHE_FEED_BACK));
+                ProbeReplyH probeReplyH = feedbackService.feedback(controller, probeHBuilider.build());
+                if(probeReplyH.hasErrorCode()) {
+                    throw new ServiceException("Error code : " + probeReplyH.getErrorCode() + ", Error Message : " + (probeReplyH.hasErrorMessage() ? probeReplyH.getErrorMessage() : ""));
+                }
 
-            invoke(probeReplyH);
+                if (!invoke(probeReplyH)) {
+                    break;
+                }
+                Thread.sleep(PROBE_INTERVAL);
+            }
 
 //            ProbeReplyH probeReplyH2 = prc.getProbeReplyH();
 
@@ -61,28 +75,39 @@ public class CacheBlockingFeedbackClient implements ExecutableClient {
         return error;
     }
 
-    private void invoke(ProbeReplyH probeReplyH) {
+    /**
+     * @return true if the switch goes on and the master should be asked again
+     */
+    private boolean invoke(ProbeReplyH probeReplyH) {
         CacheStat cacheStat = RpcConfig.caches.get(RpcConfig.local.getServerName());
         if(probeReplyH.getId() == ReplyStat.NONE) {
-            System.out.println("####### none");
-            // ... none
+            log.debug("####### none");
+            return false;
         } else if(probeReplyH.getId() == ReplyStat.UPDATE) {
-            System.out.println("####### update");
-            try {
-                Thread.sleep(3000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            log.info("####### update to " + probeReplyH.getVersion());
+            // built off to the side, readers stay on the current generation
+            if (!CacheServiceFactory.prepare(probeReplyH.getVersion())) {
+                return false;
             }
-            // done...
             RpcConfig.versions.put(ProbeTypeH.CACHE_FEED_BACK, probeReplyH.getVersion());
             cacheStat.setId(probeReplyH.getId());
+            return true;
         } else if(probeReplyH.getId() == ReplyStat.SWITCH) {
-            // ... switch
-            System.out.println("####### donw switch");
+            CacheServiceFactory.switchTo(probeReplyH.getVersion());
+            log.info("####### done switch to " + probeReplyH.getVersion());
             cacheStat.setId(probeReplyH.getId());
+            return false;
         } else if(probeReplyH.getId() == ReplyStat.WAIT_SWITCH) {
-            System.out.println("####### wait switch");
+            log.debug("####### wait switch");
+            cacheStat.setId(probeReplyH.getId());
+            return true;
+        } else if(probeReplyH.getId() == ReplyStat.ABORT) {
+            // the master gave up on a member, everybody stays on the current generation
+            CacheServiceFactory.abort(probeReplyH.getVersion());
+            log.warn("####### switch to " + probeReplyH.getVersion() + " aborted");
             cacheStat.setId(probeReplyH.getId());
+            return false;
         }
+        return false;
     }
 }
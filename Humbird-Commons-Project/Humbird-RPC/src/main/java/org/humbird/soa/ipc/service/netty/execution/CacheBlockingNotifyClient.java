@@ -1,21 +1,43 @@
 package org.humbird.soa.ipc.service.netty.execution;
 
+import com.google.protobuf.ServiceException;
 import com.googlecode.protobuf.pro.duplex.ClientRpcController;
 import com.googlecode.protobuf.pro.duplex.RpcClientChannel;
+import org.humbird.soa.ipc.go.RpcConfig;
 import org.humbird.soa.ipc.protoc.service.ClusterHService.BlockingNotify;
+import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeH;
+import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeH.ProbeTypeH;
+import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeReplyH;
 import org.humbird.soa.ipc.service.netty.ExecutableClient;
+import org.humbird.soa.ipc.wire.ReplyStat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Pushes the master CACHE_NOTIFY version to one slave, the message is the changed key or
+ * null when the slave has to drop everything.
+ *
  * Created by david on 15/6/9.
  */
 public class CacheBlockingNotifyClient implements ExecutableClient {
 
     private static Logger log = LoggerFactory.getLogger(CacheBlockingNotifyClient.class);
 
+    private final int version;
+
+    private final String message;
+
     private Throwable error;
 
+    public CacheBlockingNotifyClient() {
+        this(RpcConfig.versions.get(ProbeTypeH.CACHE_NOTIFY), null);
+    }
+
+    public CacheBlockingNotifyClient(int version, String message) {
+        this.version = version;
+        this.message = message;
+    }
+
     @Override
     public void execute(RpcClientChannel channel) {
         try {
@@ -27,11 +49,23 @@ public class CacheBlockingNotifyClient implements ExecutableClient {
             final ClientRpcController controller = channel.newRpcController();
             controller.setTimeoutMs(2000);
 
+            ProbeH.Builder probeHBuilder = ProbeH.newBuilder()
+                    .setId(ReplyStat.UPDATE)
+                    .setServerName(RpcConfig.masterMember.getServerName())
+                    .setVersion(version)
+                    .setType(ProbeTypeH.CACHE_NOTIFY);
+            if (message != null) {
+                probeHBuilder.setProbeMessage(message);
+            }
+            ProbeReplyH probeReplyH = notifyService.notify(controller, probeHBuilder.build());
+            if(probeReplyH.hasErrorCode()) {
+                throw new ServiceException("Error code : " + probeReplyH.getErrorCode() + ", Error Message : " + (probeReplyH.hasErrorMessage() ? probeReplyH.getErrorMessage() : ""));
+            }
 
             endTS = System.currentTimeMillis();
-            log.info(" in " + (endTS - startTS)
-                    / 1000 + "s");
+            log.debug("notified version " + version + " to " + channel + " in " + (endTS - startTS) + "ms");
         } catch ( Throwable t ) {
+            log.error(t.getMessage());
             this.error = t;
         }
     }
@@ -0,0 +1,15 @@
+package org.humbird.soa.ipc.service.netty.server;
+
+/**
+ * Told on a slave when the master publishes a new CACHE_NOTIFY version.
+ *
+ * Created by david on 15/6/15.
+ */
+public interface CacheNotifyListener {
+
+    /**
+     * @param version the master version now applied locally
+     * @param message the changed key, or null if every cached entry must be dropped
+     */
+    public void notified(int version, String message);
+}
@@ -3,18 +3,27 @@ package org.humbird.soa.ipc.service.netty.server;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.RpcController;
 import com.google.protobuf.ServiceException;
+import com.googlecode.protobuf.pro.duplex.RpcClientChannel;
 import com.googlecode.protobuf.pro.duplex.execute.ServerRpcController;
+import com.googlecode.protobuf.pro.duplex.server.RpcClientRegistry;
 import org.humbird.soa.ipc.go.RpcConfig;
 import org.humbird.soa.ipc.protoc.service.ClusterHService.BlockingCheck;
 import org.humbird.soa.ipc.protoc.service.ClusterHService.BlockingFeedBack;
+import org.humbird.soa.ipc.protoc.service.ClusterHService.BlockingNotify;
 import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeH;
 import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeH.ProbeTypeH;
 import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeReplyH;
+import org.humbird.soa.ipc.service.netty.CacheService;
+import org.humbird.soa.ipc.service.netty.ClientExecutor;
+import org.humbird.soa.ipc.service.netty.execution.CacheBlockingNotifyClient;
 import org.humbird.soa.ipc.wire.CacheStat;
 import org.humbird.soa.ipc.wire.ReplyStat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Created by david on 15/6/10.
  */
@@ -22,6 +31,222 @@ public class CacheServiceFactory {
 
     private static Logger log = LoggerFactory.getLogger(CacheServiceFactory.class);
 
+    private static final List<CacheNotifyListener> notifyListeners = new CopyOnWriteArrayList<CacheNotifyListener>();
+
+    private static final List<CacheSwitchListener> switchListeners = new CopyOnWriteArrayList<CacheSwitchListener>();
+
+    // CACHE_FEED_BACK generations of this member, guarded by the class
+    private static int preparedVersion = -1;
+
+    private static int switchedVersion = -1;
+
+    // master side, the round it gave up on, its members are told to drop what they prepared
+    private static int abortedVersion = -1;
+
+    // one switch started at a time, the probes are not held up while the master prepares
+    private static final Object switchLock = new Object();
+
+    // master side, rolls back a round still waiting for a slave at its deadline
+    private static Timer switchTimer;
+
+    private static volatile RpcClientRegistry clientRegistry;
+
+    public static void addCacheNotifyListener(CacheNotifyListener listener) {
+        notifyListeners.add(listener);
+    }
+
+    public static void removeCacheNotifyListener(CacheNotifyListener listener) {
+        notifyListeners.remove(listener);
+    }
+
+    public static void addCacheSwitchListener(CacheSwitchListener listener) {
+        switchListeners.add(listener);
+    }
+
+    public static void removeCacheSwitchListener(CacheSwitchListener listener) {
+        switchListeners.remove(listener);
+    }
+
+    /**
+     * Slaves connected to this master, set once the server registered its services.
+     */
+    public static void setClientRegistry(RpcClientRegistry registry) {
+        clientRegistry = registry;
+    }
+
+    /**
+     * Master side, bumps the CACHE_NOTIFY version and pushes it to every connected slave.
+     * The server runs once {@link org.humbird.soa.ipc.go.HumbirdRPCEndpoint} started it,
+     * without one only the version moves and slaves have to poll for it.
+     *
+     * @param message the changed key, or null if slaves must drop every cached entry
+     * @return the published version
+     */
+    public static synchronized int publish(String message) {
+        return publish(0, message);
+    }
+
+    /**
+     * Same as {@link #publish(String)}, but moves the CACHE_NOTIFY version to the given one
+     * when it is ahead, so slaves see the version of what changed.
+     */
+    public static synchronized int publish(int version, String message) {
+        Integer current = RpcConfig.versions.get(ProbeTypeH.CACHE_NOTIFY);
+        version = Math.max(version, current == null ? 1 : current + 1);
+        RpcConfig.versions.put(ProbeTypeH.CACHE_NOTIFY, version);
+        RpcClientRegistry registry = clientRegistry;
+        if (registry != null) {
+            new CacheService().publish(registry, version, message);
+        }
+        return version;
+    }
+
+    /**
+     * Master side, a slave connecting is its subscription. It gets the current CACHE_NOTIFY
+     * version straight away, so a slave started before the master syncs the moment metadata
+     * is published instead of polling for it.
+     */
+    public static void subscribe(RpcClientChannel channel) {
+        Integer version = RpcConfig.versions.get(ProbeTypeH.CACHE_NOTIFY);
+        if (version != null) {
+            new ClientExecutor().execute(new CacheBlockingNotifyClient(version, null), channel);
+        }
+    }
+
+    /**
+     * Master side, starts the switch to a new cache generation. The master prepares it first,
+     * every slave prepares it when its next feedback probe gets UPDATE, and each member
+     * switches once the master answers SWITCH, that is once every slave has it.
+     * <p/>
+     * A slave that has not prepared it within {@link RpcConfig#switchTimeout} ms, a dead one
+     * included, rolls the round back. Every member drops the generation and stays on the
+     * current one, the next switch starts over with a new version and does not wait for that
+     * slave until it probes again.
+     *
+     * @return the version of the new generation, -1 if the master could not prepare it
+     */
+    public static int startSwitch() {
+        synchronized (switchLock) {
+            Integer current = RpcConfig.versions.get(ProbeTypeH.CACHE_FEED_BACK);
+            int version = current == null ? 1 : current + 1;
+            if (!prepare(version)) {
+                return -1;
+            }
+            synchronized (CacheServiceFactory.class) {
+                // pending before the version moves, a slave only prepares once it sees the new one
+                for (CacheStat cacheStat : RpcConfig.caches.values()) {
+                    cacheStat.setUpdated(cacheStat.isAbsent());
+                }
+                RpcConfig.versions.put(ProbeTypeH.CACHE_FEED_BACK, version);
+                if (CacheStat.updatedCount.get() == 0) {
+                    switchTo(version);
+                } else {
+                    scheduleDeadline(version);
+                }
+            }
+            return version;
+        }
+    }
+
+    private static synchronized void scheduleDeadline(final int version) {
+        if (switchTimer == null) {
+            switchTimer = new Timer("humbird-cache-switch", true);
+        }
+        switchTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                expire(version);
+            }
+        }, RpcConfig.switchTimeout);
+    }
+
+    /**
+     * Master side, rolls the round of the version back if some slave still has not prepared
+     * it. Probes of the round are answered ABORT from now on.
+     *
+     * @return false if the round switched or was superseded
+     */
+    public static synchronized boolean expire(int version) {
+        Integer current = RpcConfig.versions.get(ProbeTypeH.CACHE_FEED_BACK);
+        if (current == null || current != version || version == switchedVersion || CacheStat.updatedCount.get() == 0) {
+            return false;
+        }
+        List<String> pending = new ArrayList<String>();
+        for (Map.Entry<String, CacheStat> entry : RpcConfig.caches.entrySet()) {
+            if (!entry.getValue().isUpdated()) {
+                pending.add(entry.getKey());
+                entry.getValue().setUpdated(true);
+                entry.getValue().setAbsent(true);
+            }
+        }
+        log.warn("Cache switch to " + version + " timed out waiting for " + pending + ", rolled back");
+        abortedVersion = version;
+        abort(version);
+        return true;
+    }
+
+    /**
+     * Has the switch listeners build the generation of the version off to the side.
+     *
+     * @return false if one of them could not
+     */
+    public static boolean prepare(int version) {
+        for (CacheSwitchListener listener : switchListeners) {
+            try {
+                if (!listener.prepare(version)) {
+                    log.warn("Cache generation " + version + " not prepared");
+                    return false;
+                }
+            } catch (RuntimeException e) {
+                log.error("Cache switch listener failed preparing " + version + ", ", e);
+                return false;
+            }
+        }
+        synchronized (CacheServiceFactory.class) {
+            preparedVersion = version;
+        }
+        return true;
+    }
+
+    /**
+     * Switches the listeners to the prepared generation of the version, once per prepare. The
+     * versions of a restarted master start over, they are not compared with earlier ones.
+     */
+    public static synchronized void switchTo(int version) {
+        if (version != preparedVersion) {
+            return;
+        }
+        preparedVersion = -1;
+        switchedVersion = version;
+        log.info("######## switch to " + version);
+        for (CacheSwitchListener listener : switchListeners) {
+            try {
+                listener.switchTo(version);
+            } catch (RuntimeException e) {
+                log.error("Cache switch listener failed switching to " + version + ", ", e);
+            }
+        }
+    }
+
+    /**
+     * Has the switch listeners drop the prepared generation of the version, unless this
+     * member already switched to it.
+     */
+    public static synchronized void abort(int version) {
+        if (version != preparedVersion) {
+            return;
+        }
+        preparedVersion = -1;
+        log.info("######## abort " + version);
+        for (CacheSwitchListener listener : switchListeners) {
+            try {
+                listener.abort(version);
+            } catch (RuntimeException e) {
+                log.error("Cache switch listener failed aborting " + version + ", ", e);
+            }
+        }
+    }
+
     public static void cacheFeedBack(RpcController controller, ProbeH request) {
 
         ServerRpcController rpcController = ServerRpcController.getRpcController(controller);
@@ -46,39 +271,75 @@ public class CacheServiceFactory {
             int id = request.getId();
             int version = request.getVersion();
             ProbeReplyH.Builder builder = ProbeReplyH.newBuilder();
-            int localVersion = RpcConfig.versions.get(ProbeTypeH.CACHE_FEED_BACK);
-            if(localVersion == version) {
-                if(id == ReplyStat.NONE) {
-                    retId = ReplyStat.NONE;
-                } else if(id == ReplyStat.UPDATE) {
-                    log.info("######## switch " + request.getServerName());
-                    CacheStat cacheStat = RpcConfig.caches.get(request.getServerName());
-                    if(!cacheStat.isUpdated()) {
-                        cacheStat.setUpdated(true);
+            CacheStat cacheStat = RpcConfig.caches.get(request.getServerName());
+            if(cacheStat == null) {
+                log.warn("######## unknown member " + request.getServerName());
+                return builder.setId(retId).build();
+            }
+            // a switch starting in between must not count this probe for the new version
+            synchronized (CacheServiceFactory.class) {
+                // back, the next switch waits for it again
+                cacheStat.setAbsent(false);
+                int localVersion = RpcConfig.versions.get(ProbeTypeH.CACHE_FEED_BACK);
+                if(localVersion == version && localVersion == abortedVersion) {
+                    if(id == ReplyStat.UPDATE || id == ReplyStat.WAIT_SWITCH) {
+                        // rolled back, the slave drops what it prepared
+                        retId = ReplyStat.ABORT;
                     }
-                    if(CacheStat.updatedCount.get() == 0) {
-                        retId = ReplyStat.SWITCH;
-                    } else {
-                        retId = ReplyStat.WAIT_SWITCH;
+                } else if(localVersion == version) {
+                    if(id == ReplyStat.UPDATE) {
+                        // the slave prepared the version
+                        log.info("######## switch " + request.getServerName());
+                        cacheStat.setUpdated(true);
                     }
-                } else if(id == ReplyStat.WAIT_SWITCH) {
-                    log.info("######## WAIT_SWITCH : " + request.getServerName());
-                    log.info("######## WAIT_SWITCH : " + CacheStat.updatedCount.get());
-                    log.info("######## ALL COUNT : " + CacheStat.needUpdateCount.get());
-                    if(CacheStat.updatedCount.get() == 0) {
-                        retId = ReplyStat.SWITCH;
-                    } else {
-                        retId = ReplyStat.WAIT_SWITCH;
+                    if(id == ReplyStat.UPDATE || id == ReplyStat.WAIT_SWITCH) {
+                        log.info("######## WAIT_SWITCH : " + request.getServerName());
+                        log.info("######## WAIT_SWITCH : " + CacheStat.updatedCount.get());
+                        log.info("######## ALL COUNT : " + CacheStat.needUpdateCount.get());
+                        if(CacheStat.updatedCount.get() == 0) {
+                            switchTo(localVersion);
+                            retId = ReplyStat.SWITCH;
+                        } else {
+                            retId = ReplyStat.WAIT_SWITCH;
+                        }
                     }
+                } else {
+                    log.info("######## update");
+                    retId = ReplyStat.UPDATE;
                 }
-            } else {
-                log.info("######## update");
-                retId = ReplyStat.UPDATE;
+                builder.setVersion(localVersion);
             }
             return builder.setId(retId).build();
         }
     }
 
+    public static class BlockingNotifyServer implements BlockingNotify.BlockingInterface {
+
+        @Override
+        public ProbeReplyH notify(RpcController controller, ProbeH request) throws ServiceException {
+            int version = request.getVersion();
+            Integer localVersion = RpcConfig.versions.get(ProbeTypeH.CACHE_NOTIFY);
+            if (localVersion != null && localVersion == version) {
+                return ProbeReplyH.newBuilder().setId(ReplyStat.NONE).setVersion(version).build();
+            }
+            // a single key is only enough when no version was missed in between
+            String message = null;
+            if (request.hasProbeMessage() && localVersion != null && localVersion + 1 == version) {
+                message = request.getProbeMessage();
+            }
+            RpcConfig.versions.put(ProbeTypeH.CACHE_NOTIFY, version);
+            log.info("######## notify " + version + " from " + request.getServerName());
+            for (CacheNotifyListener listener : notifyListeners) {
+                try {
+                    listener.notified(version, message);
+                } catch (RuntimeException e) {
+                    log.error("Cache notify listener failed, ", e);
+                }
+            }
+            return ProbeReplyH.newBuilder().setId(ReplyStat.UPDATE).setVersion(version).build();
+        }
+    }
+
     public static class BlockingCheckServer implements BlockingCheck.BlockingInterface {
 
         @Override
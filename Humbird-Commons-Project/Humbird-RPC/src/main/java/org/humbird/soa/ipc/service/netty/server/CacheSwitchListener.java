@@ -0,0 +1,28 @@
+package org.humbird.soa.ipc.service.netty.server;
+
+/**
+ * Builds and switches cache generations, told on every member taking part in a cache
+ * feedback round.
+ *
+ * Created by david on 15/6/16.
+ */
+public interface CacheSwitchListener {
+
+    /**
+     * Builds the generation of the version off to the side, readers stay on the current one.
+     *
+     * @return false if it could not be built, the member is asked again on its next probe
+     */
+    public boolean prepare(int version);
+
+    /**
+     * Makes the prepared generation of the version the current one, every member has it.
+     */
+    public void switchTo(int version);
+
+    /**
+     * Drops the prepared generation of the version, the master gave up waiting for a member
+     * and every member stays on the current one.
+     */
+    public void abort(int version);
+}
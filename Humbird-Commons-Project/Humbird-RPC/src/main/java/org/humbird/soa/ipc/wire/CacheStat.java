@@ -11,6 +11,9 @@ public class CacheStat {
 
     private boolean updated = true;
 
+    // missed the deadline of a switch, later switches do not wait for it until it probes again
+    private boolean absent = false;
+
     private long lastDate = System.currentTimeMillis();
 
     public volatile static AtomicInteger needUpdateCount = new AtomicInteger(0);  // 需要变更个数
@@ -21,19 +24,26 @@ public class CacheStat {
         needUpdateCount.incrementAndGet();
     }
 
-    public int getId() {
+    public synchronized int getId() {
         return id;
     }
 
-    public void setId(int id) {
+    public synchronized void setId(int id) {
         this.id = id;
     }
 
-    public boolean isUpdated() {
+    public synchronized boolean isUpdated() {
         return updated;
     }
 
-    public void setUpdated(boolean updated) {
+    /**
+     * Counts the members still to update, only a change of the flag moves the count, the
+     * same slave probing twice is counted once.
+     */
+    public synchronized void setUpdated(boolean updated) {
+        if (this.updated == updated) {
+            return;
+        }
         this.updated = updated;
         if(updated) {
             updatedCount.decrementAndGet();
@@ -42,6 +52,14 @@ public class CacheStat {
         }
     }
 
+    public synchronized boolean isAbsent() {
+        return absent;
+    }
+
+    public synchronized void setAbsent(boolean absent) {
+        this.absent = absent;
+    }
+
     public long getLastDate() {
         return lastDate;
     }
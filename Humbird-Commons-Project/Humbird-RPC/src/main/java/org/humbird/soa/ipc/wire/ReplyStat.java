@@ -8,4 +8,5 @@ public class ReplyStat {
     public final static int UPDATE = 1;
     public final static int SWITCH = 2;
     public final static int WAIT_SWITCH = 3;
+    public final static int ABORT = 4;
 }
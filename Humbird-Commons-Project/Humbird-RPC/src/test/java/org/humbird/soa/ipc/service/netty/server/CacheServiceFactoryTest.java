@@ -0,0 +1,127 @@
+package org.humbird.soa.ipc.service.netty.server;
+
+import org.humbird.soa.ipc.go.RpcConfig;
+import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeH;
+import org.humbird.soa.ipc.protoc.vo.ClusterSlaveH.ProbeReplyH;
+import org.humbird.soa.ipc.wire.CacheStat;
+import org.humbird.soa.ipc.wire.ReplyStat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The master side of a cache generation switch with two slaves, their probes answered by the
+ * feedback service as they would be over the wire.
+ *
+ * Created by david on 15/6/18.
+ */
+public class CacheServiceFactoryTest {
+
+    private final List<String> calls = new ArrayList<String>();
+
+    private final CacheSwitchListener listener = new CacheSwitchListener() {
+        @Override
+        public boolean prepare(int version) {
+            calls.add("prepare " + version);
+            return true;
+        }
+
+        @Override
+        public void switchTo(int version) {
+            calls.add("switch " + version);
+        }
+
+        @Override
+        public void abort(int version) {
+            calls.add("abort " + version);
+        }
+    };
+
+    private final CacheServiceFactory.BlockingFeedBackServer master = new CacheServiceFactory.BlockingFeedBackServer();
+
+    private long switchTimeout;
+
+    @Before
+    public void setUp() {
+        RpcConfig.caches.clear();
+        RpcConfig.caches.put("slave1", new CacheStat());
+        RpcConfig.caches.put("slave2", new CacheStat());
+        switchTimeout = RpcConfig.switchTimeout;
+        CacheServiceFactory.addCacheSwitchListener(listener);
+    }
+
+    @After
+    public void tearDown() {
+        CacheServiceFactory.removeCacheSwitchListener(listener);
+        RpcConfig.switchTimeout = switchTimeout;
+        for (CacheStat cacheStat : RpcConfig.caches.values()) {
+            cacheStat.setUpdated(true);
+        }
+        RpcConfig.caches.clear();
+    }
+
+    @Test
+    public void testSwitchWaitsForEverySlave() throws Exception {
+        int version = CacheServiceFactory.startSwitch();
+        assertEquals(list("prepare " + version), calls);
+
+        // a slave on the old version is told the new one
+        ProbeReplyH reply = probe("slave1", ReplyStat.NONE, version - 1);
+        assertEquals(ReplyStat.UPDATE, reply.getId());
+        assertEquals(version, reply.getVersion());
+        assertEquals(ReplyStat.WAIT_SWITCH, probe("slave1", ReplyStat.UPDATE, version).getId());
+        assertEquals(ReplyStat.WAIT_SWITCH, probe("slave1", ReplyStat.WAIT_SWITCH, version).getId());
+        assertEquals(list("prepare " + version), calls);
+
+        // the last one prepared, the master switches and tells both
+        assertEquals(ReplyStat.SWITCH, probe("slave2", ReplyStat.UPDATE, version).getId());
+        assertEquals(list("prepare " + version, "switch " + version), calls);
+        assertEquals(ReplyStat.SWITCH, probe("slave1", ReplyStat.WAIT_SWITCH, version).getId());
+        assertEquals(ReplyStat.NONE, probe("slave1", ReplyStat.SWITCH, version).getId());
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testDeadSlaveRollsTheSwitchBack() throws Exception {
+        RpcConfig.switchTimeout = 100;
+        int version = CacheServiceFactory.startSwitch();
+        assertEquals(ReplyStat.WAIT_SWITCH, probe("slave1", ReplyStat.UPDATE, version).getId());
+        // slave2 never answers
+        long end = System.currentTimeMillis() + 5000;
+        while (!calls.contains("abort " + version) && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        assertEquals(list("prepare " + version, "abort " + version), calls);
+        assertEquals(ReplyStat.ABORT, probe("slave1", ReplyStat.WAIT_SWITCH, version).getId());
+        assertEquals(ReplyStat.NONE, probe("slave1", ReplyStat.ABORT, version).getId());
+
+        // the next switch does not wait for the dead slave
+        calls.clear();
+        int next = CacheServiceFactory.startSwitch();
+        assertEquals(version + 1, next);
+        assertEquals(ReplyStat.SWITCH, probe("slave1", ReplyStat.UPDATE, next).getId());
+        assertEquals(list("prepare " + next, "switch " + next), calls);
+
+        // once back it catches up
+        assertEquals(ReplyStat.UPDATE, probe("slave2", ReplyStat.NONE, version - 1).getId());
+        assertEquals(ReplyStat.SWITCH, probe("slave2", ReplyStat.UPDATE, next).getId());
+        assertFalse(RpcConfig.caches.get("slave2").isAbsent());
+    }
+
+    private ProbeReplyH probe(String serverName, int id, int version) throws Exception {
+        return master.feedback(null, ProbeH.newBuilder().setId(id).setServerName(serverName).setVersion(version).build());
+    }
+
+    private static List<String> list(String... calls) {
+        List<String> list = new ArrayList<String>();
+        for (String call : calls) {
+            list.add(call);
+        }
+        return list;
+    }
+}
@@ -2,6 +2,8 @@ package org.humbird.soa.core;
 
 import net.sf.ehcache.util.TimeUtil;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
@@ -9,6 +11,9 @@ import java.io.Serializable;
  */
 public class HumbirdSession implements Serializable {
 
+    // pinned to the UID of the pre-codec class so older nodes can still deserialize it
+    private static final long serialVersionUID = 5687309785097565128L;
+
     private int EXPIRATION = 0;
 
     private Object key;
@@ -36,12 +41,14 @@ public class HumbirdSession implements Serializable {
 
     private transient long creationTime;
 
-    private transient long lastAccessTime;
+    private transient volatile long lastAccessTime;
 
     private volatile long lastUpdateTime;
 
     private volatile boolean cacheDefaultLifespan;
 
+    private transient boolean refreshing;
+
     public int getEXPIRATION() {
         return EXPIRATION;
     }
@@ -60,7 +67,7 @@ public class HumbirdSession implements Serializable {
             long ttlExpiry = this.creationTime + TimeUtil.toMillis(this.getTimeToLive());
             long mostRecentTime = Math.max(this.creationTime, this.lastAccessTime);
             long ttiExpiry = mostRecentTime + TimeUtil.toMillis(this.getTimeToIdle());
-            if(this.getTimeToLive() != 0 && (this.getTimeToIdle() == 0 || this.lastAccessTime == 0L)) {
+            if(this.getTimeToLive() != 0 && this.getTimeToIdle() == 0) {
                 expirationTime = ttlExpiry;
             } else if(this.getTimeToLive() == 0) {
                 expirationTime = ttiExpiry;
@@ -74,6 +81,36 @@ public class HumbirdSession implements Serializable {
         }
     }
 
+    /**
+     * True once the given fraction of the time to live has passed, a reader may then reload
+     * the value ahead of its expiration.
+     */
+    public boolean isRefreshDue(float fraction) {
+        if (this.getTimeToLive() <= 0 || fraction <= 0) {
+            return false;
+        }
+        long refreshTime = this.creationTime + (long) (TimeUtil.toMillis(this.getTimeToLive()) * fraction);
+        return this.getCurrentTime() >= refreshTime;
+    }
+
+    /**
+     * Claims the refresh of this session, false if another reader already started one.
+     */
+    public synchronized boolean tryStartRefresh() {
+        if (refreshing) {
+            return false;
+        }
+        refreshing = true;
+        return true;
+    }
+
+    /**
+     * Releases a refresh that did not replace the session, so a later read can try again.
+     */
+    public synchronized void endRefresh() {
+        refreshing = false;
+    }
+
     public int getTimeToLive() {
         return -2147483648 == this.timeToLive?0:this.timeToLive;
     }
@@ -109,6 +146,30 @@ public class HumbirdSession implements Serializable {
         }
     }
 
+    public void setTimeToIdle(int timeToIdleSeconds) {
+        if(timeToIdleSeconds < 0) {
+            throw new IllegalArgumentException("timeToIdle can\'t be negative");
+        } else {
+            this.cacheDefaultLifespan = false;
+            this.timeToIdle = timeToIdleSeconds;
+        }
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * Records a read, which pushes back the time to idle expiry.
+     */
+    public void updateAccessStatistics() {
+        this.lastAccessTime = this.getCurrentTime();
+    }
+
     public Object getKey() {
         return key;
     }
@@ -125,6 +186,30 @@ public class HumbirdSession implements Serializable {
         this.value = value;
     }
 
+    public long getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    public void setLastUpdateTime(long lastUpdateTime) {
+        this.lastUpdateTime = lastUpdateTime;
+    }
+
+    /**
+     * False once a time to live or to idle of its own was set.
+     */
+    public boolean isCacheDefaultLifespan() {
+        return cacheDefaultLifespan;
+    }
+
+    /**
+     * The creation time is not written, restamp it like a new session so a session read back
+     * by the serializing transcoder is not taken as expired since 1970.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        creationTime = getCurrentTime();
+    }
+
     @Override
     public String toString() {
         return "HumbirdSession{key='" + this.key + "', value='" + this.value +"'}";
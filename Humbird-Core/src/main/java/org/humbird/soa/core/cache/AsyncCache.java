@@ -0,0 +1,16 @@
+package org.humbird.soa.core.cache;
+
+/**
+ * Non blocking access to a {@link Cache}, so a caller can start several lookups before
+ * waiting on any of them. Local caches hand back futures that are already done.
+ *
+ * Created by david on 15/4/20.
+ */
+public abstract interface AsyncCache<K, V> {
+
+    public abstract CacheFuture<V> getAsync(K paramK);
+
+    public abstract CacheFuture<Boolean> putAsync(K paramK, V paramV);
+
+    public abstract CacheFuture<Boolean> removeAsync(K paramK);
+}
@@ -1,6 +1,8 @@
 package org.humbird.soa.core.cache;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by david on 15/3/19.
@@ -25,7 +27,25 @@ public abstract interface Cache<K, V> {
 
     public abstract List getKeys() throws Exception;
 
+    /**
+     * Keys matching the glob pattern in batches of at most batchSize, without copying the
+     * whole key set, see {@link CacheCursor}.
+     */
+    public abstract CacheCursor<K> scan(String pattern, int batchSize) throws Exception;
+
     public abstract void removeAll();
 
+    /**
+     * Values of the given keys in one call, keys that are not cached are left out.
+     */
+    public abstract Map<K, V> getAll(Collection<K> keys) throws Exception;
+
+    public abstract void putAll(Map<K, V> map) throws Exception;
+
+    public abstract void removeAll(Collection<K> keys) throws Exception;
+
+    /**
+     * Number of keys, read from a counter of the cache rather than by listing the keys.
+     */
     public abstract int size() throws Exception;
 }
@@ -1,20 +1,34 @@
 package org.humbird.soa.core.cache;
 
 import net.sf.ehcache.util.TimeUtil;
+import org.humbird.soa.common.io.Index;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
 import org.humbird.soa.core.HumbirdSession;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by david on 15/4/5.
  */
-public class CacheContext<K> implements Serializable {
+public class CacheContext<K> implements Serializable, Record {
+
+    // pinned to the UID of the pre-codec class so older nodes can still deserialize it
+    private static final long serialVersionUID = 975976753306246511L;
 
     private int EXPIRATION = 0;
 
-    private Map<K, HumbirdSession> map = new HashMap<K, HumbirdSession>();
+    private Map<K, HumbirdSession> map = new ConcurrentHashMap<K, HumbirdSession>();
 
     private volatile int timeToLive;
 
@@ -28,6 +42,20 @@ public class CacheContext<K> implements Serializable {
 
     private volatile boolean cacheDefaultLifespan;
 
+    private int maximumSize;
+
+    private String policyName;
+
+    private int windowPercent = 1;
+
+    private transient volatile TimerWheel<K> timerWheel;
+
+    private transient volatile EvictionPolicy<K, HumbirdSession> policy;
+
+    private transient AtomicLong hitCount = new AtomicLong();
+
+    private transient AtomicLong missCount = new AtomicLong();
+
     public CacheContext() {
         this(0);
     }
@@ -110,4 +138,290 @@ public class CacheContext<K> implements Serializable {
             this.timeToLive = timeToLiveSeconds;
         }
     }
+
+    public void setTimeToIdle(int timeToIdleSeconds) {
+        if(timeToIdleSeconds < 0) {
+            throw new IllegalArgumentException("timeToIdle can\'t be negative");
+        } else {
+            this.cacheDefaultLifespan = false;
+            this.timeToIdle = timeToIdleSeconds;
+        }
+    }
+
+    /**
+     * Wraps the value in a session carrying this cache's default lifespan, unless the value
+     * is itself a session with its own lifespan.
+     */
+    public HumbirdSession newSession(K key, Object value) {
+        HumbirdSession session = new HumbirdSession(key, value);
+        if (value instanceof HumbirdSession && ((HumbirdSession) value).isLifespanSet()) {
+            HumbirdSession origin = (HumbirdSession) value;
+            session.setTimeToLive(origin.getTimeToLive());
+            session.setTimeToIdle(origin.getTimeToIdle());
+        } else {
+            if (this.getTimeToLive() > 0) {
+                session.setTimeToLive(this.getTimeToLive());
+            }
+            if (this.getTimeToIdle() > 0) {
+                session.setTimeToIdle(this.getTimeToIdle());
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Bounds the number of sessions, see {@link EvictionPolicy#create(String, int, int)}.
+     */
+    public synchronized void setEvictionPolicy(String policyName, int maximumSize, int windowPercent) {
+        this.policyName = policyName;
+        this.maximumSize = maximumSize;
+        this.windowPercent = windowPercent;
+        this.policy = null;
+        EvictionPolicy<K, HumbirdSession> evictionPolicy = getEvictionPolicy();
+        if (evictionPolicy != null) {
+            Iterator<Map.Entry<K, HumbirdSession>> iterator = map.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<K, HumbirdSession> entry = iterator.next();
+                evictionPolicy.recordWrite(entry.getKey(), entry.getValue());
+            }
+            maintain();
+        }
+    }
+
+    public void putSession(K key, HumbirdSession session) {
+        HumbirdSession old = map.put(key, session);
+        TimerWheel<K> wheel = getTimerWheel();
+        if (session.isLifespanSet() && !session.isEternal()) {
+            wheel.schedule(key, session);
+        } else if (old != null) {
+            wheel.deschedule(key, old);
+        }
+        EvictionPolicy<K, HumbirdSession> evictionPolicy = getEvictionPolicy();
+        if (evictionPolicy != null) {
+            evictionPolicy.recordWrite(key, session);
+        }
+        maintain();
+    }
+
+    /**
+     * Returns the live session of the key, dropping it if its own lifespan is over.
+     */
+    public HumbirdSession getSession(K key) {
+        HumbirdSession session = map.get(key);
+        if (session != null) {
+            if (session.isExpired()) {
+                if (removeIfSame(key, session)) {
+                    getTimerWheel().deschedule(key, session);
+                    recordRemoval(key);
+                }
+                session = null;
+            } else {
+                session.updateAccessStatistics();
+                EvictionPolicy<K, HumbirdSession> evictionPolicy = getEvictionPolicy();
+                if (evictionPolicy != null) {
+                    evictionPolicy.recordRead(key);
+                }
+            }
+        }
+        if (session != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        maintain();
+        return session;
+    }
+
+    public HumbirdSession removeSession(K key) {
+        HumbirdSession session = map.remove(key);
+        if (session != null) {
+            getTimerWheel().deschedule(key, session);
+            recordRemoval(key);
+        }
+        return session;
+    }
+
+    /**
+     * Removes the key only while it still maps to the session.
+     */
+    boolean removeSession(K key, HumbirdSession session) {
+        if (removeIfSame(key, session)) {
+            getTimerWheel().deschedule(key, session);
+            recordRemoval(key);
+            return true;
+        }
+        return false;
+    }
+
+    public void clearSessions() {
+        map.clear();
+        getTimerWheel().clear();
+        EvictionPolicy<K, HumbirdSession> evictionPolicy = getEvictionPolicy();
+        if (evictionPolicy != null) {
+            evictionPolicy.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long requests = hits + missCount.get();
+        return requests == 0L ? 1.0d : (double) hits / requests;
+    }
+
+    public long getEvictionCount() {
+        EvictionPolicy<K, HumbirdSession> evictionPolicy = getEvictionPolicy();
+        return evictionPolicy == null ? 0L : evictionPolicy.getEvictionCount();
+    }
+
+    public void resetStatistics() {
+        hitCount.set(0L);
+        missCount.set(0L);
+    }
+
+    /**
+     * Schedules the sessions already in the map, e.g. of a context handed over by addCache.
+     */
+    public void scheduleSessions() {
+        TimerWheel<K> wheel = getTimerWheel();
+        Iterator<Map.Entry<K, HumbirdSession>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, HumbirdSession> entry = iterator.next();
+            HumbirdSession session = entry.getValue();
+            if (session.isLifespanSet() && !session.isEternal()) {
+                wheel.schedule(entry.getKey(), session);
+            }
+        }
+        wheel.maintain(getCurrentTime());
+    }
+
+    /**
+     * Called by the timer wheel once the session is due.
+     */
+    boolean expire(K key, HumbirdSession session) {
+        if (removeIfSame(key, session)) {
+            recordRemoval(key);
+            return true;
+        }
+        return false;
+    }
+
+    private void maintain() {
+        getTimerWheel().maintain(getCurrentTime());
+        EvictionPolicy<K, HumbirdSession> evictionPolicy = getEvictionPolicy();
+        if (evictionPolicy != null) {
+            Map<K, HumbirdSession> victims = evictionPolicy.maintain();
+            for (Map.Entry<K, HumbirdSession> victim : victims.entrySet()) {
+                // only the session the policy saw, a write racing the eviction keeps its own
+                HumbirdSession session = victim.getValue();
+                if (session != null && removeIfSame(victim.getKey(), session)) {
+                    getTimerWheel().deschedule(victim.getKey(), session);
+                }
+            }
+        }
+    }
+
+    private void recordRemoval(K key) {
+        EvictionPolicy<K, HumbirdSession> evictionPolicy = getEvictionPolicy();
+        if (evictionPolicy != null) {
+            evictionPolicy.recordRemoval(key);
+        }
+    }
+
+    private boolean removeIfSame(K key, HumbirdSession session) {
+        if (map instanceof ConcurrentMap) {
+            return ((ConcurrentMap<K, HumbirdSession>) map).remove(key, session);
+        }
+        synchronized (map) {
+            if (map.get(key) == session) {
+                map.remove(key);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    EvictionPolicy<K, HumbirdSession> getEvictionPolicy() {
+        EvictionPolicy<K, HumbirdSession> evictionPolicy = policy;
+        if (evictionPolicy == null && maximumSize > 0) {
+            synchronized (this) {
+                evictionPolicy = policy;
+                if (evictionPolicy == null) {
+                    policy = evictionPolicy = EvictionPolicy.create(policyName, maximumSize, windowPercent);
+                }
+            }
+        }
+        return evictionPolicy;
+    }
+
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(this, tag);
+        archive.writeInt(EXPIRATION, "expiration");
+        archive.writeInt(timeToLive, "timeToLive");
+        archive.writeInt(timeToIdle, "timeToIdle");
+        archive.writeLong(lastUpdateTime, "lastUpdateTime");
+        archive.writeBool(cacheDefaultLifespan, "cacheDefaultLifespan");
+        archive.writeInt(maximumSize, "maximumSize");
+        archive.writeString(policyName, "policyName");
+        archive.writeInt(windowPercent, "windowPercent");
+        // the map is concurrent, count what is actually written
+        List<Map.Entry<K, HumbirdSession>> entries = new ArrayList<Map.Entry<K, HumbirdSession>>(map.entrySet());
+        archive.startVector(entries, "map");
+        for (Map.Entry<K, HumbirdSession> entry : entries) {
+            RecordValueCodec.writeValue(archive, entry.getKey(), "key");
+            RecordValueCodec.writeValue(archive, entry.getValue(), "session");
+        }
+        archive.endVector(entries, "map");
+        archive.endRecord(this, tag);
+    }
+
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        EXPIRATION = archive.readInt("expiration");
+        timeToLive = archive.readInt("timeToLive");
+        timeToIdle = archive.readInt("timeToIdle");
+        lastUpdateTime = archive.readLong("lastUpdateTime");
+        cacheDefaultLifespan = archive.readBool("cacheDefaultLifespan");
+        maximumSize = archive.readInt("maximumSize");
+        policyName = archive.readString("policyName");
+        windowPercent = archive.readInt("windowPercent");
+        Index index = archive.startVector("map");
+        if (index != null) {
+            for (; !index.done(); index.incr()) {
+                K key = (K) RecordValueCodec.readValue(archive, "key");
+                HumbirdSession session = (HumbirdSession) RecordValueCodec.readValue(archive, "session");
+                if (key != null && session != null) {
+                    map.put(key, session);
+                }
+            }
+        }
+        archive.endVector("map");
+        archive.endRecord(tag);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+    }
+
+    TimerWheel<K> getTimerWheel() {
+        TimerWheel<K> wheel = timerWheel;
+        if (wheel == null) {
+            synchronized (this) {
+                wheel = timerWheel;
+                if (wheel == null) {
+                    timerWheel = wheel = new TimerWheel<K>(this);
+                }
+            }
+        }
+        return wheel;
+    }
 }
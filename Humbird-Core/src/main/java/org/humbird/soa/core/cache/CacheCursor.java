@@ -0,0 +1,97 @@
+package org.humbird.soa.core.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+/**
+ * Walks the keys of a cache in batches, straight off the live key set of the cache instead of
+ * a copy of it. The iteration is weakly consistent, keys added or removed while scanning may
+ * or may not be returned. The maps of the local caches return a key once, a redis SCAN may
+ * return it again, a caller that must not see a key twice collects them into a set.
+ * <p/>
+ * A cache reading its keys from a server throws an {@link IllegalStateException} wrapping
+ * the IOException from {@link #hasNext()} when a read fails, the scan does not just end.
+ * <p/>
+ * The pattern is a glob, {@code *} matches any run of characters and {@code ?} one character,
+ * null or {@code *} returns every key. Keys that are not strings are matched on their
+ * {@link String#valueOf(Object)}.
+ *
+ * Created by david on 15/4/30.
+ */
+public class CacheCursor<K> implements Iterator<List<K>> {
+
+    public static final int DEFAULT_BATCH = 256;
+
+    private final Iterator<?> keys;
+
+    private final Pattern pattern;
+
+    private final int batchSize;
+
+    private List<K> batch;
+
+    public CacheCursor(Iterator<?> keys, String pattern, int batchSize) {
+        this.keys = keys;
+        this.pattern = compile(pattern);
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (batch == null) {
+            batch = new ArrayList<K>(Math.min(batchSize, 64));
+            while (batch.size() < batchSize && keys.hasNext()) {
+                Object key = keys.next();
+                if (key != null && (pattern == null || pattern.matcher(String.valueOf(key)).matches())) {
+                    batch.add((K) key);
+                }
+            }
+        }
+        return !batch.isEmpty();
+    }
+
+    /**
+     * @return the next batch of at most batch size keys, never empty
+     */
+    @Override
+    public List<K> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<K> next = batch;
+        batch = null;
+        return next;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove keys through the cache");
+    }
+
+    private static Pattern compile(String glob) {
+        if (glob == null || glob.length() == 0 || "*".equals(glob)) {
+            return null;
+        }
+        StringBuilder regex = new StringBuilder(glob.length() + 16);
+        int literal = -1;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal >= 0) {
+                    regex.append(Pattern.quote(glob.substring(literal, i)));
+                    literal = -1;
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else if (literal < 0) {
+                literal = i;
+            }
+        }
+        if (literal >= 0) {
+            regex.append(Pattern.quote(glob.substring(literal)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
@@ -0,0 +1,139 @@
+package org.humbird.soa.core.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Result of an {@link AsyncCache} call, completed once by the cache and readable either by
+ * blocking on {@link #get()} or through a {@link Listener}.
+ * <p/>
+ * Listeners added before completion run on the completing thread, listeners added after it
+ * run on the caller, so they should be short and must not block.
+ *
+ * Created by david on 15/4/20.
+ */
+public class CacheFuture<V> implements Future<V> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CacheFuture.class);
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private List<Listener<V>> listeners = new ArrayList<Listener<V>>(2);
+
+    private volatile V value;
+
+    private volatile Throwable error;
+
+    private volatile boolean cancelled;
+
+    public static <V> CacheFuture<V> completed(V value) {
+        CacheFuture<V> future = new CacheFuture<V>();
+        future.complete(value);
+        return future;
+    }
+
+    public static <V> CacheFuture<V> failed(Throwable error) {
+        CacheFuture<V> future = new CacheFuture<V>();
+        future.fail(error);
+        return future;
+    }
+
+    /**
+     * @return false if the future was already done
+     */
+    public boolean complete(V value) {
+        return finish(value, null, false);
+    }
+
+    public boolean fail(Throwable error) {
+        return finish(null, error, false);
+    }
+
+    /**
+     * The cache call itself is not interrupted, only its result is dropped.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, null, true);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        done.await();
+        return report();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException("cache call not done in " + timeout + " " + unit);
+        }
+        return report();
+    }
+
+    public void addListener(Listener<V> listener) {
+        synchronized (this) {
+            if (!isDone()) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        fire(listener);
+    }
+
+    private boolean finish(V value, Throwable error, boolean cancelled) {
+        List<Listener<V>> toNotify;
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            this.value = value;
+            this.error = error;
+            this.cancelled = cancelled;
+            done.countDown();
+            toNotify = listeners;
+            listeners = null;
+        }
+        for (Listener<V> listener : toNotify) {
+            fire(listener);
+        }
+        return true;
+    }
+
+    private void fire(Listener<V> listener) {
+        try {
+            listener.operationComplete(this);
+        } catch (RuntimeException e) {
+            LOGGER.warn("cache future listener failed", e);
+        }
+    }
+
+    private V report() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return value;
+    }
+
+    public interface Listener<V> {
+
+        public void operationComplete(CacheFuture<V> future);
+    }
+}
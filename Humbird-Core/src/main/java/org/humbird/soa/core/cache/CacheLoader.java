@@ -0,0 +1,14 @@
+package org.humbird.soa.core.cache;
+
+/**
+ * Source of a value that is not cached, called by {@link LoadingCacheWrapper} on a miss.
+ *
+ * Created by david on 15/4/29.
+ */
+public interface CacheLoader<K, V> {
+
+    /**
+     * @return the value, or null if the key does not exist in the backend
+     */
+    public V load(K key) throws Exception;
+}
@@ -0,0 +1,401 @@
+package org.humbird.soa.core.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of one named cache, filled by {@link MetricsCacheWrapper}
+ * and by a loader wrapped with {@link #meter(CacheLoader)}. A value the metered loader found
+ * was read through the cache, it is reported as a miss instead of the hit the wrapper saw.
+ * <p/>
+ * Every name is created once and registered in the platform MBean server as
+ * {@code org.humbird.soa:type=CacheMetrics,name=<name>} until it is closed. Latencies are recorded in
+ * nanoseconds and reported in microseconds, payload sizes in bytes.
+ *
+ * Created by david on 15/5/2.
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CacheMetrics.class);
+
+    public static final String GET = "get";
+
+    public static final String GET_ALL = "getAll";
+
+    public static final String PUT = "put";
+
+    public static final String PUT_ALL = "putAll";
+
+    public static final String REMOVE = "remove";
+
+    public static final String REMOVE_ALL = "removeAll";
+
+    public static final String LOAD = "load";
+
+    // values written to and read from memcached, recorded by the transcoder
+    public static final String MEMCACHED = "memcached";
+
+    // values written to and read from redis
+    public static final String REDIS = "redis";
+
+    // values written to and read from the replicated humbird cache
+    public static final String QUORUM = "quorum";
+
+    private static final String[] OPERATIONS = {GET, GET_ALL, PUT, PUT_ALL, REMOVE, REMOVE_ALL, LOAD};
+
+    private static final ConcurrentMap<String, CacheMetrics> REGISTRY = new ConcurrentHashMap<String, CacheMetrics>();
+
+    private final String name;
+
+    private final Map<String, Histogram> latencies = new LinkedHashMap<String, Histogram>();
+
+    private final Histogram payloads = new Histogram();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong putCount = new AtomicLong();
+
+    private final AtomicLong removeCount = new AtomicLong();
+
+    private final AtomicLong loadCount = new AtomicLong();
+
+    private final AtomicLong loadFailureCount = new AtomicLong();
+
+    // values the metered loader found, counted as hits by the wrapper above
+    private final AtomicLong loadedCount = new AtomicLong();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    // the metered cache, read for its size and evictions
+    private volatile Cache cache;
+
+    CacheMetrics(String name) {
+        this.name = name;
+        for (String operation : OPERATIONS) {
+            latencies.put(operation, new Histogram());
+        }
+    }
+
+    /**
+     * The metrics of the name, created and registered in JMX on first use.
+     */
+    public static CacheMetrics of(String name) {
+        CacheMetrics metrics = REGISTRY.get(name);
+        if (metrics == null) {
+            CacheMetrics created = new CacheMetrics(name);
+            metrics = REGISTRY.putIfAbsent(name, created);
+            if (metrics == null) {
+                metrics = created;
+                register(created);
+            }
+        }
+        return metrics;
+    }
+
+    public static Collection<CacheMetrics> all() {
+        return new TreeMap<String, CacheMetrics>(REGISTRY).values();
+    }
+
+    /**
+     * @return the metrics of the name, or null if nothing was recorded under it
+     */
+    public static CacheMetrics get(String name) {
+        return REGISTRY.get(name);
+    }
+
+    /**
+     * Closes the metrics of every name, once the caches are shut down.
+     */
+    public static void closeAll() {
+        for (CacheMetrics metrics : new ArrayList<CacheMetrics>(REGISTRY.values())) {
+            metrics.close();
+        }
+    }
+
+    /**
+     * Drops the metrics of the name and unregisters them from JMX, a later {@link #of} of the
+     * name starts from zero.
+     */
+    public void close() {
+        if (REGISTRY.remove(name, this)) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+            } catch (Exception e) {
+                LOGGER.warn("Could not unregister cache metrics " + name + " from jmx, " + e.getMessage());
+            }
+        }
+    }
+
+    private static void register(CacheMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName(metrics.name));
+        } catch (Exception e) {
+            LOGGER.warn("Could not register cache metrics " + metrics.name + " in jmx, " + e.getMessage());
+        }
+    }
+
+    private static ObjectName objectName(String name) throws Exception {
+        return new ObjectName("org.humbird.soa:type=CacheMetrics,name=" + ObjectName.quote(name));
+    }
+
+    void bind(Cache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Wraps the loader so the loads of the cache are counted and timed.
+     */
+    public <K, V> CacheLoader<K, V> meter(final CacheLoader<K, V> loader) {
+        return new CacheLoader<K, V>() {
+            @Override
+            public V load(K key) throws Exception {
+                long start = System.nanoTime();
+                try {
+                    V value = loader.load(key);
+                    loadCount.incrementAndGet();
+                    if (value != null) {
+                        loadedCount.incrementAndGet();
+                    }
+                    return value;
+                } catch (Exception e) {
+                    loadFailureCount.incrementAndGet();
+                    throw e;
+                } finally {
+                    record(LOAD, start);
+                }
+            }
+        };
+    }
+
+    void record(String operation, long startNanos) {
+        latencies.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    void recordHits(long hits, long misses) {
+        hitCount.addAndGet(hits);
+        missCount.addAndGet(misses);
+    }
+
+    void recordPuts(long puts) {
+        putCount.addAndGet(puts);
+    }
+
+    void recordRemoves(long removes) {
+        removeCount.addAndGet(removes);
+    }
+
+    void recordError() {
+        errorCount.incrementAndGet();
+    }
+
+    public void recordPayload(int bytes) {
+        payloads.record(bytes);
+    }
+
+    public Histogram getLatency(String operation) {
+        return latencies.get(operation);
+    }
+
+    public Histogram getPayloads() {
+        return payloads;
+    }
+
+    /**
+     * Everything recorded, as nested maps ready to be written out as json.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("name", name);
+        snapshot.put("hits", getHitCount());
+        snapshot.put("misses", getMissCount());
+        snapshot.put("hitRatio", getHitRatio());
+        snapshot.put("puts", getPutCount());
+        snapshot.put("removes", getRemoveCount());
+        snapshot.put("loads", getLoadCount());
+        snapshot.put("loadFailures", getLoadFailureCount());
+        snapshot.put("errors", getErrorCount());
+        snapshot.put("evictions", getEvictionCount());
+        snapshot.put("size", getSize());
+        Map<String, Object> operations = new LinkedHashMap<String, Object>();
+        Iterator<Map.Entry<String, Histogram>> iterator = latencies.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Histogram> entry = iterator.next();
+            if (entry.getValue().getCount() > 0) {
+                operations.put(entry.getKey(), summary(entry.getValue(), 1000));
+            }
+        }
+        snapshot.put("latencyMicros", operations);
+        snapshot.put("payloadBytes", summary(payloads, 1));
+        return snapshot;
+    }
+
+    private static Map<String, Object> summary(Histogram histogram, int unit) {
+        Map<String, Object> summary = new LinkedHashMap<String, Object>();
+        summary.put("count", histogram.getCount());
+        summary.put("mean", histogram.getMean() / unit);
+        summary.put("p50", histogram.getPercentile(50) / unit);
+        summary.put("p90", histogram.getPercentile(90) / unit);
+        summary.put("p99", histogram.getPercentile(99) / unit);
+        summary.put("p999", histogram.getPercentile(99.9) / unit);
+        summary.put("max", histogram.getMax() / unit);
+        return summary;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getHitCount() {
+        long hits = hitCount.get();
+        return hits - loaded(hits);
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get() + loaded(hitCount.get());
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long loaded = loaded(hits);
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) (hits - loaded) / total;
+    }
+
+    // a load is counted before the wrapper records its read
+    private long loaded(long hits) {
+        return Math.min(loadedCount.get(), hits);
+    }
+
+    @Override
+    public long getPutCount() {
+        return putCount.get();
+    }
+
+    @Override
+    public long getRemoveCount() {
+        return removeCount.get();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return loadFailureCount.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Evictions of the bounded level of the metered cache, 0 if it has none.
+     */
+    @Override
+    public long getEvictionCount() {
+        Cache current = cache;
+        while (current instanceof LoadingCacheWrapper) {
+            current = ((LoadingCacheWrapper) current).getCache();
+        }
+        if (current instanceof JAVACacheWrapper) {
+            return ((JAVACacheWrapper) current).getEvictionCount();
+        } else if (current instanceof OffHeapCacheWrapper) {
+            return ((OffHeapCacheWrapper) current).getEvictionCount();
+        } else if (current instanceof NearCacheWrapper) {
+            return ((NearCacheWrapper) current).getEvictionCount();
+        }
+        return 0;
+    }
+
+    @Override
+    public int getSize() {
+        Cache current = cache;
+        try {
+            return current == null ? 0 : current.size();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public double getGetMeanMicros() {
+        return latencies.get(GET).getMean() / 1000;
+    }
+
+    @Override
+    public long getGetP99Micros() {
+        return latencies.get(GET).getPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getGetMaxMicros() {
+        return latencies.get(GET).getMax() / 1000;
+    }
+
+    @Override
+    public double getPutMeanMicros() {
+        return latencies.get(PUT).getMean() / 1000;
+    }
+
+    @Override
+    public long getPutP99Micros() {
+        return latencies.get(PUT).getPercentile(99) / 1000;
+    }
+
+    @Override
+    public double getLoadMeanMicros() {
+        return latencies.get(LOAD).getMean() / 1000;
+    }
+
+    @Override
+    public long getLoadP99Micros() {
+        return latencies.get(LOAD).getPercentile(99) / 1000;
+    }
+
+    @Override
+    public double getPayloadMeanBytes() {
+        return payloads.getMean();
+    }
+
+    @Override
+    public long getPayloadP99Bytes() {
+        return payloads.getPercentile(99);
+    }
+
+    @Override
+    public long getPayloadMaxBytes() {
+        return payloads.getMax();
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        payloads.reset();
+        hitCount.set(0);
+        missCount.set(0);
+        putCount.set(0);
+        removeCount.set(0);
+        loadCount.set(0);
+        loadFailureCount.set(0);
+        loadedCount.set(0);
+        errorCount.set(0);
+    }
+}
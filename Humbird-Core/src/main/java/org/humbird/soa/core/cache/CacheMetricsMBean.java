@@ -0,0 +1,53 @@
+package org.humbird.soa.core.cache;
+
+/**
+ * JMX view of the {@link CacheMetrics} of one named cache, latencies are in microseconds.
+ *
+ * Created by david on 15/5/2.
+ */
+public interface CacheMetricsMBean {
+
+    public String getName();
+
+    public long getHitCount();
+
+    public long getMissCount();
+
+    public double getHitRatio();
+
+    public long getPutCount();
+
+    public long getRemoveCount();
+
+    public long getLoadCount();
+
+    public long getLoadFailureCount();
+
+    public long getErrorCount();
+
+    public long getEvictionCount();
+
+    public int getSize();
+
+    public double getGetMeanMicros();
+
+    public long getGetP99Micros();
+
+    public long getGetMaxMicros();
+
+    public double getPutMeanMicros();
+
+    public long getPutP99Micros();
+
+    public double getLoadMeanMicros();
+
+    public long getLoadP99Micros();
+
+    public double getPayloadMeanBytes();
+
+    public long getPayloadP99Bytes();
+
+    public long getPayloadMaxBytes();
+
+    public void reset();
+}
@@ -0,0 +1,174 @@
+package org.humbird.soa.core.cache;
+
+import net.rubyeye.xmemcached.transcoders.CachedData;
+import net.rubyeye.xmemcached.transcoders.CompressionMode;
+import net.rubyeye.xmemcached.transcoders.Transcoder;
+import org.humbird.soa.common.utils.GZIPHelper;
+import org.humbird.soa.common.utils.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * xmemcached transcoder writing values with a {@link ValueCodec} and gzipping those larger
+ * than the compression threshold.
+ * <p/>
+ * The codec is recorded in the item flags, so values written by another codec, including
+ * the xmemcached default serialization, are still read back. The stored size of every value
+ * written or read is recorded in the payloads of the named {@link CacheMetrics},
+ * {@link CacheMetrics#MEMCACHED} unless given.
+ *
+ * Created by david on 15/4/22.
+ */
+public class CodecTranscoder implements Transcoder<Object> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CodecTranscoder.class);
+
+    // same bit as the xmemcached serializing transcoder
+    public static final int COMPRESSED = 2;
+
+    // the flags stored in front of the value by stores without item flags
+    public static final int FLAGS = 4;
+
+    private static final ValueCodec JAVA = new JavaValueCodec();
+
+    private static final ValueCodec RECORD = new RecordValueCodec();
+
+    private final ValueCodec codec;
+
+    private volatile int compressionThreshold;
+
+    private volatile boolean primitiveAsString;
+
+    private volatile boolean packZeros;
+
+    private final CacheMetrics metrics;
+
+    public CodecTranscoder(ValueCodec codec, int compressionThreshold) {
+        this(codec, compressionThreshold, CacheMetrics.MEMCACHED);
+    }
+
+    public CodecTranscoder(ValueCodec codec, int compressionThreshold, String metricsName) {
+        this.codec = codec;
+        this.compressionThreshold = compressionThreshold;
+        this.metrics = CacheMetrics.of(metricsName);
+    }
+
+    @Override
+    public CachedData encode(Object value) {
+        try {
+            byte[] bytes = codec.encode(value);
+            int flags = codec.getFlag();
+            if (compressionThreshold > 0 && bytes.length > compressionThreshold) {
+                byte[] compressed = GZIPHelper.compressGZIP(bytes);
+                if (compressed.length < bytes.length) {
+                    LOGGER.debug("compressed cached value from {} to {} bytes", bytes.length, compressed.length);
+                    bytes = compressed;
+                    flags |= COMPRESSED;
+                }
+            }
+            metrics.recordPayload(bytes.length);
+            return new CachedData(flags, bytes);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not encode cached value, " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Object decode(CachedData data) {
+        byte[] bytes = data.getData();
+        int flags = data.getFlag();
+        metrics.recordPayload(bytes.length);
+        try {
+            if ((flags & COMPRESSED) != 0) {
+                bytes = uncompress(bytes);
+            }
+            if ((flags & RecordValueCodec.FLAG) != 0) {
+                return RECORD.decode(bytes);
+            } else if ((flags & JavaValueCodec.FLAG) != 0) {
+                return JAVA.decode(bytes);
+            }
+            return new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            LOGGER.error("Could not decode cached value, ", e);
+            return null;
+        }
+    }
+
+    /**
+     * The encoded value behind its four byte flags, for stores keeping nothing but the bytes.
+     */
+    public byte[] encodeBytes(Object value) {
+        CachedData data = encode(value);
+        byte[] payload = data.getData();
+        byte[] bytes = new byte[FLAGS + payload.length];
+        int flags = data.getFlag();
+        bytes[0] = (byte) (flags >>> 24);
+        bytes[1] = (byte) (flags >>> 16);
+        bytes[2] = (byte) (flags >>> 8);
+        bytes[3] = (byte) flags;
+        System.arraycopy(payload, 0, bytes, FLAGS, payload.length);
+        return bytes;
+    }
+
+    /**
+     * Reads back {@link #encodeBytes(Object)}, null for bytes too short to hold the flags.
+     */
+    public Object decodeBytes(byte[] bytes) {
+        if (bytes.length < FLAGS) {
+            LOGGER.warn("Dropping a cached value of {} bytes without flags", bytes.length);
+            return null;
+        }
+        int flags = (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+        return decode(new CachedData(flags, Arrays.copyOfRange(bytes, FLAGS, bytes.length), Integer.MAX_VALUE, -1));
+    }
+
+    @Override
+    public void setPrimitiveAsString(boolean primitiveAsString) {
+        this.primitiveAsString = primitiveAsString;
+    }
+
+    @Override
+    public void setPackZeros(boolean packZeros) {
+        this.packZeros = packZeros;
+    }
+
+    @Override
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public boolean isPrimitiveAsString() {
+        return primitiveAsString;
+    }
+
+    @Override
+    public boolean isPackZeros() {
+        return packZeros;
+    }
+
+    /**
+     * Only gzip is written, the mode is ignored.
+     */
+    @Override
+    public void setCompressionMode(CompressionMode compressionMode) {
+        //
+    }
+
+    private static byte[] uncompress(byte[] bytes) throws IOException {
+        InputStream in = GZIPHelper.uncompressGzip("gzip", new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+        try {
+            IOHelper.copy(in, out);
+        } finally {
+            IOHelper.close(in);
+        }
+        return out.toByteArray();
+    }
+}
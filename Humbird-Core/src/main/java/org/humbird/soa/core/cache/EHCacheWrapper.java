@@ -7,20 +7,20 @@ import net.sf.ehcache.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
+import java.util.*;
 
 /**
  * Created by david on 15/3/19.
  */
 public class EHCacheWrapper<K, V>
         implements
-        Cache<K, V> {
+        Cache<K, V>, AsyncCache<K, V> {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(EHCacheWrapper.class);
 
     private final CacheManager cacheManager;
 
-    private String cacheName;
+    private volatile String cacheName;
 
     public EHCacheWrapper(String cacheName, CacheManager cacheManager) {
         this.cacheName = cacheName;
@@ -81,13 +81,75 @@ public class EHCacheWrapper<K, V>
         return getCache().getKeys();
     }
 
+    /**
+     * Iterates the list ehcache returns, which is a view of its store keys rather than a copy.
+     */
+    @Override
+    public CacheCursor<K> scan(String pattern, int batchSize) {
+        return new CacheCursor<K>(getCache().getKeys().iterator(), pattern, batchSize);
+    }
+
     public void removeAll() {
         getCache().removeAll();
         LOGGER.debug("all cache was clear");
     }
 
+    public Map<K, V> getAll(Collection<K> keys) {
+        Map<K, V> values = new HashMap<K, V>();
+        Iterator<Map.Entry<Object, Element>> iterator = getCache().getAll(keys).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Object, Element> entry = iterator.next();
+            if (entry.getValue() != null) {
+                values.put((K) entry.getKey(), (V) entry.getValue().getObjectValue());
+            }
+        }
+        return values;
+    }
+
+    public void putAll(Map<K, V> map) {
+        List<Element> elements = new ArrayList<Element>(map.size());
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            elements.add(new Element(entry.getKey(), entry.getValue()));
+        }
+        getCache().putAll(elements);
+    }
+
+    public void removeAll(Collection<K> keys) {
+        getCache().removeAll(keys);
+    }
+
     @Override
     public int size() {
         return getCache().getSize();
     }
+
+    @Override
+    public CacheFuture<V> getAsync(K key) {
+        try {
+            return CacheFuture.completed(get(key));
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
+
+    @Override
+    public CacheFuture<Boolean> putAsync(K key, V value) {
+        try {
+            put(key, value);
+            return CacheFuture.completed(Boolean.TRUE);
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
+
+    @Override
+    public CacheFuture<Boolean> removeAsync(K key) {
+        try {
+            return CacheFuture.completed(remove(key));
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
 }
\ No newline at end of file
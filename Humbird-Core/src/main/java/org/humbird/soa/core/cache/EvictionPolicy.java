@@ -0,0 +1,150 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.core.util.KeyUtil;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size bound of the sessions of one {@link CacheContext}.
+ * <p/>
+ * Reads and writes are recorded into buffers and replayed against the policy by whichever
+ * thread wins the {@link ReentrantLock#tryLock()}, the same way {@link TimerWheel} is
+ * maintained, so the cache map itself is never locked. Read events are dropped when the
+ * buffer is full, write and removal events never are.
+ * <p/>
+ * A write is recorded with its value, the policy keeps the last value written per key and
+ * hands it back with the key when evicting, so the caller removes only what was written.
+ *
+ * Created by david on 15/4/14.
+ */
+public abstract class EvictionPolicy<K, V> {
+
+    static final int READ_BUFFER_SIZE = 1024;
+
+    private static final int READ = 0;
+
+    private static final int WRITE = 1;
+
+    private static final int REMOVAL = 2;
+
+    protected final int maximumSize;
+
+    private final Queue<Object[]> pending = new ConcurrentLinkedQueue<Object[]>();
+
+    private final AtomicInteger pendingReads = new AtomicInteger();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    protected EvictionPolicy(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @param name          {@link KeyUtil#POLICY_LRU} or {@link KeyUtil#POLICY_TINYLFU}
+     * @param maximumSize   maximum number of sessions, if 0 the cache is unbounded and null is returned
+     * @param windowPercent admission window of the tinylfu policy, in percent of maximumSize
+     */
+    public static <K, V> EvictionPolicy<K, V> create(String name, int maximumSize, int windowPercent) {
+        if (maximumSize <= 0) {
+            return null;
+        }
+        if (KeyUtil.POLICY_TINYLFU.equalsIgnoreCase(name)) {
+            return new TinyLfuPolicy<K, V>(maximumSize, windowPercent);
+        }
+        return new LruPolicy<K, V>(maximumSize);
+    }
+
+    public void recordRead(K key) {
+        if (pendingReads.incrementAndGet() > READ_BUFFER_SIZE) {
+            pendingReads.decrementAndGet();
+            return;
+        }
+        pending.offer(new Object[]{READ, key, null});
+    }
+
+    public void recordWrite(K key, V value) {
+        pending.offer(new Object[]{WRITE, key, value});
+    }
+
+    public void recordRemoval(K key) {
+        pending.offer(new Object[]{REMOVAL, key, null});
+    }
+
+    /**
+     * Replays the buffered events and picks the sessions to evict. Does nothing when another
+     * thread is already maintaining the policy.
+     *
+     * @return the keys the caller must remove from the cache, each with the value last written
+     */
+    public Map<K, V> maintain() {
+        if (pending.isEmpty() || !lock.tryLock()) {
+            return Collections.emptyMap();
+        }
+        Map<K, V> victims = new LinkedHashMap<K, V>();
+        try {
+            Object[] event;
+            while ((event = pending.poll()) != null) {
+                K key = (K) event[1];
+                switch ((Integer) event[0]) {
+                    case READ:
+                        pendingReads.decrementAndGet();
+                        onRead(key);
+                        break;
+                    case WRITE:
+                        onWrite(key, (V) event[2], victims);
+                        break;
+                    default:
+                        onRemoval(key);
+                        break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        evictionCount.addAndGet(victims.size());
+        return victims;
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            pending.clear();
+            pendingReads.set(0);
+            onClear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    protected abstract void onRead(K key);
+
+    /**
+     * Adds the key with its value, or refreshes it if already present, and puts the keys to
+     * evict with their values.
+     */
+    protected abstract void onWrite(K key, V value, Map<K, V> victims);
+
+    protected abstract void onRemoval(K key);
+
+    protected abstract void onClear();
+}
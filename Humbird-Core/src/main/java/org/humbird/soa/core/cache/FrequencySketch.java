@@ -0,0 +1,96 @@
+package org.humbird.soa.core.cache;
+
+/**
+ * Count-min sketch of 4-bit counters, used to estimate how often a key was seen lately.
+ * <p/>
+ * Each key maps to four counters, one per hash seed, packed sixteen to a long. The estimate
+ * is the smallest of the four. Once the number of increments reaches ten times the width
+ * all counters are halved, so the sketch forgets old popularity.
+ *
+ * Created by david on 15/4/14.
+ */
+public class FrequencySketch {
+
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+
+    private final int counterMask;
+
+    private final int sampleSize;
+
+    private int size;
+
+    public FrequencySketch(int maximumSize) {
+        int counters = ceilingPowerOfTwo(Math.max(maximumSize, 16));
+        this.table = new long[Math.max(counters >>> 4, 1) * 4];
+        this.counterMask = (table.length << 4) - 1;
+        this.sampleSize = 10 * Math.max(maximumSize, 16);
+    }
+
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < SEED.length; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEED.length; i++) {
+            added |= incrementAt(indexOf(hash, i));
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = 0L;
+        }
+        size = 0;
+    }
+
+    private boolean incrementAt(int index) {
+        int word = index >>> 4;
+        int offset = (index & 15) << 2;
+        long mask = 0xfL << offset;
+        if ((table[word] & mask) != mask) {
+            table[word] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEED[i]) * SEED[i];
+        h += h >>> 32;
+        return (int) h & counterMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << (32 - Integer.numberOfLeadingZeros(x - 1));
+    }
+}
@@ -0,0 +1,145 @@
+package org.humbird.soa.core.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the keys read most often and names their replicas.
+ * <p/>
+ * Reads are counted per key over a window of reads. When a window is full, the keys read at
+ * least the threshold times become the hot keys, at most top of them, and counting starts
+ * over. So a key stays hot only as long as it keeps being read, and a window never tracks
+ * more keys than it has reads.
+ * <p/>
+ * A hot key is copied under aliases {@code key#hot1} to {@code key#hotN}. Consistent hashing
+ * places the aliases on other servers, so reads spread over all the copies.
+ *
+ * Created by david on 15/5/12.
+ */
+public class HotKeyTracker {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(HotKeyTracker.class);
+
+    private static final String ALIAS = "#hot";
+
+    private final int top;
+
+    private final int replicas;
+
+    private final int window;
+
+    private final int threshold;
+
+    private final ConcurrentMap<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private final AtomicBoolean rolling = new AtomicBoolean();
+
+    private final Random random = new Random();
+
+    private volatile Set<String> hot = Collections.emptySet();
+
+    /**
+     * @param top       most keys replicated at once
+     * @param replicas  copies of a hot key besides the key itself
+     * @param window    reads counted before the hot keys are chosen again
+     * @param threshold reads within a window that make a key hot
+     */
+    public HotKeyTracker(int top, int replicas, int window, int threshold) {
+        this.top = top;
+        this.replicas = replicas;
+        this.window = Math.max(window, 1);
+        this.threshold = Math.max(threshold, 1);
+    }
+
+    public void record(String key) {
+        AtomicInteger count = counts.get(key);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = counts.putIfAbsent(key, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+        if (reads.incrementAndGet() >= window) {
+            roll();
+        }
+    }
+
+    public boolean isHot(String key) {
+        return hot.contains(key);
+    }
+
+    public Set<String> getHotKeys() {
+        return hot;
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * @param replica from 1 to the number of replicas
+     */
+    public String alias(String key, int replica) {
+        return key + ALIAS + replica;
+    }
+
+    public List<String> aliases(String key) {
+        List<String> aliases = new ArrayList<String>(replicas);
+        for (int i = 1; i <= replicas; i++) {
+            aliases.add(alias(key, i));
+        }
+        return aliases;
+    }
+
+    /**
+     * @return the key itself or one of its aliases, at random
+     */
+    public String pick(String key) {
+        int replica = random.nextInt(replicas + 1);
+        return replica == 0 ? key : alias(key, replica);
+    }
+
+    private void roll() {
+        if (!rolling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // counts still move while rolling, sort a copy
+            List<Map.Entry<String, Integer>> candidates = new ArrayList<Map.Entry<String, Integer>>();
+            for (Map.Entry<String, AtomicInteger> entry : counts.entrySet()) {
+                int count = entry.getValue().get();
+                if (count >= threshold) {
+                    candidates.add(new AbstractMap.SimpleEntry<String, Integer>(entry.getKey(), count));
+                }
+            }
+            Collections.sort(candidates, new Comparator<Map.Entry<String, Integer>>() {
+                @Override
+                public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
+                    return o2.getValue().compareTo(o1.getValue());
+                }
+            });
+            Set<String> next = new HashSet<String>();
+            for (int i = 0; i < candidates.size() && i < top; i++) {
+                next.add(candidates.get(i).getKey());
+            }
+            if (!next.equals(hot)) {
+                LOGGER.info("hot keys {}", next);
+            }
+            hot = Collections.unmodifiableSet(next);
+            counts.clear();
+            reads.set(0);
+        } finally {
+            rolling.set(false);
+        }
+    }
+}
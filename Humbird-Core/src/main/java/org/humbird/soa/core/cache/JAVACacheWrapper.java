@@ -6,22 +6,19 @@ import org.humbird.soa.core.util.CacheUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Created by david on 15/3/19.
  */
 public class JAVACacheWrapper<K, V>
-        implements Cache<K, V> {
+        implements Cache<K, V>, AsyncCache<K, V> {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(JAVACacheWrapper.class);
 
     private final Map<String, CacheContext> cacheManager;
 
-    private String cacheName;
+    private volatile String cacheName;
 
     public JAVACacheWrapper(String cacheName, String path) {
 
@@ -36,7 +33,9 @@ public class JAVACacheWrapper<K, V>
     @Override
     public void addCache(String name, Object params) {
         if(params instanceof  CacheContext) {
-            cacheManager.put(name, (CacheContext<K>) params);
+            CacheContext<K> cacheContext = (CacheContext<K>) params;
+            cacheContext.scheduleSessions();
+            cacheManager.put(name, cacheContext);
             LOGGER.debug("added cache {0}", name);
         }
     }
@@ -58,12 +57,7 @@ public class JAVACacheWrapper<K, V>
 
     public void put(K key, V value) {
         CacheContext<K> cacheContext = getCache();
-        if(!cacheContext.isExpired()) {
-            HumbirdSession session = new HumbirdSession(key, value);
-            cacheContext.getMap().put(key, session);
-        } else {
-            cacheContext.getMap().clear();
-        }
+        cacheContext.putSession(key, cacheContext.newSession(key, value));
     }
 
     @Override
@@ -72,22 +66,15 @@ public class JAVACacheWrapper<K, V>
     }
 
     public V get(K key) {
-        CacheContext<K> cacheContext = getCache();
-        if(cacheContext.isExpired()) {
-            getCache().getMap().clear();
-            LOGGER.debug("cache {0} is expired", key);
-            return null;
-        } else {
-            HumbirdSession session = cacheContext.getMap().get(key);
-            if (session != null) {
-                return (V) session.getValue();
-            }
-            return null;
+        HumbirdSession session = getCache().getSession(key);
+        if (session != null) {
+            return (V) session.getValue();
         }
+        return null;
     }
 
     public boolean remove(K key) {
-        if(getCache().getMap().remove(key) != null) {
+        if(getCache().removeSession(key) != null) {
             LOGGER.debug("removed cache {0}", key);
             return true;
         } else {
@@ -96,21 +83,96 @@ public class JAVACacheWrapper<K, V>
     }
 
     public List getKeys() {
-        List list = new ArrayList();
-        Iterator<Map.Entry<K, HumbirdSession>> iterator = getCache().getMap().entrySet().iterator();
-        while (iterator.hasNext()) {
-            list.add(iterator.next().getValue());
-        }
-        return list;
+        return new ArrayList<K>(getCache().getMap().keySet());
+    }
+
+    @Override
+    public CacheCursor<K> scan(String pattern, int batchSize) {
+        return new CacheCursor<K>(getCache().getMap().keySet().iterator(), pattern, batchSize);
     }
 
     public void removeAll() {
 
-        getCache().getMap().clear();
+        getCache().clearSessions();
+    }
+
+    public Map<K, V> getAll(Collection<K> keys) {
+        CacheContext<K> cacheContext = getCache();
+        Map<K, V> values = new HashMap<K, V>();
+        for (K key : keys) {
+            HumbirdSession session = cacheContext.getSession(key);
+            if (session != null) {
+                values.put(key, (V) session.getValue());
+            }
+        }
+        return values;
+    }
+
+    public void putAll(Map<K, V> map) {
+        CacheContext<K> cacheContext = getCache();
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            cacheContext.putSession(entry.getKey(), cacheContext.newSession(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    public void removeAll(Collection<K> keys) {
+        CacheContext<K> cacheContext = getCache();
+        for (K key : keys) {
+            cacheContext.removeSession(key);
+        }
     }
 
     @Override
     public int size() {
         return getCache().getMap().size();
     }
-}
\ No newline at end of file
+
+    @Override
+    public CacheFuture<V> getAsync(K key) {
+        try {
+            return CacheFuture.completed(get(key));
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
+
+    @Override
+    public CacheFuture<Boolean> putAsync(K key, V value) {
+        try {
+            put(key, value);
+            return CacheFuture.completed(Boolean.TRUE);
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
+
+    @Override
+    public CacheFuture<Boolean> removeAsync(K key) {
+        try {
+            return CacheFuture.completed(remove(key));
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
+
+    /**
+     * Hit ratio of the current cache since it was created or its statistics were reset.
+     */
+    public double getHitRatio() {
+        return getCache().getHitRatio();
+    }
+
+    public long getHitCount() {
+        return getCache().getHitCount();
+    }
+
+    public long getMissCount() {
+        return getCache().getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return getCache().getEvictionCount();
+    }
+}
@@ -0,0 +1,45 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.common.utils.IOHelper;
+
+import java.io.*;
+
+/**
+ * Default java serialization, what xmemcached does out of the box.
+ *
+ * Created by david on 15/4/22.
+ */
+public class JavaValueCodec implements ValueCodec {
+
+    // same flag as the xmemcached serializing transcoder, so either can read the other
+    public static final int FLAG = 1;
+
+    @Override
+    public int getFlag() {
+        return FLAG;
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(value);
+        } finally {
+            IOHelper.close(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] bytes) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in cached value, " + e.getMessage());
+        } finally {
+            IOHelper.close(in);
+        }
+    }
+}
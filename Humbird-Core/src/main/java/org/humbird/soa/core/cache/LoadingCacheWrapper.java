@@ -0,0 +1,249 @@
+package org.humbird.soa.core.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read through cache, a miss is loaded by the {@link CacheLoader} and put into the wrapped
+ * cache.
+ * <p/>
+ * Loads are single flight, concurrent misses on one key share the first caller's load and
+ * wait for its result instead of all going to the backend. Keys the loader did not find are
+ * remembered for a while, so a missing key does not reach the backend on every read. When
+ * full, the soonest to expire of a few sampled entries makes room for a new one.
+ *
+ * Created by david on 15/4/29.
+ */
+public class LoadingCacheWrapper<K, V> implements Cache<K, V> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(LoadingCacheWrapper.class);
+
+    // negative entries looked at to pick the one evicted when full
+    private final static int NEGATIVE_SAMPLE = 8;
+
+    private final Cache<K, V> cache;
+
+    private final CacheLoader<K, V> loader;
+
+    private final long negativeTtl;
+
+    private final int negativeMaximum;
+
+    private final ConcurrentMap<K, CacheFuture<V>> loading = new ConcurrentHashMap<K, CacheFuture<V>>();
+
+    // key to the time its absence expires
+    private final ConcurrentMap<K, Long> negatives = new ConcurrentHashMap<K, Long>();
+
+    private final AtomicLong loadCount = new AtomicLong();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    private final AtomicLong negativeHitCount = new AtomicLong();
+
+    /**
+     * @param negativeTtl     ms a key the loader did not find is not loaded again, 0 disables
+     * @param negativeMaximum missing keys remembered at most
+     */
+    public LoadingCacheWrapper(Cache<K, V> cache, CacheLoader<K, V> loader, long negativeTtl, int negativeMaximum) {
+        this.cache = cache;
+        this.loader = loader;
+        this.negativeTtl = negativeTtl;
+        this.negativeMaximum = negativeMaximum;
+    }
+
+    @Override
+    public void addCache(String name, Object params) throws Exception {
+        cache.addCache(name, params);
+    }
+
+    @Override
+    public void switchCache(String name) {
+        negatives.clear();
+        cache.switchCache(name);
+    }
+
+    @Override
+    public void delCache(String name) throws Exception {
+        negatives.clear();
+        cache.delCache(name);
+    }
+
+    @Override
+    public void clearCache() {
+        negatives.clear();
+        cache.clearCache();
+    }
+
+    @Override
+    public void put(K key, V value) throws Exception {
+        negatives.remove(key);
+        cache.put(key, value);
+    }
+
+    @Override
+    public void putOnlyOne(K key, V value) throws Exception {
+        negatives.remove(key);
+        cache.putOnlyOne(key, value);
+    }
+
+    @Override
+    public V get(K key) throws Exception {
+        V value = cache.get(key);
+        return value != null ? value : load(key);
+    }
+
+    @Override
+    public boolean remove(K key) throws Exception {
+        return cache.remove(key);
+    }
+
+    @Override
+    public List getKeys() throws Exception {
+        return cache.getKeys();
+    }
+
+    @Override
+    public CacheCursor<K> scan(String pattern, int batchSize) throws Exception {
+        return cache.scan(pattern, batchSize);
+    }
+
+    @Override
+    public void removeAll() {
+        cache.removeAll();
+    }
+
+    /**
+     * Misses are loaded one key at a time, each through the single flight path.
+     */
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws Exception {
+        Map<K, V> values = new HashMap<K, V>(cache.getAll(keys));
+        for (K key : keys) {
+            if (!values.containsKey(key)) {
+                V value = load(key);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void putAll(Map<K, V> map) throws Exception {
+        for (K key : map.keySet()) {
+            negatives.remove(key);
+        }
+        cache.putAll(map);
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws Exception {
+        cache.removeAll(keys);
+    }
+
+    @Override
+    public int size() throws Exception {
+        return cache.size();
+    }
+
+    private V load(K key) throws Exception {
+        Long expires = negatives.get(key);
+        if (expires != null) {
+            if (System.currentTimeMillis() < expires) {
+                negativeHitCount.incrementAndGet();
+                return null;
+            }
+            negatives.remove(key, expires);
+        }
+
+        CacheFuture<V> future = new CacheFuture<V>();
+        CacheFuture<V> inFlight = loading.putIfAbsent(key, future);
+        if (inFlight != null) {
+            coalescedCount.incrementAndGet();
+            return await(inFlight);
+        }
+        try {
+            // a load that finished between the miss and taking the flight already filled it
+            V value = cache.get(key);
+            if (value == null) {
+                loadCount.incrementAndGet();
+                value = loader.load(key);
+                if (value != null) {
+                    cache.put(key, value);
+                } else if (negativeTtl > 0) {
+                    if (negatives.size() >= negativeMaximum) {
+                        evictNegative();
+                    }
+                    negatives.put(key, System.currentTimeMillis() + negativeTtl);
+                }
+            }
+            future.complete(value);
+            return value;
+        } catch (Exception e) {
+            LOGGER.warn("Loading " + key + " failed, " + e.getMessage());
+            future.fail(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    // the soonest to expire of a few entries, the other remembered keys stay
+    private void evictNegative() {
+        K victim = null;
+        long soonest = Long.MAX_VALUE;
+        Iterator<Map.Entry<K, Long>> iterator = negatives.entrySet().iterator();
+        for (int i = 0; i < NEGATIVE_SAMPLE && iterator.hasNext(); i++) {
+            Map.Entry<K, Long> entry = iterator.next();
+            if (entry.getValue() < soonest) {
+                victim = entry.getKey();
+                soonest = entry.getValue();
+            }
+        }
+        if (victim != null) {
+            negatives.remove(victim, soonest);
+        }
+    }
+
+    private V await(CacheFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Drops the remembered absence of a key, the next miss loads it again.
+     */
+    public void invalidateNegative(K key) {
+        negatives.remove(key);
+    }
+
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * Misses that waited for another caller's load instead of loading themselves.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getNegativeHitCount() {
+        return negativeHitCount.get();
+    }
+
+    public Cache<K, V> getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,45 @@
+package org.humbird.soa.core.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Plain least recently used bound, only touched under the {@link EvictionPolicy} lock.
+ *
+ * Created by david on 15/4/14.
+ */
+public class LruPolicy<K, V> extends EvictionPolicy<K, V> {
+
+    private final LinkedHashMap<K, V> order = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+    public LruPolicy(int maximumSize) {
+        super(maximumSize);
+    }
+
+    @Override
+    protected void onRead(K key) {
+        order.get(key);
+    }
+
+    @Override
+    protected void onWrite(K key, V value, Map<K, V> victims) {
+        order.put(key, value);
+        Iterator<Map.Entry<K, V>> iterator = order.entrySet().iterator();
+        while (order.size() > maximumSize && iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            victims.put(entry.getKey(), entry.getValue());
+            iterator.remove();
+        }
+    }
+
+    @Override
+    protected void onRemoval(K key) {
+        order.remove(key);
+    }
+
+    @Override
+    protected void onClear() {
+        order.clear();
+    }
+}
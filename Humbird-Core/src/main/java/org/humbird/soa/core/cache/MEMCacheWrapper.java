@@ -5,24 +5,51 @@ import org.humbird.soa.core.util.CacheUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.InetSocketAddress;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
+ * Memcached has no way to list its keys, so the wrapper keeps the set of keys this node has
+ * written or read back, and drops a key when it is removed or found missing. Keys, scans and
+ * size come from that set, an entry that expired in memcached stays in it until it is read.
+ * <p/>
+ * With hot keys configured, which they are not by default, the keys this node reads most
+ * are read from a random one of their replicas, which are filled from the key on a miss.
+ * Every write or remove of a key deletes its replicas, on whichever node made it, and
+ * replicas expire after a few seconds. That bounds how long a write racing a refill leaves
+ * an old value in a replica.
+ *
  * Created by david on 15/4/4.
  */
 public class MEMCacheWrapper<K, V>
-        implements Cache<K, V> {
+        implements Cache<K, V>, AsyncCache<K, V> {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(MEMCacheWrapper.class);
 
     private final XMemcachedClient cacheManager;
 
+    // xmemcached only offers blocking calls, they wait here instead of on the caller
+    private final ExecutorService executor;
+
+    private final Set<String> keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // null unless hot keys are replicated
+    private final HotKeyTracker hotKeys;
+
+    private final int hotExpiration;
+
+    // key prefixes read from the key itself only, whatever their reads
+    private final List<String> unreplicated = new CopyOnWriteArrayList<String>();
+
     public MEMCacheWrapper(String path) throws Exception {
         this.cacheManager = CacheUtil.newMemcachedClient(path);
+        this.executor = CacheUtil.newMemcachedExecutor(path);
+        this.hotKeys = CacheUtil.newHotKeyTracker(path);
+        this.hotExpiration = CacheUtil.getHotKeyExpiration(path);
     }
 
     @Override
@@ -50,6 +77,8 @@ public class MEMCacheWrapper<K, V>
         if(paramV instanceof CacheContext && paramK instanceof String) {
             CacheContext<K> cacheContext = (CacheContext<K>) paramV;
             cacheManager.set((String) paramK, cacheContext.getEXPIRATION(), cacheContext);
+            keys.add((String) paramK);
+            dropReplicas((String) paramK);
         }
     }
 
@@ -61,6 +90,8 @@ public class MEMCacheWrapper<K, V>
             if(result == null) {
                 CacheContext<K> cacheContext = (CacheContext<K>) paramV;
                 cacheManager.set(key, cacheContext.getEXPIRATION(), cacheContext);
+                keys.add(key);
+                dropReplicas(key);
             }
         }
     }
@@ -68,7 +99,10 @@ public class MEMCacheWrapper<K, V>
     @Override
     public V get(K paramK) throws Exception{
         if(paramK instanceof String) {
-            return cacheManager.get((String) paramK);
+            String key = (String) paramK;
+            V value = hotKeys == null ? (V) cacheManager.get(key) : (V) getReplicated(key);
+            track(key, value);
+            return value;
         }
         return null;
     }
@@ -76,6 +110,8 @@ public class MEMCacheWrapper<K, V>
     @Override
     public boolean remove(K paramK) throws Exception{
         if(paramK instanceof String) {
+            keys.remove(paramK);
+            dropReplicas((String) paramK);
             if(cacheManager.delete((String) paramK)) {
                 LOGGER.debug("removed cache {0}", paramK);
                 return true;
@@ -89,26 +125,221 @@ public class MEMCacheWrapper<K, V>
 
     @Override
     public List getKeys() throws Exception{
-        List list = new ArrayList();
-        Map<InetSocketAddress, Map<String, String>> stats = cacheManager.getStats();
-        Iterator<Map.Entry<InetSocketAddress, Map<String, String>>> iterator = stats.entrySet().iterator();
+        return new ArrayList<String>(keys);
+    }
+
+    @Override
+    public CacheCursor<K> scan(String pattern, int batchSize) {
+        return new CacheCursor<K>(keys.iterator(), pattern, batchSize);
+    }
+
+    @Override
+    public void removeAll() {
+        // stop
+    }
+
+    /**
+     * One multi-get per memcached server instead of a round trip per key, hot keys are read
+     * from one of their replicas and a second multi-get fills the replicas that missed.
+     */
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws Exception {
+        // name read for each key
+        Map<String, String> names = new LinkedHashMap<String, String>(keys.size() * 2);
+        for (K key : keys) {
+            if (key instanceof String) {
+                names.put((String) key, pick((String) key));
+            }
+        }
+        if (names.isEmpty()) {
+            return new HashMap<K, V>();
+        }
+        Map<String, Object> read = cacheManager.get(new ArrayList<String>(names.values()));
+        if (read == null) {
+            read = new HashMap<String, Object>();
+        }
+        Map<String, String> missed = new HashMap<String, String>();
+        Map<K, V> values = new HashMap<K, V>();
+        for (Map.Entry<String, String> entry : names.entrySet()) {
+            Object value = read.get(entry.getValue());
+            if (value != null) {
+                values.put((K) entry.getKey(), (V) value);
+            } else if (!entry.getKey().equals(entry.getValue())) {
+                missed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!missed.isEmpty()) {
+            Map<String, Object> primaries = cacheManager.get(missed.keySet());
+            if (primaries != null) {
+                for (Map.Entry<String, Object> entry : primaries.entrySet()) {
+                    if (entry.getValue() != null) {
+                        values.put((K) entry.getKey(), (V) entry.getValue());
+                        replicate(missed.get(entry.getKey()), entry.getValue());
+                    }
+                }
+            }
+        }
+        for (String name : names.keySet()) {
+            track(name, values.get(name));
+        }
+        return values;
+    }
+
+    /**
+     * Sets are pipelined without waiting for replies, a failed set is only seen in the
+     * xmemcached log.
+     */
+    @Override
+    public void putAll(Map<K, V> map) throws Exception {
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
         while (iterator.hasNext()) {
-            Map.Entry<InetSocketAddress, Map<String, String>> entry = iterator.next();
-            Iterator<Map.Entry<String, String>> iter = entry.getValue().entrySet().iterator();
-            while (iter.hasNext()) {
-                list.add(iter.next().getKey());
+            Map.Entry<K, V> entry = iterator.next();
+            if (entry.getValue() instanceof CacheContext && entry.getKey() instanceof String) {
+                CacheContext<K> cacheContext = (CacheContext<K>) entry.getValue();
+                cacheManager.setWithNoReply((String) entry.getKey(), cacheContext.getEXPIRATION(), cacheContext);
+                keys.add((String) entry.getKey());
+                dropReplicas((String) entry.getKey());
             }
         }
-        return list;
     }
 
     @Override
-    public void removeAll() {
-        // stop
+    public void removeAll(Collection<K> keys) throws Exception {
+        for (K key : keys) {
+            if (key instanceof String) {
+                this.keys.remove(key);
+                dropReplicas((String) key);
+                cacheManager.deleteWithNoReply((String) key);
+            }
+        }
     }
 
     @Override
     public int size() throws Exception {
-        return getKeys().size();
+        return keys.size();
+    }
+
+    @Override
+    public CacheFuture<V> getAsync(final K paramK) {
+        return submit(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return get(paramK);
+            }
+        });
+    }
+
+    @Override
+    public CacheFuture<Boolean> putAsync(final K paramK, final V paramV) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                put(paramK, paramV);
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    @Override
+    public CacheFuture<Boolean> removeAsync(final K paramK) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return remove(paramK);
+            }
+        });
+    }
+
+    /**
+     * Keys starting with the prefix are never replicated, as the metadata manifest and
+     * entries a slave must read current.
+     */
+    public void excludeFromHotKeys(String prefix) {
+        unreplicated.add(prefix);
+    }
+
+    /**
+     * Hot keys being replicated by this node, empty unless configured.
+     */
+    public Set<String> getHotKeys() {
+        return hotKeys == null ? Collections.<String>emptySet() : hotKeys.getHotKeys();
+    }
+
+    private Object getReplicated(String key) throws Exception {
+        String name = pick(key);
+        if (name.equals(key)) {
+            return cacheManager.get(key);
+        }
+        Object value = cacheManager.get(name);
+        if (value == null) {
+            value = cacheManager.get(key);
+            if (value != null) {
+                replicate(name, value);
+            }
+        }
+        return value;
+    }
+
+    // the key itself or for a hot key one of its replicas
+    private String pick(String key) {
+        if (hotKeys == null) {
+            return key;
+        }
+        for (String prefix : unreplicated) {
+            if (key.startsWith(prefix)) {
+                return key;
+            }
+        }
+        hotKeys.record(key);
+        return hotKeys.isHot(key) ? hotKeys.pick(key) : key;
+    }
+
+    private void replicate(String alias, Object value) throws Exception {
+        int expiration = hotExpiration;
+        if (value instanceof CacheContext && ((CacheContext) value).getEXPIRATION() > 0) {
+            expiration = Math.min(expiration, ((CacheContext) value).getEXPIRATION());
+        }
+        // add, so a refill never overwrites a replica written after it
+        cacheManager.addWithNoReply(alias, expiration, value);
+    }
+
+    // any node may hold replicas of the key, not only those that find it hot
+    private void dropReplicas(String key) throws Exception {
+        if (hotKeys != null) {
+            for (String alias : hotKeys.aliases(key)) {
+                cacheManager.deleteWithNoReply(alias);
+            }
+        }
+    }
+
+    private void track(String key, Object value) {
+        if (value != null) {
+            keys.add(key);
+        } else {
+            keys.remove(key);
+        }
+    }
+
+    private <T> CacheFuture<T> submit(final Callable<T> call) {
+        final CacheFuture<T> future = new CacheFuture<T>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    try {
+                        future.complete(call.call());
+                    } catch (Throwable t) {
+                        future.fail(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("memcached async queue is full");
+            future.fail(e);
+        }
+        return future;
     }
 }
\ No newline at end of file
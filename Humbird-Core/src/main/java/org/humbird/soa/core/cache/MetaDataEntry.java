@@ -0,0 +1,56 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Line of the metadata manifest, the version an entry last changed in and a digest of its
+ * content.
+ *
+ * Created by david on 15/4/24.
+ */
+public class MetaDataEntry implements Serializable, Record {
+
+    private int version;
+
+    private String digest;
+
+    public MetaDataEntry() {
+    }
+
+    public MetaDataEntry(int version, String digest) {
+        this.version = version;
+        this.digest = digest;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(this, tag);
+        archive.writeInt(version, "version");
+        archive.writeString(digest, "digest");
+        archive.endRecord(this, tag);
+    }
+
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        version = archive.readInt("version");
+        digest = archive.readString("digest");
+        archive.endRecord(tag);
+    }
+
+    @Override
+    public String toString() {
+        return "MetaDataEntry{version=" + version + ", digest='" + digest + "'}";
+    }
+}
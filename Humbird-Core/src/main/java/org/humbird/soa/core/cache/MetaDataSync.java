@@ -0,0 +1,316 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.common.utils.IOHelper;
+import org.humbird.soa.core.HumbirdSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metadata kept in a remote cache as separately versioned entries, so a slave only fetches
+ * what changed since it last synchronized.
+ * <p/>
+ * Every entry lives under its own key, wrapped in a {@link CacheContext} with one session
+ * whose key is the entry version. A manifest {@link CacheContext} under the cache name maps
+ * each entry key to a {@link MetaDataEntry}, plus {@link #VERSION_KEY} to the manifest
+ * version. The master writes changed entries first and the manifest last. A slave reads the
+ * manifest and multi-gets the entries whose version moved, an entry not yet visible is
+ * simply retried on the next synchronization. A manifest behind the slave's version was
+ * published again from scratch, e.g. after the remote cache was flushed, its entry versions
+ * restarted and the slave fetches every entry.
+ *
+ * Created by david on 15/4/24.
+ */
+public class MetaDataSync {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(MetaDataSync.class);
+
+    public final static String VERSION_KEY = "#org#humbird#soa#version";
+
+    private final Cache cache;
+
+    private final String name;
+
+    private final int expiration;
+
+    private final Map<String, Object> entries = new ConcurrentHashMap<String, Object>();
+
+    private final Map<String, Integer> versions = new ConcurrentHashMap<String, Integer>();
+
+    private volatile int version = -1;
+
+    private volatile long lastSync;
+
+    /**
+     * @param cache      remote metadata cache
+     * @param name       key of the manifest, entry keys are prefixed with it
+     * @param expiration seconds the entries live in the remote cache, 0 for ever
+     */
+    public MetaDataSync(Cache cache, String name, int expiration) {
+        this.cache = cache;
+        this.name = name;
+        this.expiration = expiration;
+    }
+
+    /**
+     * Master side, writes the entries whose content differs from the published manifest.
+     *
+     * @return the manifest version, unchanged if nothing was different
+     */
+    public int publish(Map<String, Object> current) throws Exception {
+        return publish(current, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Master side, as {@link #publish(Map)}, but an entry with a source fingerprint is compared
+     * by that fingerprint and only encoded if it changed, a lazily loaded entry is not read just
+     * to find out it is unchanged.
+     *
+     * @param sources entry key to a fingerprint of the files the entry is built from
+     * @return the manifest version, unchanged if nothing was different
+     */
+    public synchronized int publish(Map<String, Object> current, Map<String, String> sources) throws Exception {
+        CacheContext<String> manifest = readManifest();
+        int published = versionOf(manifest);
+        int next = published + 1;
+        CacheContext<String> nextManifest = new CacheContext<String>(expiration);
+        Map<String, CacheContext<String>> changed = new LinkedHashMap<String, CacheContext<String>>();
+
+        Iterator<Map.Entry<String, Object>> iterator = current.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Object> entry = iterator.next();
+            String source = sources.get(entry.getKey());
+            String digest = source == null ? digest(entry.getValue()) : "source:" + md5(source.getBytes("UTF-8"));
+            MetaDataEntry old = entryOf(manifest, entry.getKey());
+            if (old != null && digest.equals(old.getDigest())) {
+                nextManifest.getMap().put(entry.getKey(), new HumbirdSession(entry.getKey(), old));
+            } else {
+                CacheContext<String> wrapper = new CacheContext<String>(expiration);
+                wrapper.getMap().put(entry.getKey(), new HumbirdSession(next, entry.getValue()));
+                changed.put(entry.getKey(), wrapper);
+                nextManifest.getMap().put(entry.getKey(), new HumbirdSession(entry.getKey(), new MetaDataEntry(next, digest)));
+            }
+        }
+        List<String> removed = new ArrayList<String>();
+        if (manifest != null) {
+            for (String key : manifest.getMap().keySet()) {
+                if (!VERSION_KEY.equals(key) && !current.containsKey(key)) {
+                    removed.add(entryKey(key));
+                }
+            }
+        }
+        if (manifest != null && changed.isEmpty() && removed.isEmpty()) {
+            LOGGER.debug("metadata unchanged at version {}", published);
+            return published;
+        }
+
+        // acknowledged sets, every entry must be readable before the manifest points at it
+        Iterator<Map.Entry<String, CacheContext<String>>> writes = changed.entrySet().iterator();
+        while (writes.hasNext()) {
+            Map.Entry<String, CacheContext<String>> entry = writes.next();
+            cache.put(entryKey(entry.getKey()), entry.getValue());
+        }
+        nextManifest.getMap().put(VERSION_KEY, new HumbirdSession(VERSION_KEY, next));
+        cache.put(name, nextManifest);
+        if (!removed.isEmpty()) {
+            cache.removeAll(removed);
+        }
+        LOGGER.info("published metadata version {}, {} changed and {} removed entries", new Object[]{next, changed.size(), removed.size()});
+        return next;
+    }
+
+    /**
+     * Slave side, fetches the entries that changed since the last synchronization.
+     *
+     * @return true if any local entry changed
+     */
+    public synchronized boolean sync() throws Exception {
+        CacheContext<String> manifest = readManifest();
+        if (manifest == null) {
+            return false;
+        }
+        int remote = versionOf(manifest);
+        if (remote == version) {
+            lastSync = System.currentTimeMillis();
+            return false;
+        }
+
+        boolean full = remote < version;
+        if (full) {
+            LOGGER.info("metadata version went back from {} to {}, fetching every entry", version, remote);
+        }
+        List<String> stale = new ArrayList<String>();
+        Iterator<Map.Entry<String, HumbirdSession>> iterator = manifest.getMap().entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, HumbirdSession> entry = iterator.next();
+            if (VERSION_KEY.equals(entry.getKey())) {
+                continue;
+            }
+            Integer local = versions.get(entry.getKey());
+            if (full || local == null || local != ((MetaDataEntry) entry.getValue().getValue()).getVersion()) {
+                stale.add(entryKey(entry.getKey()));
+            }
+        }
+
+        boolean changed = false;
+        boolean complete = true;
+        Map fetched = stale.isEmpty() ? Collections.emptyMap() : cache.getAll(stale);
+        for (String key : manifest.getMap().keySet()) {
+            if (VERSION_KEY.equals(key) || !stale.contains(entryKey(key))) {
+                continue;
+            }
+            int expected = entryOf(manifest, key).getVersion();
+            CacheContext<String> wrapper = (CacheContext<String>) fetched.get(entryKey(key));
+            HumbirdSession session = wrapper == null ? null : wrapper.getMap().get(key);
+            if (session == null || !Integer.valueOf(expected).equals(session.getKey())) {
+                complete = false;
+                continue;
+            }
+            entries.put(key, session.getValue());
+            versions.put(key, expected);
+            changed = true;
+        }
+        Iterator<String> locals = entries.keySet().iterator();
+        while (locals.hasNext()) {
+            String key = locals.next();
+            if (!manifest.getMap().containsKey(key)) {
+                locals.remove();
+                versions.remove(key);
+                changed = true;
+            }
+        }
+        if (complete) {
+            version = remote;
+            lastSync = System.currentTimeMillis();
+        }
+        LOGGER.info("synchronized metadata to version {}, fetched {} of {} entries", new Object[]{remote, stale.size(), manifest.getMap().size() - 1});
+        return changed;
+    }
+
+    /**
+     * Writes the synchronized entries and their versions to a file, replaced atomically.
+     */
+    public synchronized void save(File file) throws IOException {
+        Map<String, Object> snapshot = new HashMap<String, Object>();
+        snapshot.put("version", version);
+        snapshot.put("versions", new HashMap<String, Integer>(versions));
+        snapshot.put("entries", new HashMap<String, Object>(entries));
+        byte[] bytes = new RecordValueCodec().encode(snapshot);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(bytes);
+        } finally {
+            IOHelper.close(out);
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("Could not replace metadata snapshot " + file);
+        }
+    }
+
+    /**
+     * Restores the entries saved by {@link #save(File)}, the next {@link #sync()} then only
+     * fetches what changed since. A snapshot holding java serialized values is refused.
+     *
+     * @return false if there is no readable snapshot
+     */
+    public synchronized boolean load(File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            // a file on disk, read without java deserialization
+            Map<String, Object> snapshot = (Map<String, Object>) RecordValueCodec.readValue(RecordValueCodec.recordsOnly(in), "value");
+            entries.clear();
+            versions.clear();
+            entries.putAll((Map<String, Object>) snapshot.get("entries"));
+            versions.putAll((Map<String, Integer>) snapshot.get("versions"));
+            version = (Integer) snapshot.get("version");
+            LOGGER.info("restored metadata version {} from {}", version, file);
+            return true;
+        } catch (Exception e) {
+            LOGGER.warn("Could not read metadata snapshot " + file + ", " + e.getMessage());
+            return false;
+        } finally {
+            IOHelper.close(in);
+        }
+    }
+
+    /**
+     * Entries as of the last synchronization, keyed like the map given to {@link #publish(Map)}.
+     */
+    public Map<String, Object> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Last manifest version fully synchronized, -1 before the first one.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Time of the last synchronization that reached the published version, 0 if none did,
+     * a snapshot loaded with {@link #load(File)} does not count.
+     */
+    public long getLastSync() {
+        return lastSync;
+    }
+
+    private CacheContext<String> readManifest() throws Exception {
+        // the manifest must not come from a stale near cache copy
+        if (cache instanceof NearCacheWrapper) {
+            ((NearCacheWrapper) cache).invalidate(name);
+        }
+        Object manifest = cache.get(name);
+        if (manifest instanceof CacheContext && ((CacheContext) manifest).getMap().containsKey(VERSION_KEY)) {
+            return (CacheContext<String>) manifest;
+        }
+        return null;
+    }
+
+    private String entryKey(String key) {
+        return name + key;
+    }
+
+    private static int versionOf(CacheContext<String> manifest) {
+        return manifest == null ? 0 : (Integer) manifest.getMap().get(VERSION_KEY).getValue();
+    }
+
+    private static MetaDataEntry entryOf(CacheContext<String> manifest, String key) {
+        if (manifest == null) {
+            return null;
+        }
+        HumbirdSession session = manifest.getMap().get(key);
+        return session == null ? null : (MetaDataEntry) session.getValue();
+    }
+
+    private static String digest(Object value) throws Exception {
+        // in key order, a map filled in another order must not look changed
+        return md5(new RecordValueCodec().encodeSorted(value));
+    }
+
+    private static String md5(byte[] bytes) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = md5.digest(bytes);
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,267 @@
+package org.humbird.soa.core.cache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records hits, misses, writes and the latency of every call of the wrapped cache in the
+ * {@link CacheMetrics} of a name. Counting is lock free and adds two clock reads per call.
+ * A value a {@link LoadingCacheWrapper} below had to load is a miss when its loader is
+ * metered with {@link CacheMetrics#meter(CacheLoader)} under the same name, a caller that
+ * only waited for the load of another one is a hit.
+ * <p/>
+ * The async calls are timed until their future completes and run through the wrapped cache's
+ * async api when it has one.
+ *
+ * Created by david on 15/5/2.
+ */
+public class MetricsCacheWrapper<K, V> implements Cache<K, V>, AsyncCache<K, V> {
+
+    private final Cache<K, V> cache;
+
+    private final CacheMetrics metrics;
+
+    public MetricsCacheWrapper(Cache<K, V> cache, String name) {
+        this.cache = cache;
+        this.metrics = CacheMetrics.of(name);
+        this.metrics.bind(cache);
+    }
+
+    @Override
+    public void addCache(String name, Object params) throws Exception {
+        cache.addCache(name, params);
+    }
+
+    @Override
+    public void switchCache(String name) {
+        cache.switchCache(name);
+    }
+
+    @Override
+    public void delCache(String name) throws Exception {
+        cache.delCache(name);
+    }
+
+    @Override
+    public void clearCache() {
+        cache.clearCache();
+    }
+
+    @Override
+    public void put(K key, V value) throws Exception {
+        long start = System.nanoTime();
+        try {
+            cache.put(key, value);
+            metrics.recordPuts(1);
+        } catch (Exception e) {
+            metrics.recordError();
+            throw e;
+        } finally {
+            metrics.record(CacheMetrics.PUT, start);
+        }
+    }
+
+    @Override
+    public void putOnlyOne(K key, V value) throws Exception {
+        long start = System.nanoTime();
+        try {
+            cache.putOnlyOne(key, value);
+            metrics.recordPuts(1);
+        } catch (Exception e) {
+            metrics.recordError();
+            throw e;
+        } finally {
+            metrics.record(CacheMetrics.PUT, start);
+        }
+    }
+
+    @Override
+    public V get(K key) throws Exception {
+        long start = System.nanoTime();
+        try {
+            V value = cache.get(key);
+            recordReads(1, value != null ? 1 : 0);
+            return value;
+        } catch (Exception e) {
+            metrics.recordError();
+            throw e;
+        } finally {
+            metrics.record(CacheMetrics.GET, start);
+        }
+    }
+
+    @Override
+    public boolean remove(K key) throws Exception {
+        long start = System.nanoTime();
+        try {
+            boolean removed = cache.remove(key);
+            metrics.recordRemoves(removed ? 1 : 0);
+            return removed;
+        } catch (Exception e) {
+            metrics.recordError();
+            throw e;
+        } finally {
+            metrics.record(CacheMetrics.REMOVE, start);
+        }
+    }
+
+    @Override
+    public List getKeys() throws Exception {
+        return cache.getKeys();
+    }
+
+    @Override
+    public CacheCursor<K> scan(String pattern, int batchSize) throws Exception {
+        return cache.scan(pattern, batchSize);
+    }
+
+    @Override
+    public void removeAll() {
+        cache.removeAll();
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws Exception {
+        long start = System.nanoTime();
+        try {
+            Map<K, V> values = cache.getAll(keys);
+            recordReads(keys.size(), values.size());
+            return values;
+        } catch (Exception e) {
+            metrics.recordError();
+            throw e;
+        } finally {
+            metrics.record(CacheMetrics.GET_ALL, start);
+        }
+    }
+
+    @Override
+    public void putAll(Map<K, V> map) throws Exception {
+        long start = System.nanoTime();
+        try {
+            cache.putAll(map);
+            metrics.recordPuts(map.size());
+        } catch (Exception e) {
+            metrics.recordError();
+            throw e;
+        } finally {
+            metrics.record(CacheMetrics.PUT_ALL, start);
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws Exception {
+        long start = System.nanoTime();
+        try {
+            cache.removeAll(keys);
+            metrics.recordRemoves(keys.size());
+        } catch (Exception e) {
+            metrics.recordError();
+            throw e;
+        } finally {
+            metrics.record(CacheMetrics.REMOVE_ALL, start);
+        }
+    }
+
+    @Override
+    public int size() throws Exception {
+        return cache.size();
+    }
+
+    @Override
+    public CacheFuture<V> getAsync(K key) {
+        final long start = System.nanoTime();
+        CacheFuture<V> future;
+        if (cache instanceof AsyncCache) {
+            future = ((AsyncCache<K, V>) cache).getAsync(key);
+        } else {
+            try {
+                future = CacheFuture.completed(cache.get(key));
+            } catch (Exception e) {
+                future = CacheFuture.failed(e);
+            }
+        }
+        future.addListener(new CacheFuture.Listener<V>() {
+            @Override
+            public void operationComplete(CacheFuture<V> future) {
+                metrics.record(CacheMetrics.GET, start);
+                try {
+                    V value = future.get();
+                    recordReads(1, value != null ? 1 : 0);
+                } catch (Exception e) {
+                    metrics.recordError();
+                }
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public CacheFuture<Boolean> putAsync(K key, V value) {
+        final long start = System.nanoTime();
+        CacheFuture<Boolean> future;
+        if (cache instanceof AsyncCache) {
+            future = ((AsyncCache<K, V>) cache).putAsync(key, value);
+        } else {
+            try {
+                cache.put(key, value);
+                future = CacheFuture.completed(Boolean.TRUE);
+            } catch (Exception e) {
+                future = CacheFuture.failed(e);
+            }
+        }
+        future.addListener(new CacheFuture.Listener<Boolean>() {
+            @Override
+            public void operationComplete(CacheFuture<Boolean> future) {
+                metrics.record(CacheMetrics.PUT, start);
+                try {
+                    future.get();
+                    metrics.recordPuts(1);
+                } catch (Exception e) {
+                    metrics.recordError();
+                }
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public CacheFuture<Boolean> removeAsync(K key) {
+        final long start = System.nanoTime();
+        CacheFuture<Boolean> future;
+        if (cache instanceof AsyncCache) {
+            future = ((AsyncCache<K, V>) cache).removeAsync(key);
+        } else {
+            try {
+                future = CacheFuture.completed(cache.remove(key));
+            } catch (Exception e) {
+                future = CacheFuture.failed(e);
+            }
+        }
+        future.addListener(new CacheFuture.Listener<Boolean>() {
+            @Override
+            public void operationComplete(CacheFuture<Boolean> future) {
+                metrics.record(CacheMetrics.REMOVE, start);
+                try {
+                    metrics.recordRemoves(Boolean.TRUE.equals(future.get()) ? 1 : 0);
+                } catch (Exception e) {
+                    metrics.recordError();
+                }
+            }
+        });
+        return future;
+    }
+
+    private void recordReads(int requested, int found) {
+        metrics.recordHits(found, Math.max(0, requested - found));
+    }
+
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Cache<K, V> getCache() {
+        return cache;
+    }
+}
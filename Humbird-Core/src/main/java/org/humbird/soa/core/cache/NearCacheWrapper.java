@@ -0,0 +1,370 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.core.HumbirdSession;
+import org.humbird.soa.core.util.CacheUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded local {@link CacheContext} in front of a remote cache, so repeated reads of the
+ * same key stay in memory instead of going over the network and through deserialization.
+ * <p/>
+ * Local entries are dropped by {@link #invalidate(Object)} and {@link #invalidateAll()}
+ * when the master publishes a change, and by their expiration as a safety net for a lost
+ * notification. A read that raced with an invalidation of its key is served but not kept,
+ * reads of other keys still fill the local level.
+ * <p/>
+ * With refresh ahead on, a local hit past that fraction of its expiration is reloaded from
+ * the remote cache in the background and the current value keeps being served, so popular
+ * keys do not all miss at once when they expire.
+ *
+ * Created by david on 15/4/18.
+ */
+public class NearCacheWrapper<K, V>
+        implements Cache<K, V>, AsyncCache<K, V> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(NearCacheWrapper.class);
+
+    private final Cache<K, V> remote;
+
+    private final CacheContext<K> local;
+
+    private static final int STRIPES = 64;
+
+    // bumped by invalidateAll, a remote read only fills the local level if the stamp of its key is unchanged
+    private final AtomicLong generation = new AtomicLong();
+
+    // bumped by the invalidation of a key hashing to the stripe
+    private final AtomicLongArray stripes = new AtomicLongArray(STRIPES);
+
+    private final float refreshAhead;
+
+    // one background reload at a time, a full queue leaves the entry to expire as before
+    private final ExecutorService refresher;
+
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    public NearCacheWrapper(Cache<K, V> remote, String path) {
+        this.remote = remote;
+        this.local = CacheUtil.newNearClient(path);
+        this.refreshAhead = CacheUtil.getNearRefreshAhead(path);
+        if (refreshAhead > 0) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(64), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "humbird-near-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            this.refresher = executor;
+        } else {
+            this.refresher = null;
+        }
+    }
+
+    @Override
+    public void addCache(String name, Object params) throws Exception {
+        remote.addCache(name, params);
+    }
+
+    @Override
+    public void switchCache(String name) {
+        invalidateAll();
+        remote.switchCache(name);
+    }
+
+    @Override
+    public void delCache(String name) throws Exception {
+        invalidateAll();
+        remote.delCache(name);
+    }
+
+    @Override
+    public void clearCache() {
+        invalidateAll();
+        remote.clearCache();
+    }
+
+    @Override
+    public void put(K key, V value) throws Exception {
+        invalidate(key);
+        remote.put(key, value);
+    }
+
+    @Override
+    public void putOnlyOne(K key, V value) throws Exception {
+        invalidate(key);
+        remote.putOnlyOne(key, value);
+    }
+
+    @Override
+    public V get(K key) throws Exception {
+        HumbirdSession session = local.getSession(key);
+        if (session != null) {
+            refresh(key, session);
+            return (V) session.getValue();
+        }
+        long current = stamp(key);
+        V value = remote.get(key);
+        if (value != null) {
+            fill(key, value, current);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean remove(K key) throws Exception {
+        invalidate(key);
+        return remote.remove(key);
+    }
+
+    @Override
+    public List getKeys() throws Exception {
+        return remote.getKeys();
+    }
+
+    @Override
+    public CacheCursor<K> scan(String pattern, int batchSize) throws Exception {
+        return remote.scan(pattern, batchSize);
+    }
+
+    @Override
+    public void removeAll() {
+        invalidateAll();
+        remote.removeAll();
+    }
+
+    /**
+     * Local hits are served from memory, only the misses go to the remote cache in one call.
+     */
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws Exception {
+        Map<K, V> values = new HashMap<K, V>();
+        List<K> misses = new ArrayList<K>();
+        for (K key : keys) {
+            HumbirdSession session = local.getSession(key);
+            if (session != null) {
+                refresh(key, session);
+                values.put(key, (V) session.getValue());
+            } else {
+                misses.add(key);
+            }
+        }
+        if (misses.isEmpty()) {
+            return values;
+        }
+        Map<K, Long> stamps = new HashMap<K, Long>();
+        for (K key : misses) {
+            stamps.put(key, stamp(key));
+        }
+        Map<K, V> loaded = remote.getAll(misses);
+        Iterator<Map.Entry<K, V>> iterator = loaded.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            Long current = stamps.get(entry.getKey());
+            if (entry.getValue() != null && current != null) {
+                fill(entry.getKey(), entry.getValue(), current);
+            }
+        }
+        values.putAll(loaded);
+        return values;
+    }
+
+    @Override
+    public void putAll(Map<K, V> map) throws Exception {
+        invalidateAll(map.keySet());
+        remote.putAll(map);
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws Exception {
+        invalidateAll(keys);
+        remote.removeAll(keys);
+    }
+
+    @Override
+    public int size() throws Exception {
+        return remote.size();
+    }
+
+    /**
+     * A local hit is done at once, a miss is loaded through the remote async api if it has one.
+     */
+    @Override
+    public CacheFuture<V> getAsync(final K key) {
+        HumbirdSession session = local.getSession(key);
+        if (session != null) {
+            refresh(key, session);
+            return CacheFuture.completed((V) session.getValue());
+        }
+        if (!(remote instanceof AsyncCache)) {
+            try {
+                return CacheFuture.completed(get(key));
+            } catch (Exception e) {
+                return CacheFuture.failed(e);
+            }
+        }
+        final long current = stamp(key);
+        CacheFuture<V> future = ((AsyncCache<K, V>) remote).getAsync(key);
+        future.addListener(new CacheFuture.Listener<V>() {
+            @Override
+            public void operationComplete(CacheFuture<V> future) {
+                try {
+                    V value = future.get();
+                    if (value != null) {
+                        fill(key, value, current);
+                    }
+                } catch (Exception e) {
+                    // the caller sees the failure through its own future
+                }
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public CacheFuture<Boolean> putAsync(K key, V value) {
+        invalidate(key);
+        if (remote instanceof AsyncCache) {
+            return ((AsyncCache<K, V>) remote).putAsync(key, value);
+        }
+        try {
+            remote.put(key, value);
+            return CacheFuture.completed(Boolean.TRUE);
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
+
+    @Override
+    public CacheFuture<Boolean> removeAsync(K key) {
+        invalidate(key);
+        if (remote instanceof AsyncCache) {
+            return ((AsyncCache<K, V>) remote).removeAsync(key);
+        }
+        try {
+            return CacheFuture.completed(remote.remove(key));
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
+
+    /**
+     * Reloads a local hit in the background once it is due, the reload is dropped if the key
+     * was invalidated meanwhile, even while it was being put.
+     */
+    private void refresh(final K key, final HumbirdSession session) {
+        if (refresher == null || !session.isRefreshDue(refreshAhead) || !session.tryStartRefresh()) {
+            return;
+        }
+        final long current = stamp(key);
+        try {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        V value = remote.get(key);
+                        // a key gone from the remote cache takes its old session with it
+                        if (value == null ? local.removeSession(key, session) : fill(key, value, current)) {
+                            refreshCount.incrementAndGet();
+                        } else {
+                            session.endRefresh();
+                        }
+                    } catch (Exception e) {
+                        LOGGER.debug("refreshing near cache {} failed, {}", key, e.getMessage());
+                        session.endRefresh();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            session.endRefresh();
+        }
+    }
+
+    /**
+     * Keeps a remote read locally unless the key was invalidated since the stamp was taken.
+     * An invalidation removes the session itself once it is in, the stamp is checked again
+     * after the put for one that came in between.
+     */
+    private boolean fill(K key, V value, long current) {
+        if (stamp(key) != current) {
+            return false;
+        }
+        HumbirdSession session = local.newSession(key, value);
+        local.putSession(key, session);
+        if (stamp(key) != current) {
+            local.removeSession(key, session);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drops the local copy of the key, the next read goes to the remote cache.
+     */
+    public void invalidate(K key) {
+        stripes.incrementAndGet(stripe(key));
+        if (local.removeSession(key) != null) {
+            LOGGER.debug("invalidated near cache {}", key);
+        }
+    }
+
+    public void invalidateAll(Collection<K> keys) {
+        for (K key : keys) {
+            stripes.incrementAndGet(stripe(key));
+            local.removeSession(key);
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        local.clearSessions();
+        LOGGER.debug("invalidated near cache");
+    }
+
+    // changes whenever the key or the whole cache is invalidated, shared by the keys of a stripe
+    private long stamp(K key) {
+        return generation.get() + stripes.get(stripe(key));
+    }
+
+    private static int stripe(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (STRIPES - 1);
+    }
+
+    public double getHitRatio() {
+        return local.getHitRatio();
+    }
+
+    public long getHitCount() {
+        return local.getHitCount();
+    }
+
+    public long getMissCount() {
+        return local.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return local.getEvictionCount();
+    }
+
+    /**
+     * Entries replaced by a background reload before they expired.
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    public int getLocalSize() {
+        return local.getMap().size();
+    }
+}
@@ -0,0 +1,223 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.core.HumbirdSession;
+import org.humbird.soa.core.util.CacheUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local cache whose values live off heap in an {@link OffHeapStore}, with a small on heap
+ * {@link CacheContext} in front of it for the hot entries.
+ * <p/>
+ * Values are stored as serialized {@link HumbirdSession}s. A read that misses the on heap
+ * level is deserialized from the store and promoted with whatever lifetime it has left.
+ *
+ * Created by david on 15/4/16.
+ */
+public class OffHeapCacheWrapper<K, V>
+        implements Cache<K, V>, AsyncCache<K, V> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(OffHeapCacheWrapper.class);
+
+    private final Map<String, OffHeapStore<K>> stores = new ConcurrentHashMap<String, OffHeapStore<K>>();
+
+    private final Map<String, CacheContext<K>> hotCaches = new ConcurrentHashMap<String, CacheContext<K>>();
+
+    private final CacheUtil.OffHeapConfig config;
+
+    private volatile String cacheName;
+
+    public OffHeapCacheWrapper(String cacheName, String path) throws Exception {
+        this.cacheName = cacheName;
+        this.config = CacheUtil.loadOffHeapConfig(path);
+        addCache(cacheName, CacheUtil.newOffHeapClient(config, cacheName));
+    }
+
+    OffHeapStore<K> getStore() {
+        return this.stores.get(this.cacheName);
+    }
+
+    CacheContext<K> getHotCache() {
+        return this.hotCaches.get(this.cacheName);
+    }
+
+    /**
+     * @param params an {@link OffHeapStore}, or null to create one from the configuration
+     */
+    @Override
+    public void addCache(String name, Object params) throws Exception {
+        OffHeapStore<K> store = params instanceof OffHeapStore
+                ? (OffHeapStore<K>) params
+                : (OffHeapStore<K>) CacheUtil.newOffHeapClient(config, name);
+        final CacheContext<K> hotCache = new CacheContext<K>(config.getExpiration());
+        hotCache.setEvictionPolicy(config.getHotPolicy(), config.getHotMaximum(), 1);
+        // the hot level must not keep serving what the store made room for
+        store.setEvictionListener(new OffHeapStore.EvictionListener<K>() {
+            @Override
+            public void onEviction(K key) {
+                hotCache.removeSession(key);
+            }
+        });
+        hotCaches.put(name, hotCache);
+        stores.put(name, store);
+        LOGGER.debug("added off heap cache {}", name);
+    }
+
+    @Override
+    public void switchCache(String name) {
+        this.cacheName = name;
+    }
+
+    @Override
+    public void delCache(String name) {
+        OffHeapStore<K> store = stores.remove(name);
+        if (store != null) {
+            store.clear();
+        }
+        hotCaches.remove(name);
+    }
+
+    @Override
+    public void clearCache() {
+        for (OffHeapStore<K> store : stores.values()) {
+            store.clear();
+        }
+        for (CacheContext<K> hotCache : hotCaches.values()) {
+            hotCache.clearSessions();
+        }
+    }
+
+    public void put(K key, V value) throws Exception {
+        CacheContext<K> hotCache = getHotCache();
+        HumbirdSession session = hotCache.newSession(key, value);
+        long expirationTime = session.getTimeToLive() > 0
+                ? session.getCreationTime() + session.getTimeToLive() * 1000L : Long.MAX_VALUE;
+        getStore().put(key, session, expirationTime, session.getTimeToIdle() * 1000L);
+        hotCache.putSession(key, session);
+    }
+
+    @Override
+    public void putOnlyOne(K paramK, V paramV) throws Exception {
+
+    }
+
+    public V get(K key) throws Exception {
+        CacheContext<K> hotCache = getHotCache();
+        HumbirdSession session = hotCache.getSession(key);
+        if (session != null) {
+            // keeps the stored copy from idling out and from being evicted
+            getStore().touch(key);
+        } else {
+            OffHeapStore<K> store = getStore();
+            long timeToLive = store.getTimeToLive(key);
+            session = (HumbirdSession) store.get(key);
+            if (session == null) {
+                return null;
+            }
+            // the time to live goes on from what the store has left, the time to idle restarts
+            HumbirdSession promoted = new HumbirdSession(key, session.getValue());
+            if (session.getTimeToLive() > 0 && timeToLive < Long.MAX_VALUE / 2) {
+                promoted.setTimeToLive((int) Math.max(1L, timeToLive / 1000L));
+            }
+            if (session.getTimeToIdle() > 0) {
+                promoted.setTimeToIdle(session.getTimeToIdle());
+            }
+            hotCache.putSession(key, promoted);
+            session = promoted;
+        }
+        return (V) session.getValue();
+    }
+
+    public boolean remove(K key) {
+        getHotCache().removeSession(key);
+        if (getStore().remove(key)) {
+            LOGGER.debug("removed cache {}", key);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public List getKeys() {
+        return new ArrayList<K>(getStore().keySet());
+    }
+
+    @Override
+    public CacheCursor<K> scan(String pattern, int batchSize) {
+        return new CacheCursor<K>(getStore().keySet().iterator(), pattern, batchSize);
+    }
+
+    public void removeAll() {
+        getHotCache().clearSessions();
+        getStore().clear();
+    }
+
+    public Map<K, V> getAll(Collection<K> keys) throws Exception {
+        Map<K, V> values = new HashMap<K, V>();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    public void putAll(Map<K, V> map) throws Exception {
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void removeAll(Collection<K> keys) {
+        for (K key : keys) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public int size() {
+        return getStore().size();
+    }
+
+    @Override
+    public CacheFuture<V> getAsync(K key) {
+        try {
+            return CacheFuture.completed(get(key));
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
+
+    @Override
+    public CacheFuture<Boolean> putAsync(K key, V value) {
+        try {
+            put(key, value);
+            return CacheFuture.completed(Boolean.TRUE);
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
+
+    @Override
+    public CacheFuture<Boolean> removeAsync(K key) {
+        try {
+            return CacheFuture.completed(remove(key));
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
+
+    public double getHitRatio() {
+        return getHotCache().getHitRatio();
+    }
+
+    public long getEvictionCount() {
+        return getStore().getEvictionCount();
+    }
+}
@@ -0,0 +1,456 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.common.utils.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serialized values kept outside the java heap, in fixed size slabs of direct or file mapped
+ * {@link ByteBuffer}s.
+ * <p/>
+ * Values are appended to the current slab. Every slab counts the bytes of the entries still
+ * pointing into it, an overwrite, a remove or an expiry makes the old bytes dead right away.
+ * When no slab is left, the slab with the fewest live bytes is compacted into the one slab kept
+ * empty for it: expired entries are dropped, entries read since they were written or last
+ * moved get a second chance and are copied, the others are evicted. This approximates least
+ * recently used per entry, memory never grows past the configured capacity and no per-entry
+ * free list is needed. Only the key index lives on the heap.
+ * <p/>
+ * Reads take no lock: every slab carries a generation that is bumped before it is reused, and
+ * a read whose slab changed generation while copying looks the key up again.
+ *
+ * Created by david on 15/4/16.
+ */
+public class OffHeapStore<K> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(OffHeapStore.class);
+
+    private final ByteBuffer[] slabs;
+
+    private final AtomicLong[] generations;
+
+    private final AtomicInteger[] live;
+
+    private final long[] sealed;
+
+    private final List<List<K>> slabKeys;
+
+    private final int slabSize;
+
+    private final ConcurrentMap<K, Location> index = new ConcurrentHashMap<K, Location>();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private volatile EvictionListener<K> evictionListener;
+
+    private int current;
+
+    private int spare;
+
+    private int position;
+
+    private long sequence;
+
+    /**
+     * @param capacity maximum off heap bytes, rounded down to whole slabs, one of them is kept
+     *                 empty for compaction
+     * @param slabSize bytes of one slab, also the largest value that can be stored
+     * @param file     if not null, slabs are mapped from this file instead of allocated direct
+     */
+    public OffHeapStore(long capacity, int slabSize, File file) throws IOException {
+        int count = (int) Math.max(2L, capacity / slabSize);
+        this.slabSize = slabSize;
+        this.slabs = new ByteBuffer[count];
+        this.generations = new AtomicLong[count];
+        this.live = new AtomicInteger[count];
+        this.sealed = new long[count];
+        this.slabKeys = new ArrayList<List<K>>(count);
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            FileChannel channel = null;
+            if (file != null) {
+                randomAccessFile = new RandomAccessFile(file, "rw");
+                randomAccessFile.setLength((long) count * slabSize);
+                channel = randomAccessFile.getChannel();
+            }
+            for (int i = 0; i < count; i++) {
+                slabs[i] = channel == null
+                        ? ByteBuffer.allocateDirect(slabSize)
+                        : channel.map(FileChannel.MapMode.READ_WRITE, (long) i * slabSize, slabSize);
+                generations[i] = new AtomicLong();
+                live[i] = new AtomicInteger();
+                slabKeys.add(new ArrayList<K>());
+            }
+        } finally {
+            // mapped buffers stay valid once the channel is closed
+            IOHelper.close(randomAccessFile);
+        }
+        this.current = 0;
+        this.spare = count - 1;
+        LOGGER.debug("off heap store of {} slabs x {} bytes", count, slabSize);
+    }
+
+    /**
+     * Called with the keys the store evicted to make room, never for removed or expired keys.
+     */
+    public interface EvictionListener<K> {
+
+        void onEviction(K key);
+    }
+
+    public void setEvictionListener(EvictionListener<K> evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    public boolean put(K key, Object value, long expirationTime) throws IOException {
+        return put(key, value, expirationTime, 0L);
+    }
+
+    /**
+     * @param expirationTime absolute time in millis after which the value is dropped
+     * @param timeToIdle     millis without a read after which the value is dropped, 0 if none
+     * @return false if the value is larger than a slab and was not stored
+     */
+    public boolean put(K key, Object value, long expirationTime, long timeToIdle) throws IOException {
+        byte[] bytes = serialize(value);
+        if (bytes.length > slabSize) {
+            remove(key);
+            LOGGER.warn("value of {} is {} bytes, larger than a slab, not stored off heap", key, bytes.length);
+            return false;
+        }
+        writeLock.lock();
+        try {
+            if (position + bytes.length > slabSize) {
+                makeRoom(bytes.length);
+            }
+            ByteBuffer buffer = slabs[current].duplicate();
+            buffer.position(position);
+            buffer.put(bytes);
+            Location location = new Location(current, generations[current].get(), position, bytes.length,
+                    expirationTime, timeToIdle, System.currentTimeMillis());
+            live[current].addAndGet(bytes.length);
+            slabKeys.get(current).add(key);
+            position += bytes.length;
+            Location old = index.put(key, location);
+            if (old != null) {
+                live[old.slab].addAndGet(-old.length);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return true;
+    }
+
+    public Object get(K key) throws IOException, ClassNotFoundException {
+        // a compaction may move the key while we copy, look it up again then
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Location location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if (location.isExpired(now)) {
+                drop(key, location);
+                return null;
+            }
+            byte[] bytes = new byte[location.length];
+            ByteBuffer buffer = slabs[location.slab].duplicate();
+            buffer.position(location.offset);
+            buffer.get(bytes);
+            // the volatile write of the access orders the copy before the generation check
+            location.touch(now);
+            if (generations[location.slab].get() == location.generation) {
+                return deserialize(bytes);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records a read of the key served from somewhere else, e.g. a level in front of the store,
+     * so it is not idle and keeps its second chance.
+     */
+    public void touch(K key) {
+        Location location = index.get(key);
+        if (location != null) {
+            location.touch(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Remaining time to live of the key in millis regardless of its time to idle, or -1 if it
+     * is not stored.
+     */
+    public long getTimeToLive(K key) {
+        Location location = index.get(key);
+        return location == null ? -1L : location.expirationTime - System.currentTimeMillis();
+    }
+
+    public boolean remove(K key) {
+        Location location = index.remove(key);
+        if (location != null) {
+            live[location.slab].addAndGet(-location.length);
+            return true;
+        }
+        return false;
+    }
+
+    public void clear() {
+        writeLock.lock();
+        try {
+            for (Map.Entry<K, Location> entry : index.entrySet()) {
+                drop(entry.getKey(), entry.getValue());
+            }
+            for (int i = 0; i < slabs.length; i++) {
+                generations[i].incrementAndGet();
+                slabKeys.get(i).clear();
+            }
+            current = 0;
+            spare = slabs.length - 1;
+            position = 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Set<K> keySet() {
+        return index.keySet();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public long getCapacity() {
+        return (long) slabs.length * slabSize;
+    }
+
+    /**
+     * Bytes of the entries still stored.
+     */
+    public long getLiveBytes() {
+        long bytes = 0L;
+        for (AtomicInteger count : live) {
+            bytes += count.get();
+        }
+        return bytes;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Switches to an empty slab, or compacts until the current one has room for the length.
+     * Every compaction takes a second chance away, so after a round over all slabs the
+     * victim is emptied whatever was read.
+     */
+    private void makeRoom(int length) {
+        for (int round = 0; ; round++) {
+            int free = findFree();
+            if (free >= 0) {
+                seal(current);
+                open(free);
+                position = 0;
+                return;
+            }
+            compact(findVictim(), round >= slabs.length);
+            if (position + length <= slabSize) {
+                return;
+            }
+        }
+    }
+
+    private int findFree() {
+        for (int i = 0; i < slabs.length; i++) {
+            if (i != current && i != spare && live[i].get() <= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The slab with the fewest live bytes, the one sealed first if several have as few.
+     */
+    private int findVictim() {
+        int victim = -1;
+        for (int i = 0; i < slabs.length; i++) {
+            if (i == spare) {
+                continue;
+            }
+            if (victim < 0 || live[i].get() < live[victim].get()
+                    || (live[i].get() == live[victim].get() && sealedAt(i) < sealedAt(victim))) {
+                victim = i;
+            }
+        }
+        return victim;
+    }
+
+    private long sealedAt(int slab) {
+        return slab == current ? Long.MAX_VALUE : sealed[slab];
+    }
+
+    /**
+     * Copies the entries of the victim worth keeping into the spare slab, which becomes the
+     * current one, the victim becomes the spare.
+     */
+    private void compact(int victim, boolean force) {
+        int previous = current;
+        int target = spare;
+        generations[target].incrementAndGet();
+        slabKeys.get(target).clear();
+        ByteBuffer from = slabs[victim].duplicate();
+        ByteBuffer to = slabs[target].duplicate();
+        long generation = generations[victim].get();
+        long now = System.currentTimeMillis();
+        int offset = 0;
+        int evicted = 0;
+        List<K> evictedKeys = new ArrayList<K>();
+
+        for (K key : slabKeys.get(victim)) {
+            Location location = index.get(key);
+            if (location == null || location.slab != victim || location.generation != generation) {
+                // removed, or already moved by an earlier copy of the key in the list
+                continue;
+            }
+            if (location.isExpired(now)) {
+                drop(key, location);
+            } else if (force || !location.accessed) {
+                if (drop(key, location)) {
+                    evicted++;
+                    evictedKeys.add(key);
+                }
+            } else {
+                byte[] bytes = new byte[location.length];
+                from.position(location.offset);
+                from.get(bytes);
+                to.position(offset);
+                to.put(bytes);
+                Location moved = new Location(target, generations[target].get(), offset, location.length,
+                        location.expirationTime, location.timeToIdle, location.accessTime);
+                live[target].addAndGet(location.length);
+                if (index.replace(key, location, moved)) {
+                    live[victim].addAndGet(-location.length);
+                    slabKeys.get(target).add(key);
+                    offset += location.length;
+                } else {
+                    live[target].addAndGet(-location.length);
+                }
+            }
+        }
+
+        if (victim != previous) {
+            seal(previous);
+        }
+        // readers still copying from the victim see the new generation and look again
+        generations[victim].incrementAndGet();
+        slabKeys.get(victim).clear();
+        spare = victim;
+        current = target;
+        position = offset;
+        evictionCount.addAndGet(evicted);
+        LOGGER.debug("compacted slab {} into {}, {} bytes kept, {} entries evicted", victim, target, offset, evicted);
+
+        EvictionListener<K> listener = evictionListener;
+        if (listener != null) {
+            for (K key : evictedKeys) {
+                listener.onEviction(key);
+            }
+        }
+    }
+
+    private void open(int slab) {
+        generations[slab].incrementAndGet();
+        slabKeys.get(slab).clear();
+        current = slab;
+    }
+
+    private void seal(int slab) {
+        sealed[slab] = ++sequence;
+    }
+
+    private boolean drop(K key, Location location) {
+        if (index.remove(key, location)) {
+            live[location.slab].addAndGet(-location.length);
+            return true;
+        }
+        return false;
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(value);
+        } finally {
+            IOHelper.close(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            IOHelper.close(in);
+        }
+    }
+
+    private static final class Location {
+
+        final int slab;
+
+        final long generation;
+
+        final int offset;
+
+        final int length;
+
+        final long expirationTime;
+
+        final long timeToIdle;
+
+        volatile long accessTime;
+
+        volatile boolean accessed;
+
+        Location(int slab, long generation, int offset, int length, long expirationTime, long timeToIdle, long accessTime) {
+            this.slab = slab;
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+            this.expirationTime = expirationTime;
+            this.timeToIdle = timeToIdle;
+            this.accessTime = accessTime;
+        }
+
+        boolean isExpired(long now) {
+            return expirationTime <= now || (timeToIdle > 0L && accessTime + timeToIdle <= now);
+        }
+
+        void touch(long now) {
+            accessTime = now;
+            if (!accessed) {
+                accessed = true;
+            }
+        }
+    }
+}
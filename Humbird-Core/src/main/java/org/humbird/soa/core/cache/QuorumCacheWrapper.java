@@ -0,0 +1,226 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.cache.client.CacheClient;
+import org.humbird.soa.core.util.CacheUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The replicated humbird cache, through the client port of one of its servers. Reads are
+ * answered by that server from its own entries, so a portal configured with an observer first
+ * reads locally from the observer while the voting servers only see the writes, which the
+ * observer forwards to the leader and returns once committed. A read on a server that has not
+ * yet applied a commit may still return the previous value.
+ * <p/>
+ * Values go through the same {@link CodecTranscoder} as redis values, behind their four byte
+ * flags, the servers keep nothing but those bytes. The servers have no expiry, the expiration
+ * of a {@link CacheContext} is ignored. Multi key calls are one request per key.
+ *
+ * Created by david on 15/6/13.
+ */
+public class QuorumCacheWrapper<K, V>
+        implements Cache<K, V>, AsyncCache<K, V> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(QuorumCacheWrapper.class);
+
+    private final CacheClient client;
+
+    private final CodecTranscoder transcoder;
+
+    // the client blocks, async calls wait here instead of on the caller
+    private final ExecutorService executor;
+
+    public QuorumCacheWrapper(String path) throws Exception {
+        this(CacheUtil.newQuorumClient(path), CacheUtil.newQuorumTranscoder(path), CacheUtil.newQuorumExecutor(path));
+    }
+
+    public QuorumCacheWrapper(CacheClient client, CodecTranscoder transcoder, ExecutorService executor) {
+        this.client = client;
+        this.transcoder = transcoder;
+        this.executor = executor;
+    }
+
+    @Override
+    public void addCache(String name, Object params) throws Exception {
+        //
+    }
+
+    @Override
+    public void switchCache(String name) {
+        //
+    }
+
+    @Override
+    public void delCache(String name) throws Exception {
+        //
+    }
+
+    /**
+     * Closes the connection, the entries stay on the servers.
+     */
+    @Override
+    public void clearCache() {
+        client.close();
+    }
+
+    @Override
+    public void put(K paramK, V paramV) throws Exception {
+        if (paramK instanceof String && paramV != null) {
+            client.putValue((String) paramK, transcoder.encodeBytes(paramV));
+        }
+    }
+
+    /**
+     * A read then a write, two writers may both find the key missing.
+     */
+    @Override
+    public void putOnlyOne(K paramK, V paramV) throws Exception {
+        if (paramK instanceof String && paramV != null && client.getValue((String) paramK) == null) {
+            put(paramK, paramV);
+        }
+    }
+
+    @Override
+    public V get(K paramK) throws Exception {
+        if (paramK instanceof String) {
+            byte[] value = client.getValue((String) paramK);
+            return value == null ? null : (V) transcoder.decodeBytes(value);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean remove(K paramK) throws Exception {
+        if (paramK instanceof String && client.getValue((String) paramK) != null) {
+            client.remove((String) paramK);
+            LOGGER.debug("removed cache {}", paramK);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public List getKeys() throws Exception {
+        return client.getKeys();
+    }
+
+    /**
+     * Over the keys of one request, a failed request is thrown wrapped in an
+     * {@link IllegalStateException}.
+     */
+    @Override
+    public CacheCursor<K> scan(String pattern, int batchSize) {
+        try {
+            return new CacheCursor<K>(client.getKeys().iterator(), pattern, batchSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("quorum scan failed, " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        // stop
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws Exception {
+        Map<K, V> values = new HashMap<K, V>();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Every entry is committed once this returns.
+     */
+    @Override
+    public void putAll(Map<K, V> map) throws Exception {
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws Exception {
+        for (K key : keys) {
+            if (key instanceof String) {
+                client.remove((String) key);
+            }
+        }
+    }
+
+    @Override
+    public int size() throws Exception {
+        return client.size();
+    }
+
+    @Override
+    public CacheFuture<V> getAsync(final K paramK) {
+        return submit(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return get(paramK);
+            }
+        });
+    }
+
+    @Override
+    public CacheFuture<Boolean> putAsync(final K paramK, final V paramV) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                put(paramK, paramV);
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    @Override
+    public CacheFuture<Boolean> removeAsync(final K paramK) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return remove(paramK);
+            }
+        });
+    }
+
+    public CacheClient getClient() {
+        return client;
+    }
+
+    private <T> CacheFuture<T> submit(final Callable<T> call) {
+        final CacheFuture<T> future = new CacheFuture<T>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    try {
+                        future.complete(call.call());
+                    } catch (Throwable t) {
+                        future.fail(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("quorum async queue is full");
+            future.fail(e);
+        }
+        return future;
+    }
+}
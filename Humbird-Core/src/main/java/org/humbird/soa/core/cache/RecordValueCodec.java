@@ -0,0 +1,323 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.common.io.BinaryInputArchive;
+import org.humbird.soa.common.io.BinaryOutputArchive;
+import org.humbird.soa.common.io.Index;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
+import org.humbird.soa.common.model.common.PropsModel;
+import org.humbird.soa.core.HumbirdSession;
+import org.humbird.soa.core.model.IndexModel;
+import org.humbird.soa.core.model.PropertyModel;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary codec on the {@link Record} archives. Every value is written as a one byte type tag
+ * followed by its fields, with no class descriptors, so the metadata {@link CacheContext}
+ * is a fraction of its java serialized size and much cheaper to read back.
+ * <p/>
+ * Records are looked up by tag and need a public no argument constructor. A
+ * {@link HumbirdSession} is written here field by field, it is no record itself. Values of
+ * any other type fall back to java serialization inside the stream.
+ * <p/>
+ * Readers reject a buffer above jute.maxbuffer, so such a buffer is refused when it is
+ * written instead of leaving a value no node can read.
+ *
+ * Created by david on 15/4/22.
+ */
+public class RecordValueCodec implements ValueCodec {
+
+    // above the special type bits xmemcached keeps in 0xff00
+    public static final int FLAG = 1 << 16;
+
+    private static final byte NULL = 0;
+
+    private static final byte STRING = 1;
+
+    private static final byte INT = 2;
+
+    private static final byte LONG = 3;
+
+    private static final byte BOOL = 4;
+
+    private static final byte DOUBLE = 5;
+
+    private static final byte BYTES = 6;
+
+    private static final byte MAP = 7;
+
+    private static final byte PROPERTIES = 8;
+
+    private static final byte LIST = 9;
+
+    private static final byte SERIALIZED = 10;
+
+    // tags from here on are records
+    private static final byte RECORD = 16;
+
+    private static final byte SESSION = RECORD + 1;
+
+    private static final Map<Byte, Class<? extends Record>> RECORDS = new ConcurrentHashMap<Byte, Class<? extends Record>>();
+
+    private static final Map<Class<? extends Record>, Byte> TAGS = new ConcurrentHashMap<Class<? extends Record>, Byte>();
+
+    // keys of any type, by their string form and then their class
+    private static final Comparator<Object> KEY_ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(Object a, Object b) {
+            int order = String.valueOf(a).compareTo(String.valueOf(b));
+            if (order == 0 && a != null && b != null) {
+                order = a.getClass().getName().compareTo(b.getClass().getName());
+            }
+            return order;
+        }
+    };
+
+    static {
+        register(RECORD, CacheContext.class);
+        register((byte) (RECORD + 2), PropertyModel.class);
+        register((byte) (RECORD + 3), IndexModel.class);
+        register((byte) (RECORD + 4), PropsModel.class);
+        register((byte) (RECORD + 5), MetaDataEntry.class);
+    }
+
+    /**
+     * Adds a record type, tags must be stable across every node reading the cache.
+     */
+    public static void register(byte tag, Class<? extends Record> type) {
+        if (tag < RECORD || tag == SESSION) {
+            throw new IllegalArgumentException("record tag " + tag + " is reserved");
+        }
+        RECORDS.put(tag, type);
+        TAGS.put(type, tag);
+    }
+
+    @Override
+    public int getFlag() {
+        return FLAG;
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        writeValue(BinaryOutputArchive.getArchive(bytes), value, "value");
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Like {@link #encode}, but the entries of every map, nested ones and those inside records
+     * included, are written in key order. Equal values give equal bytes whatever the order
+     * their maps were filled in, as a digest of them needs.
+     */
+    public byte[] encodeSorted(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        writeValue(new SortedOutputArchive(new DataOutputStream(bytes)), value, "value");
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] bytes) throws IOException {
+        return readValue(BinaryInputArchive.getArchive(new ByteArrayInputStream(bytes)), "value");
+    }
+
+    /**
+     * An archive {@link #readValue} refuses java serialized values from, nested ones included,
+     * for input such as a file on disk that must not get to deserialize arbitrary classes.
+     */
+    public static InputArchive recordsOnly(InputStream in) {
+        return new RecordsOnlyInputArchive(new DataInputStream(in));
+    }
+
+    /**
+     * Writes any supported value with its type tag, used by records for their object fields.
+     */
+    public static void writeValue(OutputArchive archive, Object value, String tag) throws IOException {
+        if (value == null) {
+            archive.writeByte(NULL, tag);
+        } else if (value instanceof String) {
+            archive.writeByte(STRING, tag);
+            archive.writeString((String) value, tag);
+        } else if (value instanceof Integer) {
+            archive.writeByte(INT, tag);
+            archive.writeInt((Integer) value, tag);
+        } else if (value instanceof Long) {
+            archive.writeByte(LONG, tag);
+            archive.writeLong((Long) value, tag);
+        } else if (value instanceof Boolean) {
+            archive.writeByte(BOOL, tag);
+            archive.writeBool((Boolean) value, tag);
+        } else if (value instanceof Double) {
+            archive.writeByte(DOUBLE, tag);
+            archive.writeDouble((Double) value, tag);
+        } else if (value instanceof byte[]) {
+            archive.writeByte(BYTES, tag);
+            archive.writeBuffer(checkLength((byte[]) value, tag), tag);
+        } else if (value instanceof HumbirdSession) {
+            archive.writeByte(SESSION, tag);
+            writeSession(archive, (HumbirdSession) value, tag);
+        } else if (value instanceof Record && TAGS.containsKey(value.getClass())) {
+            archive.writeByte(TAGS.get(value.getClass()), tag);
+            archive.writeRecord((Record) value, tag);
+        } else if (value instanceof Properties) {
+            archive.writeByte(PROPERTIES, tag);
+            writeEntries(archive, (Map) value, tag);
+        } else if (value instanceof Map) {
+            archive.writeByte(MAP, tag);
+            writeEntries(archive, (Map) value, tag);
+        } else if (value instanceof List) {
+            List list = (List) value;
+            archive.writeByte(LIST, tag);
+            archive.startVector(list, tag);
+            for (Object element : list) {
+                writeValue(archive, element, tag);
+            }
+            archive.endVector(list, tag);
+        } else if (value instanceof Serializable) {
+            archive.writeByte(SERIALIZED, tag);
+            archive.writeBuffer(checkLength(new JavaValueCodec().encode(value), tag), tag);
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    public static Object readValue(InputArchive archive, String tag) throws IOException {
+        byte type = archive.readByte(tag);
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return archive.readString(tag);
+            case INT:
+                return archive.readInt(tag);
+            case LONG:
+                return archive.readLong(tag);
+            case BOOL:
+                return archive.readBool(tag);
+            case DOUBLE:
+                return archive.readDouble(tag);
+            case BYTES:
+                return archive.readBuffer(tag);
+            case PROPERTIES:
+                return readEntries(archive, new Properties(), tag);
+            case MAP:
+                return readEntries(archive, new HashMap(), tag);
+            case LIST:
+                List list = new ArrayList();
+                Index index = archive.startVector(tag);
+                if (index != null) {
+                    for (; !index.done(); index.incr()) {
+                        list.add(readValue(archive, tag));
+                    }
+                }
+                archive.endVector(tag);
+                return list;
+            case SERIALIZED:
+                if (archive instanceof RecordsOnlyInputArchive) {
+                    throw new IOException("Java serialized " + tag + " refused, only records are read here");
+                }
+                return new JavaValueCodec().decode(archive.readBuffer(tag));
+            case SESSION:
+                return readSession(archive, tag);
+            default:
+                Class<? extends Record> recordType = RECORDS.get(type);
+                if (recordType == null) {
+                    throw new IOException("Unknown type tag " + type + " in cached value");
+                }
+                Record record;
+                try {
+                    record = recordType.newInstance();
+                } catch (Exception e) {
+                    throw new IOException("Could not create " + recordType.getName() + ", " + e.getMessage());
+                }
+                archive.readRecord(record, tag);
+                return record;
+        }
+    }
+
+    private static byte[] checkLength(byte[] buffer, String tag) throws IOException {
+        if (buffer.length > BinaryInputArchive.maxBuffer) {
+            throw new IOException(tag + " of " + buffer.length + " bytes is above jute.maxbuffer " + BinaryInputArchive.maxBuffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * The lifespan is written as set on the session, a session without its own keeps the one
+     * of its expiration. The creation time restarts when it is read, like a new session.
+     */
+    private static void writeSession(OutputArchive archive, HumbirdSession session, String tag) throws IOException {
+        archive.startRecord(null, tag);
+        archive.writeInt(session.getEXPIRATION(), "expiration");
+        writeValue(archive, session.getKey(), "key");
+        writeValue(archive, session.getValue(), "value");
+        archive.writeInt(session.getTimeToLive(), "timeToLive");
+        archive.writeInt(session.getTimeToIdle(), "timeToIdle");
+        archive.writeLong(session.getLastUpdateTime(), "lastUpdateTime");
+        archive.writeBool(session.isCacheDefaultLifespan(), "cacheDefaultLifespan");
+        archive.endRecord(null, tag);
+    }
+
+    private static HumbirdSession readSession(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        HumbirdSession session = new HumbirdSession(archive.readInt("expiration"));
+        session.setKey(readValue(archive, "key"));
+        session.setValue(readValue(archive, "value"));
+        int timeToLive = archive.readInt("timeToLive");
+        int timeToIdle = archive.readInt("timeToIdle");
+        session.setLastUpdateTime(archive.readLong("lastUpdateTime"));
+        if (!archive.readBool("cacheDefaultLifespan")) {
+            session.setTimeToLive(Math.max(timeToLive, 0));
+            session.setTimeToIdle(Math.max(timeToIdle, 0));
+        }
+        archive.endRecord(tag);
+        return session;
+    }
+
+    private static void writeEntries(OutputArchive archive, Map map, String tag) throws IOException {
+        if (archive instanceof SortedOutputArchive) {
+            Map sorted = new TreeMap(KEY_ORDER);
+            sorted.putAll(map);
+            map = sorted;
+        }
+        archive.writeInt(map.size(), tag);
+        Iterator<Map.Entry> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry entry = iterator.next();
+            writeValue(archive, entry.getKey(), tag);
+            writeValue(archive, entry.getValue(), tag);
+        }
+    }
+
+    private static Map readEntries(InputArchive archive, Map map, String tag) throws IOException {
+        int size = archive.readInt(tag);
+        for (int i = 0; i < size; i++) {
+            Object key = readValue(archive, tag);
+            map.put(key, readValue(archive, tag));
+        }
+        return map;
+    }
+
+    /**
+     * Marks the archive of {@link #encodeSorted}.
+     */
+    private static class SortedOutputArchive extends BinaryOutputArchive {
+
+        SortedOutputArchive(DataOutput out) {
+            super(out);
+        }
+    }
+
+    /**
+     * Marks the archive of {@link #recordsOnly}.
+     */
+    private static class RecordsOnlyInputArchive extends BinaryInputArchive {
+
+        RecordsOnlyInputArchive(DataInput in) {
+            super(in);
+        }
+    }
+}
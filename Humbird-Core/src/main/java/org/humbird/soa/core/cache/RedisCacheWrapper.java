@@ -0,0 +1,331 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.common.net.redis.RespClient;
+import org.humbird.soa.core.util.CacheUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Redis keeps the keys, so unlike memcached the key list, scans and size come from the server
+ * through SCAN and DBSIZE. Those cover the whole configured database, every key in it is taken
+ * for a key of this cache. A failed SCAN is thrown, a scan never ends early. Values go through the same {@link CodecTranscoder} as memcached
+ * values and are stored behind their four byte flags, so they are binary safe and readable by
+ * either codec.
+ * <p/>
+ * Multi key calls take one round trip: getAll is an MGET, removeAll a DEL of every key and
+ * putAll pipelines its SETs and waits for every reply. Keys are strings, a {@link CacheContext}
+ * value expires after its expiration seconds.
+ *
+ * Created by david on 15/5/10.
+ */
+public class RedisCacheWrapper<K, V>
+        implements Cache<K, V>, AsyncCache<K, V> {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(RedisCacheWrapper.class);
+
+    private final RespClient client;
+
+    private final CodecTranscoder transcoder;
+
+    // the client blocks, async calls wait here instead of on the caller
+    private final ExecutorService executor;
+
+    public RedisCacheWrapper(String path) throws Exception {
+        this(CacheUtil.newRedisClient(path), CacheUtil.newRedisTranscoder(path), CacheUtil.newRedisExecutor(path));
+    }
+
+    public RedisCacheWrapper(RespClient client, CodecTranscoder transcoder, ExecutorService executor) {
+        this.client = client;
+        this.transcoder = transcoder;
+        this.executor = executor;
+    }
+
+    @Override
+    public void addCache(String name, Object params) throws Exception {
+        //
+    }
+
+    @Override
+    public void switchCache(String name) {
+        //
+    }
+
+    @Override
+    public void delCache(String name) throws Exception {
+        //
+    }
+
+    @Override
+    public void clearCache() {
+        // stop
+    }
+
+    @Override
+    public void put(K paramK, V paramV) throws Exception {
+        if (paramK instanceof String && paramV != null) {
+            client.execute(set((String) paramK, paramV));
+        }
+    }
+
+    /**
+     * A single SET NX, the check and the write are one atomic call.
+     */
+    @Override
+    public void putOnlyOne(K paramK, V paramV) throws Exception {
+        if (paramK instanceof String && paramV != null) {
+            Object[] command = set((String) paramK, paramV);
+            Object[] onlyOne = Arrays.copyOf(command, command.length + 1);
+            onlyOne[command.length] = "NX";
+            client.execute(onlyOne);
+        }
+    }
+
+    @Override
+    public V get(K paramK) throws Exception {
+        if (paramK instanceof String) {
+            return decode(client.execute("GET", paramK));
+        }
+        return null;
+    }
+
+    @Override
+    public boolean remove(K paramK) throws Exception {
+        if (paramK instanceof String) {
+            Object removed = client.execute("DEL", paramK);
+            if (removed instanceof Long && (Long) removed > 0) {
+                LOGGER.debug("removed cache {}", paramK);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List getKeys() throws Exception {
+        // SCAN may return a key twice
+        Set<String> keys = new LinkedHashSet<String>();
+        CacheCursor<K> cursor = scan(null, CacheCursor.DEFAULT_BATCH);
+        try {
+            while (cursor.hasNext()) {
+                for (K key : cursor.next()) {
+                    keys.add((String) key);
+                }
+            }
+        } catch (IllegalStateException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : e;
+        }
+        return new ArrayList<String>(keys);
+    }
+
+    /**
+     * Matching is done by the server with its own glob syntax, a superset of {@link CacheCursor}'s.
+     */
+    @Override
+    public CacheCursor<K> scan(String pattern, int batchSize) {
+        return new CacheCursor<K>(new ScanIterator(pattern, batchSize > 0 ? batchSize : CacheCursor.DEFAULT_BATCH), null, batchSize);
+    }
+
+    @Override
+    public void removeAll() {
+        // stop
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws Exception {
+        List<Object> names = new ArrayList<Object>(keys.size() + 1);
+        names.add("MGET");
+        for (K key : keys) {
+            if (key instanceof String) {
+                names.add(key);
+            }
+        }
+        Map<K, V> values = new HashMap<K, V>();
+        if (names.size() == 1) {
+            return values;
+        }
+        List<Object> replies = (List<Object>) client.execute(names.toArray());
+        for (int i = 1; i < names.size(); i++) {
+            V value = decode(replies.get(i - 1));
+            if (value != null) {
+                values.put((K) names.get(i), value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Unlike memcached the sets are acknowledged, every entry is readable once this returns.
+     */
+    @Override
+    public void putAll(Map<K, V> map) throws Exception {
+        List<Object[]> commands = new ArrayList<Object[]>(map.size());
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            if (entry.getKey() instanceof String && entry.getValue() != null) {
+                commands.add(set((String) entry.getKey(), entry.getValue()));
+            }
+        }
+        client.pipeline(commands);
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws Exception {
+        List<Object> command = new ArrayList<Object>(keys.size() + 1);
+        command.add("DEL");
+        for (K key : keys) {
+            if (key instanceof String) {
+                command.add(key);
+            }
+        }
+        if (command.size() > 1) {
+            client.execute(command.toArray());
+        }
+    }
+
+    /**
+     * DBSIZE, the keys of the whole database and not just of this cache, a cache that must
+     * report its own size gets a database of its own.
+     */
+    @Override
+    public int size() throws Exception {
+        return (int) Math.min(Integer.MAX_VALUE, (Long) client.execute("DBSIZE"));
+    }
+
+    @Override
+    public CacheFuture<V> getAsync(final K paramK) {
+        return submit(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return get(paramK);
+            }
+        });
+    }
+
+    @Override
+    public CacheFuture<Boolean> putAsync(final K paramK, final V paramV) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                put(paramK, paramV);
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    @Override
+    public CacheFuture<Boolean> removeAsync(final K paramK) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return remove(paramK);
+            }
+        });
+    }
+
+    public RespClient getClient() {
+        return client;
+    }
+
+    private Object[] set(String key, Object value) {
+        byte[] bytes = encode(value);
+        int expiration = value instanceof CacheContext ? ((CacheContext) value).getEXPIRATION() : 0;
+        if (expiration > 0) {
+            return new Object[]{"SET", key, bytes, "EX", expiration};
+        }
+        return new Object[]{"SET", key, bytes};
+    }
+
+    private byte[] encode(Object value) {
+        return transcoder.encodeBytes(value);
+    }
+
+    private V decode(Object reply) {
+        return reply instanceof byte[] ? (V) transcoder.decodeBytes((byte[]) reply) : null;
+    }
+
+    private <T> CacheFuture<T> submit(final Callable<T> call) {
+        final CacheFuture<T> future = new CacheFuture<T>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    try {
+                        future.complete(call.call());
+                    } catch (Throwable t) {
+                        future.fail(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("redis async queue is full");
+            future.fail(e);
+        }
+        return future;
+    }
+
+    /**
+     * Keys of successive SCAN calls, a failed call is thrown wrapped in an
+     * {@link IllegalStateException} and the cursor stays where it was.
+     */
+    private class ScanIterator implements Iterator<String> {
+
+        private final String pattern;
+
+        private final int count;
+
+        private String cursor = "0";
+
+        private Iterator<Object> batch = Collections.emptyList().iterator();
+
+        private boolean started;
+
+        ScanIterator(String pattern, int count) {
+            this.pattern = pattern;
+            this.count = count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!batch.hasNext() && (!started || !"0".equals(cursor))) {
+                try {
+                    List<Object> reply = (List<Object>) client.execute(pattern == null
+                            ? new Object[]{"SCAN", cursor, "COUNT", count}
+                            : new Object[]{"SCAN", cursor, "MATCH", pattern, "COUNT", count});
+                    cursor = new String((byte[]) reply.get(0), "UTF-8");
+                    batch = ((List<Object>) reply.get(1)).iterator();
+                    started = true;
+                } catch (IOException e) {
+                    throw new IllegalStateException("redis scan failed at cursor " + cursor + ", " + e.getMessage(), e);
+                }
+            }
+            return batch.hasNext();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                return new String((byte[]) batch.next(), "UTF-8");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.core.HumbirdSession;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical timing wheel that expires the sessions of one {@link CacheContext}.
+ * <p/>
+ * Each level is an array of buckets (doubly linked lists) covering a power of two span of
+ * milliseconds, roughly 1 second, 1 minute, 1 hour, 1 day and 6 days. Scheduling and
+ * descheduling are O(1), and advancing the wheel only visits the buckets whose span has
+ * elapsed, so expiry never needs a scan of the whole cache.
+ * <p/>
+ * Writers do not touch the wheel directly, they enqueue their change and the wheel is
+ * maintained by whichever thread wins the {@link ReentrantLock#tryLock()}.
+ *
+ * Created by david on 15/4/12.
+ */
+public class TimerWheel<K> {
+
+    static final int[] BUCKETS = {64, 64, 32, 4, 1};
+
+    static final long[] SPANS = {
+            1L << 10,   // 1.02s
+            1L << 16,   // 1.09m
+            1L << 22,   // 1.17h
+            1L << 27,   // 1.55d
+            4L << 27,   // 6.21d
+            4L << 27    // 6.21d
+    };
+
+    static final long[] SHIFT = {
+            Long.numberOfTrailingZeros(SPANS[0]),
+            Long.numberOfTrailingZeros(SPANS[1]),
+            Long.numberOfTrailingZeros(SPANS[2]),
+            Long.numberOfTrailingZeros(SPANS[3]),
+            Long.numberOfTrailingZeros(SPANS[4])
+    };
+
+    private final CacheContext<K> context;
+
+    private final Node<K>[][] wheel;
+
+    private final Map<K, Node<K>> nodes = new HashMap<K, Node<K>>();
+
+    private final Queue<Node<K>> pending = new ConcurrentLinkedQueue<Node<K>>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long time;
+
+    public TimerWheel(CacheContext<K> context) {
+        this.context = context;
+        this.wheel = new Node[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Node[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++) {
+                wheel[i][j] = Node.sentinel();
+            }
+        }
+        this.time = System.currentTimeMillis();
+    }
+
+    /**
+     * Queues the session to expire at its expiration time, replacing any earlier timer of the key.
+     * <p/>
+     * Racing writers of a key may queue their timers in another order than they put their
+     * sessions, so the timer is compared against the key's session when it is applied and only
+     * the timer of the session the key still maps to becomes the key's deadline.
+     */
+    public void schedule(K key, HumbirdSession session) {
+        pending.offer(new Node<K>(key, session, session.getExpirationTime()));
+    }
+
+    /**
+     * Queues the removal of the key's timer, only if it still belongs to the given session.
+     */
+    public void deschedule(K key, HumbirdSession session) {
+        pending.offer(new Node<K>(key, session, Node.REMOVED));
+    }
+
+    /**
+     * Applies the queued changes and expires the due sessions. Does nothing when another
+     * thread is already maintaining the wheel.
+     *
+     * @return the number of expired sessions
+     */
+    public int maintain(long now) {
+        if (!lock.tryLock()) {
+            return 0;
+        }
+        try {
+            drain();
+            return advance(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            pending.clear();
+            nodes.clear();
+            for (Node<K>[] buckets : wheel) {
+                for (Node<K> sentinel : buckets) {
+                    sentinel.prev = sentinel;
+                    sentinel.next = sentinel;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    private void drain() {
+        Node<K> op;
+        while ((op = pending.poll()) != null) {
+            Node<K> current = nodes.get(op.key);
+            if (op.time == Node.REMOVED) {
+                if (current != null && current.session == op.session) {
+                    nodes.remove(op.key);
+                    unlink(current);
+                }
+                continue;
+            }
+            if (context.getMap().get(op.key) != op.session) {
+                // a later write replaced the session, its own timer owns the deadline
+                continue;
+            }
+            if (current != null) {
+                unlink(current);
+            }
+            if (op.time == Long.MAX_VALUE) {
+                nodes.remove(op.key);
+            } else {
+                nodes.put(op.key, op);
+                link(findBucket(op.time), op);
+            }
+        }
+    }
+
+    private int advance(long now) {
+        long previousTime = time;
+        time = now;
+        int expired = 0;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previousTime >>> SHIFT[i];
+            long currentTicks = now >>> SHIFT[i];
+            if (currentTicks - previousTicks <= 0L) {
+                break;
+            }
+            expired += expire(i, previousTicks, currentTicks);
+        }
+        return expired;
+    }
+
+    private int expire(int index, long previousTicks, long currentTicks) {
+        Node<K>[] buckets = wheel[index];
+        int mask = buckets.length - 1;
+        long steps = Math.min(1 + currentTicks - previousTicks, buckets.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + (int) steps;
+        int expired = 0;
+
+        for (int i = start; i < end; i++) {
+            Node<K> sentinel = buckets[i & mask];
+            Node<K> node = sentinel.next;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+
+            while (node != sentinel) {
+                Node<K> next = node.next;
+                node.prev = null;
+                node.next = null;
+
+                // idle sessions may have been read since they were scheduled
+                long expirationTime = node.session.getExpirationTime();
+                if (expirationTime > time) {
+                    node.time = expirationTime;
+                    link(findBucket(expirationTime), node);
+                } else {
+                    nodes.remove(node.key);
+                    if (context.expire(node.key, node.session)) {
+                        expired++;
+                    }
+                }
+                node = next;
+            }
+        }
+        return expired;
+    }
+
+    private Node<K> findBucket(long expirationTime) {
+        long duration = expirationTime - time;
+        int length = wheel.length - 1;
+        for (int i = 0; i < length; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = expirationTime >>> SHIFT[i];
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+
+    private static <K> void link(Node<K> sentinel, Node<K> node) {
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    private static <K> void unlink(Node<K> node) {
+        if (node.next != null) {
+            node.next.prev = node.prev;
+            node.prev.next = node.next;
+            node.prev = null;
+            node.next = null;
+        }
+    }
+
+    static final class Node<K> {
+
+        static final long REMOVED = Long.MIN_VALUE;
+
+        final K key;
+
+        final HumbirdSession session;
+
+        long time;
+
+        Node<K> prev;
+
+        Node<K> next;
+
+        Node(K key, HumbirdSession session, long time) {
+            this.key = key;
+            this.session = session;
+            this.time = time;
+        }
+
+        static <K> Node<K> sentinel() {
+            Node<K> sentinel = new Node<K>(null, null, 0L);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            return sentinel;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.humbird.soa.core.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Window TinyLFU bound, only touched under the {@link EvictionPolicy} lock.
+ * <p/>
+ * New keys enter a small LRU window. A key falling out of the window is admitted into the
+ * main area (a segmented LRU of probation and protected keys) only if the
+ * {@link FrequencySketch} says it is used more often than the probation victim it would
+ * replace, so a scan over cold keys cannot flush the hot set. Keys read again while on
+ * probation are promoted to the protected segment.
+ *
+ * Created by david on 15/4/14.
+ */
+public class TinyLfuPolicy<K, V> extends EvictionPolicy<K, V> {
+
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final FrequencySketch sketch;
+
+    private final int maximumWindow;
+
+    private final int maximumProtected;
+
+    // iteration order is from the least to the most recently used key
+    private final LinkedHashMap<K, V> window = new LinkedHashMap<K, V>();
+
+    private final LinkedHashMap<K, V> probation = new LinkedHashMap<K, V>();
+
+    private final LinkedHashMap<K, V> protect = new LinkedHashMap<K, V>();
+
+    private volatile long rejected;
+
+    public TinyLfuPolicy(int maximumSize, int windowPercent) {
+        super(maximumSize);
+        int percent = Math.min(Math.max(windowPercent, 1), 99);
+        this.maximumWindow = Math.max(1, maximumSize * percent / 100);
+        int maximumMain = maximumSize - maximumWindow;
+        this.maximumProtected = maximumMain * PROTECTED_PERCENT / 100;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    @Override
+    protected void onRead(K key) {
+        sketch.increment(key);
+        if (window.containsKey(key)) {
+            moveToTail(window, key);
+        } else if (probation.containsKey(key)) {
+            protect.put(key, probation.remove(key));
+            if (protect.size() > maximumProtected) {
+                Map.Entry<K, V> demoted = removeHead(protect);
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+        } else if (protect.containsKey(key)) {
+            moveToTail(protect, key);
+        }
+    }
+
+    @Override
+    protected void onWrite(K key, V value, Map<K, V> victims) {
+        LinkedHashMap<K, V> segment = segmentOf(key);
+        if (segment != null) {
+            // an overwrite counts once, like a read
+            segment.put(key, value);
+            onRead(key);
+            return;
+        }
+        sketch.increment(key);
+        window.put(key, value);
+        if (window.size() <= maximumWindow) {
+            return;
+        }
+
+        Map.Entry<K, V> candidate = removeHead(window);
+        if (probation.size() + protect.size() < maximumSize - maximumWindow) {
+            probation.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+
+        LinkedHashMap<K, V> main = probation.isEmpty() ? protect : probation;
+        if (main.isEmpty()) {
+            victims.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        K victim = main.keySet().iterator().next();
+        if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim)) {
+            victims.put(victim, main.remove(victim));
+            probation.put(candidate.getKey(), candidate.getValue());
+        } else {
+            rejected++;
+            victims.put(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    @Override
+    protected void onRemoval(K key) {
+        if (window.remove(key) == null && probation.remove(key) == null) {
+            protect.remove(key);
+        }
+    }
+
+    @Override
+    protected void onClear() {
+        window.clear();
+        probation.clear();
+        protect.clear();
+        sketch.clear();
+    }
+
+    /**
+     * Number of keys the admission filter refused to let into the main area.
+     */
+    public long getRejectedCount() {
+        return rejected;
+    }
+
+    private LinkedHashMap<K, V> segmentOf(K key) {
+        if (window.containsKey(key)) {
+            return window;
+        }
+        if (probation.containsKey(key)) {
+            return probation;
+        }
+        return protect.containsKey(key) ? protect : null;
+    }
+
+    private static <K, V> void moveToTail(LinkedHashMap<K, V> segment, K key) {
+        segment.put(key, segment.remove(key));
+    }
+
+    private static <K, V> Map.Entry<K, V> removeHead(LinkedHashMap<K, V> segment) {
+        Iterator<Map.Entry<K, V>> iterator = segment.entrySet().iterator();
+        Map.Entry<K, V> head = iterator.next();
+        iterator.remove();
+        return head;
+    }
+}
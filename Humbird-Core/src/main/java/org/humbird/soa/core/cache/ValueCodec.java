@@ -0,0 +1,20 @@
+package org.humbird.soa.core.cache;
+
+import java.io.IOException;
+
+/**
+ * Turns cache values into bytes for a remote cache and back.
+ *
+ * Created by david on 15/4/22.
+ */
+public interface ValueCodec {
+
+    /**
+     * Flag stored with the bytes so a reader knows which codec wrote them.
+     */
+    public int getFlag();
+
+    public byte[] encode(Object value) throws IOException;
+
+    public Object decode(byte[] bytes) throws IOException;
+}
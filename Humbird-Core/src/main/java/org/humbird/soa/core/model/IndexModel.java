@@ -1,5 +1,11 @@
 package org.humbird.soa.core.model;
 
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
+import org.humbird.soa.core.cache.RecordValueCodec;
+
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Map;
 import java.util.Properties;
@@ -7,7 +13,10 @@ import java.util.Properties;
 /**
  * Created by david on 15/3/20.
  */
-public class IndexModel implements Serializable {
+public class IndexModel implements Serializable, Record {
+
+    // the UID from before it implemented Record, older nodes read it nested in cached contexts
+    private static final long serialVersionUID = 4578812405414908152L;
 
     private String version;
 
@@ -43,4 +52,20 @@ public class IndexModel implements Serializable {
     public void setValues(Map values) {
         this.values = values;
     }
+
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(this, tag);
+        archive.writeString(version, "version");
+        RecordValueCodec.writeValue(archive, properties, "properties");
+        RecordValueCodec.writeValue(archive, values, "values");
+        archive.endRecord(this, tag);
+    }
+
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        version = archive.readString("version");
+        properties = (Properties) RecordValueCodec.readValue(archive, "properties");
+        values = (Map) RecordValueCodec.readValue(archive, "values");
+        archive.endRecord(tag);
+    }
 }
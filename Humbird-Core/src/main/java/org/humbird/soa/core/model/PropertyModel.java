@@ -1,14 +1,25 @@
 package org.humbird.soa.core.model;
 
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.io.OutputArchive;
+import org.humbird.soa.common.io.Record;
 import org.humbird.soa.common.model.common.PropsModel;
+import org.humbird.soa.core.cache.RecordValueCodec;
+import org.humbird.soa.core.exceptions.ServiceException;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 
 /**
  * Created by david on 15/3/20.
  */
-public class PropertyModel implements Serializable {
+public class PropertyModel implements Serializable, Record {
+
+    // the UID from before it implemented Record, older nodes read it nested in cached contexts
+    private static final long serialVersionUID = 727286541347470151L;
 
     private String folder;
 
@@ -22,7 +33,10 @@ public class PropertyModel implements Serializable {
 
     private Properties properties;
 
-    private PropsModel propsModel;
+    private volatile PropsModel propsModel;
+
+    // lazy loading, the file is read on the first getPropsModel
+    private transient volatile Callable<PropsModel> loader;
 
     public PropertyModel() {
     }
@@ -40,6 +54,11 @@ public class PropertyModel implements Serializable {
         this.encrpyt = encrpyt;
     }
 
+    public PropertyModel(String folder, String file, String key, Callable<PropsModel> loader, int encrpyt) {
+        this(folder, file, key, (PropsModel) null, encrpyt);
+        this.loader = loader;
+    }
+
     public String getFolder() {
         return folder;
     }
@@ -77,13 +96,32 @@ public class PropertyModel implements Serializable {
     }
 
     public PropsModel getPropsModel() {
+        if (loader != null) {
+            synchronized (this) {
+                if (loader != null) {
+                    try {
+                        propsModel = loader.call();
+                    } catch (ServiceException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new ServiceException(e);
+                    }
+                    loader = null;
+                }
+            }
+        }
         return propsModel;
     }
 
-    public void setPropsModel(PropsModel propsModel) {
+    public synchronized void setPropsModel(PropsModel propsModel) {
+        this.loader = null;
         this.propsModel = propsModel;
     }
 
+    public boolean isLoaded() {
+        return loader == null;
+    }
+
     public int getEncrpyt() {
         return encrpyt;
     }
@@ -91,4 +129,33 @@ public class PropertyModel implements Serializable {
     public void setEncrpyt(int encrpyt) {
         this.encrpyt = encrpyt;
     }
+
+    public void serialize(OutputArchive archive, String tag) throws IOException {
+        archive.startRecord(this, tag);
+        archive.writeString(folder, "folder");
+        archive.writeString(file, "file");
+        archive.writeString(key, "key");
+        archive.writeString(path, "path");
+        archive.writeInt(encrpyt, "encrpyt");
+        RecordValueCodec.writeValue(archive, properties, "properties");
+        RecordValueCodec.writeValue(archive, getPropsModel(), "propsModel");
+        archive.endRecord(this, tag);
+    }
+
+    public void deserialize(InputArchive archive, String tag) throws IOException {
+        archive.startRecord(tag);
+        folder = archive.readString("folder");
+        file = archive.readString("file");
+        key = archive.readString("key");
+        path = archive.readString("path");
+        encrpyt = archive.readInt("encrpyt");
+        properties = (Properties) RecordValueCodec.readValue(archive, "properties");
+        propsModel = (PropsModel) RecordValueCodec.readValue(archive, "propsModel");
+        archive.endRecord(tag);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getPropsModel();
+        out.defaultWriteObject();
+    }
 }
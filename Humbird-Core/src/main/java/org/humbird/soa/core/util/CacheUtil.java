@@ -4,14 +4,25 @@ import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import net.rubyeye.xmemcached.XMemcachedClient;
 import net.rubyeye.xmemcached.XMemcachedClientBuilder;
 import net.rubyeye.xmemcached.command.BinaryCommandFactory;
+import net.rubyeye.xmemcached.impl.KetamaMemcachedSessionLocator;
 import net.rubyeye.xmemcached.utils.AddrUtil;
-import org.humbird.soa.core.cache.CacheContext;
-import org.humbird.soa.core.cache.JAVACacheWrapper;
+import org.humbird.soa.cache.client.CacheClient;
+import org.humbird.soa.cache.client.StaticHostProvider;
+import org.humbird.soa.common.net.redis.RespClient;
+import org.humbird.soa.common.utils.IOHelper;
+import org.humbird.soa.core.cache.*;
 import org.springframework.web.context.WebApplicationContext;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by david on 15/4/4.
@@ -28,6 +39,26 @@ public class CacheUtil {
 
     public final static String JVM_EXPIRATION = "org.humbird.soa.cache.jvm.expiration";
 
+    public final static String JVM_IDLE = "org.humbird.soa.cache.jvm.idle";
+
+    public final static String JVM_POLICY = "org.humbird.soa.cache.jvm.policy";
+
+    public final static String JVM_MAXIMUM = "org.humbird.soa.cache.jvm.maximum";
+
+    public final static String JVM_WINDOW = "org.humbird.soa.cache.jvm.window";
+
+    public final static String OFFHEAP_CAPACITY = "org.humbird.soa.cache.offheap.capacity";
+
+    public final static String OFFHEAP_SLAB = "org.humbird.soa.cache.offheap.slab";
+
+    public final static String OFFHEAP_FILE = "org.humbird.soa.cache.offheap.file";
+
+    public final static String OFFHEAP_EXPIRATION = "org.humbird.soa.cache.offheap.expiration";
+
+    public final static String OFFHEAP_HOT_POLICY = "org.humbird.soa.cache.offheap.hot.policy";
+
+    public final static String OFFHEAP_HOT_MAXIMUM = "org.humbird.soa.cache.offheap.hot.maximum";
+
     public final static String MEMCACHED_SERVER = "org.humbird.soa.cache.memcached.server";
 
     public final static String MEMCACHED_POOL_SIZE = "org.humbird.soa.cache.memcached.poolsize";
@@ -38,6 +69,68 @@ public class CacheUtil {
 
     public final static String MEMCACHED_NAGLE = "org.humbird.soa.cache.memcached.nagle";
 
+    public final static String MEMCACHED_CODEC = "org.humbird.soa.cache.memcached.codec";
+
+    public final static String MEMCACHED_COMPRESSION_THRESHOLD = "org.humbird.soa.cache.memcached.compression.threshold";
+
+    public final static String MEMCACHED_LOCATOR = "org.humbird.soa.cache.memcached.locator";
+
+    public final static String MEMCACHED_WEIGHTS = "org.humbird.soa.cache.memcached.weights";
+
+    public final static String MEMCACHED_HOT_KEYS = "org.humbird.soa.cache.memcached.hot.keys";
+
+    public final static String MEMCACHED_HOT_REPLICAS = "org.humbird.soa.cache.memcached.hot.replicas";
+
+    public final static String MEMCACHED_HOT_WINDOW = "org.humbird.soa.cache.memcached.hot.window";
+
+    public final static String MEMCACHED_HOT_THRESHOLD = "org.humbird.soa.cache.memcached.hot.threshold";
+
+    public final static String MEMCACHED_HOT_EXPIRATION = "org.humbird.soa.cache.memcached.hot.expiration";
+
+    public final static String MEMCACHED_ASYNC_THREADS = "org.humbird.soa.cache.memcached.async.threads";
+
+    public final static String MEMCACHED_ASYNC_QUEUE = "org.humbird.soa.cache.memcached.async.queue";
+
+    public final static String REDIS_SERVER = "org.humbird.soa.cache.redis.server";
+
+    public final static String REDIS_POOL_SIZE = "org.humbird.soa.cache.redis.poolsize";
+
+    public final static String REDIS_OPERATION_TIMEOUT = "org.humbird.soa.cache.redis.operation.timeout";
+
+    public final static String REDIS_CONNECT_TIMEOUT = "org.humbird.soa.cache.redis.connect.timeout";
+
+    public final static String REDIS_PASSWORD = "org.humbird.soa.cache.redis.password";
+
+    public final static String REDIS_DATABASE = "org.humbird.soa.cache.redis.database";
+
+    public final static String REDIS_CODEC = "org.humbird.soa.cache.redis.codec";
+
+    public final static String REDIS_COMPRESSION_THRESHOLD = "org.humbird.soa.cache.redis.compression.threshold";
+
+    public final static String REDIS_ASYNC_THREADS = "org.humbird.soa.cache.redis.async.threads";
+
+    public final static String REDIS_ASYNC_QUEUE = "org.humbird.soa.cache.redis.async.queue";
+
+    public final static String QUORUM_SERVERS = "org.humbird.soa.cache.quorum.servers";
+
+    public final static String QUORUM_TIMEOUT = "org.humbird.soa.cache.quorum.timeout";
+
+    public final static String QUORUM_CODEC = "org.humbird.soa.cache.quorum.codec";
+
+    public final static String QUORUM_COMPRESSION_THRESHOLD = "org.humbird.soa.cache.quorum.compression.threshold";
+
+    public final static String QUORUM_ASYNC_THREADS = "org.humbird.soa.cache.quorum.async.threads";
+
+    public final static String QUORUM_ASYNC_QUEUE = "org.humbird.soa.cache.quorum.async.queue";
+
+    public final static String NEAR_EXPIRATION = "org.humbird.soa.cache.memcached.near.expiration";
+
+    public final static String NEAR_POLICY = "org.humbird.soa.cache.memcached.near.policy";
+
+    public final static String NEAR_MAXIMUM = "org.humbird.soa.cache.memcached.near.maximum";
+
+    public final static String NEAR_REFRESH_AHEAD = "org.humbird.soa.cache.memcached.near.refresh";
+
     /**
      * ################################################################################
      * ################################################################################
@@ -50,6 +143,10 @@ public class CacheUtil {
         String WEIGHT = "1024";
         String LEVEL = "32";
         String EXPIRATION = "0";
+        String IDLE = "0";
+        String POLICY = KeyUtil.POLICY_LRU;
+        String MAXIMUM = "0";
+        String WINDOW = "1";
 
         Map<String, CacheContext> cacheManager;
         Properties properties = new Properties();
@@ -59,6 +156,10 @@ public class CacheUtil {
             WEIGHT = properties.getProperty(CacheUtil.JVM_WEIGHT, WEIGHT);
             LEVEL = properties.getProperty(CacheUtil.JVM_LEVEL, LEVEL);
             EXPIRATION = properties.getProperty(CacheUtil.JVM_EXPIRATION, EXPIRATION);
+            IDLE = properties.getProperty(CacheUtil.JVM_IDLE, IDLE);
+            POLICY = properties.getProperty(CacheUtil.JVM_POLICY, POLICY);
+            MAXIMUM = properties.getProperty(CacheUtil.JVM_MAXIMUM, MAXIMUM);
+            WINDOW = properties.getProperty(CacheUtil.JVM_WINDOW, WINDOW);
         } catch (IOException e) {
             // ... warning
         }
@@ -67,11 +168,90 @@ public class CacheUtil {
                 .maximumWeightedCapacity(Long.parseLong(WEIGHT))
                 .concurrencyLevel(Integer.parseInt(LEVEL))
                 .build();
-        cacheManager.put(name, new CacheContext(Integer.parseInt(EXPIRATION)));
+        CacheContext cacheContext = new CacheContext(Integer.parseInt(EXPIRATION));
+        if (Integer.parseInt(IDLE) > 0) {
+            cacheContext.setTimeToIdle(Integer.parseInt(IDLE));
+        }
+        cacheContext.setEvictionPolicy(POLICY, Integer.parseInt(MAXIMUM), Integer.parseInt(WINDOW));
+        cacheManager.put(name, cacheContext);
 
         return cacheManager;
     }
 
+    /**
+     * @throws FileNotFoundException if the configuration is not on the classpath, a cap the
+     *                               operator did not set must not silently become the default
+     */
+    public static OffHeapConfig loadOffHeapConfig(String path) throws IOException {
+
+        OffHeapConfig config = new OffHeapConfig();
+        InputStream in = JAVACacheWrapper.class.getResourceAsStream(path);
+        if (in == null) {
+            throw new FileNotFoundException("Off heap cache configuration " + path + " is not on the classpath");
+        }
+        Properties properties = new Properties();
+        try {
+            properties.load(in);
+        } finally {
+            IOHelper.close(in);
+        }
+        config.capacity = Long.parseLong(properties.getProperty(CacheUtil.OFFHEAP_CAPACITY, String.valueOf(config.capacity)).trim());
+        config.slab = Integer.parseInt(properties.getProperty(CacheUtil.OFFHEAP_SLAB, String.valueOf(config.slab)).trim());
+        config.file = properties.getProperty(CacheUtil.OFFHEAP_FILE, config.file);
+        config.expiration = Integer.parseInt(properties.getProperty(CacheUtil.OFFHEAP_EXPIRATION, String.valueOf(config.expiration)).trim());
+        config.hotPolicy = properties.getProperty(CacheUtil.OFFHEAP_HOT_POLICY, config.hotPolicy);
+        config.hotMaximum = Integer.parseInt(properties.getProperty(CacheUtil.OFFHEAP_HOT_MAXIMUM, String.valueOf(config.hotMaximum)).trim());
+        return config;
+    }
+
+    public static OffHeapStore newOffHeapClient(OffHeapConfig config, String name) throws IOException {
+        File file = null;
+        if (config.file != null && config.file.trim().length() > 0) {
+            file = new File(config.file.trim() + "." + name);
+        }
+        return new OffHeapStore(config.capacity << 20, config.slab << 20, file);
+    }
+
+    public static CacheContext newNearClient(String path) {
+
+        String EXPIRATION = "300";
+        String POLICY = KeyUtil.POLICY_TINYLFU;
+        String MAXIMUM = "256";
+
+        Properties properties = new Properties();
+        try {
+            properties.load(JAVACacheWrapper.class.getResourceAsStream(path));
+            EXPIRATION = properties.getProperty(CacheUtil.NEAR_EXPIRATION, EXPIRATION);
+            POLICY = properties.getProperty(CacheUtil.NEAR_POLICY, POLICY);
+            MAXIMUM = properties.getProperty(CacheUtil.NEAR_MAXIMUM, MAXIMUM);
+        } catch (Exception e) {
+            // ... warning
+        }
+        CacheContext cacheContext = new CacheContext(Integer.parseInt(EXPIRATION));
+        cacheContext.setEvictionPolicy(POLICY, Integer.parseInt(MAXIMUM), 1);
+
+        return cacheContext;
+    }
+
+    /**
+     * Fraction of the near expiration after which a read reloads the entry in the background,
+     * 0 turns refresh ahead off.
+     */
+    public static float getNearRefreshAhead(String path) {
+
+        String REFRESH = "0";
+
+        Properties properties = new Properties();
+        try {
+            properties.load(JAVACacheWrapper.class.getResourceAsStream(path));
+            REFRESH = properties.getProperty(CacheUtil.NEAR_REFRESH_AHEAD, REFRESH);
+        } catch (Exception e) {
+            // ... warning
+        }
+        float refresh = Float.parseFloat(REFRESH.trim());
+        return refresh > 0 && refresh < 1 ? refresh : 0;
+    }
+
     public static XMemcachedClient newMemcachedClient(String path) throws Exception {
 
         String URI = "127.0.0.1:11211";
@@ -84,29 +264,255 @@ public class CacheUtil {
 
         int connectTimeOut = 2000;
 
+        // record values carry a flag older nodes cannot read, opt in once all are upgraded
+        String codec = KeyUtil.CODEC_JAVA;
+
+        int compressionThreshold = 16384;
+
+        // ketama moves other keys than array, every node has to switch at once
+        String locator = KeyUtil.LOCATOR_ARRAY;
+
+        String weights = null;
+
         Properties properties = new Properties();
         try {
             properties.load(JAVACacheWrapper.class.getResourceAsStream(path));
             URI = properties.getProperty(CacheUtil.MEMCACHED_SERVER, URI);
+            locator = properties.getProperty(CacheUtil.MEMCACHED_LOCATOR, locator);
+            weights = properties.getProperty(CacheUtil.MEMCACHED_WEIGHTS, weights);
             poolSize = Integer.parseInt(properties.getProperty(CacheUtil.MEMCACHED_POOL_SIZE, String.valueOf(poolSize)));
             operationTimeOut = Integer.parseInt(properties.getProperty(CacheUtil.MEMCACHED_OPERATION_TIMEOUT, String.valueOf(operationTimeOut)));
             nagle = Boolean.parseBoolean(properties.getProperty(CacheUtil.MEMCACHED_NAGLE, String.valueOf(nagle)));
             connectTimeOut = Integer.parseInt(properties.getProperty(CacheUtil.MEMCACHED_CONNECT_TIMEOUT, String.valueOf(connectTimeOut)));
+            codec = properties.getProperty(CacheUtil.MEMCACHED_CODEC, codec);
+            compressionThreshold = Integer.parseInt(properties.getProperty(CacheUtil.MEMCACHED_COMPRESSION_THRESHOLD, String.valueOf(compressionThreshold)));
         } catch (IOException e) {
             // ... warning
         }
 
-        XMemcachedClientBuilder builder = new XMemcachedClientBuilder(AddrUtil.getAddresses(URI));
+        List<InetSocketAddress> addresses = AddrUtil.getAddresses(URI);
+        XMemcachedClientBuilder builder = weights == null || weights.trim().length() == 0
+                ? new XMemcachedClientBuilder(addresses)
+                : new XMemcachedClientBuilder(addresses, parseWeights(weights, addresses.size()));
         builder.setCommandFactory(new BinaryCommandFactory());
+        if (KeyUtil.LOCATOR_KETAMA.equalsIgnoreCase(locator)) {
+            builder.setSessionLocator(new KetamaMemcachedSessionLocator());
+        }
         builder.setConnectTimeout(connectTimeOut);
         builder.setConnectionPoolSize(poolSize);
         XMemcachedClient client= (XMemcachedClient) builder.build();
         client.setOpTimeout(operationTimeOut);
         client.setFailureMode(nagle);
+        ValueCodec valueCodec = KeyUtil.CODEC_JAVA.equalsIgnoreCase(codec) ? new JavaValueCodec() : new RecordValueCodec();
+        client.setTranscoder(new CodecTranscoder(valueCodec, compressionThreshold));
 
         return client;
     }
 
+    /**
+     * One weight per server in the order of the server list, a server of weight 2 takes twice
+     * the keys of a server of weight 1.
+     */
+    static int[] parseWeights(String weights, int servers) {
+        String[] values = weights.trim().split("[\\s,]+");
+        if (values.length != servers) {
+            throw new IllegalArgumentException(values.length + " memcached weights for " + servers + " servers");
+        }
+        int[] parsed = new int[servers];
+        for (int i = 0; i < servers; i++) {
+            parsed[i] = Integer.parseInt(values[i]);
+            if (parsed[i] < 1) {
+                throw new IllegalArgumentException("memcached weight must be at least 1, not " + parsed[i]);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * @return null unless hot keys are replicated
+     */
+    public static HotKeyTracker newHotKeyTracker(String path) {
+
+        int keys = 0;
+
+        int replicas = 2;
+
+        int window = 10000;
+
+        int threshold = 100;
+
+        Properties properties = new Properties();
+        try {
+            properties.load(JAVACacheWrapper.class.getResourceAsStream(path));
+            keys = Integer.parseInt(properties.getProperty(CacheUtil.MEMCACHED_HOT_KEYS, String.valueOf(keys)));
+            replicas = Integer.parseInt(properties.getProperty(CacheUtil.MEMCACHED_HOT_REPLICAS, String.valueOf(replicas)));
+            window = Integer.parseInt(properties.getProperty(CacheUtil.MEMCACHED_HOT_WINDOW, String.valueOf(window)));
+            threshold = Integer.parseInt(properties.getProperty(CacheUtil.MEMCACHED_HOT_THRESHOLD, String.valueOf(threshold)));
+        } catch (Exception e) {
+            // ... warning
+        }
+
+        return keys > 0 && replicas > 0 ? new HotKeyTracker(keys, replicas, window, threshold) : null;
+    }
+
+    /**
+     * Seconds a replica of a hot key lives, bounds how long a replica missed by a write is read.
+     */
+    public static int getHotKeyExpiration(String path) {
+
+        String EXPIRATION = "10";
+
+        Properties properties = new Properties();
+        try {
+            properties.load(JAVACacheWrapper.class.getResourceAsStream(path));
+            EXPIRATION = properties.getProperty(CacheUtil.MEMCACHED_HOT_EXPIRATION, EXPIRATION);
+        } catch (Exception e) {
+            // ... warning
+        }
+        return Math.max(1, Integer.parseInt(EXPIRATION.trim()));
+    }
+
+    /**
+     * Threads running the memcached calls of the async cache api, a full queue fails the call
+     * instead of blocking the caller.
+     */
+    public static ExecutorService newMemcachedExecutor(String path) {
+        return newAsyncExecutor(path, CacheUtil.MEMCACHED_ASYNC_THREADS, CacheUtil.MEMCACHED_ASYNC_QUEUE, "humbird-memcached-");
+    }
+
+    public static RespClient newRedisClient(String path) {
+
+        String URI = "127.0.0.1:6379";
+
+        int poolSize = 8;
+
+        int operationTimeOut = 6000;
+
+        int connectTimeOut = 2000;
+
+        String password = null;
+
+        int database = 0;
+
+        Properties properties = new Properties();
+        try {
+            properties.load(JAVACacheWrapper.class.getResourceAsStream(path));
+            URI = properties.getProperty(CacheUtil.REDIS_SERVER, URI);
+            poolSize = Integer.parseInt(properties.getProperty(CacheUtil.REDIS_POOL_SIZE, String.valueOf(poolSize)));
+            operationTimeOut = Integer.parseInt(properties.getProperty(CacheUtil.REDIS_OPERATION_TIMEOUT, String.valueOf(operationTimeOut)));
+            connectTimeOut = Integer.parseInt(properties.getProperty(CacheUtil.REDIS_CONNECT_TIMEOUT, String.valueOf(connectTimeOut)));
+            password = properties.getProperty(CacheUtil.REDIS_PASSWORD, password);
+            database = Integer.parseInt(properties.getProperty(CacheUtil.REDIS_DATABASE, String.valueOf(database)));
+        } catch (Exception e) {
+            // ... warning
+        }
+
+        return RespClient.of(URI, poolSize, connectTimeOut, operationTimeOut, password, database);
+    }
+
+    /**
+     * Codec and compression of the redis values, the same as memcached values take.
+     */
+    public static CodecTranscoder newRedisTranscoder(String path) {
+
+        // record values carry a flag older nodes cannot read, opt in once all are upgraded
+        String codec = KeyUtil.CODEC_JAVA;
+
+        int compressionThreshold = 16384;
+
+        Properties properties = new Properties();
+        try {
+            properties.load(JAVACacheWrapper.class.getResourceAsStream(path));
+            codec = properties.getProperty(CacheUtil.REDIS_CODEC, codec);
+            compressionThreshold = Integer.parseInt(properties.getProperty(CacheUtil.REDIS_COMPRESSION_THRESHOLD, String.valueOf(compressionThreshold)));
+        } catch (Exception e) {
+            // ... warning
+        }
+
+        ValueCodec valueCodec = KeyUtil.CODEC_JAVA.equalsIgnoreCase(codec) ? new JavaValueCodec() : new RecordValueCodec();
+        return new CodecTranscoder(valueCodec, compressionThreshold, CacheMetrics.REDIS);
+    }
+
+    public static ExecutorService newRedisExecutor(String path) {
+        return newAsyncExecutor(path, CacheUtil.REDIS_ASYNC_THREADS, CacheUtil.REDIS_ASYNC_QUEUE, "humbird-redis-");
+    }
+
+    /**
+     * A client of the replicated humbird cache, connected to the first of its servers that
+     * answers. Observers listed first serve the reads without loading the voting servers.
+     */
+    public static CacheClient newQuorumClient(String path) {
+
+        String servers = "127.0.0.1:3181";
+
+        int timeout = 10000;
+
+        Properties properties = new Properties();
+        try {
+            properties.load(JAVACacheWrapper.class.getResourceAsStream(path));
+            servers = properties.getProperty(CacheUtil.QUORUM_SERVERS, servers);
+            timeout = Integer.parseInt(properties.getProperty(CacheUtil.QUORUM_TIMEOUT, String.valueOf(timeout)));
+        } catch (Exception e) {
+            // ... warning
+        }
+
+        return new CacheClient(StaticHostProvider.parse(servers), timeout);
+    }
+
+    public static CodecTranscoder newQuorumTranscoder(String path) {
+
+        String codec = KeyUtil.CODEC_JAVA;
+
+        int compressionThreshold = 16384;
+
+        Properties properties = new Properties();
+        try {
+            properties.load(JAVACacheWrapper.class.getResourceAsStream(path));
+            codec = properties.getProperty(CacheUtil.QUORUM_CODEC, codec);
+            compressionThreshold = Integer.parseInt(properties.getProperty(CacheUtil.QUORUM_COMPRESSION_THRESHOLD, String.valueOf(compressionThreshold)));
+        } catch (Exception e) {
+            // ... warning
+        }
+
+        ValueCodec valueCodec = KeyUtil.CODEC_JAVA.equalsIgnoreCase(codec) ? new JavaValueCodec() : new RecordValueCodec();
+        return new CodecTranscoder(valueCodec, compressionThreshold, CacheMetrics.QUORUM);
+    }
+
+    public static ExecutorService newQuorumExecutor(String path) {
+        return newAsyncExecutor(path, CacheUtil.QUORUM_ASYNC_THREADS, CacheUtil.QUORUM_ASYNC_QUEUE, "humbird-quorum-");
+    }
+
+    private static ExecutorService newAsyncExecutor(String path, String threadsKey, String queueKey, final String threadName) {
+
+        int threads = 8;
+
+        int queue = 1024;
+
+        Properties properties = new Properties();
+        try {
+            properties.load(JAVACacheWrapper.class.getResourceAsStream(path));
+            threads = Integer.parseInt(properties.getProperty(threadsKey, String.valueOf(threads)));
+            queue = Integer.parseInt(properties.getProperty(queueKey, String.valueOf(queue)));
+        } catch (Exception e) {
+            // ... warning
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queue), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
     public static WebApplicationContext getCtx() {
         return ctx;
     }
@@ -116,4 +522,46 @@ public class CacheUtil {
             ctx = context;
         }
     }
+
+    /**
+     * Settings of the off heap local cache, sizes are in megabytes and times in seconds.
+     */
+    public static class OffHeapConfig {
+
+        private long capacity = 256;
+
+        private int slab = 16;
+
+        private String file = null;
+
+        private int expiration = 0;
+
+        private String hotPolicy = KeyUtil.POLICY_TINYLFU;
+
+        private int hotMaximum = 1024;
+
+        public long getCapacity() {
+            return capacity;
+        }
+
+        public int getSlab() {
+            return slab;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public int getExpiration() {
+            return expiration;
+        }
+
+        public String getHotPolicy() {
+            return hotPolicy;
+        }
+
+        public int getHotMaximum() {
+            return hotMaximum;
+        }
+    }
 }
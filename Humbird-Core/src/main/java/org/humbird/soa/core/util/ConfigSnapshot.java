@@ -0,0 +1,124 @@
+package org.humbird.soa.core.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Immutable view of default.properties and mapping.properties with the system properties
+ * laid over them, as {@link HumbirdUtil#getProperty(String)} resolves them.
+ * <p/>
+ * Values are compiled once into plain maps, numbers and booleans are parsed up front, so
+ * reads take no lock and parse nothing. A reload compiles a new snapshot and swaps it in,
+ * readers keep whichever snapshot they already hold.
+ *
+ * Created by david on 15/4/26.
+ */
+public final class ConfigSnapshot {
+
+    private final Map<String, String> properties;
+
+    private final Map<String, String> mapping;
+
+    private final Map<String, Integer> ints;
+
+    private final Map<String, Long> longs;
+
+    private final Map<String, Boolean> booleans;
+
+    private ConfigSnapshot(Map<String, String> properties, Map<String, String> mapping) {
+        this.properties = Collections.unmodifiableMap(properties);
+        this.mapping = Collections.unmodifiableMap(mapping);
+        Map<String, Integer> ints = new HashMap<String, Integer>();
+        Map<String, Long> longs = new HashMap<String, Long>();
+        Map<String, Boolean> booleans = new HashMap<String, Boolean>();
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            String value = entry.getValue().trim();
+            try {
+                long l = Long.parseLong(value);
+                longs.put(entry.getKey(), l);
+                if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+                    ints.put(entry.getKey(), (int) l);
+                }
+            } catch (NumberFormatException e) {
+                // not a number
+            }
+            if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+                booleans.put(entry.getKey(), Boolean.valueOf(value));
+            }
+        }
+        this.ints = Collections.unmodifiableMap(ints);
+        this.longs = Collections.unmodifiableMap(longs);
+        this.booleans = Collections.unmodifiableMap(booleans);
+    }
+
+    /**
+     * System properties present now win over both files, like System.getProperty(key, default).
+     */
+    public static ConfigSnapshot compile(Properties defaults, Properties mappings) {
+        Properties system = System.getProperties();
+        return new ConfigSnapshot(overlay(defaults, system), overlay(mappings, system));
+    }
+
+    private static Map<String, String> overlay(Properties file, Properties system) {
+        Map<String, String> map = new HashMap<String, String>();
+        if (file != null) {
+            for (String key : file.stringPropertyNames()) {
+                map.put(key, file.getProperty(key));
+            }
+        }
+        for (String key : system.stringPropertyNames()) {
+            map.put(key, system.getProperty(key));
+        }
+        return map;
+    }
+
+    public String getProperty(String key) {
+        return properties.get(key);
+    }
+
+    public String getProperty(String key, String defaultValue) {
+        String value = properties.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public String getMappingProperty(String key) {
+        return mapping.get(key);
+    }
+
+    /**
+     * @return null if the key is absent
+     * @throws NumberFormatException if the value is not an int
+     */
+    public Integer getInteger(String key) {
+        Integer value = ints.get(key);
+        if (value == null && properties.containsKey(key)) {
+            throw new NumberFormatException("For input string: \"" + properties.get(key) + "\"");
+        }
+        return value;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        Integer value = ints.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public long getLong(String key, long defaultValue) {
+        Long value = longs.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        Boolean value = booleans.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    public Map<String, String> getMappingProperties() {
+        return mapping;
+    }
+}
@@ -0,0 +1,167 @@
+package org.humbird.soa.core.util;
+
+import org.humbird.soa.common.model.common.PropsModel;
+import org.humbird.soa.common.tools.TIO;
+import org.humbird.soa.core.exceptions.ServiceException;
+import org.humbird.soa.core.model.PropertyModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the custom folders listed in mapping.properties, one task per folder on a bounded
+ * pool. In lazy mode the models are created empty and each file is only read on the first
+ * {@link PropertyModel#getPropsModel()}.
+ * <p/>
+ * An encrypted file is written back to disk when it is read, as before. In lazy mode that
+ * happens on a background thread, the first request only parses the file.
+ *
+ * Created by david on 15/4/27.
+ */
+public class CustomFolderLoader {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CustomFolderLoader.class);
+
+    private final Properties mapping;
+
+    private final int encrpyt;
+
+    private final int threads;
+
+    private final boolean lazy;
+
+    private final String customFolder;
+
+    private final StartupReport report;
+
+    // one writer, rewrites of lazily loaded files never race each other
+    private static final ExecutorService REWRITER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "humbird-custom-rewrite");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public CustomFolderLoader(Properties mapping, String customFolder, int encrpyt, int threads, boolean lazy, StartupReport report) {
+        this.mapping = mapping;
+        this.customFolder = customFolder;
+        this.encrpyt = encrpyt;
+        this.threads = Math.max(1, threads);
+        this.lazy = lazy;
+        this.report = report;
+    }
+
+    /**
+     * @return folder to its models keyed by folder/file
+     */
+    public Map<String, Map<String, PropertyModel>> load() throws Exception {
+        Map<String, Map<String, PropertyModel>> properties = new HashMap<String, Map<String, PropertyModel>>();
+        List<String> keys = new ArrayList<String>(mapping.stringPropertyNames());
+        if (keys.isEmpty()) {
+            return properties;
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = new ThreadPoolExecutor(Math.min(threads, keys.size()), Math.min(threads, keys.size()),
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "humbird-custom-loader-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            Map<String, Future<Map<String, PropertyModel>>> futures = new LinkedHashMap<String, Future<Map<String, PropertyModel>>>();
+            for (final String key : keys) {
+                final String[] values = mapping.getProperty(key).split("\\#");
+                if (values.length > 1) {
+                    futures.put(values[0], executor.submit(new Callable<Map<String, PropertyModel>>() {
+                        @Override
+                        public Map<String, PropertyModel> call() throws Exception {
+                            return loadFolder(key, values);
+                        }
+                    }));
+                }
+            }
+            Iterator<Map.Entry<String, Future<Map<String, PropertyModel>>>> iterator = futures.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Future<Map<String, PropertyModel>>> entry = iterator.next();
+                try {
+                    properties.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    throw new Exception("Loading custom folder " + entry.getKey() + " failed, " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return properties;
+    }
+
+    private Map<String, PropertyModel> loadFolder(String key, String[] values) {
+        long start = System.nanoTime();
+        final String folder = values[0];
+        Map<String, PropertyModel> propertyModels = new HashMap<String, PropertyModel>();
+        for (int i = 1, size = values.length; i < size; i++) {
+            final String file = values[i];
+            String folder_file = folder + "/" + file;
+            PropertyModel propertyModel;
+            if (lazy) {
+                propertyModel = new PropertyModel(folder, file, key, new Callable<PropsModel>() {
+                    @Override
+                    public PropsModel call() {
+                        return loadFile(folder, file);
+                    }
+                }, encrpyt);
+            } else {
+                propertyModel = new PropertyModel(folder, file, key, loadFile(folder, file), encrpyt);
+            }
+            propertyModels.put(folder_file, propertyModel);
+        }
+        if (report != null) {
+            report.record(customFolder + "/" + folder, start);
+        }
+        return propertyModels;
+    }
+
+    private PropsModel loadFile(final String folder, final String file) throws ServiceException {
+        final PropsModel propsModel = CustomUtil.loadCustomPropsModel(file, folder, encrpyt);
+        //  if file be encrpyt
+        if (propsModel.isFlag()) {
+            if (lazy) {
+                REWRITER.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        rewrite(folder, file, propsModel);
+                    }
+                });
+            } else {
+                rewrite(folder, file, propsModel);
+            }
+        }
+        return propsModel;
+    }
+
+    private void rewrite(String folder, String file, PropsModel propsModel) {
+        URL url = CustomFolderLoader.class.getResource("/" + customFolder + "/" + folder + "/" + file);
+        BufferedWriter bufferedWriter = null;
+        try {
+            bufferedWriter = TIO.create(new File(url.getFile()), false);
+            HumbirdUtil.writeProperties(propsModel, bufferedWriter);
+        } catch (IOException e) {
+            LOGGER.warn("Could not write encrypted " + folder + "/" + file + ", " + e.getMessage());
+        } finally {
+            TIO.close(bufferedWriter);
+        }
+    }
+}
@@ -20,11 +20,13 @@ public class CustomUtil {
 
     private static String resolveFolder(String key)
     {
-        String keyProperty = HumbirdUtil.getProperty(key);
+        // one snapshot for both reads, a reload in between cannot mix them
+        ConfigSnapshot config = HumbirdUtil.getConfig();
+        String keyProperty = config.getProperty(key);
         if (keyProperty == null) {
             throw new ServiceException(ServiceError.APPLICATION_ERROR, key);
         }
-        return HumbirdUtil.getProperty("org.humbird.soa.custom.folder") + "/" + keyProperty + "/";
+        return config.getProperty(KeyUtil.DEFAULT_FOLDER) + "/" + keyProperty + "/";
     }
 
     public static String loadCustomFile(String filename, String key) throws ServiceException {
@@ -1,6 +1,7 @@
 package org.humbird.soa.core.util;
 
 import net.sf.ehcache.CacheManager;
+import org.humbird.soa.cache.data.CacheGenerations;
 import org.humbird.soa.common.model.common.PropsModel;
 import org.humbird.soa.common.tools.TIO;
 import org.humbird.soa.core.HumbirdSession;
@@ -9,6 +10,11 @@ import org.humbird.soa.core.code.Callback;
 import org.humbird.soa.core.exceptions.ServiceException;
 import org.humbird.soa.core.model.IndexModel;
 import org.humbird.soa.core.model.PropertyModel;
+import org.humbird.soa.ipc.go.HumbirdRPCEndpoint;
+import org.humbird.soa.ipc.go.RpcConfig;
+import org.humbird.soa.ipc.service.netty.server.CacheNotifyListener;
+import org.humbird.soa.ipc.service.netty.server.CacheServiceFactory;
+import org.humbird.soa.ipc.service.netty.server.CacheSwitchListener;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -23,6 +29,8 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by david on 15/3/19.
@@ -35,15 +43,32 @@ public class HumbirdUtil {
 
     private static Properties MAPPING_PROPERTIES = null;
 
+    // compiled from the two above, swapped whole on reload
+    private static volatile ConfigSnapshot CONFIG = null;
+
     private static final String CACHE_PATH = "/cache";
 
     private static final String HUMBIRD_CACHE = "humbird";
 
-    private static Cache<String, HumbirdSession> PERSISTANCE_CACHE = null;
+    // per-key accessors below are lock free, the wrappers are backed by concurrent maps
+    private static volatile Cache<String, HumbirdSession> PERSISTANCE_CACHE = null;
+
+    private static volatile Cache METADATA_CACHE = null;
+
+    private static volatile Cache SESSION_CACHE = null;
+
+    private static volatile MetaDataSync METADATA_SYNC = null;
 
-    private static Cache METADATA_CACHE = null;
+    // released on every CACHE_NOTIFY, wakes a slave waiting for the master
+    private static final Semaphore METADATA_NOTIFIED = new Semaphore(0);
 
-    private static Cache SESSION_CACHE = null;
+    // slave without an rpc endpoint, checks for a new metadata version now and then
+    private static volatile Thread METADATA_POLLER = null;
+
+    // custom and index sessions readers see, every member switches to the next ones together
+    private static final CacheGenerations<HumbirdSession> METADATA_GENERATIONS = new CacheGenerations<HumbirdSession>();
+
+    private static volatile CacheSwitchListener METADATA_SWITCH = null;
 
     private static final Locale LOCALE_DK = new Locale("da", "DK");
 
@@ -51,25 +76,58 @@ public class HumbirdUtil {
 
     private static boolean flag = true;
 
+    private static final StartupReport STARTUP_REPORT = new StartupReport();
+
+    // names of the CacheMetrics of each cache
+    public static final String LOCAL_METRICS = "local";
+
+    public static final String SESSION_METRICS = "session";
+
+    public static final String METADATA_METRICS = "metadata";
+
     // just only initial one
     public static void init() throws Exception {
         if (flag) {
+            long start = System.nanoTime();
             if (DEFAULT_PROPERTIES == null || MAPPING_PROPERTIES == null) {
                 initDefaultProperties();
             }
+            start = STARTUP_REPORT.record("properties", start);
 
             if (PERSISTANCE_CACHE == null) {
                 initLocalPersistCache();
             }
+            STARTUP_REPORT.record("local cache", start);
 
             initFirstCache();
 
             flag = false;
+            LOGGER.info(STARTUP_REPORT.toString());
         }
     }
 
+    /**
+     * Time spent in each phase of {@link #init()}, custom folders are listed on their own.
+     */
+    public static StartupReport getStartupReport() {
+        return STARTUP_REPORT;
+    }
+
     public static void destory() {
+        Thread poller = METADATA_POLLER;
+        if (poller != null) {
+            poller.interrupt();
+            METADATA_POLLER = null;
+        }
+        HumbirdRPCEndpoint.stop();
+        CacheSwitchListener listener = METADATA_SWITCH;
+        if (listener != null) {
+            CacheServiceFactory.removeCacheSwitchListener(listener);
+            METADATA_SWITCH = null;
+        }
         removeAllSessions();
+        // a redeployed application registers them again
+        CacheMetrics.closeAll();
 
         if (DEFAULT_PROPERTIES == null) {
             DEFAULT_PROPERTIES.clear();
@@ -80,7 +138,7 @@ public class HumbirdUtil {
         }
     }
 
-    private static void initLocalPersistCache() {
+    private static void initLocalPersistCache() throws Exception {
         //  default cache is JVM
         String localCacheName = DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_LOCAL_CACHE, KeyUtil.LOCAL_CACHE_EHCACHE);
         if (KeyUtil.LOCAL_CACHE_EHCACHE.equalsIgnoreCase(localCacheName)) {
@@ -93,31 +151,80 @@ public class HumbirdUtil {
             String cacheConfigURL = DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_LOCAL_CACHE_PATH, KeyUtil.DEFAULT_JVM_PATH);
             PERSISTANCE_CACHE = new JAVACacheWrapper(HUMBIRD_CACHE, CACHE_PATH + cacheConfigURL);
 
+        } else if (KeyUtil.LOCAL_CACHE_OFFHEAP.equalsIgnoreCase(localCacheName)) {
+            String cacheConfigURL = DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_LOCAL_OFFHEAP_PATH, KeyUtil.DEFAULT_OFFHEAP_PATH);
+            PERSISTANCE_CACHE = new OffHeapCacheWrapper(HUMBIRD_CACHE, CACHE_PATH + cacheConfigURL);
+
         } else {
             // warning ERROR
         }
+        if (PERSISTANCE_CACHE != null) {
+            PERSISTANCE_CACHE = metered(loading(PERSISTANCE_CACHE, KeyUtil.LOCAL_LOADER, LOCAL_METRICS), LOCAL_METRICS);
+        }
+    }
+
+    /**
+     * Wraps the cache in a {@link LoadingCacheWrapper} if a {@link CacheLoader} class is
+     * configured under the key.
+     */
+    private static Cache loading(Cache cache, String loaderKey, String metricsName) throws Exception {
+        String loaderClass = CONFIG.getProperty(loaderKey);
+        if (loaderClass == null || loaderClass.trim().length() == 0) {
+            return cache;
+        }
+        CacheLoader loader = (CacheLoader) Class.forName(loaderClass.trim()).newInstance();
+        if (CONFIG.getBoolean(KeyUtil.CACHE_METRICS, true)) {
+            loader = CacheMetrics.of(metricsName).meter(loader);
+        }
+        LOGGER.info("*** Loading misses of " + loaderKey + " through " + loaderClass);
+        return new LoadingCacheWrapper(cache, loader,
+                CONFIG.getLong(KeyUtil.LOADER_NEGATIVE_TTL, 30000), CONFIG.getInt(KeyUtil.LOADER_NEGATIVE_MAXIMUM, 10000));
+    }
+
+    /**
+     * Wraps the cache in a {@link MetricsCacheWrapper} recording under the name, unless
+     * metrics are turned off.
+     */
+    private static Cache metered(Cache cache, String name) {
+        if (cache == null || !CONFIG.getBoolean(KeyUtil.CACHE_METRICS, true)) {
+            return cache;
+        }
+        return new MetricsCacheWrapper(cache, name);
     }
 
-    public static void initLocalSessionCache(String name, String localCacheName, Object cacheManager) {
+    public static void initLocalSessionCache(String name, String localCacheName, Object cacheManager) throws Exception {
         if (KeyUtil.LOCAL_CACHE_EHCACHE.equalsIgnoreCase(localCacheName)) {
             SESSION_CACHE = new EHCacheWrapper(name, (CacheManager) cacheManager);
         } else if (KeyUtil.LOCAL_CACHE_JVM.equalsIgnoreCase(localCacheName)) {
             SESSION_CACHE = new JAVACacheWrapper(name, (String) cacheManager);
+        } else if (KeyUtil.LOCAL_CACHE_OFFHEAP.equalsIgnoreCase(localCacheName)) {
+            SESSION_CACHE = new OffHeapCacheWrapper(name, (String) cacheManager);
         } else {
             // warning ERROR
         }
+        SESSION_CACHE = metered(SESSION_CACHE, SESSION_METRICS);
     }
 
     private static void initDefaultProperties() {
         try {
-            DEFAULT_PROPERTIES = new Properties();
-            MAPPING_PROPERTIES = new Properties();
-            DEFAULT_PROPERTIES.load(HumbirdUtil.class.getResourceAsStream("/default.properties"));
-            MAPPING_PROPERTIES.load(HumbirdUtil.class.getResourceAsStream("/mapping.properties"));
+            Properties defaultProperties = new Properties();
+            Properties mappingProperties = new Properties();
+            defaultProperties.load(HumbirdUtil.class.getResourceAsStream("/default.properties"));
+            mappingProperties.load(HumbirdUtil.class.getResourceAsStream("/mapping.properties"));
+            DEFAULT_PROPERTIES = defaultProperties;
+            MAPPING_PROPERTIES = mappingProperties;
         } catch (IOException e) {
             LOGGER.error("Could not load  default default.properties from classpath, ", e);
         }
+        CONFIG = ConfigSnapshot.compile(DEFAULT_PROPERTIES, MAPPING_PROPERTIES);
+    }
 
+    /**
+     * Reads default.properties and mapping.properties again and swaps in a new snapshot,
+     * the system properties are taken as they are now.
+     */
+    public static void reloadProperties() {
+        initDefaultProperties();
     }
 
     public static void initLocalTestProperties() {
@@ -134,6 +241,7 @@ public class HumbirdUtil {
         String customFolder = DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_FOLDER, "custom") + "/";
         String absTestClasspath = getAbsoluteClasspath(clazz);
         DEFAULT_PROPERTIES.put(KeyUtil.DEFAULT_FOLDER_PATH, absTestClasspath + customFolder);
+        CONFIG = ConfigSnapshot.compile(DEFAULT_PROPERTIES, MAPPING_PROPERTIES);
     }
 
     private static void initFirstCache() throws Exception {
@@ -141,67 +249,127 @@ public class HumbirdUtil {
         // master or slave
         if (KeyUtil.MASTER.equalsIgnoreCase(DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_CLUSTER))) {
             // add local prop file, then insert into redis ? memcached ? or others cache system
-            if (KeyUtil.METADATA_CACHE_MEMCACHED.equalsIgnoreCase(metaDataName)) {
-                String cacheConfigURL = DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_METADATA_CACHE_PATH, KeyUtil.DEFAULT_MEMCACHED_PATH);
-                HumbirdSession indexSession = initIndex();
-                HumbirdSession customSession = initCustom();
+            if (remoteMetaDataCache(metaDataName)) {
+                String cacheConfigURL = metaDataCachePath(metaDataName);
+                long start = System.nanoTime();
+                final HumbirdSession indexSession;
+                final HumbirdSession customSession;
+                StartupSnapshot snapshot = startupSnapshot();
+                Map<String, Object> restored = snapshot == null ? null : snapshot.load();
+                if (restored != null) {
+                    String version = DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_VERSION);
+                    indexSession = new HumbirdSession(version, restored.get(KeyUtil.INDEX_KEY));
+                    customSession = new HumbirdSession(version, restoreCustom((Map<String, Map<String, PropertyModel>>) restored.get(KeyUtil.CUSTOM_KEY)));
+                    start = STARTUP_REPORT.record("startup snapshot", start);
+                } else {
+                    indexSession = initIndex();
+                    start = STARTUP_REPORT.record("index", start);
+                    customSession = initCustom();
+                    start = STARTUP_REPORT.record("custom", start);
+                    // a snapshot of lazily loaded folders would read every file
+                    if (snapshot != null && !CONFIG.getBoolean(KeyUtil.CUSTOM_LOAD_LAZY, false)) {
+                        saveStartupSnapshot(snapshot, customSession, indexSession);
+                    }
+                }
                 int expiration = Integer.parseInt(DEFAULT_PROPERTIES.getProperty(KeyUtil.METADATA_EXPIRATION, "0"));
 
                 try {
-                    METADATA_CACHE = new MEMCacheWrapper<String, CacheContext<String>>(CACHE_PATH + cacheConfigURL);
-                    CacheContext cacheContext = new CacheContext(expiration);
-                    cacheContext.getMap().put(KeyUtil.CUSTOM_KEY, customSession);
-                    cacheContext.getMap().put(KeyUtil.INDEX_KEY, indexSession);
-                    METADATA_CACHE.putOnlyOne(HUMBIRD_CACHE, cacheContext);
+                    Cache near = new NearCacheWrapper<String, CacheContext<String>>(
+                            loading(metaDataCache(metaDataName, CACHE_PATH + cacheConfigURL), KeyUtil.METADATA_LOADER, METADATA_METRICS),
+                            CACHE_PATH + cacheConfigURL);
+                    METADATA_SYNC = new MetaDataSync(near, HUMBIRD_CACHE, expiration);
+                    METADATA_CACHE = metered(near, METADATA_METRICS);
                 } catch (Exception e) {
                     throw new Exception("Loading metadata cache failed, " + e.getMessage());
                 }
+                // the generation each publish switches every member to is built from these
                 try {
                     setSession(KeyUtil.CUSTOM_KEY, customSession);
                     setSession(KeyUtil.INDEX_KEY, indexSession);
                 } catch (Exception e) {
                     //
                 }
-            } else if (KeyUtil.METADATA_CACHE_REDIS.equalsIgnoreCase(metaDataName)) {
-
+                addMetaDataSwitchListener(true);
+                // slaves connecting from now on are told the published version
+                startRpcEndpoint();
+                if (CONFIG.getBoolean(KeyUtil.CUSTOM_LOAD_LAZY, false)) {
+                    // folders are compared by their file fingerprints, only changed ones are read
+                    Thread publisher = new Thread("humbird-metadata-publish") {
+                        @Override
+                        public void run() {
+                            try {
+                                publishMetaData(customSession, indexSession);
+                            } catch (Exception e) {
+                                LOGGER.error("Publishing metadata failed, ", e);
+                            }
+                        }
+                    };
+                    publisher.setDaemon(true);
+                    publisher.start();
+                } else {
+                    try {
+                        publishMetaData(customSession, indexSession);
+                    } catch (Exception e) {
+                        throw new Exception("Loading metadata cache failed, " + e.getMessage());
+                    }
+                    STARTUP_REPORT.record("metadata publish", start);
+                }
             } else {
                 // warning ERROR
             }
         } else {
-            int count = 0;
-            boolean flag = false;
             // load local prop file, then insert into redis ? memcached ? or others cache system
-            if (KeyUtil.METADATA_CACHE_MEMCACHED.equalsIgnoreCase(metaDataName)) {
-                String cacheConfigURL = DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_METADATA_CACHE_PATH, KeyUtil.DEFAULT_MEMCACHED_PATH);
-                CacheContext cacheContext = null;
+            if (remoteMetaDataCache(metaDataName)) {
+                String cacheConfigURL = metaDataCachePath(metaDataName);
+                int expiration = Integer.parseInt(DEFAULT_PROPERTIES.getProperty(KeyUtil.METADATA_EXPIRATION, "0"));
+                final long deadline = Long.parseLong(DEFAULT_PROPERTIES.getProperty(KeyUtil.METADATA_BOOTSTRAP_DEADLINE, "25000"));
 
-                while (true) {
-                    try {
-                        METADATA_CACHE = new MEMCacheWrapper<String, CacheContext<String>>(CACHE_PATH + cacheConfigURL);
-                        cacheContext = (CacheContext) getMetaDataSession(HUMBIRD_CACHE);
-                    } catch (Exception e) {
-                        count++;
-                        for (int i = 0; i < 5; i++) {
-                            try {
-                                System.out.print(".. ");
-                                Thread.sleep(1000);
-                            } catch (InterruptedException e1) {
-                                // ignore
-                            }
-                        }
-                        System.out.println();
-                        if (count == 5) {    // waiting master 25s, if not, use local properties files
-                            throw new Exception("Loading metadata cache failed, " + e.getMessage());
+                try {
+                    Cache near = new NearCacheWrapper<String, CacheContext<String>>(
+                            loading(metaDataCache(metaDataName, CACHE_PATH + cacheConfigURL), KeyUtil.METADATA_LOADER, METADATA_METRICS),
+                            CACHE_PATH + cacheConfigURL);
+                    METADATA_SYNC = new MetaDataSync(near, HUMBIRD_CACHE, expiration);
+                    METADATA_CACHE = metered(near, METADATA_METRICS);
+                } catch (Exception e) {
+                    throw new Exception("Loading metadata cache failed, " + e.getMessage());
+                }
+
+                // metadata reads are local from now on, until the master publishes a change,
+                // the master also notifies every slave as soon as it connects
+                CacheServiceFactory.addCacheNotifyListener(new CacheNotifyListener() {
+                    @Override
+                    public void notified(int version, String message) {
+                        invalidateMetaDataSession(message);
+                        if (message == null) {
+                            syncMetaData();
                         }
-                        continue;
-                    }
-                    if (cacheContext != null) {
-                        break;
+                        METADATA_NOTIFIED.release();
                     }
+                });
+                addMetaDataSwitchListener(false);
+                final boolean notified = startRpcEndpoint();
+                if (!notified) {
+                    startMetaDataPoll();
                 }
 
-                Map<String, HumbirdSession> map = cacheContext.getMap();
-                HumbirdSession customSession = map.get(KeyUtil.CUSTOM_KEY);
+                File snapshot = metaDataSnapshot();
+                if (snapshot != null && METADATA_SYNC.load(snapshot)) {
+                    // serve the last known metadata, catch up with the master in the background
+                    Thread bootstrap = new Thread("humbird-metadata-bootstrap") {
+                        @Override
+                        public void run() {
+                            if (!awaitMetaData(deadline, notified)) {
+                                LOGGER.warn("Master not reachable in " + deadline + "ms, serving metadata snapshot version " + METADATA_SYNC.getVersion());
+                            }
+                        }
+                    };
+                    bootstrap.setDaemon(true);
+                    bootstrap.start();
+                } else if (!awaitMetaData(deadline, notified)) {
+                    throw new Exception("Loading metadata cache failed, no metadata published in " + deadline + "ms");
+                }
+
+                HumbirdSession customSession = customSession();
                 HumbirdSession indexSession = initIndex();
                 try {
                     setSession(KeyUtil.CUSTOM_KEY, customSession);
@@ -209,57 +377,363 @@ public class HumbirdUtil {
                 } catch (Exception e) {
                     //
                 }
-            } else if (KeyUtil.METADATA_CACHE_REDIS.equalsIgnoreCase(metaDataName)) {
-
             } else {
                 // warning ERROR
             }
         }
     }
 
-    private static HumbirdSession initCustom() {
+    /**
+     * Starts the rpc endpoint of this member, the master pushes CACHE_NOTIFY over it and a
+     * slave receives it.
+     *
+     * @return false if no rpc config is set, slaves are not notified then
+     */
+    private static boolean startRpcEndpoint() throws Exception {
+        String path = CONFIG.getProperty(KeyUtil.RPC_CONFIG);
+        if (path == null || path.trim().length() == 0) {
+            LOGGER.warn("No " + KeyUtil.RPC_CONFIG + " set, metadata changes are not pushed to slaves");
+            return false;
+        }
+        boolean master;
+        try {
+            master = HumbirdRPCEndpoint.start(path.trim());
+        } catch (RpcConfig.ConfigException e) {
+            throw new Exception("Starting rpc endpoint failed, " + e.getMessage());
+        }
+        if (master != KeyUtil.MASTER.equalsIgnoreCase(DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_CLUSTER))) {
+            LOGGER.warn(path + " and " + KeyUtil.DEFAULT_CLUSTER + " disagree on whether this member is the master");
+        }
+        return true;
+    }
+
+    /**
+     * Fallback of a slave without rpc endpoint, it checks the published metadata version
+     * every {@link KeyUtil#METADATA_POLL} ms. Other near cached metadata keys are only
+     * refreshed by their expiration then.
+     */
+    private static void startMetaDataPoll() {
+        final long interval = CONFIG.getLong(KeyUtil.METADATA_POLL, 30000);
+        if (interval <= 0) {
+            return;
+        }
+        Thread poller = new Thread("humbird-metadata-poll") {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        Thread.sleep(interval);
+                        syncMetaData();
+                    }
+                } catch (InterruptedException e) {
+                    // destroyed
+                }
+            }
+        };
+        poller.setDaemon(true);
+        poller.start();
+        METADATA_POLLER = poller;
+    }
+
+    private static boolean remoteMetaDataCache(String metaDataName) {
+        return KeyUtil.METADATA_CACHE_MEMCACHED.equalsIgnoreCase(metaDataName)
+                || KeyUtil.METADATA_CACHE_REDIS.equalsIgnoreCase(metaDataName)
+                || KeyUtil.METADATA_CACHE_QUORUM.equalsIgnoreCase(metaDataName);
+    }
+
+    private static String metaDataCachePath(String metaDataName) {
+        String path = KeyUtil.DEFAULT_MEMCACHED_PATH;
+        if (KeyUtil.METADATA_CACHE_REDIS.equalsIgnoreCase(metaDataName)) {
+            path = KeyUtil.DEFAULT_REDIS_PATH;
+        } else if (KeyUtil.METADATA_CACHE_QUORUM.equalsIgnoreCase(metaDataName)) {
+            path = KeyUtil.DEFAULT_QUORUM_PATH;
+        }
+        return DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_METADATA_CACHE_PATH, path);
+    }
+
+    // the remote cache behind the near cache, redis, memcached or the replicated humbird cache
+    private static Cache<String, CacheContext<String>> metaDataCache(String metaDataName, String path) throws Exception {
+        if (KeyUtil.METADATA_CACHE_REDIS.equalsIgnoreCase(metaDataName)) {
+            return new RedisCacheWrapper<String, CacheContext<String>>(path);
+        }
+        if (KeyUtil.METADATA_CACHE_QUORUM.equalsIgnoreCase(metaDataName)) {
+            // reads stay on the server listed first, an observer next to this portal
+            return new QuorumCacheWrapper<String, CacheContext<String>>(path);
+        }
+        MEMCacheWrapper<String, CacheContext<String>> cache = new MEMCacheWrapper<String, CacheContext<String>>(path);
+        // a replica could serve a manifest or entry older than the one just published
+        cache.excludeFromHotKeys(HUMBIRD_CACHE);
+        return cache;
+    }
+
+    // null when disabled or without a data directory, never a shared temporary directory
+    private static StartupSnapshot startupSnapshot() {
+        if (!CONFIG.getBoolean(KeyUtil.STARTUP_SNAPSHOT_ENABLED, true)) {
+            return null;
+        }
+        String path = CONFIG.getProperty(KeyUtil.STARTUP_SNAPSHOT);
+        File file = path != null ? new File(path) : dataFile("startup.snapshot");
+        if (file == null) {
+            LOGGER.info("No " + KeyUtil.DATA_DIR + " set, startup snapshot disabled");
+            return null;
+        }
+        return new StartupSnapshot(file, StartupSnapshot.sources(MAPPING_PROPERTIES,
+                DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_FOLDER, "custom")));
+    }
 
-        final Map<String, Map<String, PropertyModel>> properties = new HashMap();
+    // written in the background, folders holding encrypted properties are left out
+    private static void saveStartupSnapshot(final StartupSnapshot snapshot, HumbirdSession customSession, HumbirdSession indexSession) {
+        Map<String, Map<String, PropertyModel>> folders = new HashMap<String, Map<String, PropertyModel>>(
+                (Map<String, Map<String, PropertyModel>>) customSession.getValue());
+        Iterator<Map<String, PropertyModel>> iterator = folders.values().iterator();
+        while (iterator.hasNext()) {
+            if (encrypted(iterator.next())) {
+                iterator.remove();
+            }
+        }
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put(KeyUtil.CUSTOM_KEY, folders);
+        values.put(KeyUtil.INDEX_KEY, indexSession.getValue());
+        Thread writer = new Thread("humbird-startup-snapshot") {
+            @Override
+            public void run() {
+                try {
+                    snapshot.save(values);
+                } catch (Exception e) {
+                    LOGGER.warn("Could not save startup snapshot, " + e.getMessage());
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static boolean encrypted(Map<String, PropertyModel> folder) {
+        for (PropertyModel model : folder.values()) {
+            for (PropsModel.Prop prop : model.getPropsModel().getProps()) {
+                if (prop != null && prop.getKey().contains(PropsModel.ENCRPYT)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 
-        final int encrpyt = Integer.parseInt(DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_ENCRYPT, KeyUtil.ENCRPYT));
+    private static void publishMetaData(HumbirdSession customSession, HumbirdSession indexSession) throws Exception {
+        // only the folders that differ from what is already published are written
+        Map<String, String> sources = CONFIG.getBoolean(KeyUtil.CUSTOM_LOAD_LAZY, false)
+                ? metaDataSources(customSession) : Collections.<String, String>emptyMap();
+        int version = METADATA_SYNC.publish(metaDataEntries(customSession, indexSession), sources);
+        CacheServiceFactory.publish(version, null);
+        // readers of every member move to the published sessions together
+        CacheServiceFactory.startSwitch();
+    }
 
-        mapProperties(MAPPING_PROPERTIES, new Callback() {
+    /**
+     * Builds the metadata generation of a switch from the custom and index sessions of this
+     * member, a slave first pulls what the master published before starting the switch.
+     */
+    private static void addMetaDataSwitchListener(final boolean master) {
+        CacheSwitchListener listener = new CacheSwitchListener() {
             @Override
-            public Object any(Object key, Object val) {
-
-                String k = (String) key;
-                String value = (String) val;
-                String[] values = value.split("\\#");
-                if (values.length > 1) {
-                    String folder = values[0];
-                    Map<String, PropertyModel> propertyModels = new HashMap();
-                    for (int i = 1, size = values.length; i < size; i++) {
-                        String file = values[i];
-                        PropsModel propsModel = CustomUtil.loadCustomPropsModel(values[i], folder, encrpyt);
-                        PropertyModel propertyModel = new PropertyModel(folder, file, k, propsModel, encrpyt);
-                        String folder_file = folder + "/" + file;
-                        propertyModels.put(folder_file, propertyModel);
-                        //  if file be encrpyt
-                        if(propsModel.isFlag()) {
-                            URL url = HumbirdUtil.class.getResource("/" + DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_FOLDER, "custom") + "/" + folder_file);
-                            BufferedWriter bufferedWriter = null;
-                            try {
-                                bufferedWriter = TIO.create(new File(url.getFile()), false);
-                                writeProperties(propsModel, bufferedWriter);
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                                // ignore
-                            } finally {
-                                TIO.close(bufferedWriter);
-                            }
-                        }
+            public boolean prepare(int version) {
+                try {
+                    if (!master && !pullMetaData()) {
+                        return false;
                     }
-                    properties.put(folder, propertyModels);
+                    HumbirdSession customSession = PERSISTANCE_CACHE.get(KeyUtil.CUSTOM_KEY);
+                    HumbirdSession indexSession = PERSISTANCE_CACHE.get(KeyUtil.INDEX_KEY);
+                    if (customSession == null || indexSession == null) {
+                        return false;
+                    }
+                    Map<String, HumbirdSession> sessions = new HashMap<String, HumbirdSession>();
+                    sessions.put(KeyUtil.CUSTOM_KEY, customSession);
+                    sessions.put(KeyUtil.INDEX_KEY, indexSession);
+                    METADATA_GENERATIONS.prepare(version, sessions);
+                    return true;
+                } catch (Exception e) {
+                    LOGGER.error("Preparing metadata generation " + version + " failed, ", e);
+                    return false;
+                }
+            }
+
+            @Override
+            public void switchTo(int version) {
+                METADATA_GENERATIONS.switchTo(version);
+            }
+
+            @Override
+            public void abort(int version) {
+                METADATA_GENERATIONS.abort(version);
+            }
+        };
+        CacheServiceFactory.addCacheSwitchListener(listener);
+        METADATA_SWITCH = listener;
+    }
+
+    // fingerprints of the files behind each custom folder entry, in file order
+    private static Map<String, String> metaDataSources(HumbirdSession customSession) throws IOException {
+        String customFolder = "/" + DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_FOLDER, "custom");
+        Map<String, String> sources = new HashMap<String, String>();
+        Map<String, Map<String, PropertyModel>> folders = (Map<String, Map<String, PropertyModel>>) customSession.getValue();
+        Iterator<Map.Entry<String, Map<String, PropertyModel>>> iterator = folders.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Map<String, PropertyModel>> entry = iterator.next();
+            StringBuilder fingerprint = new StringBuilder();
+            for (String file : new TreeSet<String>(entry.getValue().keySet())) {
+                String source = customFolder + entry.getValue().get(file).getPath();
+                fingerprint.append(source).append('=').append(StartupSnapshot.fingerprint(source)).append('\n');
+            }
+            sources.put(KeyUtil.CUSTOM_KEY + "#" + entry.getKey(), fingerprint.toString());
+        }
+        return sources;
+    }
+
+    // one entry per custom folder, a changed file only republishes its own folder
+    private static Map<String, Object> metaDataEntries(HumbirdSession customSession, HumbirdSession indexSession) {
+        Map<String, Object> entries = new HashMap<String, Object>();
+        Map<String, Object> folders = (Map<String, Object>) customSession.getValue();
+        Iterator<Map.Entry<String, Object>> iterator = folders.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Object> entry = iterator.next();
+            entries.put(KeyUtil.CUSTOM_KEY + "#" + entry.getKey(), entry.getValue());
+        }
+        entries.put(KeyUtil.INDEX_KEY, indexSession.getValue());
+        return entries;
+    }
+
+    // custom session of the slave, rebuilt from the synchronized folder entries
+    private static HumbirdSession customSession() {
+        String prefix = KeyUtil.CUSTOM_KEY + "#";
+        Map<String, Object> properties = new HashMap<String, Object>();
+        Iterator<Map.Entry<String, Object>> iterator = METADATA_SYNC.getEntries().entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Object> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                properties.put(entry.getKey().substring(prefix.length()), entry.getValue());
+            }
+        }
+        return new HumbirdSession(String.valueOf(METADATA_SYNC.getVersion()), properties);
+    }
+
+    /**
+     * Slave side, fetches the metadata entries changed since the last synchronization and
+     * replaces the local custom session if any did.
+     */
+    public static void syncMetaData() {
+        if (METADATA_SYNC == null) {
+            return;
+        }
+        try {
+            pullMetaData();
+        } catch (Exception e) {
+            LOGGER.error("Synchronizing metadata failed, ", e);
+        }
+    }
+
+    // true once the published version was reached
+    private static boolean pullMetaData() throws Exception {
+        MetaDataSync sync = METADATA_SYNC;
+        if (sync.sync()) {
+            setSession(KeyUtil.CUSTOM_KEY, customSession());
+            File snapshot = metaDataSnapshot();
+            if (snapshot != null) {
+                try {
+                    sync.save(snapshot);
+                } catch (IOException e) {
+                    LOGGER.warn("Could not save metadata snapshot, " + e.getMessage());
                 }
-                return null;
             }
-        });
-        return new HumbirdSession(DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_VERSION), properties);
+        }
+        return sync.getLastSync() > 0;
+    }
+
+    /**
+     * Pulls the metadata until the published version was reached. With the rpc endpoint a
+     * pull follows each CACHE_NOTIFY, the master sends one as soon as the slave connected and
+     * on every publish. Without it the pulls are retried with exponential backoff.
+     */
+    private static boolean awaitMetaData(long deadline, boolean notified) {
+        long backoff = CONFIG.getLong(KeyUtil.METADATA_BOOTSTRAP_BACKOFF, 200);
+        long maxBackoff = CONFIG.getLong(KeyUtil.METADATA_BOOTSTRAP_BACKOFF_MAX, 5000);
+        long end = System.currentTimeMillis() + deadline;
+        while (true) {
+            try {
+                if (pullMetaData()) {
+                    return true;
+                }
+            } catch (Exception e) {
+                LOGGER.debug("Metadata not available yet, " + e.getMessage());
+            }
+            long left = end - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            try {
+                METADATA_NOTIFIED.tryAcquire(notified ? left : Math.min(backoff, left), TimeUnit.MILLISECONDS);
+                METADATA_NOTIFIED.drainPermits();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            backoff = Math.min(backoff * 2, maxBackoff);
+        }
+    }
+
+    // null without a data directory, the slave then waits for the master on every start
+    private static File metaDataSnapshot() {
+        String path = DEFAULT_PROPERTIES.getProperty(KeyUtil.METADATA_SNAPSHOT);
+        return path != null ? new File(path) : dataFile("metadata.snapshot");
+    }
+
+    /**
+     * A file in the directory of this instance under {@link KeyUtil#DATA_DIR}, instances
+     * sharing a data directory never read each other's files.
+     *
+     * @return null if no data directory is set
+     */
+    static File dataFile(String name) {
+        String dataDir = CONFIG.getProperty(KeyUtil.DATA_DIR);
+        if (dataDir == null || dataDir.trim().length() == 0) {
+            return null;
+        }
+        String instance = CONFIG.getProperty(KeyUtil.INSTANCE_NAME);
+        if ((instance == null || instance.trim().length() == 0) && HumbirdRPCEndpoint.isRunning()) {
+            instance = RpcConfig.local.getServerName();
+        }
+        File dir = instance == null || instance.trim().length() == 0 ? new File(dataDir.trim()) : new File(dataDir.trim(), instance.trim());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOGGER.warn("Could not create data directory " + dir);
+            return null;
+        }
+        return new File(dir, name);
+    }
+
+    // the snapshot has no folders holding encrypted properties, those are read from their files
+    private static Map<String, Map<String, PropertyModel>> restoreCustom(Map<String, Map<String, PropertyModel>> folders) throws Exception {
+        Properties missing = new Properties();
+        for (String key : MAPPING_PROPERTIES.stringPropertyNames()) {
+            String mapping = MAPPING_PROPERTIES.getProperty(key);
+            if (!folders.containsKey(mapping.split("\\#")[0])) {
+                missing.setProperty(key, mapping);
+            }
+        }
+        if (!missing.isEmpty()) {
+            folders.putAll(customFolderLoader(missing).load());
+        }
+        return folders;
+    }
+
+    private static HumbirdSession initCustom() throws Exception {
+        return new HumbirdSession(DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_VERSION), customFolderLoader(MAPPING_PROPERTIES).load());
+    }
+
+    private static CustomFolderLoader customFolderLoader(Properties mapping) {
+        int encrpyt = Integer.parseInt(DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_ENCRYPT, KeyUtil.ENCRPYT));
+        int threads = CONFIG.getInt(KeyUtil.CUSTOM_LOAD_THREADS, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        boolean lazy = CONFIG.getBoolean(KeyUtil.CUSTOM_LOAD_LAZY, false);
+        return new CustomFolderLoader(mapping,
+                DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_FOLDER, "custom"), encrpyt, threads, lazy, STARTUP_REPORT);
     }
 
     private static HumbirdSession initIndex() {
@@ -281,16 +755,22 @@ public class HumbirdUtil {
     }
 
     public static String getProperty(String key) {
-        return System.getProperty(key, DEFAULT_PROPERTIES.getProperty(key, null));
+        return CONFIG.getProperty(key);
     }
 
     public static String getMappingProperty(String key) {
-        return System.getProperty(key, MAPPING_PROPERTIES.getProperty(key, null));
+        return CONFIG.getMappingProperty(key);
     }
 
     public static Integer getPropertyAsInteger(String key) {
-        String property = getProperty(key);
-        return property != null ? Integer.valueOf(property) : null;
+        return CONFIG.getInteger(key);
+    }
+
+    /**
+     * Current configuration snapshot, hold on to it for several reads that must agree.
+     */
+    public static ConfigSnapshot getConfig() {
+        return CONFIG;
     }
 
     public static HumbirdSession createSessionObject(String key, String value)
@@ -298,62 +778,129 @@ public class HumbirdUtil {
         return new HumbirdSession(key, value);
     }
 
-    public static synchronized void setSession(String transactionId, HumbirdSession session) throws Exception {
+    public static void setSession(String transactionId, HumbirdSession session) throws Exception {
         PERSISTANCE_CACHE.put(transactionId, session);
         if (LOGGER.isDebugEnabled())
             LOGGER.debug("*** Set persistance session with data: " + session.toString());
     }
 
-    public static synchronized void setSessionCache(String transactionId, Object object) throws Exception {
+    public static void setSessionCache(String transactionId, Object object) throws Exception {
         SESSION_CACHE.put(transactionId, object);
         if (LOGGER.isDebugEnabled())
             LOGGER.debug("*** Set variable session with data: " + object.toString());
     }
 
-    public static synchronized void setMetaDataSessionCache(String transactionId, Object object) throws Exception {
+    public static void setMetaDataSessionCache(String transactionId, Object object) throws Exception {
         METADATA_CACHE.put(transactionId, object);
+        publishMetaDataSession(transactionId);
         if (LOGGER.isDebugEnabled())
             LOGGER.debug("*** Set metadata session with data: " + object.toString());
     }
 
-    public static synchronized HumbirdSession getSession(String transactionId) throws Exception {
+    /**
+     * Drops the near cached copy of a metadata key, or of all of them if the key is null.
+     */
+    public static void invalidateMetaDataSession(String transactionId) {
+        Cache cache = METADATA_CACHE;
+        if (cache instanceof MetricsCacheWrapper) {
+            cache = ((MetricsCacheWrapper) cache).getCache();
+        }
+        if (cache instanceof NearCacheWrapper) {
+            if (transactionId == null) {
+                ((NearCacheWrapper) cache).invalidateAll();
+            } else {
+                ((NearCacheWrapper) cache).invalidate(transactionId);
+            }
+        }
+    }
+
+    // the master tells the slaves to drop their near cached copy
+    private static void publishMetaDataSession(String transactionId) {
+        if (KeyUtil.MASTER.equalsIgnoreCase(DEFAULT_PROPERTIES.getProperty(KeyUtil.DEFAULT_CLUSTER))) {
+            int version = CacheServiceFactory.publish(transactionId);
+            LOGGER.debug("*** Published metadata version {} for {}", version, transactionId);
+        }
+    }
+
+    /**
+     * The custom and index sessions come from the metadata generation once a switch ran, so a
+     * reader never sees one of them reloaded and the other not.
+     */
+    public static HumbirdSession getSession(String transactionId) throws Exception {
+        if (METADATA_GENERATIONS.getVersion() >= 0
+                && (KeyUtil.CUSTOM_KEY.equals(transactionId) || KeyUtil.INDEX_KEY.equals(transactionId))) {
+            return METADATA_GENERATIONS.get(transactionId);
+        }
         return PERSISTANCE_CACHE.get(transactionId);
     }
 
-    public static synchronized Object getCacheSession(String transactionId) throws Exception {
+    public static Object getCacheSession(String transactionId) throws Exception {
         return SESSION_CACHE.get(transactionId);
     }
 
-    public static synchronized Object getMetaDataSession(String transactionId) throws Exception {
+    public static Object getMetaDataSession(String transactionId) throws Exception {
         return METADATA_CACHE.get(transactionId);
     }
 
-    public static synchronized List<HumbirdSession> getSessionList() throws Exception {
-        List keys = PERSISTANCE_CACHE.getKeys();
-        List result = new ArrayList();
-        for (Iterator iter = keys.iterator(); iter.hasNext(); ) {
-            String key = (String) iter.next();
-            result.add(PERSISTANCE_CACHE.get(key));
-        }
-        return result;
+    /**
+     * Starts the lookup without waiting, so several of them can run side by side.
+     */
+    public static CacheFuture getCacheSessionAsync(String transactionId) {
+        return getAsync(SESSION_CACHE, transactionId);
     }
 
-    public static synchronized List getCacheSessionList() throws Exception {
-        List keys = SESSION_CACHE.getKeys();
-        List result = new ArrayList();
-        for (Iterator iter = keys.iterator(); iter.hasNext(); ) {
-            String key = (String) iter.next();
-            result.add(SESSION_CACHE.get(key));
+    public static CacheFuture getMetaDataSessionAsync(String transactionId) {
+        return getAsync(METADATA_CACHE, transactionId);
+    }
+
+    private static CacheFuture getAsync(Cache cache, String transactionId) {
+        if (cache instanceof AsyncCache) {
+            return ((AsyncCache) cache).getAsync(transactionId);
         }
-        return result;
+        try {
+            return CacheFuture.completed(cache.get(transactionId));
+        } catch (Exception e) {
+            return CacheFuture.failed(e);
+        }
+    }
+
+    public static Map<String, HumbirdSession> getSessions(Collection<String> transactionIds) throws Exception {
+        return PERSISTANCE_CACHE.getAll(transactionIds);
+    }
+
+    public static Map getCacheSessions(Collection<String> transactionIds) throws Exception {
+        return SESSION_CACHE.getAll(transactionIds);
+    }
+
+    public static Map getMetaDataSessions(Collection<String> transactionIds) throws Exception {
+        return METADATA_CACHE.getAll(transactionIds);
+    }
+
+    public static List<HumbirdSession> getSessionList() throws Exception {
+        return sessionList(PERSISTANCE_CACHE);
+    }
+
+    public static List getCacheSessionList() throws Exception {
+        return sessionList(SESSION_CACHE);
+    }
+
+    public static List getMetaDataSessionList() throws Exception {
+        return sessionList(METADATA_CACHE);
     }
 
-    public static synchronized List getMetaDataSessionList() throws Exception {
-        List keys = METADATA_CACHE.getKeys();
+    // one bulk read per scanned batch instead of listing every key first
+    private static List sessionList(Cache cache) throws Exception {
         List result = new ArrayList();
-        for (Iterator iter = keys.iterator(); iter.hasNext(); ) {
-            String key = (String) iter.next();
-            result.add(METADATA_CACHE.get(key));
+        CacheCursor cursor = cache.scan(null, CacheCursor.DEFAULT_BATCH);
+        while (cursor.hasNext()) {
+            List keys = cursor.next();
+            Map values = cache.getAll(keys);
+            for (Iterator iter = keys.iterator(); iter.hasNext(); ) {
+                Object value = values.get(iter.next());
+                if (value != null) {
+                    result.add(value);
+                }
+            }
         }
         return result;
     }
@@ -374,47 +921,46 @@ public class HumbirdUtil {
         SESSION_CACHE.removeAll();
     }
 
-    public static synchronized void traceSessionCache() throws Exception {
-        Iterator i$ = PERSISTANCE_CACHE.getKeys().iterator();
-        while (i$.hasNext()) {
-            Object element = i$.next();
-            HumbirdSession session = PERSISTANCE_CACHE.get((String) element);
-            LOGGER.trace("key: " + element + " session: " + session);
-        }
+    public static void traceSessionCache() throws Exception {
+        traceCache(PERSISTANCE_CACHE);
     }
 
-    public static synchronized void traceCacheSessionCache() throws Exception {
-        Iterator i$;
-        if (LOGGER.isTraceEnabled())
-            for (i$ = SESSION_CACHE.getKeys().iterator(); i$.hasNext(); ) {
-                Object element = i$.next();
-                Object session = SESSION_CACHE.get(element);
-                LOGGER.trace("key: " + element + " session: " + session);
-            }
+    public static void traceCacheSessionCache() throws Exception {
+        traceCache(SESSION_CACHE);
     }
 
-    public static synchronized void traceMetaDataCacheSessionCache() throws Exception {
-        Iterator i$ = METADATA_CACHE.getKeys().iterator();
-        while (i$.hasNext()) {
-            Object element = i$.next();
-            Object session = METADATA_CACHE.get(element);
-            LOGGER.trace("key: " + element + " session: " + session);
-        }
+    public static void traceMetaDataCacheSessionCache() throws Exception {
+        traceCache(METADATA_CACHE);
     }
 
+    private static void traceCache(Cache cache) throws Exception {
+        if (!LOGGER.isTraceEnabled()) {
+            return;
+        }
+        CacheCursor cursor = cache.scan(null, CacheCursor.DEFAULT_BATCH);
+        while (cursor.hasNext()) {
+            Map values = cache.getAll(cursor.next());
+            Iterator<Map.Entry> iterator = values.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry entry = iterator.next();
+                LOGGER.trace("key: " + entry.getKey() + " session: " + entry.getValue());
+            }
+        }
+    }
 
-    public static synchronized void removeSession(String transactionId) throws Exception {
+    public static void removeSession(String transactionId) throws Exception {
         PERSISTANCE_CACHE.remove(transactionId);
         LOGGER.debug("*** Removed session with transactionId: " + transactionId);
     }
 
-    public static synchronized void removeCacheSession(String transactionId) throws Exception {
+    public static void removeCacheSession(String transactionId) throws Exception {
         SESSION_CACHE.remove(transactionId);
         LOGGER.debug("*** Removed session with transactionId: " + transactionId);
     }
 
-    public static synchronized void removeMetaDataCacheSession(String transactionId) throws Exception {
+    public static void removeMetaDataCacheSession(String transactionId) throws Exception {
         METADATA_CACHE.remove(transactionId);
+        publishMetaDataSession(transactionId);
         LOGGER.debug("*** Removed session with transactionId: " + transactionId);
     }
 
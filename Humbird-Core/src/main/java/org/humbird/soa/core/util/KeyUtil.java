@@ -28,30 +28,97 @@ public class KeyUtil {
 
     public final static String DEFAULT_LOCAL_CACHE_PATH = "org.humbird.soa.local.path";
 
+    // the off heap cache has its own settings, never the ones of the jvm cache
+    public final static String DEFAULT_LOCAL_OFFHEAP_PATH = "org.humbird.soa.local.offheap.path";
+
     public final static String METADATA_EXPIRATION = "org.humbird.soa.metadata.expiration";
 
+    // CacheLoader classes filling misses of the local and the metadata cache
+    public final static String LOCAL_LOADER = "org.humbird.soa.local.loader";
+
+    public final static String METADATA_LOADER = "org.humbird.soa.metadata.loader";
+
+    public final static String LOADER_NEGATIVE_TTL = "org.humbird.soa.loader.negative.ttl";
+
+    public final static String LOADER_NEGATIVE_MAXIMUM = "org.humbird.soa.loader.negative.maximum";
+
+    // hit, miss and latency metrics of the local, session and metadata caches, in jmx and the portal
+    public final static String CACHE_METRICS = "org.humbird.soa.metrics";
+
+    public final static String METADATA_BOOTSTRAP_DEADLINE = "org.humbird.soa.metadata.bootstrap.deadline";
+
+    public final static String METADATA_BOOTSTRAP_BACKOFF = "org.humbird.soa.metadata.bootstrap.backoff";
+
+    public final static String METADATA_BOOTSTRAP_BACKOFF_MAX = "org.humbird.soa.metadata.bootstrap.backoff.max";
+
+    public final static String METADATA_SNAPSHOT = "org.humbird.soa.metadata.snapshot";
+
+    // directory of the files kept across restarts, each instance has its own sub directory
+    public final static String DATA_DIR = "org.humbird.soa.data.dir";
+
+    // that sub directory, the rpc server name of this member if not set
+    public final static String INSTANCE_NAME = "org.humbird.soa.instance";
+
+    // without an rpc config slaves are not notified, they poll for a new metadata version instead
+    public final static String METADATA_POLL = "org.humbird.soa.metadata.poll";
+
+    // HumbirdRpc.cfg of this member, the master serves CACHE_NOTIFY, a slave connects to it
+    public final static String RPC_CONFIG = "org.humbird.soa.rpc.config";
+
     public final static String DEFAULT_ENCRYPT = "org.humbird.soa.encrypt";
 
+    public final static String CUSTOM_LOAD_THREADS = "org.humbird.soa.custom.load.threads";
+
+    public final static String CUSTOM_LOAD_LAZY = "org.humbird.soa.custom.load.lazy";
+
+    public final static String STARTUP_SNAPSHOT_ENABLED = "org.humbird.soa.startup.snapshot.enabled";
+
+    public final static String STARTUP_SNAPSHOT = "org.humbird.soa.startup.snapshot";
+
     //  cluster: master or slaves
     public final static String MASTER = "master";
 
     public final static String SLAVE = "slave";
 
-    //  metadata cache: redis, memcached
+    //  metadata cache: redis, memcached, quorum
     public final static String METADATA_CACHE_REDIS = "redis";
 
     public final static String METADATA_CACHE_MEMCACHED = "memcached";
 
-    //  local cache: ehcache, jvm
+    public final static String METADATA_CACHE_QUORUM = "quorum";
+
+    //  local cache: ehcache, jvm, offheap
     public final static String LOCAL_CACHE_EHCACHE = "ehcache";
 
     public final static String LOCAL_CACHE_JVM = "jvm";
 
+    public final static String LOCAL_CACHE_OFFHEAP = "offheap";
+
+    //  jvm cache eviction policy: lru, tinylfu
+    public final static String POLICY_LRU = "lru";
+
+    public final static String POLICY_TINYLFU = "tinylfu";
+
+    //  memcached session locator: ketama, array
+    public final static String LOCATOR_KETAMA = "ketama";
+
+    public final static String LOCATOR_ARRAY = "array";
+
+    public final static String CODEC_JAVA = "java";
+
+    public final static String CODEC_RECORD = "record";
+
     public static final String DEFAULT_EHCACHE_PATH = "/ehcache.xml";
 
     public static final String DEFAULT_JVM_PATH = "/jvm.properties";
 
+    public static final String DEFAULT_OFFHEAP_PATH = "/offheap.properties";
+
     public static final String DEFAULT_MEMCACHED_PATH = "/xmemcached.properties";
 
+    public static final String DEFAULT_REDIS_PATH = "/redis.properties";
+
+    public static final String DEFAULT_QUORUM_PATH = "/quorum.properties";
+
     public static final String ENCRPYT = "3";
 }
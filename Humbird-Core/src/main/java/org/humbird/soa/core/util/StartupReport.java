@@ -0,0 +1,46 @@
+package org.humbird.soa.core.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wall time of each startup phase, in the order they finished.
+ *
+ * Created by david on 15/4/27.
+ */
+public class StartupReport {
+
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+    /**
+     * @param start System.nanoTime() when the phase began
+     * @return now, the start of the next phase
+     */
+    public synchronized long record(String phase, long start) {
+        long now = System.nanoTime();
+        phases.put(phase, (now - start) / 1000000L);
+        return now;
+    }
+
+    /**
+     * Milliseconds per phase.
+     */
+    public synchronized Map<String, Long> getPhases() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(phases));
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("startup phases:");
+        long total = 0;
+        for (Map.Entry<String, Long> entry : phases.entrySet()) {
+            builder.append(String.format("%n  %-40s %8d ms", entry.getKey(), entry.getValue()));
+            if (entry.getKey().indexOf('/') < 0) {
+                total += entry.getValue();
+            }
+        }
+        builder.append(String.format("%n  %-40s %8d ms", "total", total));
+        return builder.toString();
+    }
+}
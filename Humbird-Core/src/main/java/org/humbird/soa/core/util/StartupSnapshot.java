@@ -0,0 +1,193 @@
+package org.humbird.soa.core.util;
+
+import org.humbird.soa.common.io.BinaryOutputArchive;
+import org.humbird.soa.common.io.InputArchive;
+import org.humbird.soa.common.utils.IOHelper;
+import org.humbird.soa.core.cache.RecordValueCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the custom and index metadata built at startup, so the next start
+ * can map one file instead of parsing and decrypting every custom folder.
+ * <p/>
+ * The snapshot records a fingerprint of each source, mtime and length for files on disk and
+ * a CRC32 for anything else such as jar entries. It is only used if every source still
+ * matches, otherwise it is rebuilt. The file is only readable by its owner and is read
+ * without java deserialization.
+ *
+ * Created by david on 15/4/28.
+ */
+public class StartupSnapshot {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(StartupSnapshot.class);
+
+    private final File file;
+
+    private final List<String> sources;
+
+    /**
+     * @param file    snapshot file
+     * @param sources classpath resources the metadata is built from
+     */
+    public StartupSnapshot(File file, List<String> sources) {
+        this.file = file;
+        this.sources = sources;
+    }
+
+    /**
+     * Classpath resources behind the metadata, the two property files and every custom file
+     * listed in mapping.properties.
+     */
+    public static List<String> sources(Properties mapping, String customFolder) {
+        List<String> sources = new ArrayList<String>();
+        sources.add("/default.properties");
+        sources.add("/mapping.properties");
+        for (String key : new TreeSet<String>(mapping.stringPropertyNames())) {
+            String[] values = mapping.getProperty(key).split("\\#");
+            for (int i = 1; i < values.length; i++) {
+                sources.add("/" + customFolder + "/" + values[0] + "/" + values[i]);
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * @return the saved values, or null if there is no snapshot or a source changed
+     */
+    public Map<String, Object> load() {
+        if (!file.isFile()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            // a file on disk, read without java deserialization
+            InputArchive archive = RecordValueCodec.recordsOnly(new ByteBufferInputStream(buffer));
+            // the fingerprint comes first, an outdated snapshot is not decoded any further
+            Map<String, String> saved = (Map<String, String>) RecordValueCodec.readValue(archive, "fingerprint");
+            if (!fingerprint().equals(saved)) {
+                LOGGER.info("startup snapshot " + file + " is out of date");
+                return null;
+            }
+            return (Map<String, Object>) RecordValueCodec.readValue(archive, "values");
+        } catch (Exception e) {
+            LOGGER.warn("Could not read startup snapshot " + file + ", " + e.getMessage());
+            return null;
+        } finally {
+            IOHelper.close(raf);
+        }
+    }
+
+    /**
+     * Writes the values with the current fingerprint of the sources, replaced atomically.
+     */
+    public void save(Map<String, Object> values) throws IOException {
+        // values first, the fingerprint must not predate anything encoding them touched
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        RecordValueCodec.writeValue(BinaryOutputArchive.getArchive(bytes), values, "values");
+        ByteArrayOutputStream fingerprint = new ByteArrayOutputStream(1024);
+        RecordValueCodec.writeValue(BinaryOutputArchive.getArchive(fingerprint), fingerprint(), "fingerprint");
+
+        File tmp = new File(file.getPath() + ".tmp");
+        if (!tmp.delete() && tmp.exists()) {
+            throw new IOException("Could not delete " + tmp);
+        }
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            ownerOnly(tmp);
+            fingerprint.writeTo(out);
+            bytes.writeTo(out);
+        } finally {
+            IOHelper.close(out);
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("Could not replace startup snapshot " + file);
+        }
+        LOGGER.info("saved startup snapshot of {} sources, {} bytes to {}", new Object[]{sources.size(), fingerprint.size() + bytes.size(), file});
+    }
+
+    // restricted before anything is written to it
+    private static void ownerOnly(File f) throws IOException {
+        if (!(f.setReadable(false, false) && f.setReadable(true, true)
+                && f.setWritable(false, false) && f.setWritable(true, true))) {
+            throw new IOException("Could not restrict " + f + " to its owner");
+        }
+    }
+
+    private Map<String, String> fingerprint() throws IOException {
+        Map<String, String> fingerprint = new HashMap<String, String>();
+        for (String source : sources) {
+            fingerprint.put(source, fingerprint(source));
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return mtime and length of a source on disk, a CRC32 of anything else
+     */
+    public static String fingerprint(String source) throws IOException {
+        URL url = StartupSnapshot.class.getResource(source);
+        if (url == null) {
+            return "missing";
+        } else if ("file".equals(url.getProtocol())) {
+            File f = new File(url.getFile());
+            return f.lastModified() + ":" + f.length();
+        }
+        return "crc:" + crc(url);
+    }
+
+    private static long crc(URL url) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = url.openStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        } finally {
+            IOHelper.close(in);
+        }
+        return crc.getValue();
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.humbird.soa.core.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by david on 15/4/14.
+ */
+public class FrequencySketchTest {
+
+    @Test
+    public void testCountsUpToFifteen() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        assertEquals(0, sketch.frequency("a"));
+        for (int i = 0; i < 3; i++) {
+            sketch.increment("a");
+        }
+        assertEquals(3, sketch.frequency("a"));
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("a");
+        }
+        assertEquals(15, sketch.frequency("a"));
+        sketch.clear();
+        assertEquals(0, sketch.frequency("a"));
+    }
+
+    @Test
+    public void testCountsAge() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("hot");
+        }
+        assertEquals(15, sketch.frequency("hot"));
+        // other keys until the sample is full and every counter is halved
+        int i = 0;
+        while (sketch.frequency("hot") == 15 && i < 10 * 64 * 2) {
+            sketch.increment("key-" + i++);
+        }
+        assertEquals(7, sketch.frequency("hot"));
+        assertTrue(i >= 10 * 64 - 15);
+    }
+}
@@ -0,0 +1,80 @@
+package org.humbird.soa.core.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by david on 15/5/12.
+ */
+public class HotKeyTrackerTest {
+
+    @Test
+    public void testKeysUnderTheThresholdStayCold() {
+        HotKeyTracker tracker = new HotKeyTracker(2, 2, 10, 3);
+        read(tracker, "a", 2);
+        read(tracker, "b", 2);
+        read(tracker, "c", 6);
+        assertTrue(tracker.isHot("c"));
+        assertFalse(tracker.isHot("a"));
+        assertFalse(tracker.isHot("b"));
+    }
+
+    @Test
+    public void testNoHotKeysBeforeTheWindowIsFull() {
+        HotKeyTracker tracker = new HotKeyTracker(2, 2, 10, 3);
+        read(tracker, "a", 9);
+        assertTrue(tracker.getHotKeys().isEmpty());
+        read(tracker, "a", 1);
+        assertTrue(tracker.isHot("a"));
+    }
+
+    @Test
+    public void testKeepsTheTopKeys() {
+        HotKeyTracker tracker = new HotKeyTracker(2, 2, 12, 3);
+        read(tracker, "a", 3);
+        read(tracker, "b", 5);
+        read(tracker, "c", 4);
+        assertEquals(new HashSet<String>(Arrays.asList("b", "c")), tracker.getHotKeys());
+    }
+
+    @Test
+    public void testHotKeysAreChosenAgainEveryWindow() {
+        HotKeyTracker tracker = new HotKeyTracker(2, 2, 10, 3);
+        read(tracker, "a", 10);
+        assertTrue(tracker.isHot("a"));
+        // counting starts over, a must be read again to stay hot
+        read(tracker, "a", 2);
+        read(tracker, "b", 8);
+        assertFalse(tracker.isHot("a"));
+        assertTrue(tracker.isHot("b"));
+    }
+
+    @Test
+    public void testAliases() {
+        HotKeyTracker tracker = new HotKeyTracker(2, 3, 10, 3);
+        assertEquals("a#hot2", tracker.alias("a", 2));
+        assertEquals(Arrays.asList("a#hot1", "a#hot2", "a#hot3"), tracker.aliases("a"));
+        assertEquals(3, tracker.getReplicas());
+    }
+
+    @Test
+    public void testPicksTheKeyAndEveryAlias() {
+        HotKeyTracker tracker = new HotKeyTracker(2, 3, 10, 3);
+        Set<String> picked = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            picked.add(tracker.pick("a"));
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("a", "a#hot1", "a#hot2", "a#hot3")), picked);
+    }
+
+    private static void read(HotKeyTracker tracker, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            tracker.record(key);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.humbird.soa.core.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link LoadingCacheWrapper} over a jvm cache, with a loader that knows the keys starting
+ * with "found".
+ *
+ * Created by david on 15/4/29.
+ */
+public class LoadingCacheWrapperTest {
+
+    private static final String PATH = "/cache/near-test.properties";
+
+    private JAVACacheWrapper<String, Object> cache;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final CacheLoader<String, Object> loader = new CacheLoader<String, Object>() {
+        @Override
+        public Object load(String key) {
+            loads.incrementAndGet();
+            return key.startsWith("found") ? key.toUpperCase() : null;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new JAVACacheWrapper<String, Object>("loading-test", PATH);
+        cache.addCache("loading-test", new CacheContext<String>());
+    }
+
+    @Test
+    public void testLoadedValuesAreMisses() throws Exception {
+        cache.put("found-a", "A");
+        CacheMetrics metrics = CacheMetrics.of("loading-test-metrics");
+        MetricsCacheWrapper<String, Object> metered = new MetricsCacheWrapper<String, Object>(
+                new LoadingCacheWrapper<String, Object>(cache, metrics.meter(loader), 0, 10), "loading-test-metrics");
+
+        assertEquals("FOUND-B", metered.get("found-b"));
+        assertEquals(0L, metrics.getHitCount());
+        assertEquals(1L, metrics.getMissCount());
+
+        assertEquals("FOUND-B", metered.get("found-b"));
+        assertEquals(1L, metrics.getHitCount());
+
+        Map<String, Object> values = metered.getAll(Arrays.asList("found-a", "found-c", "missing"));
+        assertEquals(2, values.size());
+        assertEquals(2L, metrics.getHitCount());
+        assertEquals(3L, metrics.getMissCount());
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        final int callers = 8;
+        final CountDownLatch release = new CountDownLatch(1);
+        CacheLoader<String, Object> blocking = new CacheLoader<String, Object>() {
+            @Override
+            public Object load(String key) throws Exception {
+                loads.incrementAndGet();
+                release.await();
+                return key.toUpperCase();
+            }
+        };
+        final LoadingCacheWrapper<String, Object> loading = new LoadingCacheWrapper<String, Object>(cache, blocking, 0, 10);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return loading.get("found-x");
+                    }
+                }));
+            }
+            // every other caller waits on the first one's load before it is let go
+            long end = System.currentTimeMillis() + 10000;
+            while (loading.getCoalescedCount() < callers - 1 && System.currentTimeMillis() < end) {
+                Thread.sleep(5);
+            }
+            assertEquals(callers - 1, loading.getCoalescedCount());
+            release.countDown();
+            for (Future<Object> result : results) {
+                assertEquals("FOUND-X", result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1L, loading.getLoadCount());
+        assertEquals("FOUND-X", cache.get("found-x"));
+    }
+
+    @Test
+    public void testFullNegativeCacheEvictsOneKey() throws Exception {
+        LoadingCacheWrapper<String, Object> loading = new LoadingCacheWrapper<String, Object>(cache, loader, 60000L, 4);
+        for (int i = 0; i < 5; i++) {
+            assertNull(loading.get("missing-" + i));
+            // keys remembered in the same ms tie on expiry
+            Thread.sleep(2);
+        }
+        assertEquals(5, loads.get());
+        for (int i = 1; i < 5; i++) {
+            assertNull(loading.get("missing-" + i));
+        }
+        assertEquals(5, loads.get());
+        assertEquals(4L, loading.getNegativeHitCount());
+        // only the oldest key made room for the fifth and is loaded again
+        assertNull(loading.get("missing-0"));
+        assertEquals(6, loads.get());
+    }
+}
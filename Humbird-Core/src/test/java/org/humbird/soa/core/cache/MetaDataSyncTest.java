@@ -0,0 +1,187 @@
+package org.humbird.soa.core.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * A master and a slave {@link MetaDataSync} sharing a jvm cache, which records the keys of
+ * every multi get.
+ *
+ * Created by david on 15/4/24.
+ */
+public class MetaDataSyncTest {
+
+    private static final String PATH = "/cache/near-test.properties";
+
+    private static final String NAME = "humbird";
+
+    private RecordingCache cache;
+
+    private MetaDataSync master;
+
+    private MetaDataSync slave;
+
+    private File snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new RecordingCache();
+        master = new MetaDataSync(cache, NAME, 0);
+        slave = new MetaDataSync(cache, NAME, 0);
+        snapshot = File.createTempFile("humbird-metadata", ".snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        snapshot.delete();
+    }
+
+    @Test
+    public void testPublishBumpsOnlyChangedEntries() throws Exception {
+        assertEquals(1, master.publish(entries("a", "1", "b", "2")));
+        assertEquals(1, versionOf("a"));
+        assertEquals(1, versionOf("b"));
+
+        assertEquals(2, master.publish(entries("a", "1", "b", "changed")));
+        assertEquals(1, versionOf("a"));
+        assertEquals(2, versionOf("b"));
+        assertEquals("changed", valueOf("b"));
+
+        // nothing different, no new version
+        assertEquals(2, master.publish(entries("a", "1", "b", "changed")));
+
+        assertEquals(3, master.publish(entries("a", "1")));
+        assertEquals(1, versionOf("a"));
+        assertNull(cache.get(NAME + "b"));
+    }
+
+    @Test
+    public void testSlaveFetchesOnlyDeltas() throws Exception {
+        master.publish(entries("a", "1", "b", "2", "c", "3"));
+        assertTrue(slave.sync());
+        assertEquals(set(NAME + "a", NAME + "b", NAME + "c"), cache.fetched());
+        assertEquals(1, slave.getVersion());
+
+        master.publish(entries("a", "1", "b", "changed", "c", "3"));
+        // a slave that skipped a version still only fetches what moved since its own
+        master.publish(entries("a", "1", "b", "changed", "c", "3", "d", "4"));
+        assertTrue(slave.sync());
+        assertEquals(set(NAME + "b", NAME + "d"), cache.fetched());
+        assertEquals(3, slave.getVersion());
+        assertEquals("changed", slave.getEntries().get("b"));
+        assertEquals("4", slave.getEntries().get("d"));
+
+        assertFalse(slave.sync());
+        assertTrue(cache.fetched().isEmpty());
+
+        master.publish(entries("a", "1"));
+        assertTrue(slave.sync());
+        assertTrue(cache.fetched().isEmpty());
+        assertEquals(Collections.singleton("a"), slave.getEntries().keySet());
+    }
+
+    @Test
+    public void testVersionGapFetchesEverything() throws Exception {
+        master.publish(entries("a", "1", "b", "2"));
+        master.publish(entries("a", "1", "b", "changed"));
+        assertTrue(slave.sync());
+        assertEquals(2, slave.getVersion());
+        cache.fetched();
+
+        // the remote cache was flushed and a new master publishes from scratch, its version is
+        // behind the slave and "a" is at version 1 again with another content
+        cache.removeAll();
+        MetaDataSync restarted = new MetaDataSync(cache, NAME, 0);
+        assertEquals(1, restarted.publish(entries("a", "new", "b", "changed")));
+        assertTrue(slave.sync());
+        assertEquals(set(NAME + "a", NAME + "b"), cache.fetched());
+        assertEquals("new", slave.getEntries().get("a"));
+        assertEquals(1, slave.getVersion());
+    }
+
+    @Test
+    public void testSnapshotRestoresTheVersions() throws Exception {
+        master.publish(entries("a", "1", "b", "2"));
+        slave.sync();
+        slave.save(snapshot);
+        master.publish(entries("a", "1", "b", "changed"));
+        cache.fetched();
+
+        MetaDataSync restarted = new MetaDataSync(cache, NAME, 0);
+        assertTrue(restarted.load(snapshot));
+        assertEquals(1, restarted.getVersion());
+        assertEquals("2", restarted.getEntries().get("b"));
+        assertTrue(restarted.sync());
+        assertEquals(set(NAME + "b"), cache.fetched());
+    }
+
+    @Test
+    public void testSnapshotWithJavaSerializedValueIsRefused() throws Exception {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("version", 1);
+        values.put("versions", Collections.singletonMap("a", 1));
+        values.put("entries", Collections.singletonMap("a", new Date()));
+        OutputStream out = new FileOutputStream(snapshot);
+        try {
+            out.write(new RecordValueCodec().encode(values));
+        } finally {
+            out.close();
+        }
+        assertFalse(slave.load(snapshot));
+        assertEquals(-1, slave.getVersion());
+        assertTrue(slave.getEntries().isEmpty());
+    }
+
+    private int versionOf(String key) {
+        CacheContext<String> manifest = (CacheContext<String>) cache.get(NAME);
+        return ((MetaDataEntry) manifest.getMap().get(key).getValue()).getVersion();
+    }
+
+    private Object valueOf(String key) {
+        CacheContext<String> wrapper = (CacheContext<String>) cache.get(NAME + key);
+        return wrapper.getMap().get(key).getValue();
+    }
+
+    private static Map<String, Object> entries(String... keyValues) {
+        Map<String, Object> entries = new HashMap<String, Object>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            entries.put(keyValues[i], keyValues[i + 1]);
+        }
+        return entries;
+    }
+
+    private static Set<String> set(String... keys) {
+        return new HashSet<String>(Arrays.asList(keys));
+    }
+
+    private static class RecordingCache extends JAVACacheWrapper<String, Object> {
+
+        private final Set<String> fetched = new HashSet<String>();
+
+        RecordingCache() {
+            super("metadata-test", PATH);
+            addCache("metadata-test", new CacheContext<String>());
+        }
+
+        @Override
+        public Map<String, Object> getAll(Collection<String> keys) {
+            fetched.addAll(keys);
+            return super.getAll(keys);
+        }
+
+        // the keys multi got since the last call
+        Set<String> fetched() {
+            Set<String> keys = new HashSet<String>(fetched);
+            fetched.clear();
+            return keys;
+        }
+    }
+}
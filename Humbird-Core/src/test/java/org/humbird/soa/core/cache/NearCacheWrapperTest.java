@@ -0,0 +1,243 @@
+package org.humbird.soa.core.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link NearCacheWrapper} over a jvm cache, invalidations are run while a remote read is
+ * in flight.
+ *
+ * Created by david on 15/4/18.
+ */
+public class NearCacheWrapperTest {
+
+    private static final String PATH = "/cache/near-test.properties";
+
+    // entries live four seconds and are reloaded once a second old
+    private static final String REFRESH_PATH = "/cache/near-refresh-test.properties";
+
+    private RacingCache remote;
+
+    private NearCacheWrapper<String, Object> near;
+
+    @Before
+    public void setUp() throws Exception {
+        remote = new RacingCache(PATH);
+        remote.put("a", "1");
+        remote.put("b", "2");
+        near = new NearCacheWrapper<String, Object>(remote, PATH);
+    }
+
+    @Test
+    public void testHitIsServedLocally() throws Exception {
+        assertEquals("1", near.get("a"));
+        remote.put("a", "changed");
+        assertEquals("1", near.get("a"));
+        near.invalidate("a");
+        assertEquals("changed", near.get("a"));
+    }
+
+    @Test
+    public void testInvalidationOfTheKeyDropsTheFill() throws Exception {
+        remote.during = new Runnable() {
+            @Override
+            public void run() {
+                near.invalidate("a");
+            }
+        };
+        assertEquals("1", near.get("a"));
+        assertEquals(0, near.getLocalSize());
+    }
+
+    @Test
+    public void testInvalidationOfAnotherKeyKeepsTheFill() throws Exception {
+        remote.during = new Runnable() {
+            @Override
+            public void run() {
+                near.invalidate(otherStripe("a"));
+            }
+        };
+        assertEquals("1", near.get("a"));
+        assertEquals(1, near.getLocalSize());
+    }
+
+    @Test
+    public void testGetAllKeepsOnlyKeysNotInvalidated() throws Exception {
+        assertTrue(stripeOf("a") != stripeOf("b"));
+        remote.during = new Runnable() {
+            @Override
+            public void run() {
+                near.invalidate("b");
+            }
+        };
+        Map<String, Object> values = near.getAll(Arrays.asList("a", "b"));
+        assertEquals("1", values.get("a"));
+        assertEquals("2", values.get("b"));
+        assertEquals(1, near.getLocalSize());
+
+        remote.during = null;
+        remote.put("b", "changed");
+        assertEquals("changed", near.get("b"));
+    }
+
+    @Test
+    public void testInvalidateAllDropsEveryFill() throws Exception {
+        remote.during = new Runnable() {
+            @Override
+            public void run() {
+                near.invalidateAll();
+            }
+        };
+        near.getAll(Arrays.asList("a", "b"));
+        assertEquals(0, near.getLocalSize());
+    }
+
+    @Test
+    public void testRefreshAheadReloadsOnceAndServesTheOldValue() throws Exception {
+        near = new NearCacheWrapper<String, Object>(remote, REFRESH_PATH);
+        assertEquals("1", near.get("a"));
+        remote.put("a", "changed");
+        Thread.sleep(1100);
+
+        final AtomicInteger reloads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        remote.reads.put("a", new Runnable() {
+            @Override
+            public void run() {
+                reloads.incrementAndGet();
+                await(release);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            assertEquals("1", near.get("a"));
+        }
+        waitFor(reloads, 1);
+        assertEquals("1", near.get("a"));
+        assertEquals(1, reloads.get());
+
+        release.countDown();
+        while (near.getRefreshCount() == 0) {
+            Thread.sleep(10);
+        }
+        assertEquals("changed", near.get("a"));
+        assertEquals(1, reloads.get());
+    }
+
+    @Test
+    public void testRefreshRacingInvalidationIsDropped() throws Exception {
+        assertTrue(stripeOf("a") != stripeOf("b"));
+        near = new NearCacheWrapper<String, Object>(remote, REFRESH_PATH);
+        assertEquals("1", near.get("a"));
+        assertEquals("2", near.get("b"));
+        remote.put("a", "changed");
+        Thread.sleep(1100);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        remote.reads.put("a", new Runnable() {
+            @Override
+            public void run() {
+                near.invalidate("a");
+            }
+        });
+        remote.reads.put("b", new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertEquals("1", near.get("a"));
+        // one refresher thread, the reload of a is over once b is read
+        assertEquals("2", near.get("b"));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        while (near.getRefreshCount() == 0) {
+            Thread.sleep(10);
+        }
+
+        remote.reads.clear();
+        assertEquals(1, near.getRefreshCount());
+        assertEquals(1, near.getLocalSize());
+        remote.put("a", "again");
+        assertEquals("again", near.get("a"));
+    }
+
+    private static void waitFor(AtomicInteger count, int expected) throws InterruptedException {
+        for (int i = 0; i < 500 && count.get() < expected; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // a key the stripes of the near cache keep apart from the given one
+    private static String otherStripe(String key) {
+        for (int i = 0; ; i++) {
+            String other = "other-" + i;
+            if (stripeOf(other) != stripeOf(key)) {
+                return other;
+            }
+        }
+    }
+
+    private static int stripeOf(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & 63;
+    }
+
+    /**
+     * Runs a task in the middle of every read, as a concurrent invalidation would, or in the
+     * middle of the reads of one key only.
+     */
+    private static class RacingCache extends JAVACacheWrapper<String, Object> {
+
+        private volatile Runnable during;
+
+        private final Map<String, Runnable> reads = new ConcurrentHashMap<String, Runnable>();
+
+        RacingCache(String path) {
+            super("near-test", path);
+            addCache("near-test", new CacheContext<String>());
+        }
+
+        @Override
+        public Object get(String key) {
+            Object value = super.get(key);
+            race();
+            Runnable task = reads.get(key);
+            if (task != null) {
+                task.run();
+            }
+            return value;
+        }
+
+        @Override
+        public Map<String, Object> getAll(Collection<String> keys) {
+            Map<String, Object> values = super.getAll(keys);
+            race();
+            return values;
+        }
+
+        private void race() {
+            Runnable task = during;
+            if (task != null) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.humbird.soa.core.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link OffHeapStore} on a few small direct slabs.
+ *
+ * Created by david on 15/4/17.
+ */
+public class OffHeapStoreTest {
+
+    private static final int SLAB = 1024;
+
+    private OffHeapStore<String> store;
+
+    private List<String> evicted;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new OffHeapStore<String>(4 * SLAB, SLAB, null);
+        evicted = Collections.synchronizedList(new ArrayList<String>());
+        store.setEvictionListener(new OffHeapStore.EvictionListener<String>() {
+            @Override
+            public void onEviction(String key) {
+                evicted.add(key);
+            }
+        });
+    }
+
+    @Test
+    public void testOverwriteFreesOldBytes() throws Exception {
+        assertTrue(store.put("b", value("b", 0), Long.MAX_VALUE));
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(store.put("a", value("a", i), Long.MAX_VALUE));
+        }
+        assertEquals(2, store.size());
+        assertEquals(value("a", 999), store.get("a"));
+        // never read, still there as the overwritten bytes were reclaimed first
+        assertEquals(value("b", 0), store.get("b"));
+        assertEquals(0L, store.getEvictionCount());
+        assertTrue(store.getLiveBytes() < SLAB);
+    }
+
+    @Test
+    public void testEvictsEntriesNotReadFirst() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            store.put("hot-" + i, value("hot", i), Long.MAX_VALUE);
+        }
+        for (int i = 0; i < 200; i++) {
+            store.put("cold-" + i, value("cold", i), Long.MAX_VALUE);
+            if (i % 5 == 0) {
+                for (int j = 0; j < 3; j++) {
+                    assertEquals(value("hot", j), store.get("hot-" + j));
+                }
+            }
+        }
+        for (int j = 0; j < 3; j++) {
+            assertEquals(value("hot", j), store.get("hot-" + j));
+        }
+        assertTrue(store.getEvictionCount() > 0);
+        assertEquals(store.getEvictionCount(), evicted.size());
+        for (String key : evicted) {
+            assertTrue(key.startsWith("cold-"));
+            assertNull(store.get(key));
+        }
+        assertEquals(value("cold", 199), store.get("cold-199"));
+        assertTrue(store.getLiveBytes() <= store.getCapacity() - SLAB);
+    }
+
+    @Test
+    public void testRemoveAndClear() throws Exception {
+        store.put("a", value("a", 0), Long.MAX_VALUE);
+        store.put("b", value("b", 0), Long.MAX_VALUE);
+        assertTrue(store.remove("a"));
+        assertFalse(store.remove("a"));
+        assertNull(store.get("a"));
+        store.clear();
+        assertNull(store.get("b"));
+        assertEquals(0, store.size());
+        assertEquals(0L, store.getLiveBytes());
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        store.put("a", value("a", 0), System.currentTimeMillis() - 1L);
+        store.put("b", value("b", 0), System.currentTimeMillis() + 60000L);
+        assertNull(store.get("a"));
+        assertEquals(value("b", 0), store.get("b"));
+        assertEquals(1, store.size());
+        assertTrue(store.getTimeToLive("b") > 50000L);
+    }
+
+    @Test
+    public void testTimeToIdleRestartsOnRead() throws Exception {
+        store.put("a", value("a", 0), Long.MAX_VALUE, 300L);
+        Thread.sleep(200L);
+        assertNotNull(store.get("a"));
+        Thread.sleep(200L);
+        store.touch("a");
+        Thread.sleep(200L);
+        assertNotNull(store.get("a"));
+        Thread.sleep(500L);
+        assertNull(store.get("a"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testReadsDuringCompactionNeverSeeAnotherValue() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger mismatches = new AtomicInteger();
+        final AtomicInteger reads = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.add(new Thread() {
+            @Override
+            public void run() {
+                int i = 0;
+                while (running.get()) {
+                    try {
+                        String key = "k" + (i % 40);
+                        store.put(key, value(key, i++), Long.MAX_VALUE);
+                    } catch (Exception e) {
+                        mismatches.incrementAndGet();
+                    }
+                }
+            }
+        });
+        for (int t = 0; t < 3; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    int i = 0;
+                    while (running.get()) {
+                        String key = "k" + (i++ % 40);
+                        try {
+                            String read = (String) store.get(key);
+                            if (read != null) {
+                                reads.incrementAndGet();
+                                if (!read.startsWith(key + ":")) {
+                                    mismatches.incrementAndGet();
+                                }
+                            }
+                        } catch (Exception e) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, mismatches.get());
+        assertTrue(reads.get() > 0);
+    }
+
+    @Test
+    public void testEvictionInvalidatesHotLevel() throws Exception {
+        OffHeapCacheWrapper<String, Object> cache = new OffHeapCacheWrapper<String, Object>("test", "/cache/offheap-test.properties");
+        cache.addCache("small", new OffHeapStore<String>(4 * SLAB, SLAB, null));
+        cache.switchCache("small");
+        for (int i = 0; i < 200; i++) {
+            cache.put("k" + i, value("k", i));
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+        for (int i = 0; i < 200; i++) {
+            String key = "k" + i;
+            assertEquals(cache.getStore().keySet().contains(key), cache.getHotCache().getMap().containsKey(key));
+        }
+        cache.delCache("test");
+    }
+
+    private static String value(String key, int i) {
+        StringBuilder value = new StringBuilder(key).append(':').append(i).append(':');
+        while (value.length() < 80) {
+            value.append('x');
+        }
+        return value.toString();
+    }
+}
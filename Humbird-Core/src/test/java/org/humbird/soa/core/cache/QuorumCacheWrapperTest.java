@@ -0,0 +1,128 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.cache.client.CacheClient;
+import org.humbird.soa.cache.server.CacheServer;
+import org.humbird.soa.cache.server.ServerCnxnFactory;
+import org.humbird.soa.cache.server.persistence.FileTxnSnapLog;
+import org.humbird.soa.core.HumbirdSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link QuorumCacheWrapper} against a standalone {@link CacheServer} on its client port.
+ *
+ * Created by david on 15/6/13.
+ */
+public class QuorumCacheWrapperTest {
+
+    private File dir;
+
+    private CacheServer server;
+
+    private ServerCnxnFactory cnxnFactory;
+
+    private ExecutorService executor;
+
+    private QuorumCacheWrapper<String, Object> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("humbird-quorum-cache", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        server = new CacheServer(new FileTxnSnapLog(dir, dir));
+        server.startup();
+        cnxnFactory = new ServerCnxnFactory(new InetSocketAddress("127.0.0.1", 0), 0, server);
+        cnxnFactory.start();
+        executor = Executors.newSingleThreadExecutor();
+        CacheClient client = new CacheClient("127.0.0.1:" + cnxnFactory.getLocalPort(), 2000);
+        cache = new QuorumCacheWrapper<String, Object>(client, new CodecTranscoder(new RecordValueCodec(), 64, CacheMetrics.QUORUM), executor);
+    }
+
+    @After
+    public void tearDown() {
+        cache.clearCache();
+        executor.shutdown();
+        cnxnFactory.shutdown();
+        server.shutdown();
+        delete(dir);
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        CacheContext<String> context = context("a", 1000);
+        cache.put("metadata#a", context);
+        CacheContext<String> read = (CacheContext<String>) cache.get("metadata#a");
+        assertArrayEquals((byte[]) context.getSession("a").getValue(), (byte[]) read.getSession("a").getValue());
+        assertEquals(1, cache.size());
+        assertTrue(cache.remove("metadata#a"));
+        assertFalse(cache.remove("metadata#a"));
+        assertNull(cache.get("metadata#a"));
+    }
+
+    @Test
+    public void testPutOnlyOne() throws Exception {
+        cache.putOnlyOne("one", "first");
+        cache.putOnlyOne("one", "second");
+        assertEquals("first", cache.get("one"));
+    }
+
+    @Test
+    public void testMultiKeyCallsAndScan() throws Exception {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (int i = 0; i < 20; i++) {
+            values.put("scan#" + i, context("v" + i, 16));
+            values.put("other#" + i, "v" + i);
+        }
+        cache.putAll(values);
+
+        Set<String> found = new HashSet<String>();
+        CacheCursor<String> cursor = cache.scan("scan#*", 7);
+        while (cursor.hasNext()) {
+            List<String> batch = cursor.next();
+            assertTrue(batch.size() <= 7);
+            found.addAll(batch);
+        }
+        assertEquals(20, found.size());
+
+        List<String> keys = new ArrayList<String>(values.keySet());
+        keys.add("missing");
+        Map<String, Object> read = cache.getAll(keys);
+        assertEquals(40, read.size());
+        assertFalse(read.containsKey("missing"));
+        cache.removeAll(keys);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        assertTrue(cache.putAsync("async", "value").get());
+        assertEquals("value", cache.getAsync("async").get());
+        assertTrue(cache.removeAsync("async").get());
+    }
+
+    private static CacheContext<String> context(String name, int size) {
+        CacheContext<String> context = new CacheContext<String>(0);
+        HumbirdSession session = context.newSession(name, new byte[size]);
+        context.putSession(name, session);
+        return context;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
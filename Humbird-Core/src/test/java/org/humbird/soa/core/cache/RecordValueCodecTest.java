@@ -0,0 +1,213 @@
+package org.humbird.soa.core.cache;
+
+import net.rubyeye.xmemcached.transcoders.CachedData;
+import org.humbird.soa.common.io.BinaryInputArchive;
+import org.humbird.soa.common.model.common.PropsModel;
+import org.humbird.soa.core.HumbirdSession;
+import org.humbird.soa.core.model.IndexModel;
+import org.humbird.soa.core.model.PropertyModel;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Every type tag of {@link RecordValueCodec} written and read back.
+ *
+ * Created by david on 15/4/22.
+ */
+public class RecordValueCodecTest {
+
+    private final RecordValueCodec codec = new RecordValueCodec();
+
+    @Test
+    public void testScalars() throws Exception {
+        assertNull(roundTrip(null));
+        assertEquals("humbird", roundTrip("humbird"));
+        assertEquals("", roundTrip(""));
+        assertEquals(Integer.MIN_VALUE, roundTrip(Integer.MIN_VALUE));
+        assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE));
+        assertEquals(Boolean.TRUE, roundTrip(Boolean.TRUE));
+        assertEquals(-1.5d, roundTrip(-1.5d));
+        assertArrayEquals(new byte[]{0, 1, -1}, (byte[]) roundTrip(new byte[]{0, 1, -1}));
+    }
+
+    @Test
+    public void testCollections() throws Exception {
+        Map<Object, Object> map = new HashMap<Object, Object>();
+        map.put("a", 1);
+        map.put(2, Arrays.asList("x", null, 3L));
+        map.put("nested", Collections.singletonMap("k", "v"));
+        Object read = roundTrip(map);
+        assertTrue(read instanceof HashMap);
+        assertEquals(map.get("a"), ((Map) read).get("a"));
+        assertEquals(map.get(2), ((Map) read).get(2));
+        assertEquals(map.get("nested"), ((Map) read).get("nested"));
+
+        Properties properties = new Properties();
+        properties.setProperty("org.humbird.soa.key", "value");
+        read = roundTrip(properties);
+        assertTrue(read instanceof Properties);
+        assertEquals(properties, read);
+
+        assertEquals(new ArrayList<Object>(), roundTrip(new ArrayList<Object>()));
+    }
+
+    @Test
+    public void testSerializedFallback() throws Exception {
+        Date date = new Date(1429660800000L);
+        assertEquals(date, roundTrip(date));
+    }
+
+    @Test
+    public void testSession() throws Exception {
+        HumbirdSession session = new HumbirdSession("key", Collections.singletonMap("k", "v"));
+        session.setTimeToLive(60);
+        HumbirdSession read = (HumbirdSession) roundTrip(session);
+        assertEquals("key", read.getKey());
+        assertEquals(session.getValue(), read.getValue());
+        assertEquals(60, read.getTimeToLive());
+        assertEquals(0, read.getTimeToIdle());
+        assertFalse(read.isCacheDefaultLifespan());
+        assertFalse(read.isExpired());
+        assertTrue(read.getCreationTime() >= session.getCreationTime());
+
+        HumbirdSession expiring = new HumbirdSession(30);
+        read = (HumbirdSession) roundTrip(expiring);
+        assertEquals(30, read.getEXPIRATION());
+        assertEquals(30, read.getTimeToLive());
+        assertTrue(read.isCacheDefaultLifespan());
+
+        read = (HumbirdSession) roundTrip(new HumbirdSession("eternal", "v"));
+        assertFalse(read.isLifespanSet());
+    }
+
+    @Test
+    public void testRecords() throws Exception {
+        CacheContext<String> context = new CacheContext<String>(0);
+        context.getMap().put("a", new HumbirdSession("1", "one"));
+        context.getMap().put("b", new HumbirdSession("2", 2));
+        CacheContext<String> readContext = (CacheContext<String>) roundTrip(context);
+        assertEquals(2, readContext.getMap().size());
+        assertEquals("one", readContext.getMap().get("a").getValue());
+        assertEquals(2, readContext.getMap().get("b").getValue());
+
+        PropsModel propsModel = new PropsModel();
+        propsModel.add("# comment");
+        propsModel.add("org.humbird.soa.key = value");
+        propsModel.add("");
+        assertProps(propsModel, (PropsModel) roundTrip(propsModel));
+
+        PropertyModel propertyModel = (PropertyModel) roundTrip(new PropertyModel("folder", "file.properties", "k", propsModel, 0));
+        assertEquals("folder", propertyModel.getFolder());
+        assertEquals("file.properties", propertyModel.getFile());
+        assertProps(propsModel, propertyModel.getPropsModel());
+
+        Properties properties = new Properties();
+        properties.setProperty("a", "1");
+        IndexModel indexModel = (IndexModel) roundTrip(new IndexModel("1.0", properties, new HashMap(properties)));
+        assertEquals("1.0", indexModel.getVersion());
+        assertEquals(properties, indexModel.getProperties());
+        assertEquals("1", indexModel.getValues().get("a"));
+
+        MetaDataEntry entry = (MetaDataEntry) roundTrip(new MetaDataEntry(7, "digest"));
+        assertEquals(7, entry.getVersion());
+        assertEquals("digest", entry.getDigest());
+    }
+
+    @Test
+    public void testSortedEncodingIgnoresFillOrder() throws Exception {
+        Map<Object, Object> forward = new LinkedHashMap<Object, Object>();
+        Map<Object, Object> backward = new LinkedHashMap<Object, Object>();
+        for (int i = 0; i < 20; i++) {
+            forward.put("key" + i, i);
+            backward.put("key" + (19 - i), 19 - i);
+        }
+        forward.put(1, "int key");
+        backward.put(1, "int key");
+        forward.put("1", "string key");
+        backward.put("1", "string key");
+        assertFalse(Arrays.equals(codec.encode(forward), codec.encode(backward)));
+        assertTrue(Arrays.equals(codec.encodeSorted(forward), codec.encodeSorted(backward)));
+        assertEquals(forward, codec.decode(codec.encodeSorted(forward)));
+
+        // maps inside records and other maps too
+        Map<String, Object> outerForward = Collections.<String, Object>singletonMap("index", new IndexModel("1.0", new Properties(), forward));
+        Map<String, Object> outerBackward = Collections.<String, Object>singletonMap("index", new IndexModel("1.0", new Properties(), backward));
+        assertTrue(Arrays.equals(codec.encodeSorted(outerForward), codec.encodeSorted(outerBackward)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testBufferAboveMaxBufferIsRefused() throws Exception {
+        codec.encode(new byte[BinaryInputArchive.maxBuffer + 1]);
+    }
+
+    @Test(expected = IOException.class)
+    public void testSerializedAboveMaxBufferIsRefused() throws Exception {
+        StringBuilder value = new StringBuilder(BinaryInputArchive.maxBuffer + 1);
+        value.setLength(BinaryInputArchive.maxBuffer + 1);
+        codec.encode(value);
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownTag() throws Exception {
+        codec.decode(new byte[]{15});
+    }
+
+    @Test
+    public void testRecordsOnlyRefusesNestedSerialized() throws Exception {
+        Map<String, Object> value = new HashMap<String, Object>();
+        value.put("k", Arrays.asList("v", new StringBuffer("serialized")));
+        byte[] bytes = codec.encode(value);
+        assertEquals("serialized", ((List) ((Map) codec.decode(bytes)).get("k")).get(1).toString());
+        try {
+            RecordValueCodec.readValue(RecordValueCodec.recordsOnly(new ByteArrayInputStream(bytes)), "value");
+            fail("java serialized value read");
+        } catch (IOException e) {
+            // expected
+        }
+        Map<String, Object> records = Collections.<String, Object>singletonMap("k", "v");
+        assertEquals(records, RecordValueCodec.readValue(RecordValueCodec.recordsOnly(new ByteArrayInputStream(codec.encode(records))), "value"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSessionTagIsReserved() {
+        RecordValueCodec.register((byte) 17, MetaDataEntry.class);
+    }
+
+    @Test
+    public void testTranscoderReadsEitherCodec() throws Exception {
+        Map<String, Object> value = Collections.<String, Object>singletonMap("k", "v");
+        CodecTranscoder java = new CodecTranscoder(new JavaValueCodec(), 1);
+        CodecTranscoder record = new CodecTranscoder(codec, 1);
+        CachedData written = java.encode(value);
+        assertEquals(0, written.getFlag() & RecordValueCodec.FLAG);
+        assertEquals(value, record.decode(written));
+
+        written = record.encode(value);
+        assertTrue((written.getFlag() & RecordValueCodec.FLAG) != 0);
+        assertEquals(value, java.decode(written));
+    }
+
+    // blank and comment lines are null props
+    private static void assertProps(PropsModel expected, PropsModel read) {
+        assertEquals(expected.getProps().size(), read.getProps().size());
+        assertEquals(expected.getComms().size(), read.getComms().size());
+        for (int i = 0; i < expected.getProps().size(); i++) {
+            PropsModel.Prop prop = expected.getProps().get(i);
+            if (prop == null) {
+                assertNull(read.getProps().get(i));
+            } else {
+                assertEquals(prop.getKey(), read.getProps().get(i).getKey());
+                assertEquals(prop.getVal(), read.getProps().get(i).getVal());
+            }
+        }
+    }
+
+    private Object roundTrip(Object value) throws IOException {
+        return codec.decode(codec.encode(value));
+    }
+}
@@ -0,0 +1,160 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.common.net.redis.EmbeddedRespServer;
+import org.humbird.soa.common.net.redis.RespClient;
+import org.humbird.soa.core.HumbirdSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link RedisCacheWrapper} against an {@link EmbeddedRespServer}.
+ *
+ * Created by david on 15/5/10.
+ */
+public class RedisCacheWrapperTest {
+
+    private EmbeddedRespServer server;
+
+    private ExecutorService executor;
+
+    private RedisCacheWrapper<String, Object> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EmbeddedRespServer(0);
+        server.start();
+        executor = Executors.newSingleThreadExecutor();
+        RespClient client = new RespClient("127.0.0.1", server.getPort(), 2, 2000, 2000, null, 0);
+        cache = new RedisCacheWrapper<String, Object>(client, new CodecTranscoder(new RecordValueCodec(), 64, CacheMetrics.REDIS), executor);
+    }
+
+    @After
+    public void tearDown() {
+        cache.getClient().close();
+        executor.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        CacheContext<String> context = context("a", 1000);
+        cache.put("metadata#a", context);
+        CacheContext<String> read = (CacheContext<String>) cache.get("metadata#a");
+        assertArrayEquals((byte[]) context.getSession("a").getValue(), (byte[]) read.getSession("a").getValue());
+        assertEquals(1, cache.size());
+        assertTrue(cache.remove("metadata#a"));
+        assertFalse(cache.remove("metadata#a"));
+        assertNull(cache.get("metadata#a"));
+    }
+
+    @Test
+    public void testBinarySafeValues() throws Exception {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        cache.put("binary", context("b", 0, bytes));
+        CacheContext<String> read = (CacheContext<String>) cache.get("binary");
+        assertArrayEquals(bytes, (byte[]) read.getSession("b").getValue());
+    }
+
+    @Test
+    public void testPutOnlyOne() throws Exception {
+        cache.putOnlyOne("one", "first");
+        cache.putOnlyOne("one", "second");
+        assertEquals("first", cache.get("one"));
+    }
+
+    @Test
+    public void testMultiKeyCallsTakeOneRoundTrip() throws Exception {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (int i = 0; i < 100; i++) {
+            values.put("key" + i, context("v" + i, 16));
+        }
+        cache.putAll(values);
+
+        long before = server.getCommandCount();
+        List<String> keys = new ArrayList<String>(values.keySet());
+        keys.add("missing");
+        Map<String, Object> read = cache.getAll(keys);
+        assertEquals(1, server.getCommandCount() - before);
+        assertEquals(100, read.size());
+        assertFalse(read.containsKey("missing"));
+
+        before = server.getCommandCount();
+        cache.removeAll(keys);
+        assertEquals(1, server.getCommandCount() - before);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (int i = 0; i < 50; i++) {
+            values.put("scan#" + i, "v" + i);
+            values.put("other#" + i, "v" + i);
+        }
+        cache.putAll(values);
+
+        Set<String> found = new HashSet<String>();
+        CacheCursor<String> cursor = cache.scan("scan#*", 7);
+        while (cursor.hasNext()) {
+            List<String> batch = cursor.next();
+            assertTrue(batch.size() <= 7);
+            found.addAll(batch);
+        }
+        assertEquals(50, found.size());
+        assertEquals(100, cache.getKeys().size());
+    }
+
+    @Test
+    public void testFailedScanIsThrown() throws Exception {
+        EmbeddedRespServer stopped = new EmbeddedRespServer(0);
+        stopped.start();
+        int port = stopped.getPort();
+        stopped.stop();
+        RespClient client = new RespClient("127.0.0.1", port, 1, 500, 500, null, 0);
+        RedisCacheWrapper<String, Object> unreachable = new RedisCacheWrapper<String, Object>(client,
+                new CodecTranscoder(new RecordValueCodec(), 64, CacheMetrics.REDIS), executor);
+        try {
+            unreachable.scan("scan#*", 7).hasNext();
+            fail("scan ended without the failure");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        try {
+            unreachable.getKeys();
+            fail("keys listed without the failure");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        assertTrue(cache.putAsync("async", "value").get());
+        assertEquals("value", cache.getAsync("async").get());
+        assertTrue(cache.removeAsync("async").get());
+    }
+
+    private static CacheContext<String> context(String name, int size) {
+        return context(name, 0, new byte[size]);
+    }
+
+    private static CacheContext<String> context(String name, int expiration, byte[] payload) {
+        CacheContext<String> context = new CacheContext<String>(expiration);
+        HumbirdSession session = context.newSession(name, payload);
+        context.putSession(name, session);
+        return context;
+    }
+}
@@ -0,0 +1,140 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.core.HumbirdSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link TimerWheel} driven with explicit clock times.
+ *
+ * Created by david on 15/4/13.
+ */
+public class TimerWheelTest {
+
+    private CacheContext<String> context;
+
+    private TimerWheel<String> wheel;
+
+    private long now;
+
+    @Before
+    public void setUp() {
+        context = new CacheContext<String>();
+        wheel = context.getTimerWheel();
+        now = System.currentTimeMillis();
+    }
+
+    @Test
+    public void testExpiresDueSessions() {
+        HumbirdSession shortLived = session(1);
+        HumbirdSession longLived = session(3600);
+        put("a", shortLived);
+        put("b", longLived);
+        assertEquals(0, wheel.maintain(now));
+        assertEquals(2, wheel.size());
+
+        assertEquals(1, wheel.maintain(now + 5000L));
+        assertNull(context.getMap().get("a"));
+        assertSame(longLived, context.getMap().get("b"));
+        assertEquals(1, wheel.size());
+
+        assertEquals(1, wheel.maintain(now + 2 * 3600 * 1000L));
+        assertTrue(context.getMap().isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testRescheduleReplacesTimer() {
+        put("a", session(1));
+        HumbirdSession replaced = session(3600);
+        put("a", replaced);
+        wheel.maintain(now);
+        assertEquals(1, wheel.size());
+
+        assertEquals(0, wheel.maintain(now + 5000L));
+        assertSame(replaced, context.getMap().get("a"));
+    }
+
+    @Test
+    public void testTimerOfReplacedSessionQueuedLastIsIgnored() {
+        HumbirdSession loser = session(1);
+        HumbirdSession winner = session(60);
+        // the loser put first but queued its timer after the winner
+        context.getMap().put("a", loser);
+        context.getMap().put("a", winner);
+        wheel.schedule("a", winner);
+        wheel.schedule("a", loser);
+        wheel.maintain(now);
+        assertEquals(1, wheel.size());
+
+        assertEquals(0, wheel.maintain(now + 5000L));
+        assertSame(winner, context.getMap().get("a"));
+
+        assertEquals(1, wheel.maintain(now + 120 * 1000L));
+        assertNull(context.getMap().get("a"));
+    }
+
+    @Test
+    public void testDescheduleOnlyRemovesOwnTimer() {
+        HumbirdSession old = session(1);
+        HumbirdSession current = session(1);
+        put("a", old);
+        put("a", current);
+        wheel.deschedule("a", old);
+        wheel.maintain(now);
+        assertEquals(1, wheel.size());
+
+        wheel.deschedule("a", current);
+        wheel.maintain(now);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testIdleSessionReadIsRescheduled() throws Exception {
+        HumbirdSession idle = new HumbirdSession("a", "v");
+        idle.setTimeToIdle(2);
+        put("a", idle);
+        wheel.maintain(now);
+
+        Thread.sleep(1500L);
+        idle.updateAccessStatistics();
+        long read = System.currentTimeMillis();
+        assertEquals(0, wheel.maintain(read + 1000L));
+        assertSame(idle, context.getMap().get("a"));
+
+        assertEquals(1, wheel.maintain(read + 5000L));
+        assertNull(context.getMap().get("a"));
+    }
+
+    @Test
+    public void testDeserializedSessionIsNotExpired() throws Exception {
+        HumbirdSession session = session(60);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(session);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        HumbirdSession read = (HumbirdSession) in.readObject();
+
+        assertFalse(read.isExpired());
+        assertTrue(read.getCreationTime() >= session.getCreationTime());
+    }
+
+    private void put(String key, HumbirdSession session) {
+        context.getMap().put(key, session);
+        wheel.schedule(key, session);
+    }
+
+    private static HumbirdSession session(int timeToLive) {
+        HumbirdSession session = new HumbirdSession("k", "v");
+        session.setTimeToLive(timeToLive);
+        return session;
+    }
+}
@@ -0,0 +1,91 @@
+package org.humbird.soa.core.cache;
+
+import org.humbird.soa.core.HumbirdSession;
+import org.humbird.soa.core.util.KeyUtil;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Size bound of a {@link CacheContext}, maintained on the calling thread.
+ *
+ * Created by david on 15/4/14.
+ */
+public class TinyLfuPolicyTest {
+
+    @Test
+    public void testScanKeepsFrequentKey() {
+        CacheContext<String> context = scanned(KeyUtil.POLICY_TINYLFU);
+        assertNotNull(context.getSession("hot"));
+        assertEquals(100, context.getMap().size());
+        TinyLfuPolicy policy = (TinyLfuPolicy) context.getEvictionPolicy();
+        assertTrue(policy.getRejectedCount() > 0);
+    }
+
+    @Test
+    public void testScanFlushesLru() {
+        CacheContext<String> context = scanned(KeyUtil.POLICY_LRU);
+        assertNull(context.getSession("hot"));
+        assertEquals(100, context.getMap().size());
+    }
+
+    @Test
+    public void testHitRatio() {
+        CacheContext<String> context = scanned(KeyUtil.POLICY_TINYLFU);
+        context.resetStatistics();
+        assertEquals(1.0d, context.getHitRatio(), 0d);
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(context.getSession("hot"));
+        }
+        assertNull(context.getSession("missing"));
+        assertEquals(3L, context.getHitCount());
+        assertEquals(1L, context.getMissCount());
+        assertEquals(0.75d, context.getHitRatio(), 0d);
+    }
+
+    @Test
+    public void testEvictsTheSessionItSaw() {
+        CacheContext<String> context = new CacheContext<String>();
+        context.setEvictionPolicy(KeyUtil.POLICY_LRU, 1, 1);
+        context.putSession("a", context.newSession("a", "1"));
+        // a write the policy has not replayed yet
+        HumbirdSession racing = context.newSession("a", "2");
+        context.getMap().put("a", racing);
+        context.putSession("b", context.newSession("b", "3"));
+        assertSame(racing, context.getMap().get("a"));
+        assertEquals(1L, context.getEvictionCount());
+    }
+
+    @Test
+    public void testOverwriteIsEvictedWithItsValue() {
+        // a window of one key and a main area of one
+        TinyLfuPolicy<String, String> policy = new TinyLfuPolicy<String, String>(2, 50);
+        policy.recordWrite("a", "1");
+        policy.recordWrite("b", "2");
+        policy.recordWrite("a", "3");
+        for (int i = 0; i < 3; i++) {
+            policy.recordRead("b");
+        }
+        // b leaves the window more often used than a and takes its place
+        policy.recordWrite("c", "4");
+        Map<String, String> victims = policy.maintain();
+        assertEquals(1, victims.size());
+        assertEquals("3", victims.get("a"));
+    }
+
+    // a key read often, then a scan of five times the bound over keys read once
+    private static CacheContext<String> scanned(String policyName) {
+        CacheContext<String> context = new CacheContext<String>();
+        context.setEvictionPolicy(policyName, 100, 1);
+        context.putSession("hot", context.newSession("hot", "v"));
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(context.getSession("hot"));
+        }
+        for (int i = 0; i < 500; i++) {
+            context.putSession("cold-" + i, context.newSession("cold-" + i, "v"));
+        }
+        return context;
+    }
+}
@@ -0,0 +1,36 @@
+package org.humbird.soa.core.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by david on 15/5/12.
+ */
+public class CacheUtilTest {
+
+    @Test
+    public void testParsesWeightsInServerOrder() {
+        assertArrayEquals(new int[]{1, 2, 3}, CacheUtil.parseWeights(" 1, 2 3 ", 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooFewWeights() {
+        CacheUtil.parseWeights("1,2", 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyWeights() {
+        CacheUtil.parseWeights("1,2,3", 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWeightBelowOne() {
+        CacheUtil.parseWeights("1,0", 2);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testWeightNotANumber() {
+        CacheUtil.parseWeights("1,heavy", 2);
+    }
+}
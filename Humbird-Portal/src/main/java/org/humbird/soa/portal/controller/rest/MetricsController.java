@@ -0,0 +1,89 @@
+package org.humbird.soa.portal.controller.rest;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.humbird.soa.core.cache.CacheMetrics;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Cache metrics as json, every named cache under /metrics and one of them under
+ * /metrics/{name}. The same values are in jmx under org.humbird.soa:type=CacheMetrics, the
+ * portal has no admin check, so resetting them is left to jmx.
+ *
+ * Created by david on 15/5/2.
+ */
+@Controller
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    private final static JsonFactory JSON = new JsonFactory();
+
+    @RequestMapping(method = RequestMethod.GET)
+    public ModelAndView all(HttpServletResponse response) throws IOException {
+        List<Object> snapshots = new ArrayList<Object>();
+        for (CacheMetrics metrics : CacheMetrics.all()) {
+            snapshots.add(metrics.snapshot());
+        }
+        write(response, snapshots);
+        return null;
+    }
+
+    @RequestMapping(value = "/{name}", method = RequestMethod.GET)
+    public ModelAndView get(@PathVariable String name, HttpServletResponse response) throws IOException {
+        CacheMetrics metrics = CacheMetrics.get(name);
+        if (metrics == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "no metrics for cache " + name);
+            return null;
+        }
+        write(response, metrics.snapshot());
+        return null;
+    }
+
+    private static void write(HttpServletResponse response, Object value) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        JsonGenerator generator = JSON.createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+        try {
+            writeValue(generator, value);
+        } finally {
+            generator.close();
+        }
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof Map) {
+            generator.writeStartObject();
+            Iterator<Map.Entry> iterator = ((Map) value).entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry entry = iterator.next();
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object element : (Collection) value) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof Double || value instanceof Float) {
+            generator.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else {
+            generator.writeString(String.valueOf(value));
+        }
+    }
+}